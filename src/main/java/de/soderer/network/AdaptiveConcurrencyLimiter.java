@@ -0,0 +1,251 @@
+package de.soderer.network;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.soderer.network.metrics.MetricsRegistry;
+
+/**
+ * Limits the requests in flight per host (and port) to a limit, which adapts to the observed latencies and errors.<br />
+ * AIMD: The limit grows by 1 for each successful request while at least half of the limit is used and is reduced by the backoff ratio on each drop.<br />
+ * Gradient: The limit follows the ratio of the minimum latency to the current latency, so the limit decreases as soon as requests are queued at the backend.<br />
+ * A drop is an exception, a http code 429 or 503 or a latency above the optional latency threshold.
+ * Requests exceeding the limit wait in a queue of limited size for a free slot or are rejected by an Exception.<br />
+ * The current limits and requests in flight are provided as gauges "http_client_concurrency_limit" and "http_client_concurrency_in_flight" by host,
+ * rejected requests as counter "http_client_concurrency_rejected_total".<br />
+ *<br />
+ * Usage example:
+ *
+ * <pre>
+ * HttpUtilities.setConcurrencyLimiter(new AdaptiveConcurrencyLimiter(AdaptiveConcurrencyLimiter.Algorithm.Gradient).setQueue(100, 1000));
+ * </pre>
+ */
+public class AdaptiveConcurrencyLimiter {
+	public enum Algorithm {
+		AIMD,
+		Gradient
+	}
+
+	/**
+	 * Limit of one host
+	 */
+	private class HostLimit {
+		private final String host;
+		private double limit = initialLimit;
+		private int inFlight = 0;
+		private int queued = 0;
+		private double minimumLatencyMillis = 0;
+		private long samplesCount = 0;
+
+		private HostLimit(final String host) {
+			this.host = host;
+		}
+
+		private synchronized void acquire() throws Exception {
+			if (inFlight < (int) limit) {
+				inFlight++;
+				return;
+			}
+
+			if (queued >= maximumQueueSize) {
+				throw createRejectedException();
+			}
+			queued++;
+			try {
+				final long deadlineNanos = System.nanoTime() + maximumQueueTimeMillis * 1_000_000L;
+				while (inFlight >= (int) limit) {
+					final long remainingMillis = (deadlineNanos - System.nanoTime()) / 1_000_000L;
+					if (remainingMillis <= 0) {
+						throw createRejectedException();
+					}
+					wait(remainingMillis);
+				}
+				inFlight++;
+			} finally {
+				queued--;
+			}
+		}
+
+		private synchronized void release(final double latencyMillis, final boolean dropped) {
+			final boolean limitUsed = inFlight * 2 >= limit;
+			inFlight--;
+			double newLimit;
+			if (algorithm == Algorithm.AIMD) {
+				if (dropped) {
+					newLimit = limit * backoffRatio;
+				} else if (limitUsed) {
+					newLimit = limit + 1;
+				} else {
+					newLimit = limit;
+				}
+			} else {
+				// The minimum latency is probed again regularly, because the latency without load of the backend may change
+				if (samplesCount++ % 1000 == 0 || latencyMillis < minimumLatencyMillis) {
+					minimumLatencyMillis = latencyMillis;
+				}
+				if (dropped) {
+					newLimit = limit * backoffRatio;
+				} else {
+					final double gradient = Math.max(0.5, Math.min(1.0, 1.5 * minimumLatencyMillis / Math.max(latencyMillis, 0.001)));
+					newLimit = limit * gradient + (limitUsed ? Math.sqrt(limit) : 0);
+					if (newLimit > limit && !limitUsed) {
+						newLimit = limit;
+					}
+					newLimit = limit * 0.8 + newLimit * 0.2;
+				}
+			}
+			limit = Math.max(minimumLimit, Math.min(maximumLimit, newLimit));
+			notifyAll();
+		}
+
+		private synchronized long getLimit() {
+			return (long) limit;
+		}
+
+		private synchronized long getInFlight() {
+			return inFlight;
+		}
+
+		private Exception createRejectedException() {
+			final MetricsRegistry currentMetricsRegistry = metricsRegistry;
+			if (currentMetricsRegistry != null) {
+				currentMetricsRegistry.incrementCounter("http_client_concurrency_rejected_total", "host", host);
+			}
+			return new Exception("Concurrency limit " + (int) limit + " of host '" + host + "' reached");
+		}
+	}
+
+	private final Algorithm algorithm;
+	private int initialLimit = 20;
+	private int minimumLimit = 1;
+	private int maximumLimit = 200;
+	private double backoffRatio = 0.9;
+	private long latencyThresholdMillis = 0;
+	private int maximumQueueSize = 0;
+	private long maximumQueueTimeMillis = 0;
+	private volatile MetricsRegistry metricsRegistry = null;
+
+	private final Map<String, HostLimit> hostLimits = new ConcurrentHashMap<>();
+
+	public AdaptiveConcurrencyLimiter(final Algorithm algorithm) {
+		this.algorithm = algorithm == null ? Algorithm.Gradient : algorithm;
+	}
+
+	/**
+	 * Initial, minimum and maximum limit of requests in flight per host (defaults 20, 1 and 200)
+	 */
+	public AdaptiveConcurrencyLimiter setLimits(final int initialLimit, final int minimumLimit, final int maximumLimit) {
+		this.initialLimit = initialLimit;
+		this.minimumLimit = minimumLimit;
+		this.maximumLimit = maximumLimit;
+
+		return this;
+	}
+
+	/**
+	 * Factor to reduce the limit by on each drop (default 0.9)
+	 */
+	public AdaptiveConcurrencyLimiter setBackoffRatio(final double backoffRatio) {
+		this.backoffRatio = backoffRatio;
+
+		return this;
+	}
+
+	/**
+	 * Latency, above which a request counts as drop (default 0 = no threshold)
+	 */
+	public AdaptiveConcurrencyLimiter setLatencyThresholdMillis(final long latencyThresholdMillis) {
+		this.latencyThresholdMillis = latencyThresholdMillis;
+
+		return this;
+	}
+
+	/**
+	 * Maximum number of requests waiting for a free slot per host and maximum waiting time (default 0 = reject requests exceeding the limit immediately)
+	 */
+	public AdaptiveConcurrencyLimiter setQueue(final int maximumQueueSize, final long maximumQueueTimeMillis) {
+		this.maximumQueueSize = maximumQueueSize;
+		this.maximumQueueTimeMillis = maximumQueueTimeMillis;
+
+		return this;
+	}
+
+	/**
+	 * Registry to provide the current limits as gauges (null = no metrics)
+	 */
+	public AdaptiveConcurrencyLimiter setMetricsRegistry(final MetricsRegistry metricsRegistry) {
+		final MetricsRegistry previousMetricsRegistry = this.metricsRegistry;
+		this.metricsRegistry = metricsRegistry;
+		for (final HostLimit hostLimit : hostLimits.values()) {
+			if (previousMetricsRegistry != null) {
+				unregisterGauges(previousMetricsRegistry, hostLimit);
+			}
+			if (metricsRegistry != null) {
+				registerGauges(metricsRegistry, hostLimit);
+			}
+		}
+
+		return this;
+	}
+
+	public Algorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * Current limit of a host (and port) like "example.com:443" or -1, if the host was not requested yet
+	 */
+	public long getLimit(final String host) {
+		final HostLimit hostLimit = hostLimits.get(host);
+		return hostLimit == null ? -1 : hostLimit.getLimit();
+	}
+
+	public long getInFlight(final String host) {
+		final HostLimit hostLimit = hostLimits.get(host);
+		return hostLimit == null ? 0 : hostLimit.getInFlight();
+	}
+
+	/**
+	 * Execute a request within the limit of its host.<br />
+	 * Redirections are followed by the engine layer within the permit of the original request.
+	 */
+	HttpResponse execute(final HttpRequest httpRequest, final Callable<HttpResponse> executor) throws Exception {
+		final HostLimit hostLimit = hostLimits.computeIfAbsent(getHostKey(httpRequest.getUrlWithProtocol()), host -> {
+			final HostLimit newHostLimit = new HostLimit(host);
+			final MetricsRegistry currentMetricsRegistry = metricsRegistry;
+			if (currentMetricsRegistry != null) {
+				registerGauges(currentMetricsRegistry, newHostLimit);
+			}
+			return newHostLimit;
+		});
+		hostLimit.acquire();
+		final long startNanos = System.nanoTime();
+		boolean dropped = true;
+		try {
+			final HttpResponse httpResponse = executor.call();
+			dropped = httpResponse.getHttpCode() == 429 || httpResponse.getHttpCode() == 503;
+			return httpResponse;
+		} finally {
+			final double latencyMillis = (System.nanoTime() - startNanos) / 1_000_000d;
+			hostLimit.release(latencyMillis, dropped || (latencyThresholdMillis > 0 && latencyMillis > latencyThresholdMillis));
+		}
+	}
+
+	static String getHostKey(final String url) {
+		final URI uri = URI.create(url);
+		final int port = uri.getPort() >= 0 ? uri.getPort() : ("https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80);
+		return (uri.getHost() == null ? "unknown" : uri.getHost().toLowerCase()) + ":" + port;
+	}
+
+	private static void registerGauges(final MetricsRegistry registry, final HostLimit hostLimit) {
+		registry.registerGauge("http_client_concurrency_limit", hostLimit::getLimit, "host", hostLimit.host);
+		registry.registerGauge("http_client_concurrency_in_flight", hostLimit::getInFlight, "host", hostLimit.host);
+	}
+
+	private static void unregisterGauges(final MetricsRegistry registry, final HostLimit hostLimit) {
+		registry.unregisterGauge("http_client_concurrency_limit", "host", hostLimit.host);
+		registry.unregisterGauge("http_client_concurrency_in_flight", "host", hostLimit.host);
+	}
+}
@@ -0,0 +1,416 @@
+package de.soderer.network;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import de.soderer.network.utilities.AtomicFileWriter;
+
+/**
+ * Long running monitor of the TLS server certificates of many endpoints ("host:port" or "host" for port 443).<br />
+ * The last seen certificate of each endpoint is kept in a state file, so a restarted monitor continues where it stopped.
+ * Each endpoint is rescanned after the scan interval with a random jitter, so the scans of many endpoints spread over time,
+ * and each run only scans the endpoints that are due.<br />
+ * Events are emitted for new and changed certificates, for certificates about to expire (once per certificate) and for endpoints becoming unreachable.<br />
+ *<br />
+ * Usage example:
+ *
+ * <pre>
+ * CertificateExpiryMonitor monitor = new CertificateExpiryMonitor(new File("certificate-monitor.state"), event -> System.out.println(event));
+ * monitor.addEndpoints(targets);
+ * monitor.start(60 * 1000);
+ * </pre>
+ */
+public class CertificateExpiryMonitor implements AutoCloseable {
+	private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+	public enum CertificateEventType {
+		/** First certificate seen for an endpoint */
+		New,
+		/** Certificate of an endpoint differs from the last seen certificate */
+		Changed,
+		/** Certificate of an endpoint expires within the expiry warning period or is already expired */
+		Expiring,
+		/** Endpoint cannot be scanned anymore */
+		Error
+	}
+
+	/**
+	 * Receives the events of a CertificateExpiryMonitor. Events are never delivered concurrently.
+	 */
+	public interface CertificateEventListener {
+		void certificateEvent(CertificateEvent event) throws Exception;
+	}
+
+	public static class CertificateEvent {
+		private final CertificateEventType type;
+		private final String target;
+		private final String previousFingerprint;
+		private final TlsScanResult scanResult;
+
+		private CertificateEvent(final CertificateEventType type, final String target, final String previousFingerprint, final TlsScanResult scanResult) {
+			this.type = type;
+			this.target = target;
+			this.previousFingerprint = previousFingerprint;
+			this.scanResult = scanResult;
+		}
+
+		public CertificateEventType getType() {
+			return type;
+		}
+
+		public String getTarget() {
+			return target;
+		}
+
+		/**
+		 * SHA-256 fingerprint of the previously seen certificate or null
+		 */
+		public String getPreviousFingerprint() {
+			return previousFingerprint;
+		}
+
+		public TlsScanResult getScanResult() {
+			return scanResult;
+		}
+
+		@Override
+		public String toString() {
+			return type + " " + target + ": " + scanResult.toReportLine();
+		}
+	}
+
+	/**
+	 * Persisted state of one endpoint
+	 */
+	private static class EndpointState {
+		private final String target;
+		private String fingerprint = null;
+		private String subject = null;
+		private long notAfterMillis = -1;
+		private long lastScanMillis = 0;
+		private long nextScanMillis = 0;
+		private boolean expiryNotified = false;
+		private String lastError = null;
+
+		private EndpointState(final String target) {
+			this.target = target;
+		}
+	}
+
+	private final File stateFile;
+	private final CertificateEventListener listener;
+	private final Map<String, EndpointState> endpoints = new ConcurrentHashMap<>();
+	private final TlsCertificateScanner scanner = new TlsCertificateScanner();
+
+	private long scanIntervalMillis = DAY_MILLIS;
+	private long retryIntervalMillis = 60 * 60 * 1000;
+	private double jitterRatio = 0.1;
+	private long expiryWarningMillis = 30 * DAY_MILLIS;
+	private ScheduledExecutorService scheduler = null;
+	private volatile Exception lastScanError = null;
+
+	public CertificateExpiryMonitor(final File stateFile, final CertificateEventListener listener) throws Exception {
+		this.stateFile = stateFile;
+		this.listener = listener;
+		readState();
+	}
+
+	/**
+	 * Interval between scans of an endpoint (default 1 day) and after failed scans (default 1 hour)
+	 */
+	public CertificateExpiryMonitor setScanInterval(final long scanIntervalMillis, final long retryIntervalMillis) {
+		this.scanIntervalMillis = scanIntervalMillis;
+		this.retryIntervalMillis = retryIntervalMillis;
+
+		return this;
+	}
+
+	/**
+	 * Random deviation of the scan interval as ratio of the interval (default 0.1)
+	 */
+	public CertificateExpiryMonitor setJitterRatio(final double jitterRatio) {
+		this.jitterRatio = jitterRatio;
+
+		return this;
+	}
+
+	/**
+	 * Period before the end of validity of a certificate in which an Expiring event is emitted (default 30 days)
+	 */
+	public CertificateExpiryMonitor setExpiryWarningMillis(final long expiryWarningMillis) {
+		this.expiryWarningMillis = expiryWarningMillis;
+
+		return this;
+	}
+
+	/**
+	 * Maximum number of handshakes at the same time (default 64)
+	 */
+	public CertificateExpiryMonitor setParallelism(final int parallelism) {
+		scanner.setParallelism(parallelism);
+
+		return this;
+	}
+
+	public CertificateExpiryMonitor setTimeouts(final int connectTimeoutMillis, final int handshakeTimeoutMillis) {
+		scanner.setTimeouts(connectTimeoutMillis, handshakeTimeoutMillis);
+
+		return this;
+	}
+
+	/**
+	 * Add an endpoint, which is due for a scan immediately, if it is not known yet
+	 */
+	public CertificateExpiryMonitor addEndpoint(final String target) {
+		endpoints.computeIfAbsent(target.trim(), EndpointState::new);
+
+		return this;
+	}
+
+	public CertificateExpiryMonitor addEndpoints(final Iterable<String> targets) {
+		for (final String target : targets) {
+			addEndpoint(target);
+		}
+
+		return this;
+	}
+
+	public CertificateExpiryMonitor removeEndpoint(final String target) {
+		endpoints.remove(target.trim());
+
+		return this;
+	}
+
+	public int getEndpointsCount() {
+		return endpoints.size();
+	}
+
+	/**
+	 * Number of endpoints due for a scan
+	 */
+	public int getDueEndpointsCount() {
+		return getDueTargets(System.currentTimeMillis()).size();
+	}
+
+	/**
+	 * SHA-256 fingerprint of the last seen certificate of an endpoint or null
+	 */
+	public String getFingerprint(final String target) {
+		final EndpointState endpointState = endpoints.get(target.trim());
+		return endpointState == null ? null : endpointState.fingerprint;
+	}
+
+	/**
+	 * Error of the last failed background scan, like a state file, which could not be written, or null
+	 */
+	public Exception getLastScanError() {
+		return lastScanError;
+	}
+
+	/**
+	 * Time of the next scan of an endpoint in milliseconds since epoch or -1 for unknown endpoints
+	 */
+	public long getNextScanMillis(final String target) {
+		final EndpointState endpointState = endpoints.get(target.trim());
+		return endpointState == null ? -1 : endpointState.nextScanMillis;
+	}
+
+	/**
+	 * Scan all due endpoints in the background every checkIntervalMillis
+	 */
+	public synchronized CertificateExpiryMonitor start(final long checkIntervalMillis) {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				final Thread thread = new Thread(runnable, "CertificateExpiryMonitor");
+				thread.setDaemon(true);
+				return thread;
+			});
+			scheduler.scheduleWithFixedDelay(() -> {
+				try {
+					scanDueEndpoints();
+					lastScanError = null;
+				} catch (final Exception e) {
+					lastScanError = e;
+				}
+			}, 0, checkIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Scan all endpoints, which are due, emit their events and save the state
+	 *
+	 * @return number of scanned endpoints
+	 */
+	public synchronized int scanDueEndpoints() throws Exception {
+		final List<String> dueTargets = getDueTargets(System.currentTimeMillis());
+		if (!dueTargets.isEmpty()) {
+			try {
+				scanner.scan(dueTargets, this::processScanResult);
+			} finally {
+				writeState();
+			}
+		}
+		return dueTargets.size();
+	}
+
+	/**
+	 * Stop the background scans and save the state
+	 */
+	@Override
+	public void close() throws IOException {
+		final ScheduledExecutorService currentScheduler;
+		synchronized (this) {
+			currentScheduler = scheduler;
+			scheduler = null;
+		}
+		// Shut down without holding the lock of a running scan, which is interrupted
+		if (currentScheduler != null) {
+			currentScheduler.shutdownNow();
+		}
+
+		synchronized (this) {
+			try {
+				writeState();
+			} catch (final IOException e) {
+				throw e;
+			} catch (final Exception e) {
+				throw new IOException("Cannot write state file '" + stateFile.getAbsolutePath() + "': " + e.getMessage(), e);
+			}
+		}
+	}
+
+	private List<String> getDueTargets(final long nowMillis) {
+		final List<String> dueTargets = new ArrayList<>();
+		for (final EndpointState endpointState : endpoints.values()) {
+			if (endpointState.nextScanMillis <= nowMillis) {
+				dueTargets.add(endpointState.target);
+			}
+		}
+		return dueTargets;
+	}
+
+	private void processScanResult(final TlsScanResult scanResult) throws Exception {
+		final EndpointState endpointState = endpoints.get(scanResult.getTarget());
+		if (endpointState == null) {
+			// Endpoint was removed meanwhile
+			return;
+		}
+
+		final long nowMillis = System.currentTimeMillis();
+		endpointState.lastScanMillis = nowMillis;
+		if (!scanResult.isSuccessful()) {
+			endpointState.nextScanMillis = nowMillis + getJitteredInterval(retryIntervalMillis);
+			final boolean wasReachable = endpointState.lastError == null;
+			endpointState.lastError = scanResult.getError().getClass().getSimpleName() + ": " + scanResult.getError().getMessage();
+			if (wasReachable) {
+				listener.certificateEvent(new CertificateEvent(CertificateEventType.Error, endpointState.target, endpointState.fingerprint, scanResult));
+			}
+			return;
+		}
+
+		endpointState.nextScanMillis = nowMillis + getJitteredInterval(scanIntervalMillis);
+		endpointState.lastError = null;
+		final X509Certificate serverCertificate = scanResult.getServerCertificate();
+		final String fingerprint = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(serverCertificate.getEncoded()));
+		final String previousFingerprint = endpointState.fingerprint;
+		if (!fingerprint.equals(previousFingerprint)) {
+			endpointState.fingerprint = fingerprint;
+			endpointState.subject = serverCertificate.getSubjectX500Principal().getName();
+			endpointState.notAfterMillis = scanResult.getExpiryMillis();
+			endpointState.expiryNotified = false;
+			listener.certificateEvent(new CertificateEvent(previousFingerprint == null ? CertificateEventType.New : CertificateEventType.Changed, endpointState.target, previousFingerprint, scanResult));
+		}
+
+		if (!endpointState.expiryNotified && endpointState.notAfterMillis - nowMillis <= expiryWarningMillis) {
+			endpointState.expiryNotified = true;
+			listener.certificateEvent(new CertificateEvent(CertificateEventType.Expiring, endpointState.target, previousFingerprint, scanResult));
+		}
+	}
+
+	private long getJitteredInterval(final long intervalMillis) {
+		final long jitterMillis = (long) (intervalMillis * jitterRatio);
+		if (jitterMillis <= 0) {
+			return intervalMillis;
+		} else {
+			return intervalMillis - jitterMillis + ThreadLocalRandom.current().nextLong(2 * jitterMillis + 1);
+		}
+	}
+
+	/**
+	 * Read the state of a previous run. Each line contains the tab separated values: target, fingerprint, subject, notAfter, last scan, next scan, expiry notified, last error
+	 */
+	private void readState() throws Exception {
+		if (stateFile == null || !stateFile.exists()) {
+			return;
+		}
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(stateFile), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isBlank() || line.startsWith("#")) {
+					continue;
+				}
+				final String[] values = line.split("\t", -1);
+				if (values.length < 8) {
+					throw new Exception("Invalid line in certificate monitor state file '" + stateFile.getAbsolutePath() + "': " + line);
+				}
+				final EndpointState endpointState = new EndpointState(values[0]);
+				endpointState.fingerprint = values[1].isEmpty() ? null : values[1];
+				endpointState.subject = values[2].isEmpty() ? null : values[2];
+				endpointState.notAfterMillis = Long.parseLong(values[3]);
+				endpointState.lastScanMillis = Long.parseLong(values[4]);
+				endpointState.nextScanMillis = Long.parseLong(values[5]);
+				endpointState.expiryNotified = Boolean.parseBoolean(values[6]);
+				endpointState.lastError = values[7].isEmpty() ? null : values[7];
+				endpoints.put(endpointState.target, endpointState);
+			}
+		}
+	}
+
+	private void writeState() throws Exception {
+		if (stateFile == null) {
+			return;
+		}
+
+		AtomicFileWriter.write(stateFile, outputStream -> {
+			// The writer is not closed, so the output stream stays open to be synced
+			final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+			writer.write("# target\tfingerprint\tsubject\tnotAfter\tlastScan\tnextScan\texpiryNotified\tlastError\n");
+			for (final EndpointState endpointState : endpoints.values()) {
+				writer.write(endpointState.target
+						+ "\t" + (endpointState.fingerprint == null ? "" : endpointState.fingerprint)
+						+ "\t" + toStateValue(endpointState.subject)
+						+ "\t" + endpointState.notAfterMillis
+						+ "\t" + endpointState.lastScanMillis
+						+ "\t" + endpointState.nextScanMillis
+						+ "\t" + endpointState.expiryNotified
+						+ "\t" + toStateValue(endpointState.lastError)
+						+ "\n");
+			}
+			writer.flush();
+		});
+	}
+
+	private static String toStateValue(final String value) {
+		return value == null ? "" : value.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+	}
+}
@@ -0,0 +1,77 @@
+package de.soderer.network;
+
+/**
+ * Result of the connection warm-up of one origin by SocketHttpClientEngine.warmUp
+ */
+public class ConnectionWarmUpResult {
+	private final String origin;
+	private final int requestedConnectionsCount;
+	private final int openedConnectionsCount;
+	private final long dnsMillis;
+	private final long firstConnectionMillis;
+	private final long durationMillis;
+	private final Exception error;
+
+	ConnectionWarmUpResult(final String origin, final int requestedConnectionsCount, final int openedConnectionsCount, final long dnsMillis, final long firstConnectionMillis, final long durationMillis, final Exception error) {
+		this.origin = origin;
+		this.requestedConnectionsCount = requestedConnectionsCount;
+		this.openedConnectionsCount = openedConnectionsCount;
+		this.dnsMillis = dnsMillis;
+		this.firstConnectionMillis = firstConnectionMillis;
+		this.durationMillis = durationMillis;
+		this.error = error;
+	}
+
+	public String getOrigin() {
+		return origin;
+	}
+
+	public int getRequestedConnectionsCount() {
+		return requestedConnectionsCount;
+	}
+
+	/**
+	 * Number of new connections parked in the pool
+	 */
+	public int getOpenedConnectionsCount() {
+		return openedConnectionsCount;
+	}
+
+	/**
+	 * Duration of the DNS lookup
+	 */
+	public long getDnsMillis() {
+		return dnsMillis;
+	}
+
+	/**
+	 * Duration of the TCP connect and full TLS handshake of the first connection or -1, if no connection was opened
+	 */
+	public long getFirstConnectionMillis() {
+		return firstConnectionMillis;
+	}
+
+	/**
+	 * Duration of the whole warm-up of this origin
+	 */
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	/**
+	 * Error of the warm-up or null
+	 */
+	public Exception getError() {
+		return error;
+	}
+
+	public boolean isSuccessful() {
+		return error == null;
+	}
+
+	@Override
+	public String toString() {
+		return origin + ": " + openedConnectionsCount + "/" + requestedConnectionsCount + " connections in " + durationMillis + " ms (DNS " + dnsMillis + " ms, first connection " + firstConnectionMillis + " ms)"
+				+ (error == null ? "" : ", error: " + error.getMessage());
+	}
+}
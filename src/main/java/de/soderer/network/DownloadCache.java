@@ -0,0 +1,605 @@
+package de.soderer.network;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.TrustManager;
+
+import de.soderer.network.utilities.DataTransfer;
+
+/**
+ * Local content addressed cache for downloads into files (HttpRequest.setDownloadFile(...)) of GET requests.<br />
+ * Downloaded files are stored by their SHA-256 digest, so equal content of different URLs is stored only once.
+ * Known URLs are revalidated by their ETag or Last-Modified date and requests with an expected SHA-256 download digest
+ * are answered without any network access, if the content is already cached and still has this digest.<br />
+ * URLs are known per request context of credentials (Authorization, Proxy-Authorization, cookies), proxy, TrustManager, hostname verification and client key configuration,
+ * so revalidation and coalescing never share downloads of different users or TLS identities.<br />
+ * Cached content is copied to the download file. Optionally it is hard linked (or copied, if linking is not possible) and the content files are read-only then,
+ * so the shared content cannot be modified by the download files.
+ * Concurrent downloads of the same URL and request context are executed only once and the least recently used content is evicted, when the maximum size is exceeded.<br />
+ *<br />
+ * Usage example:
+ *
+ * <pre>
+ * HttpUtilities.setDownloadCache(new DownloadCache(new File("/var/cache/downloads"), 10L * 1024 * 1024 * 1024));
+ * HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, "https://example.com/artifact.zip").setDownloadFile(targetFile));
+ * </pre>
+ */
+public class DownloadCache {
+	private static final String SHA256_ALGORITHM = "SHA-256";
+
+	/**
+	 * Cached content file
+	 */
+	private static class ContentEntry {
+		private final String sha256;
+		private final long size;
+		private int pinCount = 0;
+
+		private ContentEntry(final String sha256, final long size) {
+			this.sha256 = sha256;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Last known content of an URL
+	 */
+	private static class UrlEntry {
+		/**
+		 * URL and digest of the request context
+		 */
+		private final String requestKey;
+		private final String sha256;
+		private final String eTag;
+		private final String lastModified;
+		private final String contentType;
+
+		private UrlEntry(final String requestKey, final String sha256, final String eTag, final String lastModified, final String contentType) {
+			this.requestKey = requestKey;
+			this.sha256 = sha256;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+			this.contentType = contentType;
+		}
+	}
+
+	private final File contentDirectory;
+	private final File indexDirectory;
+	private final File tempDirectory;
+	private final long maximumSizeBytes;
+	private boolean useHardLinks = false;
+
+	/**
+	 * Content entries by SHA-256 in access order for LRU eviction
+	 */
+	private final LinkedHashMap<String, ContentEntry> contentEntries = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, UrlEntry> urlEntries = new HashMap<>();
+	private long currentSizeBytes = 0;
+
+	private final ConcurrentHashMap<String, CompletableFuture<UrlEntry>> runningDownloads = new ConcurrentHashMap<>();
+
+	private final AtomicLong hitsCount = new AtomicLong(0);
+	private final AtomicLong missesCount = new AtomicLong(0);
+	private final AtomicLong coalescedDownloadsCount = new AtomicLong(0);
+	private final AtomicLong evictionsCount = new AtomicLong(0);
+
+	/**
+	 * @param cacheDirectory directory for the cached content, which is reused after restart
+	 * @param maximumSizeBytes maximum size of all cached content files
+	 */
+	public DownloadCache(final File cacheDirectory, final long maximumSizeBytes) throws Exception {
+		if (maximumSizeBytes <= 0) {
+			throw new IllegalArgumentException("Invalid maximum cache size: " + maximumSizeBytes);
+		}
+		this.maximumSizeBytes = maximumSizeBytes;
+		contentDirectory = new File(cacheDirectory, "content");
+		indexDirectory = new File(cacheDirectory, "index");
+		tempDirectory = new File(cacheDirectory, "temp");
+		for (final File directory : new File[] { contentDirectory, indexDirectory, tempDirectory }) {
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new Exception("Cannot create download cache directory '" + directory.getAbsolutePath() + "'");
+			}
+		}
+		loadCacheDirectory();
+	}
+
+	/**
+	 * Link cached content to the download files (default false) instead of copying it.<br />
+	 * Linked content files are read-only, so download files cannot be modified in place.
+	 */
+	public DownloadCache setUseHardLinks(final boolean useHardLinks) {
+		this.useHardLinks = useHardLinks;
+
+		return this;
+	}
+
+	public long getHitsCount() {
+		return hitsCount.get();
+	}
+
+	public long getMissesCount() {
+		return missesCount.get();
+	}
+
+	/**
+	 * Number of downloads, which waited for a concurrent download of the same URL and request context instead of downloading it again
+	 */
+	public long getCoalescedDownloadsCount() {
+		return coalescedDownloadsCount.get();
+	}
+
+	public long getEvictionsCount() {
+		return evictionsCount.get();
+	}
+
+	public synchronized long getCurrentSizeBytes() {
+		return currentSizeBytes;
+	}
+
+	public synchronized int getContentFilesCount() {
+		return contentEntries.size();
+	}
+
+	/**
+	 * Execute a download into the requests download file by the cache
+	 *
+	 * @param proxy proxy of the request
+	 * @param proxyUsername user of the proxy authentication
+	 * @param trustManager TrustManager of the request (null = systems default truststore)
+	 * @param deactivateHostnameVerification hostname verification setting of the request
+	 * @param executor executes the (modified) request without the cache
+	 */
+	HttpResponse download(final HttpRequest httpRequest, final Proxy proxy, final String proxyUsername, final TrustManager trustManager, final boolean deactivateHostnameVerification, final Callable<HttpResponse> executor) throws Exception {
+		final File downloadFile = httpRequest.getDownloadFile();
+		final String requestKey = createRequestKey(httpRequest, proxy, proxyUsername, trustManager, deactivateHostnameVerification);
+
+		final String expectedSha256 = getExpectedSha256(httpRequest);
+		if (expectedSha256 != null && linkContent(expectedSha256, downloadFile)) {
+			if (expectedSha256.equals(calculateSha256(downloadFile))) {
+				hitsCount.incrementAndGet();
+				final UrlEntry urlEntry = getUrlEntry(requestKey);
+				return createCachedResponse(httpRequest, null, urlEntry != null && expectedSha256.equals(urlEntry.sha256) ? urlEntry.contentType : null, expectedSha256);
+			} else {
+				// The cached content was modified or corrupted, so it is removed and downloaded again
+				Files.deleteIfExists(downloadFile.toPath());
+				removeContent(expectedSha256);
+			}
+		}
+
+		final CompletableFuture<UrlEntry> download = new CompletableFuture<>();
+		final CompletableFuture<UrlEntry> runningDownload = runningDownloads.putIfAbsent(requestKey, download);
+		if (runningDownload != null) {
+			coalescedDownloadsCount.incrementAndGet();
+			final UrlEntry urlEntry;
+			try {
+				urlEntry = runningDownload.get();
+			} catch (final ExecutionException e) {
+				if (e.getCause() instanceof Exception) {
+					throw (Exception) e.getCause();
+				} else {
+					throw e;
+				}
+			}
+			if (urlEntry != null && linkContent(urlEntry.sha256, downloadFile)) {
+				return createCachedResponse(httpRequest, null, urlEntry.contentType, urlEntry.sha256);
+			} else {
+				// The concurrent download was not cacheable or its content was already evicted
+				return executor.call();
+			}
+		}
+
+		try {
+			final UrlEntry knownUrlEntry = getUrlEntry(requestKey);
+			final boolean sha256Requested = containsKeyIgnoreCase(httpRequest.getDownloadDigests(), SHA256_ALGORITHM);
+			final File tempFile = File.createTempFile("download", ".tmp", tempDirectory);
+			try {
+				HttpResponse httpResponse = executeForCache(httpRequest, executor, knownUrlEntry, tempFile);
+				if (httpResponse.getHttpCode() == 304 && knownUrlEntry != null) {
+					if (linkContent(knownUrlEntry.sha256, downloadFile)) {
+						hitsCount.incrementAndGet();
+						download.complete(knownUrlEntry);
+						return createCachedResponse(httpRequest, httpResponse, knownUrlEntry.contentType, knownUrlEntry.sha256);
+					} else {
+						// The content was evicted after the revalidation, so it is downloaded again without conditional headers
+						httpResponse = executeForCache(httpRequest, executor, null, tempFile);
+					}
+				}
+
+				if (httpResponse.getHttpCode() >= 200 && httpResponse.getHttpCode() <= 299 && tempFile.exists()) {
+					missesCount.incrementAndGet();
+					final String sha256 = getDigestValue(httpResponse.getDownloadDigests(), SHA256_ALGORITHM);
+					if (!sha256Requested) {
+						// The SHA-256 digest was only added as content address
+						httpResponse.getDownloadDigests().remove(SHA256_ALGORITHM);
+						if (httpResponse.getDownloadDigests().isEmpty()) {
+							httpResponse.setDownloadDigests(null);
+						}
+					}
+					final UrlEntry urlEntry = new UrlEntry(requestKey, sha256, httpResponse.getHeaders().get("ETag"), httpResponse.getHeaders().get("Last-Modified"), httpResponse.getContentType());
+					storeContent(urlEntry, tempFile);
+					download.complete(urlEntry);
+					if (linkContent(sha256, downloadFile)) {
+						return httpResponse;
+					} else {
+						throw new Exception("Cannot provide downloaded file '" + downloadFile.getAbsolutePath() + "' from download cache");
+					}
+				} else {
+					download.complete(null);
+					return httpResponse;
+				}
+			} finally {
+				if (tempFile.exists()) {
+					tempFile.delete();
+				}
+			}
+		} catch (final Exception e) {
+			download.completeExceptionally(e);
+			throw e;
+		} finally {
+			runningDownloads.remove(requestKey, download);
+		}
+	}
+
+	/**
+	 * Execute the request into the temporary file with conditional headers for the known content and a SHA-256 digest
+	 */
+	private static HttpResponse executeForCache(final HttpRequest httpRequest, final Callable<HttpResponse> executor, final UrlEntry knownUrlEntry, final File tempFile) throws Exception {
+		final File downloadFile = httpRequest.getDownloadFile();
+		final List<String> addedHeaderNames = new ArrayList<>();
+		if (knownUrlEntry != null && knownUrlEntry.eTag != null && !containsKeyIgnoreCase(httpRequest.getHeaders(), "If-None-Match")) {
+			httpRequest.getHeaders().put("If-None-Match", knownUrlEntry.eTag);
+			addedHeaderNames.add("If-None-Match");
+		} else if (knownUrlEntry != null && knownUrlEntry.lastModified != null && !containsKeyIgnoreCase(httpRequest.getHeaders(), "If-Modified-Since")) {
+			httpRequest.getHeaders().put("If-Modified-Since", knownUrlEntry.lastModified);
+			addedHeaderNames.add("If-Modified-Since");
+		}
+		final boolean sha256Added = !containsKeyIgnoreCase(httpRequest.getDownloadDigests(), SHA256_ALGORITHM);
+		if (sha256Added) {
+			httpRequest.addDownloadDigest(SHA256_ALGORITHM);
+		}
+
+		httpRequest.setDownloadFile(tempFile);
+		try {
+			return executor.call();
+		} finally {
+			httpRequest.setDownloadFile(downloadFile);
+			if (sha256Added) {
+				httpRequest.getDownloadDigests().remove(SHA256_ALGORITHM);
+			}
+			for (final String headerName : addedHeaderNames) {
+				httpRequest.getHeaders().remove(headerName);
+			}
+		}
+	}
+
+	private HttpResponse createCachedResponse(final HttpRequest httpRequest, final HttpResponse revalidationResponse, final String contentType, final String sha256) throws Exception {
+		Map<String, String> downloadDigests = null;
+		if (!httpRequest.getDownloadDigests().isEmpty()) {
+			if (httpRequest.getDownloadDigests().size() == 1 && containsKeyIgnoreCase(httpRequest.getDownloadDigests(), SHA256_ALGORITHM)) {
+				final String algorithm = httpRequest.getDownloadDigests().keySet().iterator().next();
+				final String expectedValue = httpRequest.getDownloadDigests().get(algorithm);
+				if (expectedValue != null && !expectedValue.trim().equalsIgnoreCase(sha256)) {
+					httpRequest.getDownloadFile().delete();
+					throw new Exception("Download digest " + algorithm + " mismatch: expected '" + expectedValue.trim() + "', but was '" + sha256 + "'");
+				}
+				downloadDigests = new LinkedHashMap<>();
+				downloadDigests.put(algorithm, sha256);
+			} else {
+				// Other digests than the content address have to be computed from the cached content
+				final DownloadDigests digests = new DownloadDigests(httpRequest.getDownloadDigests());
+				try (InputStream inputStream = new FileInputStream(httpRequest.getDownloadFile())) {
+					final DataTransfer dataTransfer = new DataTransfer(inputStream, OutputStream.nullOutputStream());
+					digests.addTo(dataTransfer);
+					dataTransfer.transfer();
+				}
+				try {
+					downloadDigests = digests.verify();
+				} catch (final Exception e) {
+					httpRequest.getDownloadFile().delete();
+					throw e;
+				}
+			}
+		}
+
+		final Map<String, String> headers = revalidationResponse == null ? new HashMap<>() : revalidationResponse.getHeaders();
+		final Map<String, String> cookies = revalidationResponse == null ? new HashMap<>() : revalidationResponse.getCookies();
+		final String ipAddress = revalidationResponse == null ? null : revalidationResponse.getIpAddress();
+		return new HttpResponse(ipAddress, 200, "OK", "File downloaded", contentType, headers, cookies).setDownloadDigests(downloadDigests);
+	}
+
+	private synchronized UrlEntry getUrlEntry(final String requestKey) {
+		final UrlEntry urlEntry = urlEntries.get(requestKey);
+		if (urlEntry != null && contentEntries.containsKey(urlEntry.sha256)) {
+			return urlEntry;
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Provide the cached content as download file
+	 *
+	 * @return false, if the content is not cached
+	 */
+	private boolean linkContent(final String sha256, final File downloadFile) throws IOException {
+		final ContentEntry contentEntry;
+		synchronized (this) {
+			contentEntry = contentEntries.get(sha256);
+			if (contentEntry == null) {
+				return false;
+			}
+			// Pinned content is not evicted while it is linked or copied
+			contentEntry.pinCount++;
+		}
+		try {
+			final File contentFile = new File(contentDirectory, sha256);
+			Files.deleteIfExists(downloadFile.toPath());
+			if (useHardLinks) {
+				try {
+					// Linked content must not be modified by its download files
+					contentFile.setReadOnly();
+					Files.createLink(downloadFile.toPath(), contentFile.toPath());
+					return true;
+				} catch (@SuppressWarnings("unused") final IOException | UnsupportedOperationException e) {
+					// Different file systems or no link support, so the content is copied
+				}
+			}
+			Files.copy(contentFile.toPath(), downloadFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			// The copy may have the permissions of a read-only content file
+			downloadFile.setWritable(true);
+			return true;
+		} finally {
+			synchronized (this) {
+				contentEntry.pinCount--;
+			}
+		}
+	}
+
+	private void storeContent(final UrlEntry urlEntry, final File tempFile) throws Exception {
+		final File contentFile = new File(contentDirectory, urlEntry.sha256);
+		final long size = tempFile.length();
+		synchronized (this) {
+			if (contentEntries.containsKey(urlEntry.sha256)) {
+				// Same content was already downloaded by another URL or before
+				tempFile.delete();
+			} else {
+				Files.move(tempFile.toPath(), contentFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				contentEntries.put(urlEntry.sha256, new ContentEntry(urlEntry.sha256, size));
+				currentSizeBytes += size;
+			}
+			urlEntries.put(urlEntry.requestKey, urlEntry);
+			writeUrlEntry(urlEntry);
+			evictContent(urlEntry.sha256);
+		}
+	}
+
+	/**
+	 * Remove the least recently used content until the maximum size is kept
+	 */
+	private synchronized void evictContent(final String keptSha256) {
+		final Iterator<ContentEntry> contentIterator = contentEntries.values().iterator();
+		while (currentSizeBytes > maximumSizeBytes && contentIterator.hasNext()) {
+			final ContentEntry contentEntry = contentIterator.next();
+			if (contentEntry.pinCount == 0 && !contentEntry.sha256.equals(keptSha256)) {
+				contentIterator.remove();
+				currentSizeBytes -= contentEntry.size;
+				deleteContentFile(contentEntry.sha256);
+				evictionsCount.incrementAndGet();
+			}
+		}
+		removeUrlEntriesWithoutContent();
+	}
+
+	/**
+	 * Remove modified or corrupted content
+	 */
+	private synchronized void removeContent(final String sha256) {
+		final ContentEntry contentEntry = contentEntries.get(sha256);
+		if (contentEntry != null && contentEntry.pinCount == 0) {
+			contentEntries.remove(sha256);
+			currentSizeBytes -= contentEntry.size;
+			deleteContentFile(sha256);
+			removeUrlEntriesWithoutContent();
+		}
+	}
+
+	private void deleteContentFile(final String sha256) {
+		final File contentFile = new File(contentDirectory, sha256);
+		// Read-only files cannot be deleted on some systems
+		contentFile.setWritable(true);
+		contentFile.delete();
+	}
+
+	private synchronized void removeUrlEntriesWithoutContent() {
+		final Iterator<UrlEntry> urlIterator = urlEntries.values().iterator();
+		while (urlIterator.hasNext()) {
+			final UrlEntry urlEntry = urlIterator.next();
+			if (!contentEntries.containsKey(urlEntry.sha256)) {
+				urlIterator.remove();
+				getIndexFile(urlEntry.requestKey).delete();
+			}
+		}
+	}
+
+	private void writeUrlEntry(final UrlEntry urlEntry) throws IOException {
+		final Properties properties = new Properties();
+		properties.setProperty("key", urlEntry.requestKey);
+		properties.setProperty("sha256", urlEntry.sha256);
+		if (urlEntry.eTag != null) {
+			properties.setProperty("eTag", urlEntry.eTag);
+		}
+		if (urlEntry.lastModified != null) {
+			properties.setProperty("lastModified", urlEntry.lastModified);
+		}
+		if (urlEntry.contentType != null) {
+			properties.setProperty("contentType", urlEntry.contentType);
+		}
+		try (OutputStream outputStream = new FileOutputStream(getIndexFile(urlEntry.requestKey))) {
+			properties.store(outputStream, null);
+		}
+	}
+
+	private File getIndexFile(final String requestKey) {
+		try {
+			return new File(indexDirectory, HexFormat.of().formatHex(MessageDigest.getInstance(SHA256_ALGORITHM).digest(requestKey.getBytes(StandardCharsets.UTF_8))) + ".properties");
+		} catch (final Exception e) {
+			throw new IllegalStateException("Missing SHA-256 algorithm", e);
+		}
+	}
+
+	/**
+	 * Read the cached content and URL index of a previous run. The least recently modified content is evicted first.
+	 */
+	private synchronized void loadCacheDirectory() throws IOException {
+		final File[] tempFiles = tempDirectory.listFiles();
+		if (tempFiles != null) {
+			for (final File tempFile : tempFiles) {
+				tempFile.delete();
+			}
+		}
+
+		final File[] contentFiles = contentDirectory.listFiles();
+		if (contentFiles != null) {
+			Arrays.sort(contentFiles, Comparator.comparingLong(File::lastModified));
+			for (final File contentFile : contentFiles) {
+				contentEntries.put(contentFile.getName(), new ContentEntry(contentFile.getName(), contentFile.length()));
+				currentSizeBytes += contentFile.length();
+			}
+		}
+
+		final File[] indexFiles = indexDirectory.listFiles();
+		if (indexFiles != null) {
+			for (final File indexFile : indexFiles) {
+				final Properties properties = new Properties();
+				try (InputStream inputStream = new FileInputStream(indexFile)) {
+					properties.load(inputStream);
+				}
+				// Index files of previous versions only have the URL without request context
+				final String requestKey = properties.getProperty("key", properties.getProperty("url"));
+				final String sha256 = properties.getProperty("sha256");
+				if (requestKey != null && sha256 != null && contentEntries.containsKey(sha256)) {
+					urlEntries.put(requestKey, new UrlEntry(requestKey, sha256, properties.getProperty("eTag"), properties.getProperty("lastModified"), properties.getProperty("contentType")));
+				} else {
+					indexFile.delete();
+				}
+			}
+		}
+
+		evictContent(null);
+	}
+
+	/**
+	 * Requested URL with a SHA-256 digest of the request context, so the credentials are not stored in the index files.<br />
+	 * Requests without credentials by the systems default TLS settings are keyed by their URL only.
+	 * TrustManagers are keyed by their identity, the cached TrustManagers of TrustManagerRegistry are the same instance for the same configuration.
+	 */
+	private static String createRequestKey(final HttpRequest httpRequest, final Proxy proxy, final String proxyUsername, final TrustManager trustManager, final boolean deactivateHostnameVerification) throws Exception {
+		final String url = HttpUtilities.createRequestedUrl(httpRequest);
+		final StringBuilder requestContext = new StringBuilder();
+		for (final String headerName : new String[] { "Authorization", "Proxy-Authorization", "Cookie" }) {
+			final String headerValue = getValueIgnoreCase(httpRequest.getHeaders(), headerName);
+			if (headerValue != null) {
+				requestContext.append(headerName.toLowerCase()).append(": ").append(headerValue).append('\n');
+			}
+		}
+		if (!httpRequest.getCookieData().isEmpty()) {
+			requestContext.append("cookies: ").append(HttpUtilities.createCookieHeaderValue(httpRequest.getCookieData())).append('\n');
+		}
+		if (proxy != null && proxy.type() != Proxy.Type.DIRECT) {
+			requestContext.append("proxy: ").append(proxy).append(' ').append(proxyUsername).append('\n');
+		}
+		if (trustManager != null) {
+			requestContext.append("trustmanager: ").append(System.identityHashCode(trustManager)).append('\n');
+		}
+		if (deactivateHostnameVerification) {
+			requestContext.append("hostnameverification: false\n");
+		}
+		if (httpRequest.getClientKeyConfiguration() != null) {
+			for (final File keyFile : httpRequest.getClientKeyConfiguration().getFiles()) {
+				requestContext.append("clientkey: ").append(keyFile.getCanonicalPath()).append('\n');
+			}
+		}
+
+		if (requestContext.length() == 0) {
+			return url;
+		} else {
+			return url + "\n" + HexFormat.of().formatHex(MessageDigest.getInstance(SHA256_ALGORITHM).digest(requestContext.toString().getBytes(StandardCharsets.UTF_8)));
+		}
+	}
+
+	private static String calculateSha256(final File file) throws Exception {
+		final MessageDigest messageDigest = MessageDigest.getInstance(SHA256_ALGORITHM);
+		try (InputStream inputStream = new FileInputStream(file)) {
+			final byte[] buffer = new byte[64 * 1024];
+			int readBytes;
+			while ((readBytes = inputStream.read(buffer)) >= 0) {
+				messageDigest.update(buffer, 0, readBytes);
+			}
+		}
+		return HexFormat.of().formatHex(messageDigest.digest());
+	}
+
+	private static String getExpectedSha256(final HttpRequest httpRequest) {
+		for (final Entry<String, String> entry : httpRequest.getDownloadDigests().entrySet()) {
+			if (SHA256_ALGORITHM.equalsIgnoreCase(entry.getKey()) && NetworkUtilities.isNotBlank(entry.getValue())) {
+				return entry.getValue().trim().toLowerCase();
+			}
+		}
+		return null;
+	}
+
+	private static String getDigestValue(final Map<String, String> digests, final String algorithm) throws Exception {
+		if (digests != null) {
+			for (final Entry<String, String> entry : digests.entrySet()) {
+				if (algorithm.equalsIgnoreCase(entry.getKey())) {
+					return entry.getValue();
+				}
+			}
+		}
+		throw new Exception("Missing " + algorithm + " digest of downloaded content");
+	}
+
+	private static String getValueIgnoreCase(final Map<String, String> map, final String key) {
+		for (final Entry<String, String> entry : map.entrySet()) {
+			if (entry.getKey().equalsIgnoreCase(key)) {
+				return entry.getValue();
+			}
+		}
+		return null;
+	}
+
+	private static boolean containsKeyIgnoreCase(final Map<String, String> map, final String key) {
+		for (final String existingKey : map.keySet()) {
+			if (existingKey.equalsIgnoreCase(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
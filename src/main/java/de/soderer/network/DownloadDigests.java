@@ -0,0 +1,74 @@
+package de.soderer.network;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+import de.soderer.network.utilities.DataTransfer;
+
+/**
+ * Digests of downloaded data requested by HttpRequest.addDownloadDigest(...), computed while the data is copied
+ */
+class DownloadDigests {
+	static final String CRC32C_ALGORITHM = "CRC32C";
+	static final String CRC32_ALGORITHM = "CRC32";
+
+	private final Map<String, String> expectedValues;
+	private final Map<String, MessageDigest> messageDigests = new LinkedHashMap<>();
+	private final Map<String, Checksum> checksums = new LinkedHashMap<>();
+
+	DownloadDigests(final Map<String, String> expectedValues) throws Exception {
+		this.expectedValues = expectedValues;
+		for (final String algorithm : expectedValues.keySet()) {
+			if (CRC32C_ALGORITHM.equalsIgnoreCase(algorithm)) {
+				checksums.put(algorithm, new CRC32C());
+			} else if (CRC32_ALGORITHM.equalsIgnoreCase(algorithm)) {
+				checksums.put(algorithm, new CRC32());
+			} else {
+				try {
+					messageDigests.put(algorithm, MessageDigest.getInstance(algorithm));
+				} catch (final NoSuchAlgorithmException e) {
+					throw new Exception("Unknown download digest algorithm '" + algorithm + "'", e);
+				}
+			}
+		}
+	}
+
+	void addTo(final DataTransfer dataTransfer) {
+		for (final MessageDigest messageDigest : messageDigests.values()) {
+			dataTransfer.addMessageDigest(messageDigest);
+		}
+		for (final Checksum checksum : checksums.values()) {
+			dataTransfer.addChecksum(checksum);
+		}
+	}
+
+	/**
+	 * Check the computed digests against the expected values
+	 *
+	 * @return computed digests as lowercase hex values by algorithm
+	 */
+	Map<String, String> verify() throws Exception {
+		final Map<String, String> digestValues = new LinkedHashMap<>();
+		for (final Entry<String, MessageDigest> entry : messageDigests.entrySet()) {
+			digestValues.put(entry.getKey(), HexFormat.of().formatHex(entry.getValue().digest()));
+		}
+		for (final Entry<String, Checksum> entry : checksums.entrySet()) {
+			digestValues.put(entry.getKey(), HexFormat.of().toHexDigits((int) entry.getValue().getValue()));
+		}
+
+		for (final Entry<String, String> entry : digestValues.entrySet()) {
+			final String expectedValue = expectedValues.get(entry.getKey());
+			if (expectedValue != null && !expectedValue.trim().equalsIgnoreCase(entry.getValue())) {
+				throw new Exception("Download digest " + entry.getKey() + " mismatch: expected '" + expectedValue.trim() + "', but was '" + entry.getValue() + "'");
+			}
+		}
+		return digestValues;
+	}
+}
@@ -0,0 +1,14 @@
+package de.soderer.network;
+
+import javax.net.ssl.TrustManager;
+
+/**
+ * Alternative implementation for executing HttpRequests on direct connections.<br />
+ * Set by HttpUtilities.setHttpClientEngine(...), requests via a proxy are still executed by HttpURLConnection.
+ */
+public interface HttpClientEngine {
+	/**
+	 * @param trustManager null = systems default KeyStore to check TLS server certificates
+	 */
+	HttpResponse executeHttpRequest(HttpRequest httpRequest, TrustManager trustManager, boolean deactivateHostnameVerification) throws Exception;
+}
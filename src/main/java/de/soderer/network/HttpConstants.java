@@ -5,6 +5,11 @@ public class HttpConstants {
 	public static final String HTTPHEADERNAME_CONTENTTYPE = "Content-Type";
 	public static final String HTTPHEADERNAME_DISPOSITION  = "Content-Disposition";
 	public static final String HTTPHEADERNAME_ACCEPT = "Accept";
+	public static final String HTTPHEADERNAME_ACCEPT_ENCODING = "Accept-Encoding";
+	public static final String HTTPHEADERNAME_CONTENT_ENCODING = "Content-Encoding";
+	public static final String HTTPHEADERNAME_VARY = "Vary";
+
+	public static final String CONTENT_ENCODING_GZIP = "gzip";
 
 	public static final String HTTPHEADERNAME_AUTHORIZATION = "Authorization";
 	public static final String HTTPHEADERNAME_PROXY_AUTHORIZATION = "Proxy-Authorization";
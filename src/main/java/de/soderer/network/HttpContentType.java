@@ -2,51 +2,53 @@ package de.soderer.network;
 
 public enum HttpContentType {
 	/** application/x-www-form-urlencoded */
-	HtmlForm("application/x-www-form-urlencoded"),
+	HtmlForm("application/x-www-form-urlencoded", true),
 
 	/** multipart/form-data */
-	MultipartForm("multipart/form-data"),
+	MultipartForm("multipart/form-data", false),
 
 	/** application/json */
-	Json("application/json"),
+	Json("application/json", true),
 
 	/** application/xml */
-	Xml("application/xml"),
+	Xml("application/xml", true),
 
 	/** application/yaml */
-	Yaml("application/yaml"),
+	Yaml("application/yaml", true),
 
 	/** application/zip */
-	Zip("application/zip"),
+	Zip("application/zip", false),
 
 	/** application/octet-stream */
-	Binary("application/octet-stream"),
+	Binary("application/octet-stream", false),
 
 	/** text/html */
-	Html("text/html"),
+	Html("text/html", true),
 
 	/** text/plain */
-	Text("text/plain"),
+	Text("text/plain", true),
 
 	/**
 	 * text/json<br />
 	 * Used to tell browsers to display data rather then download it to a file*/
-	TextJson("text/json"),
+	TextJson("text/json", true),
 
 	/**
 	 * text/yaml<br />
 	 * Used to tell browsers to display data rather then download it to a file*/
-	TextYaml("text/yaml"),
+	TextYaml("text/yaml", true),
 
 	/**
 	 * text/xml<br />
 	 * Used to tell browsers to display data rather then download it to a file*/
-	TextXml("text/xml");
+	TextXml("text/xml", true);
 
 	private final String stringRepresentation;
+	private final boolean compressible;
 
-	HttpContentType(final String stringRepresentation) {
+	HttpContentType(final String stringRepresentation, final boolean compressible) {
 		this.stringRepresentation = stringRepresentation;
+		this.compressible = compressible;
 	}
 
 	public static HttpContentType getHttpContentTypeByName(final String httpContentTypeString) throws Exception {
@@ -63,6 +65,39 @@ public enum HttpContentType {
 		return stringRepresentation;
 	}
 
+	/**
+	 * Text based content types, which benefit from compression like gzip
+	 */
+	public boolean isCompressible() {
+		return compressible;
+	}
+
+	/**
+	 * Check a content type header value, like "text/html; charset=UTF-8", for compressible content
+	 */
+	public static boolean isCompressibleContentType(final String contentTypeString) {
+		if (contentTypeString == null) {
+			return false;
+		} else {
+			String mimeType = contentTypeString.toLowerCase().trim();
+			if (mimeType.contains(";")) {
+				mimeType = mimeType.substring(0, mimeType.indexOf(";")).trim();
+			}
+
+			if (mimeType.startsWith("text/") || mimeType.endsWith("+json") || mimeType.endsWith("+xml")
+					|| "application/javascript".equals(mimeType) || "image/svg+xml".equals(mimeType)) {
+				return true;
+			} else {
+				for (final HttpContentType httpContentType : HttpContentType.values()) {
+					if (httpContentType.stringRepresentation.equals(mimeType)) {
+						return httpContentType.compressible;
+					}
+				}
+				return false;
+			}
+		}
+	}
+
 	@Override
 	public String toString() {
 		return stringRepresentation;
@@ -19,4 +19,11 @@ public enum HttpMethod {
 		}
 		throw new Exception("Unknown HttpMethod name: '" + httpMethodName + "'");
 	}
+
+	/**
+	 * Requests with idempotent methods may be sent again after a connection failure
+	 */
+	public boolean isIdempotent() {
+		return this != POST && this != PATCH && this != CONNECT;
+	}
 }
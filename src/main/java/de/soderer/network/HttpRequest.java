@@ -1,12 +1,14 @@
 package de.soderer.network;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -14,6 +16,10 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+
+import de.soderer.network.utilities.BandwidthLimiter;
+import de.soderer.network.utilities.TransferProgressListener;
 
 public class HttpRequest {
 	private final HttpMethod requestMethod;
@@ -41,6 +47,21 @@ public class HttpRequest {
 	 */
 	private volatile HttpURLConnection httpURLConnection = null;
 
+	/**
+	 * Temporary accessible connection of a HttpClientEngine for interrupting the connection on long timeouts
+	 */
+	private volatile Closeable engineConnection = null;
+
+	private volatile boolean cancelled = false;
+	private TransferProgressListener transferProgressListener = null;
+	private long progressIntervalMillis = 500;
+	private long stallMinimumBytesPerSecond = 0;
+	private long stallTimeMillis = 0;
+	private final Map<String, String> downloadDigests = new LinkedHashMap<>();
+	private BandwidthLimiter bandwidthLimiter = null;
+	private ClientKeyConfiguration clientKeyConfiguration = null;
+	private InetAddress connectAddress = null;
+
 	public class UploadFileAttachment {
 		private String htmlInputName;
 		private String fileName;
@@ -228,6 +249,128 @@ public class HttpRequest {
 		}
 	}
 
+	public TransferProgressListener getTransferProgressListener() {
+		return transferProgressListener;
+	}
+
+	/**
+	 * Progress of the upload of the request body stream and of downloads into the download stream or download file
+	 */
+	public HttpRequest setTransferProgressListener(final TransferProgressListener transferProgressListener) {
+		this.transferProgressListener = transferProgressListener;
+
+		return this;
+	}
+
+	public long getProgressIntervalMillis() {
+		return progressIntervalMillis;
+	}
+
+	/**
+	 * Minimum time between two progress notifications (default 500 milliseconds)
+	 */
+	public HttpRequest setProgressIntervalMillis(final long progressIntervalMillis) {
+		this.progressIntervalMillis = progressIntervalMillis;
+
+		return this;
+	}
+
+	public long getStallMinimumBytesPerSecond() {
+		return stallMinimumBytesPerSecond;
+	}
+
+	public long getStallTimeMillis() {
+		return stallTimeMillis;
+	}
+
+	/**
+	 * Abort uploads and downloads transferring less than minimumBytesPerSecond for stallTimeMillis.
+	 * Completely blocked reads are still limited by the read timeout.
+	 */
+	public HttpRequest setStallDetection(final long minimumBytesPerSecond, final long stallTimeMillis) {
+		stallMinimumBytesPerSecond = minimumBytesPerSecond;
+		this.stallTimeMillis = stallTimeMillis;
+
+		return this;
+	}
+
+	public Map<String, String> getDownloadDigests() {
+		return downloadDigests;
+	}
+
+	/**
+	 * Compute a digest of the downloaded data while it is copied, like "SHA-256", "MD5" or "CRC32C".<br />
+	 * The computed values are available by HttpResponse.getDownloadDigests().
+	 */
+	public HttpRequest addDownloadDigest(final String algorithm) {
+		return addDownloadDigest(algorithm, null);
+	}
+
+	/**
+	 * Compute a digest of the downloaded data while it is copied, like "SHA-256", "MD5" or "CRC32C".<br />
+	 * A download with a different digest value is rejected and its download file is deleted.
+	 *
+	 * @param expectedHexValue expected digest as hex value or null
+	 */
+	public HttpRequest addDownloadDigest(final String algorithm, final String expectedHexValue) {
+		if (NetworkUtilities.isBlank(algorithm)) {
+			throw new IllegalArgumentException("Missing download digest algorithm");
+		}
+		downloadDigests.put(algorithm, expectedHexValue);
+
+		return this;
+	}
+
+	public BandwidthLimiter getBandwidthLimiter() {
+		return bandwidthLimiter;
+	}
+
+	/**
+	 * Limit the throughput of the download and upload stream of this request. The limiter may be shared by a group of requests.
+	 */
+	public HttpRequest setBandwidthLimiter(final BandwidthLimiter bandwidthLimiter) {
+		this.bandwidthLimiter = bandwidthLimiter;
+
+		return this;
+	}
+
+	/**
+	 * Limit the throughput of the download and upload stream of this request
+	 */
+	public HttpRequest setMaximumBytesPerSecond(final long maximumBytesPerSecond) {
+		bandwidthLimiter = new BandwidthLimiter(maximumBytesPerSecond);
+
+		return this;
+	}
+
+	public ClientKeyConfiguration getClientKeyConfiguration() {
+		return clientKeyConfiguration;
+	}
+
+	/**
+	 * Client certificate and key for mutual TLS (null = no client certificate)
+	 */
+	public HttpRequest setClientKeyConfiguration(final ClientKeyConfiguration clientKeyConfiguration) {
+		this.clientKeyConfiguration = clientKeyConfiguration;
+
+		return this;
+	}
+
+	public InetAddress getConnectAddress() {
+		return connectAddress;
+	}
+
+	/**
+	 * Address to connect to instead of the addresses of the host of the url (null = resolve the host).
+	 * The host of the url is still used for the Host header, the TLS server name indication and the server certificate check.<br />
+	 * Only supported by the SocketHttpClientEngine without proxy.
+	 */
+	public HttpRequest setConnectAddress(final InetAddress connectAddress) {
+		this.connectAddress = connectAddress;
+
+		return this;
+	}
+
 	public Map<String, Object> getPathParameterData() {
 		return pathParameterData;
 	}
@@ -338,6 +481,39 @@ public class HttpRequest {
 		this.httpURLConnection = httpURLConnection;
 	}
 
+	protected void setEngineConnection(final Closeable engineConnection) {
+		this.engineConnection = engineConnection;
+	}
+
+	/**
+	 * Copy of this request for another url without download targets, request body stream and progress listener
+	 */
+	HttpRequest createCopy(final String copyUrl) throws Exception {
+		final HttpRequest copy = new HttpRequest(requestMethod, copyUrl);
+		copy.encoding = encoding;
+		copy.connectTimeoutMillis = connectTimeoutMillis;
+		copy.readTimeoutMillis = readTimeoutMillis;
+		copy.headers.putAll(headers);
+		for (final Entry<String, List<Object>> urlParameter : urlParameters.entrySet()) {
+			copy.urlParameters.put(urlParameter.getKey(), new ArrayList<>(urlParameter.getValue()));
+		}
+		for (final Entry<String, List<Object>> postParameter : postParameters.entrySet()) {
+			copy.postParameters.put(postParameter.getKey(), new ArrayList<>(postParameter.getValue()));
+		}
+		copy.requestBody = requestBody;
+		copy.uploadFileAttachments.addAll(uploadFileAttachments);
+		copy.pathParameterData.putAll(pathParameterData);
+		copy.cookieData.putAll(cookieData);
+		copy.followRedirects = followRedirects;
+		copy.stallMinimumBytesPerSecond = stallMinimumBytesPerSecond;
+		copy.stallTimeMillis = stallTimeMillis;
+		copy.downloadDigests.putAll(downloadDigests);
+		copy.bandwidthLimiter = bandwidthLimiter;
+		copy.clientKeyConfiguration = clientKeyConfiguration;
+		copy.connectAddress = connectAddress;
+		return copy;
+	}
+
 	@Override
 	public String toString() {
 		return requestMethod.name() + " " + url;
@@ -382,7 +558,12 @@ public class HttpRequest {
 		}
 	}
 
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
 	public void cancel() {
+		cancelled = true;
 		if (httpURLConnection != null) {
 			try {
 				httpURLConnection.disconnect();
@@ -390,5 +571,12 @@ public class HttpRequest {
 				// do nothing
 			}
 		}
+		if (engineConnection != null) {
+			try {
+				engineConnection.close();
+			} catch (@SuppressWarnings("unused") final Exception e) {
+				// do nothing
+			}
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,309 @@
+package de.soderer.network;
+
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.TrustManager;
+
+/**
+ * Schedules the execution of http requests by priority classes with weighted fair queuing across keys (like tenants) within each class.<br />
+ * A waiting request of a higher priority class is always started before requests of lower classes, as long as its class is below its concurrency limit.
+ * Within a class the keys share the free slots by their weights, so a key with many queued requests does not delay the requests of other keys.
+ * Requests with equal fair share are ordered by their deadline. Requests, whose deadline expired while waiting, are dropped by an Exception without being sent.<br />
+ * Requests are executed in the calling thread by execute(...) or in a thread of the scheduler by submit(...).<br />
+ *<br />
+ * Usage example:
+ *
+ * <pre>
+ * HttpRequestScheduler scheduler = new HttpRequestScheduler(50).setConcurrencyLimit(HttpRequestScheduler.Priority.Low, 10);
+ * HttpResponse response = scheduler.execute(httpRequest, HttpRequestScheduler.Priority.High, "tenant1", System.currentTimeMillis() + 2000);
+ * </pre>
+ */
+public class HttpRequestScheduler implements AutoCloseable {
+	public enum Priority {
+		High,
+		Normal,
+		Low
+	}
+
+	/**
+	 * Waiting request
+	 */
+	private static class ScheduledRequest {
+		private final HttpRequest httpRequest;
+		private final Priority priority;
+		private final String key;
+		private final long deadlineMillis;
+		private final long sequence;
+		private final CompletableFuture<HttpResponse> future;
+		private double finishTag;
+		private boolean started = false;
+		private boolean expired = false;
+
+		private ScheduledRequest(final HttpRequest httpRequest, final Priority priority, final String key, final long deadlineMillis, final long sequence, final CompletableFuture<HttpResponse> future) {
+			this.httpRequest = httpRequest;
+			this.priority = priority;
+			this.key = key;
+			this.deadlineMillis = deadlineMillis;
+			this.sequence = sequence;
+			this.future = future;
+		}
+
+		private boolean isExpired(final long nowMillis) {
+			return deadlineMillis > 0 && nowMillis >= deadlineMillis;
+		}
+	}
+
+	/**
+	 * Queue and fair queuing state of one priority class
+	 */
+	private static class PriorityClass {
+		private final PriorityQueue<ScheduledRequest> queue = new PriorityQueue<>(Comparator
+				.comparingDouble((final ScheduledRequest scheduledRequest) -> scheduledRequest.finishTag)
+				.thenComparingLong(scheduledRequest -> scheduledRequest.deadlineMillis > 0 ? scheduledRequest.deadlineMillis : Long.MAX_VALUE)
+				.thenComparingLong(scheduledRequest -> scheduledRequest.sequence));
+		private final Map<String, Double> lastFinishTags = new HashMap<>();
+		private double virtualTime = 0;
+		private int concurrencyLimit = Integer.MAX_VALUE;
+		private int running = 0;
+	}
+
+	private final int maximumConcurrency;
+	private final Map<Priority, PriorityClass> priorityClasses = new EnumMap<>(Priority.class);
+	private final Map<String, Double> keyWeights = new HashMap<>();
+	private int running = 0;
+	private long nextSequence = 0;
+
+	private TrustManager trustManager = null;
+	private boolean deactivateHostnameVerification = false;
+
+	private final AtomicLong expiredRequestsCount = new AtomicLong(0);
+
+	private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		final Thread thread = new Thread(runnable, "HttpRequestScheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * @param maximumConcurrency maximum number of requests executed at the same time over all priority classes
+	 */
+	public HttpRequestScheduler(final int maximumConcurrency) {
+		this.maximumConcurrency = maximumConcurrency;
+		for (final Priority priority : Priority.values()) {
+			priorityClasses.put(priority, new PriorityClass());
+		}
+	}
+
+	/**
+	 * Maximum number of requests of a priority class executed at the same time (default unlimited)
+	 */
+	public synchronized HttpRequestScheduler setConcurrencyLimit(final Priority priority, final int concurrencyLimit) {
+		priorityClasses.get(priority).concurrencyLimit = concurrencyLimit;
+
+		return this;
+	}
+
+	/**
+	 * Weight of a key for its share of the free slots of a priority class (default 1.0)
+	 */
+	public synchronized HttpRequestScheduler setKeyWeight(final String key, final double weight) {
+		if (weight <= 0) {
+			throw new IllegalArgumentException("Invalid key weight: " + weight);
+		}
+		keyWeights.put(key, weight);
+
+		return this;
+	}
+
+	public HttpRequestScheduler setTrustManager(final TrustManager trustManager, final boolean deactivateHostnameVerification) {
+		this.trustManager = trustManager;
+		this.deactivateHostnameVerification = deactivateHostnameVerification;
+
+		return this;
+	}
+
+	public synchronized int getQueuedCount() {
+		int queuedCount = 0;
+		for (final PriorityClass priorityClass : priorityClasses.values()) {
+			queuedCount += priorityClass.queue.size();
+		}
+		return queuedCount;
+	}
+
+	public synchronized int getRunningCount(final Priority priority) {
+		return priorityClasses.get(priority).running;
+	}
+
+	/**
+	 * Number of requests dropped, because their deadline expired before they could be sent
+	 */
+	public long getExpiredRequestsCount() {
+		return expiredRequestsCount.get();
+	}
+
+	/**
+	 * Execute the request in the calling thread, when it is scheduled.<br />
+	 * If the calling thread is interrupted while waiting, the request is removed from the queue without being sent.
+	 *
+	 * @param key fair queuing key like a tenant (null = common key)
+	 * @param deadlineMillis time in milliseconds since epoch, after which the request is not sent anymore (0 = no deadline)
+	 */
+	public HttpResponse execute(final HttpRequest httpRequest, final Priority priority, final String key, final long deadlineMillis) throws Exception {
+		final ScheduledRequest scheduledRequest = enqueue(httpRequest, priority, key, deadlineMillis, null);
+		synchronized (this) {
+			try {
+				while (!scheduledRequest.started && !scheduledRequest.expired) {
+					if (scheduledRequest.deadlineMillis > 0) {
+						final long remainingMillis = scheduledRequest.deadlineMillis - System.currentTimeMillis();
+						if (remainingMillis <= 0) {
+							dropExpired(scheduledRequest);
+							break;
+						}
+						wait(remainingMillis);
+					} else {
+						wait();
+					}
+				}
+			} catch (final InterruptedException e) {
+				cancelInterrupted(scheduledRequest);
+				throw e;
+			}
+			if (scheduledRequest.expired) {
+				throw createExpiredException(scheduledRequest);
+			}
+		}
+		return executeScheduled(scheduledRequest);
+	}
+
+	/**
+	 * Execute the request in a thread of the scheduler, when it is scheduled
+	 *
+	 * @param key fair queuing key like a tenant (null = common key)
+	 * @param deadlineMillis time in milliseconds since epoch, after which the request is not sent anymore (0 = no deadline)
+	 */
+	public CompletableFuture<HttpResponse> submit(final HttpRequest httpRequest, final Priority priority, final String key, final long deadlineMillis) {
+		final CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+		enqueue(httpRequest, priority, key, deadlineMillis, future);
+		return future;
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private synchronized ScheduledRequest enqueue(final HttpRequest httpRequest, final Priority priority, final String key, final long deadlineMillis, final CompletableFuture<HttpResponse> future) {
+		final Priority validPriority = priority == null ? Priority.Normal : priority;
+		final String validKey = key == null ? "" : key;
+		final PriorityClass priorityClass = priorityClasses.get(validPriority);
+		final ScheduledRequest scheduledRequest = new ScheduledRequest(httpRequest, validPriority, validKey, deadlineMillis, nextSequence++, future);
+
+		// Start time fair queuing: Each request costs 1/weight of virtual time of its key
+		final double startTag = Math.max(priorityClass.virtualTime, priorityClass.lastFinishTags.getOrDefault(validKey, 0.0));
+		scheduledRequest.finishTag = startTag + 1.0 / keyWeights.getOrDefault(validKey, 1.0);
+		priorityClass.lastFinishTags.put(validKey, scheduledRequest.finishTag);
+		priorityClass.queue.add(scheduledRequest);
+
+		dispatch();
+		return scheduledRequest;
+	}
+
+	/**
+	 * Start waiting requests as long as there are free slots
+	 */
+	private synchronized void dispatch() {
+		final long nowMillis = System.currentTimeMillis();
+		boolean started = false;
+		for (final Priority priority : Priority.values()) {
+			final PriorityClass priorityClass = priorityClasses.get(priority);
+			while (running < maximumConcurrency && priorityClass.running < priorityClass.concurrencyLimit && !priorityClass.queue.isEmpty()) {
+				final ScheduledRequest scheduledRequest = priorityClass.queue.poll();
+				priorityClass.virtualTime = Math.max(priorityClass.virtualTime, scheduledRequest.finishTag - 1.0 / keyWeights.getOrDefault(scheduledRequest.key, 1.0));
+				if (scheduledRequest.isExpired(nowMillis)) {
+					scheduledRequest.expired = true;
+					expiredRequestsCount.incrementAndGet();
+					if (scheduledRequest.future != null) {
+						scheduledRequest.future.completeExceptionally(createExpiredException(scheduledRequest));
+					}
+					started = true;
+					continue;
+				}
+
+				scheduledRequest.started = true;
+				started = true;
+				running++;
+				priorityClass.running++;
+				if (scheduledRequest.future != null) {
+					try {
+						executor.execute(() -> {
+							try {
+								scheduledRequest.future.complete(executeScheduled(scheduledRequest));
+							} catch (final Exception e) {
+								scheduledRequest.future.completeExceptionally(e);
+							}
+						});
+					} catch (final RejectedExecutionException e) {
+						// The scheduler was closed, so the slot is given back without sending the request
+						running--;
+						priorityClass.running--;
+						scheduledRequest.future.completeExceptionally(new Exception("HttpRequestScheduler is already closed", e));
+					}
+				}
+			}
+			final Iterator<Double> lastFinishTagsIterator = priorityClass.lastFinishTags.values().iterator();
+			while (lastFinishTagsIterator.hasNext()) {
+				if (lastFinishTagsIterator.next() <= priorityClass.virtualTime) {
+					lastFinishTagsIterator.remove();
+				}
+			}
+		}
+		if (started) {
+			notifyAll();
+		}
+	}
+
+	private HttpResponse executeScheduled(final ScheduledRequest scheduledRequest) throws Exception {
+		try {
+			return HttpUtilities.executeHttpRequest(scheduledRequest.httpRequest, null, null, null, trustManager, deactivateHostnameVerification);
+		} finally {
+			synchronized (this) {
+				running--;
+				priorityClasses.get(scheduledRequest.priority).running--;
+				dispatch();
+			}
+		}
+	}
+
+	/**
+	 * Remove a waiting request of an interrupted caller or give back its slot, if it was already started
+	 */
+	private void cancelInterrupted(final ScheduledRequest scheduledRequest) {
+		if (scheduledRequest.started) {
+			running--;
+			priorityClasses.get(scheduledRequest.priority).running--;
+			dispatch();
+		} else if (!scheduledRequest.expired) {
+			priorityClasses.get(scheduledRequest.priority).queue.remove(scheduledRequest);
+		}
+	}
+
+	private void dropExpired(final ScheduledRequest scheduledRequest) {
+		priorityClasses.get(scheduledRequest.priority).queue.remove(scheduledRequest);
+		scheduledRequest.expired = true;
+		expiredRequestsCount.incrementAndGet();
+	}
+
+	private static Exception createExpiredException(final ScheduledRequest scheduledRequest) {
+		return new Exception("Deadline of request '" + scheduledRequest.httpRequest + "' expired before it was sent");
+	}
+}
@@ -1,5 +1,6 @@
 package de.soderer.network;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -11,6 +12,7 @@ public class HttpResponse {
 	private final String contentType;
 	private final Map<String, String> headers;
 	private final Map<String, String> cookieData;
+	private Map<String, String> downloadDigests = null;
 
 	public HttpResponse(final String ipAddress, final int httpCode, final String httpCodeMessage, final String content, final String contentType, final Map<String, String> headers, final Map<String, String> cookieData) {
 		this.ipAddress = ipAddress;
@@ -56,6 +58,27 @@ public class HttpResponse {
 		return cookieData;
 	}
 
+	/**
+	 * Digests of the downloaded data requested by HttpRequest.addDownloadDigest(...) as lowercase hex values by algorithm
+	 */
+	public Map<String, String> getDownloadDigests() {
+		return downloadDigests;
+	}
+
+	HttpResponse setDownloadDigests(final Map<String, String> downloadDigests) {
+		this.downloadDigests = downloadDigests;
+
+		return this;
+	}
+
+	/**
+	 * Copy with own headers, cookies and digests maps
+	 */
+	HttpResponse createCopy() {
+		return new HttpResponse(ipAddress, httpCode, httpCodeMessage, content, contentType, headers == null ? null : new LinkedHashMap<>(headers), cookieData == null ? null : new LinkedHashMap<>(cookieData))
+				.setDownloadDigests(downloadDigests == null ? null : new LinkedHashMap<>(downloadDigests));
+	}
+
 	@Override
 	public String toString() {
 		String returnText = "HttpCode: " + httpCode + (NetworkUtilities.isNotEmpty(httpCodeMessage) ? " (" + httpCodeMessage + ")" : "") + "\n";
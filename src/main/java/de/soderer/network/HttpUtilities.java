@@ -11,6 +11,7 @@ import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URLDecoder;
@@ -27,6 +28,7 @@ import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -40,13 +42,21 @@ import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
 import de.soderer.network.HttpRequest.UploadFileAttachment;
+import de.soderer.network.metrics.MetricsRegistry;
 import de.soderer.network.trustmanager.TrustManagerUtilities;
+import de.soderer.network.utilities.BandwidthLimiter;
 import de.soderer.network.utilities.CaseInsensitiveLinkedMap;
+import de.soderer.network.utilities.CountingInputStream;
+import de.soderer.network.utilities.CountingOutputStream;
+import de.soderer.network.utilities.DataTransfer;
+import de.soderer.network.utilities.TransferMonitor;
+import de.soderer.network.utilities.TransferProgress.Direction;
 
 public class HttpUtilities {
 	private static boolean debugLog = false;
@@ -54,6 +64,95 @@ public class HttpUtilities {
 
 	private static HostnameVerifier TRUSTALLHOSTNAMES_HOSTNAMEVERIFIER = (hostname, session) -> true;
 
+	private static volatile MetricsRegistry metricsRegistry = null;
+	private static volatile HttpClientEngine httpClientEngine = null;
+	private static volatile DownloadCache downloadCache = null;
+	private static volatile BandwidthLimiter globalBandwidthLimiter = null;
+	private static volatile RequestCoalescer requestCoalescer = null;
+	private static volatile RequestHedger requestHedger = null;
+	private static volatile AdaptiveConcurrencyLimiter concurrencyLimiter = null;
+
+	private static final SslSocketFactoryCache sslSocketFactoryCache = new SslSocketFactoryCache(TLS_VERSION, 64);
+
+	public static HttpClientEngine getHttpClientEngine() {
+		return httpClientEngine;
+	}
+
+	/**
+	 * Engine to execute requests on direct connections, like the SocketHttpClientEngine (null = HttpURLConnection).
+	 * Requests via a proxy are always executed by HttpURLConnection.
+	 */
+	public static void setHttpClientEngine(final HttpClientEngine httpClientEngine) {
+		HttpUtilities.httpClientEngine = httpClientEngine;
+	}
+
+	public static DownloadCache getDownloadCache() {
+		return downloadCache;
+	}
+
+	/**
+	 * Cache for downloads of GET requests into download files (null = no cache)
+	 */
+	public static void setDownloadCache(final DownloadCache downloadCache) {
+		HttpUtilities.downloadCache = downloadCache;
+	}
+
+	public static BandwidthLimiter getGlobalBandwidthLimiter() {
+		return globalBandwidthLimiter;
+	}
+
+	/**
+	 * Bandwidth limiter shared by the download and upload streams of all requests (null = no limit).
+	 * Textual responses are not limited, so interactive requests are not slowed down by bulk transfers.
+	 */
+	public static void setGlobalBandwidthLimiter(final BandwidthLimiter globalBandwidthLimiter) {
+		HttpUtilities.globalBandwidthLimiter = globalBandwidthLimiter;
+	}
+
+	public static RequestCoalescer getRequestCoalescer() {
+		return requestCoalescer;
+	}
+
+	/**
+	 * Coalescer to execute identical concurrent GET and HEAD requests only once (null = no coalescing)
+	 */
+	public static void setRequestCoalescer(final RequestCoalescer requestCoalescer) {
+		HttpUtilities.requestCoalescer = requestCoalescer;
+	}
+
+	public static RequestHedger getRequestHedger() {
+		return requestHedger;
+	}
+
+	/**
+	 * Hedger to send second copies of slow idempotent requests (null = no hedging)
+	 */
+	public static void setRequestHedger(final RequestHedger requestHedger) {
+		HttpUtilities.requestHedger = requestHedger;
+	}
+
+	public static AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+		return concurrencyLimiter;
+	}
+
+	/**
+	 * Limiter of the requests in flight per host (null = no limit)
+	 */
+	public static void setConcurrencyLimiter(final AdaptiveConcurrencyLimiter concurrencyLimiter) {
+		HttpUtilities.concurrencyLimiter = concurrencyLimiter;
+	}
+
+	public static MetricsRegistry getMetricsRegistry() {
+		return metricsRegistry;
+	}
+
+	/**
+	 * Registry to record request counts by host, method and status, durations, transferred bytes, error classes and requests in flight of all executed http requests (null = no metrics)
+	 */
+	public static void setMetricsRegistry(final MetricsRegistry metricsRegistry) {
+		HttpUtilities.metricsRegistry = metricsRegistry;
+	}
+
 	/**
 	 * Use systems default proxy, if set on JVM start.
 	 * Use systems default KeyStore to check TLS server certificates.
@@ -93,34 +192,78 @@ public class HttpUtilities {
 	}
 
 	public static HttpResponse executeHttpRequest(final HttpRequest httpRequest, final Proxy proxy, final String proxyUsername, final String proxyPassword, final TrustManager trustManager, final boolean deactivateHostnameVerification) throws Exception {
+		final RequestCoalescer currentRequestCoalescer = requestCoalescer;
+		if (currentRequestCoalescer != null && RequestCoalescer.isCoalescable(httpRequest)) {
+			return currentRequestCoalescer.execute(httpRequest, proxy, proxyUsername, trustManager, deactivateHostnameVerification, () -> executeHttpRequestWithHedging(httpRequest, proxy, proxyUsername, proxyPassword, trustManager, deactivateHostnameVerification));
+		} else {
+			return executeHttpRequestWithHedging(httpRequest, proxy, proxyUsername, proxyPassword, trustManager, deactivateHostnameVerification);
+		}
+	}
+
+	private static HttpResponse executeHttpRequestWithHedging(final HttpRequest httpRequest, final Proxy proxy, final String proxyUsername, final String proxyPassword, final TrustManager trustManager, final boolean deactivateHostnameVerification) throws Exception {
+		final RequestHedger currentRequestHedger = requestHedger;
+		if (currentRequestHedger != null && RequestHedger.isHedgeable(httpRequest)) {
+			return currentRequestHedger.execute(httpRequest, request -> executeHttpRequestWithConcurrencyLimit(request, proxy, proxyUsername, proxyPassword, trustManager, deactivateHostnameVerification));
+		} else {
+			return executeHttpRequestWithConcurrencyLimit(httpRequest, proxy, proxyUsername, proxyPassword, trustManager, deactivateHostnameVerification);
+		}
+	}
+
+	private static HttpResponse executeHttpRequestWithConcurrencyLimit(final HttpRequest httpRequest, final Proxy proxy, final String proxyUsername, final String proxyPassword, final TrustManager trustManager, final boolean deactivateHostnameVerification) throws Exception {
+		final AdaptiveConcurrencyLimiter currentConcurrencyLimiter = concurrencyLimiter;
+		if (currentConcurrencyLimiter != null) {
+			return currentConcurrencyLimiter.execute(httpRequest, () -> executeHttpRequestWithMetrics(httpRequest, proxy, proxyUsername, proxyPassword, trustManager, deactivateHostnameVerification));
+		} else {
+			return executeHttpRequestWithMetrics(httpRequest, proxy, proxyUsername, proxyPassword, trustManager, deactivateHostnameVerification);
+		}
+	}
+
+	private static HttpResponse executeHttpRequestWithMetrics(final HttpRequest httpRequest, final Proxy proxy, final String proxyUsername, final String proxyPassword, final TrustManager trustManager, final boolean deactivateHostnameVerification) throws Exception {
+		final MetricsRegistry currentMetricsRegistry = metricsRegistry;
+		if (currentMetricsRegistry == null) {
+			return executeHttpRequestWithDownloadCache(httpRequest, proxy, proxyUsername, proxyPassword, trustManager, deactivateHostnameVerification, null, null);
+		}
+
+		final String host = getHostForMetrics(httpRequest.getUrlWithProtocol());
+		final String method = httpRequest.getRequestMethod() == null ? HttpMethod.GET.name() : httpRequest.getRequestMethod().name();
+		final long startNanos = System.nanoTime();
+		currentMetricsRegistry.addToGauge("http_client_requests_in_flight", 1);
 		try {
-			String requestedUrl = httpRequest.getUrlWithProtocol();
-
-			// Check for already in URL included GET parameters
-			String parametersFromUrl;
-			if (requestedUrl.contains("?")) {
-				if (requestedUrl.contains("#")) {
-					parametersFromUrl = requestedUrl.substring(requestedUrl.indexOf("?") + 1, requestedUrl.indexOf("#"));
-					requestedUrl = requestedUrl.substring(0, requestedUrl.indexOf("?"));
-				} else {
-					parametersFromUrl = requestedUrl.substring(requestedUrl.indexOf("?") + 1);
-					requestedUrl = requestedUrl.substring(0, requestedUrl.indexOf("?"));
-				}
-			} else {
-				parametersFromUrl = "";
-			}
+			final HttpResponse httpResponse = executeHttpRequestWithDownloadCache(httpRequest, proxy, proxyUsername, proxyPassword, trustManager, deactivateHostnameVerification, currentMetricsRegistry, host);
+			currentMetricsRegistry.incrementCounter("http_client_requests_total", "host", host, "method", method, "status", Integer.toString(httpResponse.getHttpCode()));
+			return httpResponse;
+		} catch (final Exception e) {
+			currentMetricsRegistry.incrementCounter("http_client_errors_total", "host", host, "method", method, "error", getErrorClassForMetrics(e));
+			throw e;
+		} finally {
+			currentMetricsRegistry.addToGauge("http_client_requests_in_flight", -1);
+			currentMetricsRegistry.recordValue("http_client_request_duration_micros", (System.nanoTime() - startNanos) / 1000, "host", host, "method", method);
+		}
+	}
 
-			// Prepare GET parameters data
-			if (httpRequest.getUrlParameters() != null && httpRequest.getUrlParameters().size() > 0) {
-				final String getParameterString = convertToParameterString(httpRequest.getUrlParameters(), httpRequest.getEncoding());
-				if (parametersFromUrl.length() > 0) {
-					requestedUrl += "?" + parametersFromUrl + "&" + getParameterString;
-				} else {
-					requestedUrl += "?" + getParameterString;
-				}
-			} else if (parametersFromUrl.length() > 0) {
-				requestedUrl += "?" + parametersFromUrl;
-			}
+	private static HttpResponse executeHttpRequestWithDownloadCache(final HttpRequest httpRequest, final Proxy proxy, final String proxyUsername, final String proxyPassword, final TrustManager trustManager, final boolean deactivateHostnameVerification, final MetricsRegistry currentMetricsRegistry, final String host) throws Exception {
+		final DownloadCache currentDownloadCache = downloadCache;
+		if (currentDownloadCache != null && httpRequest.getDownloadFile() != null && (httpRequest.getRequestMethod() == null || httpRequest.getRequestMethod() == HttpMethod.GET)) {
+			return currentDownloadCache.download(httpRequest, proxy, proxyUsername, trustManager, deactivateHostnameVerification, () -> executeHttpRequestByEngine(httpRequest, proxy, proxyUsername, proxyPassword, trustManager, deactivateHostnameVerification, currentMetricsRegistry, host));
+		} else {
+			return executeHttpRequestByEngine(httpRequest, proxy, proxyUsername, proxyPassword, trustManager, deactivateHostnameVerification, currentMetricsRegistry, host);
+		}
+	}
+
+	private static HttpResponse executeHttpRequestByEngine(final HttpRequest httpRequest, final Proxy proxy, final String proxyUsername, final String proxyPassword, final TrustManager trustManager, final boolean deactivateHostnameVerification, final MetricsRegistry currentMetricsRegistry, final String host) throws Exception {
+		final HttpClientEngine currentHttpClientEngine = httpClientEngine;
+		if (currentHttpClientEngine != null && (proxy == null || proxy.type() == Proxy.Type.DIRECT)) {
+			return currentHttpClientEngine.executeHttpRequest(httpRequest, trustManager, deactivateHostnameVerification);
+		} else if (httpRequest.getConnectAddress() != null) {
+			throw new Exception("Connect address of request is only supported by SocketHttpClientEngine without proxy: " + httpRequest);
+		} else {
+			return executeHttpRequestByHttpURLConnection(httpRequest, proxy, proxyUsername, proxyPassword, trustManager, deactivateHostnameVerification, currentMetricsRegistry, host);
+		}
+	}
+
+	private static HttpResponse executeHttpRequestByHttpURLConnection(final HttpRequest httpRequest, final Proxy proxy, final String proxyUsername, final String proxyPassword, final TrustManager trustManager, final boolean deactivateHostnameVerification, final MetricsRegistry currentMetricsRegistry, final String host) throws Exception {
+		try {
+			final String requestedUrl = createRequestedUrl(httpRequest);
 
 			if (debugLog) {
 				System.out.println("Requested URL: " + requestedUrl);
@@ -136,12 +279,9 @@ public class HttpUtilities {
 			}
 
 			if (requestedUrl.toLowerCase().startsWith(HttpConstants.SECURE_HTTP_PROTOCOL_SIGN)) {
-				if (trustManager != null) {
-					// Use special trustmanager
-					final SSLContext sslContext = SSLContext.getInstance(TLS_VERSION);
-					sslContext.init(null, new TrustManager[] { trustManager }, new SecureRandom());
-					final SSLSocketFactory sslSocketFactory = sslContext.getSocketFactory();
-					((HttpsURLConnection) urlConnection).setSSLSocketFactory(sslSocketFactory);
+				if (trustManager != null || httpRequest.getClientKeyConfiguration() != null) {
+					// Use special trustmanager and client key material
+					((HttpsURLConnection) urlConnection).setSSLSocketFactory(getSslSocketFactory(trustManager, httpRequest.getClientKeyConfiguration()));
 				}
 				if (deactivateHostnameVerification) {
 					((HttpsURLConnection) urlConnection).setHostnameVerifier(TRUSTALLHOSTNAMES_HOSTNAMEVERIFIER);
@@ -171,23 +311,15 @@ public class HttpUtilities {
 			}
 
 			if (httpRequest.getCookieData() != null && httpRequest.getCookieData().size() > 0) {
-				final StringBuilder cookieValue = new StringBuilder();
-				for (final Entry<String, String> cookieEntry : httpRequest.getCookieData().entrySet()) {
-					if (cookieValue.length() > 0) {
-						cookieValue.append("; ");
-					}
-					cookieValue.append(encodeForCookie(cookieEntry.getKey()) + "=" + encodeForCookie(cookieEntry.getValue()));
-				}
-
-				urlConnection.setRequestProperty(HttpConstants.HTTPHEADERNAME_COOKIE, cookieValue.toString());
+				urlConnection.setRequestProperty(HttpConstants.HTTPHEADERNAME_COOKIE, createCookieHeaderValue(httpRequest.getCookieData()));
 			}
 
 			final String boundary = HttpUtilities.generateBoundary();
 
 			if (httpRequest.getRequestBodyContentStream() != null) {
 				urlConnection.setDoOutput(true);
-				try (OutputStream outputStream = urlConnection.getOutputStream()) {
-					NetworkUtilities.copy(httpRequest.getRequestBodyContentStream(), outputStream);
+				try (OutputStream outputStream = getOutputStream(urlConnection, currentMetricsRegistry, host)) {
+					createDataTransfer(httpRequest.getRequestBodyContentStream(), outputStream, httpRequest, Direction.Upload, -1).transfer();
 					outputStream.flush();
 				}
 			} else if (httpRequest.getRequestBody() != null) {
@@ -212,7 +344,7 @@ public class HttpUtilities {
 				}
 
 				urlConnection.setRequestProperty(HttpConstants.HTTPHEADERNAME_CONTENTLENGTH, Integer.toString(httpRequestBodyData.length));
-				try (OutputStream outputStream = urlConnection.getOutputStream()) {
+				try (OutputStream outputStream = getOutputStream(urlConnection, currentMetricsRegistry, host)) {
 					outputStream.write(httpRequestBodyData);
 					outputStream.flush();
 				}
@@ -220,32 +352,8 @@ public class HttpUtilities {
 				urlConnection.setDoOutput(true);
 				urlConnection.setRequestProperty(HttpConstants.HTTPHEADERNAME_CONTENTTYPE, HttpContentType.MultipartForm.getStringRepresentation() + "; boundary=" + boundary);
 
-				try (OutputStream outputStream = urlConnection.getOutputStream()) {
-					if (httpRequest.getPostParameters() != null && httpRequest.getPostParameters().size() > 0) {
-						for (final Entry<String, List<Object>> entry : httpRequest.getPostParameters().entrySet()) {
-							for (final Object value : entry.getValue()) {
-								outputStream.write(("--" + boundary + "\r\n").getBytes(StandardCharsets.UTF_8));
-								outputStream.write((HttpConstants.HTTPHEADERNAME_DISPOSITION + ": form-data; name=\"" + urlEncode(entry.getKey(), StandardCharsets.UTF_8) + "\"\r\n").getBytes(StandardCharsets.UTF_8));
-								outputStream.write("\r\n".getBytes(StandardCharsets.UTF_8));
-								if (value != null) {
-									outputStream.write(value.toString().getBytes(StandardCharsets.UTF_8));
-								}
-								outputStream.write("\r\n".getBytes(StandardCharsets.UTF_8));
-							}
-						}
-					}
-
-					for (final UploadFileAttachment uploadFileAttachment : httpRequest.getUploadFileAttachments()) {
-						outputStream.write(("--" + boundary + "\r\n").getBytes(StandardCharsets.UTF_8));
-						outputStream.write((HttpConstants.HTTPHEADERNAME_DISPOSITION + ": form-data; name=\"" + uploadFileAttachment.getHtmlInputName() + "\"; filename=\"" + uploadFileAttachment.getFileName() + "\"\r\n").getBytes(StandardCharsets.UTF_8));
-						outputStream.write("\r\n".getBytes(StandardCharsets.UTF_8));
-
-						outputStream.write(uploadFileAttachment.getData());
-
-						outputStream.write("\r\n".getBytes(StandardCharsets.UTF_8));
-					}
-
-					outputStream.write(("--" + boundary + "--" + "\r\n").getBytes(StandardCharsets.UTF_8));
+				try (OutputStream outputStream = getOutputStream(urlConnection, currentMetricsRegistry, host)) {
+					writeMultipartFormData(httpRequest, boundary, outputStream);
 					outputStream.flush();
 				}
 			} else if (httpRequest.getPostParameters() != null && httpRequest.getPostParameters().size() > 0) {
@@ -276,7 +384,7 @@ public class HttpUtilities {
 				final byte[] httpRequestBodyData = httpRequestBody.getBytes(encoding);
 
 				urlConnection.setRequestProperty(HttpConstants.HTTPHEADERNAME_CONTENTLENGTH, Integer.toString(httpRequestBodyData.length));
-				try (OutputStream outputStream = urlConnection.getOutputStream()) {
+				try (OutputStream outputStream = getOutputStream(urlConnection, currentMetricsRegistry, host)) {
 					outputStream.write(httpRequestBodyData);
 					outputStream.flush();
 				}
@@ -291,40 +399,20 @@ public class HttpUtilities {
 				headers.put(headerName, urlConnection.getHeaderField(headerName));
 			}
 
-			Charset encoding = StandardCharsets.UTF_8;
-			if (headers.containsKey(HttpConstants.HTTPHEADERNAME_CONTENTTYPE)) {
-				String contentType = headers.get(HttpConstants.HTTPHEADERNAME_CONTENTTYPE);
-				if (contentType != null && contentType.toLowerCase().contains("charset=")) {
-					contentType = contentType.toLowerCase();
-					encoding = Charset.forName(contentType.substring(contentType.indexOf("charset=") + 8).trim());
-				}
-			}
-
-			Map<String, String> cookiesMap = null;
-			if (headers.containsKey(HttpConstants.HTTPHEADERNAME_DOWNLOAD_COOKIE)) {
-				final String cookiesData = headers.get(HttpConstants.HTTPHEADERNAME_DOWNLOAD_COOKIE);
-				if (cookiesData != null) {
-					cookiesMap = new LinkedHashMap<>();
-					for (final String cookie : cookiesData.split(";")) {
-						final String[] cookieParts = cookie.split("=");
-						if (cookieParts.length == 2) {
-							cookiesMap.put(urlDecode(cookieParts[0].trim(), StandardCharsets.UTF_8), urlDecode(cookieParts[1].trim(), StandardCharsets.UTF_8));
-						}
-					}
-				}
-			}
+			final Charset encoding = getCharsetFromContentType(headers.get(HttpConstants.HTTPHEADERNAME_CONTENTTYPE));
+			final Map<String, String> cookiesMap = parseCookies(headers.get(HttpConstants.HTTPHEADERNAME_DOWNLOAD_COOKIE));
 
 			final int httpResponseCode = urlConnection.getResponseCode();
 			if (httpResponseCode < HttpURLConnection.HTTP_BAD_REQUEST) {
 				if (httpRequest.getDownloadStream() != null && 200 <= httpResponseCode && httpResponseCode <= 299) {
-					NetworkUtilities.copy(urlConnection.getInputStream(), httpRequest.getDownloadStream());
+					final Map<String, String> downloadDigests = transferDownload(getInputStream(urlConnection, currentMetricsRegistry, host), httpRequest.getDownloadStream(), httpRequest, urlConnection.getContentLengthLong());
 					final String ipAddress = getIpAddress(urlConnection);
-					return new HttpResponse(ipAddress, httpResponseCode, urlConnection.getResponseMessage(), "File downloaded", urlConnection.getContentType(), headers, cookiesMap);
+					return new HttpResponse(ipAddress, httpResponseCode, urlConnection.getResponseMessage(), "File downloaded", urlConnection.getContentType(), headers, cookiesMap).setDownloadDigests(downloadDigests);
 				} else if (httpRequest.getDownloadFile() != null && 200 <= httpResponseCode && httpResponseCode <= 299) {
 					try (FileOutputStream downloadFileOutputStream = new FileOutputStream(httpRequest.getDownloadFile())) {
-						NetworkUtilities.copy(urlConnection.getInputStream(), downloadFileOutputStream);
+						final Map<String, String> downloadDigests = transferDownload(getInputStream(urlConnection, currentMetricsRegistry, host), downloadFileOutputStream, httpRequest, urlConnection.getContentLengthLong());
 						final String ipAddress = getIpAddress(urlConnection);
-						return new HttpResponse(ipAddress, httpResponseCode, urlConnection.getResponseMessage(), "File downloaded", urlConnection.getContentType(), headers, cookiesMap);
+						return new HttpResponse(ipAddress, httpResponseCode, urlConnection.getResponseMessage(), "File downloaded", urlConnection.getContentType(), headers, cookiesMap).setDownloadDigests(downloadDigests);
 					} catch (final Exception e) {
 						if (httpRequest.getDownloadFile().exists()) {
 							httpRequest.getDownloadFile().delete();
@@ -332,17 +420,10 @@ public class HttpUtilities {
 						throw e;
 					}
 				} else {
-					try (BufferedReader httpResponseContentReader = new BufferedReader(new InputStreamReader(urlConnection.getInputStream(), encoding))) {
-						final StringBuilder httpResponseContent = new StringBuilder();
-						String httpResponseContentLine;
-						while ((httpResponseContentLine = httpResponseContentReader.readLine()) != null) {
-							if (httpResponseContent.length() > 0) {
-								httpResponseContent.append("\n");
-							}
-							httpResponseContent.append(httpResponseContentLine);
-						}
+					try {
+						final String httpResponseContent = readTextContent(getInputStream(urlConnection, currentMetricsRegistry, host), encoding);
 						final String ipAddress = getIpAddress(urlConnection);
-						return new HttpResponse(ipAddress, httpResponseCode, urlConnection.getResponseMessage(), httpResponseContent.toString(), urlConnection.getContentType(), headers, cookiesMap);
+						return new HttpResponse(ipAddress, httpResponseCode, urlConnection.getResponseMessage(), httpResponseContent, urlConnection.getContentType(), headers, cookiesMap);
 					} catch (@SuppressWarnings("unused") final Exception e) {
 						final String ipAddress = getIpAddress(urlConnection);
 						return new HttpResponse(ipAddress, httpResponseCode, urlConnection.getResponseMessage(), null, null, headers, cookiesMap);
@@ -352,23 +433,17 @@ public class HttpUtilities {
 				// Optionally follow redirections (HttpCodes 301 and 302)
 				final String redirectUrl = urlConnection.getHeaderField("Location");
 				if (NetworkUtilities.isNotBlank(redirectUrl)) {
-					final HttpRequest redirectedHttpRequest = new HttpRequest(httpRequest.getRequestMethod(), redirectUrl);
-					return executeHttpRequest(redirectedHttpRequest, proxy, trustManager, deactivateHostnameVerification);
+					final HttpRequest redirectedHttpRequest = new HttpRequest(httpRequest.getRequestMethod(), redirectUrl).setClientKeyConfiguration(httpRequest.getClientKeyConfiguration());
+					// Redirections are followed below concurrency limiter, hedger and coalescer, so the redirected request uses the permit of the original request
+					return executeHttpRequestByEngine(redirectedHttpRequest, proxy, proxyUsername, proxyPassword, trustManager, deactivateHostnameVerification, currentMetricsRegistry, currentMetricsRegistry == null ? null : getHostForMetrics(redirectUrl));
 				} else {
 					throw new Exception("Redirection url was empty");
 				}
 			} else {
-				try (BufferedReader httpResponseContentReader = new BufferedReader(new InputStreamReader(urlConnection.getErrorStream(), encoding))) {
-					final StringBuilder httpResponseContent = new StringBuilder();
-					String httpResponseContentLine;
-					while ((httpResponseContentLine = httpResponseContentReader.readLine()) != null) {
-						if (httpResponseContent.length() > 0) {
-							httpResponseContent.append("\n");
-						}
-						httpResponseContent.append(httpResponseContentLine);
-					}
+				try {
+					final String httpResponseContent = readTextContent(getErrorStream(urlConnection, currentMetricsRegistry, host), encoding);
 					final String ipAddress = getIpAddress(urlConnection);
-					return new HttpResponse(ipAddress, httpResponseCode, urlConnection.getResponseMessage(), httpResponseContent.toString(), urlConnection.getContentType(), headers, cookiesMap);
+					return new HttpResponse(ipAddress, httpResponseCode, urlConnection.getResponseMessage(), httpResponseContent, urlConnection.getContentType(), headers, cookiesMap);
 				} catch (@SuppressWarnings("unused") final Exception e) {
 					final String ipAddress = getIpAddress(urlConnection);
 					return new HttpResponse(ipAddress, httpResponseCode, urlConnection.getResponseMessage(), null, null, headers, cookiesMap);
@@ -385,6 +460,228 @@ public class HttpUtilities {
 		}
 	}
 
+	/**
+	 * Url of the request including the url parameters
+	 */
+	static String createRequestedUrl(final HttpRequest httpRequest) throws Exception {
+		String requestedUrl = httpRequest.getUrlWithProtocol();
+
+		// Check for already in URL included GET parameters
+		String parametersFromUrl;
+		if (requestedUrl.contains("?")) {
+			if (requestedUrl.contains("#")) {
+				parametersFromUrl = requestedUrl.substring(requestedUrl.indexOf("?") + 1, requestedUrl.indexOf("#"));
+				requestedUrl = requestedUrl.substring(0, requestedUrl.indexOf("?"));
+			} else {
+				parametersFromUrl = requestedUrl.substring(requestedUrl.indexOf("?") + 1);
+				requestedUrl = requestedUrl.substring(0, requestedUrl.indexOf("?"));
+			}
+		} else {
+			parametersFromUrl = "";
+		}
+
+		// Prepare GET parameters data
+		if (httpRequest.getUrlParameters() != null && httpRequest.getUrlParameters().size() > 0) {
+			final String getParameterString = convertToParameterString(httpRequest.getUrlParameters(), httpRequest.getEncoding());
+			if (parametersFromUrl.length() > 0) {
+				requestedUrl += "?" + parametersFromUrl + "&" + getParameterString;
+			} else {
+				requestedUrl += "?" + getParameterString;
+			}
+		} else if (parametersFromUrl.length() > 0) {
+			requestedUrl += "?" + parametersFromUrl;
+		}
+		return requestedUrl;
+	}
+
+	static String createCookieHeaderValue(final Map<String, String> cookieData) {
+		final StringBuilder cookieValue = new StringBuilder();
+		for (final Entry<String, String> cookieEntry : cookieData.entrySet()) {
+			if (cookieValue.length() > 0) {
+				cookieValue.append("; ");
+			}
+			cookieValue.append(encodeForCookie(cookieEntry.getKey()) + "=" + encodeForCookie(cookieEntry.getValue()));
+		}
+		return cookieValue.toString();
+	}
+
+	static Map<String, String> parseCookies(final String cookiesData) {
+		if (cookiesData == null) {
+			return null;
+		} else {
+			final Map<String, String> cookiesMap = new LinkedHashMap<>();
+			for (final String cookie : cookiesData.split(";")) {
+				final String[] cookieParts = cookie.split("=");
+				if (cookieParts.length == 2) {
+					cookiesMap.put(urlDecode(cookieParts[0].trim(), StandardCharsets.UTF_8), urlDecode(cookieParts[1].trim(), StandardCharsets.UTF_8));
+				}
+			}
+			return cookiesMap;
+		}
+	}
+
+	/**
+	 * Charset defined in a "Content-Type" header value, defaults to UTF-8
+	 */
+	static Charset getCharsetFromContentType(String contentType) {
+		if (contentType != null && contentType.toLowerCase().contains("charset=")) {
+			contentType = contentType.toLowerCase();
+			return Charset.forName(contentType.substring(contentType.indexOf("charset=") + 8).trim());
+		} else {
+			return StandardCharsets.UTF_8;
+		}
+	}
+
+	/**
+	 * Write post parameters and upload files as "multipart/form-data"
+	 */
+	static void writeMultipartFormData(final HttpRequest httpRequest, final String boundary, final OutputStream outputStream) throws IOException {
+		if (httpRequest.getPostParameters() != null && httpRequest.getPostParameters().size() > 0) {
+			for (final Entry<String, List<Object>> entry : httpRequest.getPostParameters().entrySet()) {
+				for (final Object value : entry.getValue()) {
+					outputStream.write(("--" + boundary + "\r\n").getBytes(StandardCharsets.UTF_8));
+					outputStream.write((HttpConstants.HTTPHEADERNAME_DISPOSITION + ": form-data; name=\"" + urlEncode(entry.getKey(), StandardCharsets.UTF_8) + "\"\r\n").getBytes(StandardCharsets.UTF_8));
+					outputStream.write("\r\n".getBytes(StandardCharsets.UTF_8));
+					if (value != null) {
+						outputStream.write(value.toString().getBytes(StandardCharsets.UTF_8));
+					}
+					outputStream.write("\r\n".getBytes(StandardCharsets.UTF_8));
+				}
+			}
+		}
+
+		for (final UploadFileAttachment uploadFileAttachment : httpRequest.getUploadFileAttachments()) {
+			outputStream.write(("--" + boundary + "\r\n").getBytes(StandardCharsets.UTF_8));
+			outputStream.write((HttpConstants.HTTPHEADERNAME_DISPOSITION + ": form-data; name=\"" + uploadFileAttachment.getHtmlInputName() + "\"; filename=\"" + uploadFileAttachment.getFileName() + "\"\r\n").getBytes(StandardCharsets.UTF_8));
+			outputStream.write("\r\n".getBytes(StandardCharsets.UTF_8));
+
+			outputStream.write(uploadFileAttachment.getData());
+
+			outputStream.write("\r\n".getBytes(StandardCharsets.UTF_8));
+		}
+
+		outputStream.write(("--" + boundary + "--" + "\r\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Text content with line breaks normalized to "\n" and without trailing line break, like it is read line by line
+	 */
+	static String readTextContent(final InputStream inputStream, final Charset encoding) throws IOException {
+		try (BufferedReader httpResponseContentReader = new BufferedReader(new InputStreamReader(inputStream, encoding))) {
+			final StringBuilder httpResponseContent = new StringBuilder();
+			String httpResponseContentLine;
+			while ((httpResponseContentLine = httpResponseContentReader.readLine()) != null) {
+				if (httpResponseContent.length() > 0) {
+					httpResponseContent.append("\n");
+				}
+				httpResponseContent.append(httpResponseContentLine);
+			}
+			return httpResponseContent.toString();
+		}
+	}
+
+	/**
+	 * DataTransfer with the requests cancellation, bandwidth limits, progress listener and stall detection
+	 */
+	static DataTransfer createDataTransfer(final InputStream inputStream, final OutputStream outputStream, final HttpRequest httpRequest, final Direction direction, final long expectedBytes) {
+		final DataTransfer dataTransfer = new DataTransfer(inputStream, outputStream)
+				.setCancelSignal(httpRequest::isCancelled)
+				.setTransferMonitor(createTransferMonitor(httpRequest, direction, expectedBytes));
+		for (final BandwidthLimiter bandwidthLimiter : getBandwidthLimiters(httpRequest)) {
+			dataTransfer.addBandwidthLimiter(bandwidthLimiter);
+		}
+		return dataTransfer;
+	}
+
+	static TransferMonitor createTransferMonitor(final HttpRequest httpRequest, final Direction direction, final long expectedBytes) {
+		return new TransferMonitor(direction, expectedBytes)
+				.setProgressListener(httpRequest.getTransferProgressListener())
+				.setProgressIntervalMillis(httpRequest.getProgressIntervalMillis())
+				.setStallDetection(httpRequest.getStallMinimumBytesPerSecond(), httpRequest.getStallTimeMillis());
+	}
+
+	/**
+	 * Copy downloaded data with the requests progress listener, cancellation and digests
+	 *
+	 * @return computed digests or null, if no digests were requested
+	 */
+	static Map<String, String> transferDownload(final InputStream inputStream, final OutputStream outputStream, final HttpRequest httpRequest, final long expectedBytes) throws Exception {
+		final DataTransfer dataTransfer = createDataTransfer(inputStream, outputStream, httpRequest, Direction.Download, expectedBytes);
+		if (httpRequest.getDownloadDigests().isEmpty()) {
+			dataTransfer.transfer();
+			return null;
+		} else {
+			final DownloadDigests downloadDigests = new DownloadDigests(httpRequest.getDownloadDigests());
+			downloadDigests.addTo(dataTransfer);
+			dataTransfer.transfer();
+			return downloadDigests.verify();
+		}
+	}
+
+	/**
+	 * Bandwidth limiters of the request and the global bandwidth limiter
+	 */
+	static List<BandwidthLimiter> getBandwidthLimiters(final HttpRequest httpRequest) {
+		final BandwidthLimiter currentGlobalBandwidthLimiter = globalBandwidthLimiter;
+		if (httpRequest.getBandwidthLimiter() == null && currentGlobalBandwidthLimiter == null) {
+			return Collections.emptyList();
+		} else {
+			final List<BandwidthLimiter> bandwidthLimiters = new ArrayList<>(2);
+			if (httpRequest.getBandwidthLimiter() != null) {
+				bandwidthLimiters.add(httpRequest.getBandwidthLimiter());
+			}
+			if (currentGlobalBandwidthLimiter != null && currentGlobalBandwidthLimiter != httpRequest.getBandwidthLimiter()) {
+				bandwidthLimiters.add(currentGlobalBandwidthLimiter);
+			}
+			return bandwidthLimiters;
+		}
+	}
+
+	private static OutputStream getOutputStream(final HttpURLConnection urlConnection, final MetricsRegistry currentMetricsRegistry, final String host) throws IOException {
+		if (currentMetricsRegistry == null) {
+			return urlConnection.getOutputStream();
+		} else {
+			return new CountingOutputStream(urlConnection.getOutputStream(), currentMetricsRegistry.getCounter("http_client_bytes_sent_total", "host", host));
+		}
+	}
+
+	private static InputStream getInputStream(final HttpURLConnection urlConnection, final MetricsRegistry currentMetricsRegistry, final String host) throws IOException {
+		if (currentMetricsRegistry == null) {
+			return urlConnection.getInputStream();
+		} else {
+			return new CountingInputStream(urlConnection.getInputStream(), currentMetricsRegistry.getCounter("http_client_bytes_received_total", "host", host));
+		}
+	}
+
+	private static InputStream getErrorStream(final HttpURLConnection urlConnection, final MetricsRegistry currentMetricsRegistry, final String host) {
+		final InputStream errorStream = urlConnection.getErrorStream();
+		if (currentMetricsRegistry == null || errorStream == null) {
+			return errorStream;
+		} else {
+			return new CountingInputStream(errorStream, currentMetricsRegistry.getCounter("http_client_bytes_received_total", "host", host));
+		}
+	}
+
+	private static String getHostForMetrics(final String url) {
+		try {
+			final String host = URI.create(url).getHost();
+			return host == null ? "unknown" : host.toLowerCase();
+		} catch (@SuppressWarnings("unused") final Exception e) {
+			return "unknown";
+		}
+	}
+
+	/**
+	 * Class name of the original error, which may be wrapped in a generic Exception with a more readable message
+	 */
+	private static String getErrorClassForMetrics(final Exception exception) {
+		Throwable error = exception;
+		while (error.getClass() == Exception.class && error.getCause() != null) {
+			error = error.getCause();
+		}
+		return error.getClass().getSimpleName();
+	}
+
 	public static String convertToParameterString(final Map<String, List<Object>> parameters, Charset encoding) {
 		if (parameters == null) {
 			return null;
@@ -715,6 +1012,38 @@ public class HttpUtilities {
 		}
 	}
 
+	/**
+	 * Check an "Accept-Encoding" header value, like "gzip, deflate, br;q=0.8", for a content encoding with a quality value above zero
+	 */
+	public static boolean acceptsContentEncoding(final String acceptEncodingHeaderValue, final String contentEncoding) {
+		if (NetworkUtilities.isBlank(acceptEncodingHeaderValue)) {
+			return false;
+		} else {
+			boolean wildcardAccepted = false;
+			for (final String acceptedEncodingPart : acceptEncodingHeaderValue.split(",")) {
+				final String[] encodingAndParameters = acceptedEncodingPart.trim().split(";");
+				final String encoding = encodingAndParameters[0].trim();
+				boolean accepted = true;
+				for (int i = 1; i < encodingAndParameters.length; i++) {
+					final String parameter = encodingAndParameters[i].trim().toLowerCase();
+					if (parameter.startsWith("q=")) {
+						try {
+							accepted = Double.parseDouble(parameter.substring(2).trim()) > 0;
+						} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+							accepted = false;
+						}
+					}
+				}
+				if (encoding.equalsIgnoreCase(contentEncoding)) {
+					return accepted;
+				} else if ("*".equals(encoding)) {
+					wildcardAccepted = accepted;
+				}
+			}
+			return wildcardAccepted;
+		}
+	}
+
 	public static String createBasicAuthenticationHeaderValue(final String username, final String password) {
 		return "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
 	}
@@ -727,6 +1056,79 @@ public class HttpUtilities {
 		}
 	}
 
+	static SSLSocketFactory getSslSocketFactory(final TrustManager trustManager) throws Exception {
+		return getSslSocketFactory(trustManager, null);
+	}
+
+	/**
+	 * SSLSocketFactory of a TrustManager and client key configuration, which is created once and reused, so the TLS sessions of its SSLContext can be resumed
+	 *
+	 * @param trustManager null = systems default truststore
+	 * @param clientKeyConfiguration null = no client certificate
+	 */
+	static SSLSocketFactory getSslSocketFactory(final TrustManager trustManager, final ClientKeyConfiguration clientKeyConfiguration) throws Exception {
+		return sslSocketFactoryCache.getSslSocketFactory(trustManager, clientKeyConfiguration);
+	}
+
+	/**
+	 * Prepare the connections to the origins ("https://host:port") before the first requests, like after a deployment.<br />
+	 * With a SocketHttpClientEngine, connectionsPerOrigin keep-alive connections are opened and parked in its pool.
+	 * With HttpURLConnection, which cannot open connections without a request, the hosts are resolved and one TLS handshake per origin
+	 * fills the TLS session cache of the TrustManager, so the first requests resume the TLS session.
+	 *
+	 * @return results in the order of the origins
+	 */
+	public static List<ConnectionWarmUpResult> warmUpConnections(final List<String> origins, final TrustManager trustManager, final boolean deactivateHostnameVerification, final int connectionsPerOrigin, final int connectTimeoutMillis) throws Exception {
+		return warmUpConnections(origins, trustManager, null, deactivateHostnameVerification, connectionsPerOrigin, connectTimeoutMillis);
+	}
+
+	/**
+	 * Prepare the connections with client certificate to the origins before the first requests.<br />
+	 * The warm-up uses the same SSLContext as the later requests with this client key configuration, so their TLS sessions are resumed.
+	 *
+	 * @param clientKeyConfiguration client key material of the later requests (null = no client certificate)
+	 * @return results in the order of the origins
+	 */
+	public static List<ConnectionWarmUpResult> warmUpConnections(final List<String> origins, final TrustManager trustManager, final ClientKeyConfiguration clientKeyConfiguration, final boolean deactivateHostnameVerification, final int connectionsPerOrigin, final int connectTimeoutMillis) throws Exception {
+		final HttpClientEngine currentHttpClientEngine = httpClientEngine;
+		if (currentHttpClientEngine instanceof SocketHttpClientEngine) {
+			return ((SocketHttpClientEngine) currentHttpClientEngine).warmUp(origins, trustManager, clientKeyConfiguration, deactivateHostnameVerification, connectionsPerOrigin, connectTimeoutMillis);
+		}
+
+		final List<ConnectionWarmUpResult> results = new ArrayList<>();
+		for (final String origin : origins) {
+			final long startNanos = System.nanoTime();
+			long dnsMillis = 0;
+			long firstConnectionMillis = -1;
+			try {
+				final URI uri = URI.create(origin);
+				if (uri.getHost() == null) {
+					throw new Exception("Missing host in origin '" + origin + "'");
+				}
+				final long dnsStartNanos = System.nanoTime();
+				InetAddress.getAllByName(uri.getHost());
+				dnsMillis = (System.nanoTime() - dnsStartNanos) / 1_000_000;
+				if ("https".equalsIgnoreCase(uri.getScheme())) {
+					final long connectionStartNanos = System.nanoTime();
+					try (Socket socket = new Socket()) {
+						socket.connect(new InetSocketAddress(uri.getHost(), uri.getPort() < 0 ? 443 : uri.getPort()), Math.max(0, connectTimeoutMillis));
+						socket.setSoTimeout(Math.max(0, connectTimeoutMillis));
+						try (SSLSocket sslSocket = (SSLSocket) getSslSocketFactory(trustManager, clientKeyConfiguration).createSocket(socket, uri.getHost(), uri.getPort() < 0 ? 443 : uri.getPort(), false)) {
+							sslSocket.startHandshake();
+						}
+					}
+					firstConnectionMillis = (System.nanoTime() - connectionStartNanos) / 1_000_000;
+				} else if (!"http".equalsIgnoreCase(uri.getScheme())) {
+					throw new Exception("Unsupported protocol in origin '" + origin + "'");
+				}
+				results.add(new ConnectionWarmUpResult(origin, 0, 0, dnsMillis, firstConnectionMillis, (System.nanoTime() - startNanos) / 1_000_000, null));
+			} catch (final Exception e) {
+				results.add(new ConnectionWarmUpResult(origin, 0, 0, dnsMillis, firstConnectionMillis, (System.nanoTime() - startNanos) / 1_000_000, e));
+			}
+		}
+		return results;
+	}
+
 	public static String generateBoundary() throws Exception {
 		final char[] availableChars = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".toCharArray();
 		final Random random = new SecureRandom();
@@ -739,10 +1141,7 @@ public class HttpUtilities {
 
 	public static X509Certificate getServerTlsCertificate(final String hostnameOrIp, final int port, final Proxy proxy) throws Exception {
 		final HttpsURLConnection urlConnection = (HttpsURLConnection) URI.create("https://" + hostnameOrIp + ":" + port).toURL().openConnection(proxy == null ? Proxy.NO_PROXY : proxy);
-		final SSLContext sslContext = SSLContext.getInstance(TLS_VERSION);
-		sslContext.init(null, new TrustManager[] { TrustManagerUtilities.createTrustAllTrustManager() }, new java.security.SecureRandom());
-		final SSLSocketFactory sslSocketFactory = sslContext.getSocketFactory();
-		urlConnection.setSSLSocketFactory(sslSocketFactory);
+		urlConnection.setSSLSocketFactory(TrustManagerUtilities.getTrustAllSslContext().getSocketFactory());
 		urlConnection.setHostnameVerifier(TRUSTALLHOSTNAMES_HOSTNAMEVERIFIER);
 		urlConnection.connect();
 		Certificate[] certificates;
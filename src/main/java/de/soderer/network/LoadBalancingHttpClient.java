@@ -0,0 +1,357 @@
+package de.soderer.network;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.ssl.TrustManager;
+
+/**
+ * Sends requests to a pool of equivalent origins (like "https://replica1.example.com:8443").<br />
+ * Each request is sent to the better of two randomly chosen origins ("power of two choices"), rated by their
+ * EWMA (exponentially weighted moving average) response time and their count of outstanding requests.<br />
+ * Origins failing consecutively (by an exception or a http code 5xx) are ejected for an ejection time growing with each ejection
+ * and are used again afterwards. At most maximumEjectionPercent of the origins are ejected at the same time.<br />
+ * The url of a request may be a path (like "/api/items") or a full url, whose origin is replaced.
+ * A cancellation of the given request is not passed to the request sent to the chosen origin.<br />
+ *<br />
+ * Usage example:
+ *
+ * <pre>
+ * LoadBalancingHttpClient client = new LoadBalancingHttpClient("https://replica1.example.com", "https://replica2.example.com");
+ * HttpResponse response = client.executeHttpRequest(new HttpRequest(HttpMethod.GET, "/api/items"));
+ * </pre>
+ */
+public class LoadBalancingHttpClient {
+	/**
+	 * State of one origin
+	 */
+	private class Origin {
+		private final String baseUrl;
+		private final String requestBaseUrl;
+		private final InetAddress connectAddress;
+		private double ewmaLatencyMillis = 0;
+		private long lastLatencyNanos = 0;
+		private int outstandingRequests = 0;
+		private int consecutiveFailures = 0;
+		private int ejectionsCount = 0;
+		private long ejectedUntilNanos = 0;
+		private long requestsCount = 0;
+
+		private Origin(final String baseUrl) {
+			this(baseUrl, baseUrl, null);
+		}
+
+		/**
+		 * @param baseUrl name of the origin
+		 * @param requestBaseUrl base url of the requests
+		 * @param connectAddress address to connect to instead of the host of the requests (null = resolve the host)
+		 */
+		private Origin(final String baseUrl, final String requestBaseUrl, final InetAddress connectAddress) {
+			this.baseUrl = baseUrl;
+			this.requestBaseUrl = requestBaseUrl;
+			this.connectAddress = connectAddress;
+		}
+
+		private boolean isEjected(final long nowNanos) {
+			return ejectedUntilNanos != 0 && nowNanos - ejectedUntilNanos < 0;
+		}
+
+		private double getCost() {
+			return (ewmaLatencyMillis + 1) * (outstandingRequests + 1);
+		}
+
+		private void recordLatency(final long nowNanos, final double latencyMillis) {
+			if (lastLatencyNanos == 0) {
+				ewmaLatencyMillis = latencyMillis;
+			} else {
+				final double weight = Math.exp(-(nowNanos - lastLatencyNanos) / (ewmaDecayMillis * 1_000_000d));
+				ewmaLatencyMillis = ewmaLatencyMillis * weight + latencyMillis * (1 - weight);
+			}
+			lastLatencyNanos = nowNanos;
+		}
+	}
+
+	private final List<Origin> origins = new ArrayList<>();
+
+	/** Base url, whose host is resolved to the origins, or null for fixed origins */
+	private final String resolvedBaseUrl;
+	private long resolveIntervalMillis = 60_000;
+	private volatile long nextResolveNanos = 0;
+	private final AtomicBoolean resolving = new AtomicBoolean(false);
+	private volatile Exception lastResolveError = null;
+
+	private long ewmaDecayMillis = 10_000;
+	private int consecutiveFailuresForEjection = 5;
+	private long baseEjectionMillis = 30_000;
+	private long maximumEjectionMillis = 300_000;
+	private int maximumEjectionPercent = 50;
+
+	private TrustManager trustManager = null;
+	private boolean deactivateHostnameVerification = false;
+
+	/**
+	 * @param baseUrls origins with protocol, host and optional port
+	 */
+	public LoadBalancingHttpClient(final String... baseUrls) throws Exception {
+		if (baseUrls == null || baseUrls.length == 0) {
+			throw new Exception("Missing origins for load balancing");
+		}
+		for (final String baseUrl : baseUrls) {
+			if (NetworkUtilities.isBlank(baseUrl)) {
+				throw new Exception("Invalid empty origin for load balancing");
+			}
+			origins.add(new Origin(removeTrailingSlash(baseUrl)));
+		}
+		resolvedBaseUrl = null;
+	}
+
+	private LoadBalancingHttpClient(final String resolvedBaseUrl, final InetAddress[] addresses) throws Exception {
+		this.resolvedBaseUrl = resolvedBaseUrl;
+		origins.addAll(createAddressOrigins(addresses));
+		nextResolveNanos = System.nanoTime() + resolveIntervalMillis * 1_000_000L;
+	}
+
+	/**
+	 * Client for all A and AAAA records of the host of the base url.<br />
+	 * Each address is an origin named by its ip address (like "https://10.0.0.1:8443"). The requests connect to the chosen address,
+	 * but keep the host of the base url for the Host header, the TLS server name indication and the server certificate check.
+	 * The host is resolved again after the resolve interval, new addresses are added and vanished addresses are removed.<br />
+	 * The requests need a SocketHttpClientEngine set by HttpUtilities.setHttpClientEngine.
+	 */
+	public static LoadBalancingHttpClient createForAllAddresses(final String baseUrl) throws Exception {
+		final String requestBaseUrl = removeTrailingSlash(baseUrl);
+		return new LoadBalancingHttpClient(requestBaseUrl, InetAddress.getAllByName(URI.create(requestBaseUrl).toURL().getHost()));
+	}
+
+	private List<Origin> createAddressOrigins(final InetAddress[] addresses) throws Exception {
+		final URL url = URI.create(resolvedBaseUrl).toURL();
+		final List<Origin> addressOrigins = new ArrayList<>();
+		for (final InetAddress address : addresses) {
+			final String host = address instanceof Inet6Address ? "[" + address.getHostAddress() + "]" : address.getHostAddress();
+			addressOrigins.add(new Origin(url.getProtocol() + "://" + host + (url.getPort() < 0 ? "" : ":" + url.getPort()), resolvedBaseUrl, address));
+		}
+		return addressOrigins;
+	}
+
+	private static String removeTrailingSlash(final String baseUrl) {
+		return baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+	}
+
+	/**
+	 * Interval to resolve the host of a client for all addresses again (default 60 seconds)
+	 */
+	public LoadBalancingHttpClient setResolveIntervalMillis(final long resolveIntervalMillis) {
+		this.resolveIntervalMillis = resolveIntervalMillis;
+		nextResolveNanos = System.nanoTime() + resolveIntervalMillis * 1_000_000L;
+
+		return this;
+	}
+
+	/**
+	 * Error of the last failed resolution of the host of a client for all addresses or null. The previous origins stay in use in that case.
+	 */
+	public Exception getLastResolveError() {
+		return lastResolveError;
+	}
+
+	public LoadBalancingHttpClient setTrustManager(final TrustManager trustManager, final boolean deactivateHostnameVerification) {
+		this.trustManager = trustManager;
+		this.deactivateHostnameVerification = deactivateHostnameVerification;
+
+		return this;
+	}
+
+	/**
+	 * Time after which older response times have lost about 63% of their weight in the EWMA (default 10 seconds)
+	 */
+	public LoadBalancingHttpClient setEwmaDecayMillis(final long ewmaDecayMillis) {
+		this.ewmaDecayMillis = ewmaDecayMillis;
+
+		return this;
+	}
+
+	/**
+	 * Outlier ejection: Consecutive failures to eject an origin (default 5), ejection time multiplied by the number of ejections (default 30 seconds),
+	 * maximum ejection time (default 5 minutes) and maximum percentage of ejected origins (default 50)
+	 */
+	public LoadBalancingHttpClient setOutlierEjection(final int consecutiveFailuresForEjection, final long baseEjectionMillis, final long maximumEjectionMillis, final int maximumEjectionPercent) {
+		this.consecutiveFailuresForEjection = consecutiveFailuresForEjection;
+		this.baseEjectionMillis = baseEjectionMillis;
+		this.maximumEjectionMillis = maximumEjectionMillis;
+		this.maximumEjectionPercent = maximumEjectionPercent;
+
+		return this;
+	}
+
+	public synchronized List<String> getOrigins() {
+		final List<String> baseUrls = new ArrayList<>();
+		for (final Origin origin : origins) {
+			baseUrls.add(origin.baseUrl);
+		}
+		return baseUrls;
+	}
+
+	public synchronized List<String> getEjectedOrigins() {
+		final long nowNanos = System.nanoTime();
+		final List<String> baseUrls = new ArrayList<>();
+		for (final Origin origin : origins) {
+			if (origin.isEjected(nowNanos)) {
+				baseUrls.add(origin.baseUrl);
+			}
+		}
+		return baseUrls;
+	}
+
+	/**
+	 * Number of requests sent to an origin
+	 */
+	public synchronized long getRequestsCount(final String baseUrl) {
+		for (final Origin origin : origins) {
+			if (origin.baseUrl.equals(baseUrl)) {
+				return origin.requestsCount;
+			}
+		}
+		return 0;
+	}
+
+	public HttpResponse executeHttpRequest(final HttpRequest httpRequest) throws Exception {
+		resolveAddressesIfDue();
+		final Origin origin = acquireOrigin();
+		final long startNanos = System.nanoTime();
+		boolean failed = true;
+		try {
+			final HttpResponse httpResponse = HttpUtilities.executeHttpRequest(createOriginRequest(httpRequest, origin), null, null, null, trustManager, deactivateHostnameVerification);
+			failed = httpResponse.getHttpCode() >= 500;
+			return httpResponse;
+		} finally {
+			releaseOrigin(origin, startNanos, failed);
+		}
+	}
+
+	/**
+	 * Resolve the host of a client for all addresses again, if the resolve interval elapsed. Only one request resolves the host, the others use the current origins.
+	 */
+	private void resolveAddressesIfDue() {
+		if (resolvedBaseUrl == null || System.nanoTime() - nextResolveNanos < 0 || !resolving.compareAndSet(false, true)) {
+			return;
+		}
+
+		try {
+			final List<Origin> addressOrigins = createAddressOrigins(InetAddress.getAllByName(URI.create(resolvedBaseUrl).toURL().getHost()));
+			lastResolveError = null;
+			updateOrigins(addressOrigins);
+		} catch (final Exception e) {
+			lastResolveError = e;
+		} finally {
+			nextResolveNanos = System.nanoTime() + resolveIntervalMillis * 1_000_000L;
+			resolving.set(false);
+		}
+	}
+
+	/**
+	 * Keep the state of the remaining addresses, add the new ones and remove the vanished ones
+	 */
+	private synchronized void updateOrigins(final List<Origin> addressOrigins) {
+		final List<String> addressBaseUrls = new ArrayList<>();
+		for (final Origin addressOrigin : addressOrigins) {
+			addressBaseUrls.add(addressOrigin.baseUrl);
+		}
+		for (final Iterator<Origin> iterator = origins.iterator(); iterator.hasNext();) {
+			if (!addressBaseUrls.remove(iterator.next().baseUrl)) {
+				iterator.remove();
+			}
+		}
+		for (final Origin addressOrigin : addressOrigins) {
+			if (addressBaseUrls.contains(addressOrigin.baseUrl)) {
+				origins.add(addressOrigin);
+			}
+		}
+	}
+
+	private synchronized Origin acquireOrigin() {
+		final long nowNanos = System.nanoTime();
+		final List<Origin> availableOrigins = new ArrayList<>();
+		for (final Origin origin : origins) {
+			if (!origin.isEjected(nowNanos)) {
+				availableOrigins.add(origin);
+			}
+		}
+		if (availableOrigins.isEmpty()) {
+			availableOrigins.addAll(origins);
+		}
+
+		final Origin chosenOrigin;
+		if (availableOrigins.size() == 1) {
+			chosenOrigin = availableOrigins.get(0);
+		} else {
+			final ThreadLocalRandom random = ThreadLocalRandom.current();
+			final int firstIndex = random.nextInt(availableOrigins.size());
+			final int secondIndex = (firstIndex + 1 + random.nextInt(availableOrigins.size() - 1)) % availableOrigins.size();
+			final Origin firstOrigin = availableOrigins.get(firstIndex);
+			final Origin secondOrigin = availableOrigins.get(secondIndex);
+			chosenOrigin = firstOrigin.getCost() <= secondOrigin.getCost() ? firstOrigin : secondOrigin;
+		}
+		chosenOrigin.outstandingRequests++;
+		chosenOrigin.requestsCount++;
+		return chosenOrigin;
+	}
+
+	private synchronized void releaseOrigin(final Origin origin, final long startNanos, final boolean failed) {
+		final long nowNanos = System.nanoTime();
+		origin.outstandingRequests--;
+		origin.recordLatency(nowNanos, (nowNanos - startNanos) / 1_000_000d);
+		if (!failed) {
+			origin.consecutiveFailures = 0;
+			if (!origin.isEjected(nowNanos)) {
+				origin.ejectionsCount = 0;
+			}
+		} else if (++origin.consecutiveFailures >= consecutiveFailuresForEjection && !origin.isEjected(nowNanos) && getEjectedOriginsCount(nowNanos) + 1 <= origins.size() * maximumEjectionPercent / 100) {
+			origin.ejectionsCount++;
+			origin.consecutiveFailures = 0;
+			origin.ejectedUntilNanos = nowNanos + Math.min(maximumEjectionMillis, baseEjectionMillis * origin.ejectionsCount) * 1_000_000L;
+		}
+	}
+
+	private int getEjectedOriginsCount(final long nowNanos) {
+		int ejectedOriginsCount = 0;
+		for (final Origin origin : origins) {
+			if (origin.isEjected(nowNanos)) {
+				ejectedOriginsCount++;
+			}
+		}
+		return ejectedOriginsCount;
+	}
+
+	private static HttpRequest createOriginRequest(final HttpRequest httpRequest, final Origin origin) throws Exception {
+		String path = httpRequest.getUrl();
+		final int protocolEnd = path.indexOf("://");
+		if (protocolEnd >= 0) {
+			final int pathStart = path.indexOf('/', protocolEnd + 3);
+			path = pathStart < 0 ? "" : path.substring(pathStart);
+		} else if (!path.startsWith("/")) {
+			path = "/" + path;
+		}
+
+		final HttpRequest originRequest = httpRequest.createCopy(origin.requestBaseUrl + path);
+		originRequest.setConnectAddress(origin.connectAddress);
+		if (httpRequest.getRequestBodyContentStream() != null) {
+			originRequest.setRequestBodyContentStream(httpRequest.getRequestBodyContentStream());
+		}
+		if (httpRequest.getDownloadStream() != null) {
+			originRequest.setDownloadStream(httpRequest.getDownloadStream());
+		}
+		if (httpRequest.getDownloadFile() != null) {
+			originRequest.setDownloadFile(httpRequest.getDownloadFile());
+		}
+		originRequest.setTransferProgressListener(httpRequest.getTransferProgressListener());
+		originRequest.setProgressIntervalMillis(httpRequest.getProgressIntervalMillis());
+		return originRequest;
+	}
+}
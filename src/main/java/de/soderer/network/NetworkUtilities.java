@@ -15,14 +15,10 @@ import java.net.SocketException;
 import java.net.URI;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.security.KeyStore;
-import java.security.SecureRandom;
 import java.security.cert.Certificate;
-import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -31,11 +27,11 @@ import java.util.regex.Pattern;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
-import javax.net.ssl.TrustManagerFactory;
 
+import de.soderer.network.trustmanager.PemBundleTrustManager;
 import de.soderer.network.trustmanager.TrustManagerUtilities;
+import de.soderer.network.utilities.DataTransfer;
 
 public class NetworkUtilities {
 	private static final String SPECIAL_CHARS_REGEXP = "\\p{Cntrl}\\(\\)<>@,;:'\\\\\\\"\\.\\[\\]";
@@ -278,11 +274,7 @@ public class NetworkUtilities {
 			}
 
 			if (noCertCheck) {
-				final TrustManager trustManager = TrustManagerUtilities.createTrustAllTrustManager();
-				final SSLContext sslContext = SSLContext.getInstance("TLS");
-				sslContext.init(null, new TrustManager[] { trustManager }, new SecureRandom());
-				final SSLSocketFactory sslSocketFactory = sslContext.getSocketFactory();
-				httpsURLConnection.setSSLSocketFactory(sslSocketFactory);
+				httpsURLConnection.setSSLSocketFactory(TrustManagerUtilities.getTrustAllSslContext().getSocketFactory());
 				final HostnameVerifier trustAllHostnamesHostnameverifier = (hostname, session) -> true;
 				httpsURLConnection.setHostnameVerifier(trustAllHostnamesHostnameverifier);
 			}
@@ -402,18 +394,8 @@ public class NetworkUtilities {
 			throw new Exception("Invalid urlString for https connection: " + urlString);
 		}
 
-		final Collection<? extends Certificate> certificates = CertificateFactory.getInstance("X.509").generateCertificates(pemCertificateInputStream);
-		final KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
-		keyStore.load(null, null);
-		int aliasId = 1;
-		for (final Certificate certificate : certificates) {
-			keyStore.setCertificateEntry(Integer.toString(aliasId++), certificate);
-		}
-
-		final TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-		tmf.init(keyStore);
 		final SSLContext context = SSLContext.getInstance("TLS");
-		context.init(null, tmf.getTrustManagers(), null);
+		context.init(null, new TrustManager[] { new PemBundleTrustManager(pemCertificateInputStream) }, null);
 
 		final URL url = URI.create(urlString).toURL();
 
@@ -458,16 +440,11 @@ public class NetworkUtilities {
 		}
 	}
 
+	/**
+	 * Copy all data by pooled buffers or FileChannel transfers (see DataTransfer)
+	 */
 	public static long copy(final InputStream inputStream, final OutputStream outputStream) throws IOException {
-		final byte[] buffer = new byte[4096];
-		int lengthRead;
-		long bytesCopied = 0;
-		while ((lengthRead = inputStream.read(buffer)) != -1) {
-			outputStream.write(buffer, 0, lengthRead);
-			bytesCopied += lengthRead;
-		}
-		outputStream.flush();
-		return bytesCopied;
+		return DataTransfer.copy(inputStream, outputStream);
 	}
 
 	public static boolean hostnamePatternMatches(final String hostname, final String hostnamePattern) {
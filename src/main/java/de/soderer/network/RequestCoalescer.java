@@ -0,0 +1,157 @@
+package de.soderer.network;
+
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.TrustManager;
+
+import de.soderer.network.trustmanager.KeyManagerRegistry;
+
+/**
+ * Executes identical concurrent GET and HEAD requests only once ("single flight").<br />
+ * Requests are identical, if their method, full URL, cookies, Authorization header and the values of the key headers are equal
+ * and they use the same proxy, TrustManager, hostname verification and client key configuration.
+ * All waiting callers get the response of the running request, each one its own copy, if copyResponses is set.<br />
+ * Requests with a request body, download stream or download file are never coalesced.<br />
+ *<br />
+ * Usage example:
+ *
+ * <pre>
+ * HttpUtilities.setRequestCoalescer(new RequestCoalescer("Accept"));
+ * </pre>
+ */
+public class RequestCoalescer {
+	/**
+	 * Credentials of a request are always part of the request key
+	 */
+	private static final String[] CREDENTIAL_HEADER_NAMES = new String[] { "Authorization", "Proxy-Authorization" };
+
+	private final String[] keyHeaderNames;
+	private boolean copyResponses = true;
+
+	private final ConcurrentHashMap<List<Object>, CompletableFuture<HttpResponse>> runningRequests = new ConcurrentHashMap<>();
+
+	private final AtomicLong executedRequestsCount = new AtomicLong(0);
+	private final AtomicLong coalescedRequestsCount = new AtomicLong(0);
+
+	/**
+	 * @param keyHeaderNames names of the request headers additional to "Authorization" and "Proxy-Authorization", which must be equal for coalescing requests
+	 */
+	public RequestCoalescer(final String... keyHeaderNames) {
+		this.keyHeaderNames = keyHeaderNames == null ? new String[0] : keyHeaderNames.clone();
+	}
+
+	/**
+	 * Give each waiting caller its own copy of the response (default true) instead of the same instance
+	 */
+	public RequestCoalescer setCopyResponses(final boolean copyResponses) {
+		this.copyResponses = copyResponses;
+
+		return this;
+	}
+
+	public long getExecutedRequestsCount() {
+		return executedRequestsCount.get();
+	}
+
+	/**
+	 * Number of requests answered by the response of an identical running request
+	 */
+	public long getCoalescedRequestsCount() {
+		return coalescedRequestsCount.get();
+	}
+
+	public int getRunningRequestsCount() {
+		return runningRequests.size();
+	}
+
+	static boolean isCoalescable(final HttpRequest httpRequest) {
+		final HttpMethod httpMethod = httpRequest.getRequestMethod() == null ? HttpMethod.GET : httpRequest.getRequestMethod();
+		return (httpMethod == HttpMethod.GET || httpMethod == HttpMethod.HEAD)
+				&& httpRequest.getRequestBody() == null
+				&& httpRequest.getRequestBodyContentStream() == null
+				&& httpRequest.getPostParameters().isEmpty()
+				&& httpRequest.getUploadFileAttachments().isEmpty()
+				&& httpRequest.getDownloadStream() == null
+				&& httpRequest.getDownloadFile() == null;
+	}
+
+	/**
+	 * Execute the request or wait for the running identical request
+	 *
+	 * @param proxy proxy of the request
+	 * @param proxyUsername user of the proxy authentication
+	 * @param trustManager TrustManager of the request (null = systems default truststore)
+	 * @param deactivateHostnameVerification hostname verification setting of the request
+	 * @param executor executes the request without coalescing
+	 */
+	HttpResponse execute(final HttpRequest httpRequest, final Proxy proxy, final String proxyUsername, final TrustManager trustManager, final boolean deactivateHostnameVerification, final Callable<HttpResponse> executor) throws Exception {
+		final List<Object> requestKey = createRequestKey(httpRequest, proxy, proxyUsername, trustManager, deactivateHostnameVerification);
+		final CompletableFuture<HttpResponse> request = new CompletableFuture<>();
+		final CompletableFuture<HttpResponse> runningRequest = runningRequests.putIfAbsent(requestKey, request);
+		if (runningRequest != null) {
+			coalescedRequestsCount.incrementAndGet();
+			final HttpResponse httpResponse;
+			try {
+				httpResponse = runningRequest.get();
+			} catch (final ExecutionException e) {
+				if (e.getCause() instanceof Exception) {
+					throw (Exception) e.getCause();
+				} else {
+					throw e;
+				}
+			}
+			return copyResponses ? httpResponse.createCopy() : httpResponse;
+		}
+
+		executedRequestsCount.incrementAndGet();
+		try {
+			final HttpResponse httpResponse = executor.call();
+			// Waiting callers get their copies from the original response, so the executing caller may modify its response
+			request.complete(httpResponse);
+			return copyResponses ? httpResponse.createCopy() : httpResponse;
+		} catch (final Exception e) {
+			request.completeExceptionally(e);
+			throw e;
+		} finally {
+			runningRequests.remove(requestKey, request);
+		}
+	}
+
+	/**
+	 * Requests with different credentials, TLS trust or client identities may get different responses, so they are part of the key.
+	 * The cached TrustManagers of TrustManagerRegistry are the same instance for the same configuration.
+	 */
+	private List<Object> createRequestKey(final HttpRequest httpRequest, final Proxy proxy, final String proxyUsername, final TrustManager trustManager, final boolean deactivateHostnameVerification) throws Exception {
+		final StringBuilder requestKey = new StringBuilder();
+		requestKey.append(httpRequest.getRequestMethod() == null ? HttpMethod.GET.name() : httpRequest.getRequestMethod().name());
+		requestKey.append(' ').append(HttpUtilities.createRequestedUrl(httpRequest));
+		for (final String credentialHeaderName : CREDENTIAL_HEADER_NAMES) {
+			requestKey.append('\n').append(credentialHeaderName.toLowerCase()).append(": ").append(getHeaderValue(httpRequest, credentialHeaderName));
+		}
+		for (final String keyHeaderName : keyHeaderNames) {
+			requestKey.append('\n').append(keyHeaderName.toLowerCase()).append(": ").append(getHeaderValue(httpRequest, keyHeaderName));
+		}
+		if (!httpRequest.getCookieData().isEmpty()) {
+			requestKey.append("\ncookie: ").append(HttpUtilities.createCookieHeaderValue(httpRequest.getCookieData()));
+		}
+		final Object keyConfigurationKey = httpRequest.getClientKeyConfiguration() == null ? null : KeyManagerRegistry.getConfigurationKey(httpRequest.getClientKeyConfiguration());
+		return Arrays.asList(requestKey.toString(), proxy, proxyUsername, trustManager, deactivateHostnameVerification, keyConfigurationKey);
+	}
+
+	private static String getHeaderValue(final HttpRequest httpRequest, final String headerName) {
+		for (final Entry<String, String> headerEntry : httpRequest.getHeaders().entrySet()) {
+			if (headerEntry.getKey().equalsIgnoreCase(headerName)) {
+				return headerEntry.getValue();
+			}
+		}
+		return null;
+	}
+}
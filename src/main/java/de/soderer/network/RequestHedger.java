@@ -0,0 +1,281 @@
+package de.soderer.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.soderer.network.metrics.LatencyHistogram;
+
+/**
+ * Sends a second copy of an idempotent request, when it is not answered within the hedge delay, to cut the tail latency of replicated backends.<br />
+ * The hedge delay is the running 95th percentile of the response times (or a fixed delay). The hedged copy is sent to the next alternate host or the same host.
+ * Both attempts are copies of the given request. The first successful response wins and the other attempt is cancelled by HttpRequest.cancel().
+ * Cancelling the given request cancels both attempts.<br />
+ * The attempts are executed by a limited number of threads (default 64). When all threads are busy, requests are executed in the calling thread without hedging.<br />
+ * The hedge budget limits the additional load: Each request earns the hedge ratio (default 0.1) and each hedged copy spends 1 of a limited balance.<br />
+ * Requests with a request body stream, download stream or download file are never hedged.<br />
+ *<br />
+ * Usage example:
+ *
+ * <pre>
+ * HttpUtilities.setRequestHedger(new RequestHedger().addAlternateHost("backend2.example.com:8443"));
+ * </pre>
+ */
+public class RequestHedger implements AutoCloseable {
+	/**
+	 * Executes a request without hedging
+	 */
+	interface RequestExecutor {
+		HttpResponse execute(HttpRequest httpRequest) throws Exception;
+	}
+
+	private long hedgeDelayMillis = -1;
+	private long minimumHedgeDelayMillis = 10;
+	private long initialHedgeDelayMillis = 100;
+	private int minimumSamplesCount = 20;
+	private double hedgeRatio = 0.1;
+	private double maximumHedgeBalance = 10;
+	private final List<String> alternateHosts = new ArrayList<>();
+
+	private final LatencyHistogram responseTimes = new LatencyHistogram();
+	private final AtomicInteger nextAlternateHostIndex = new AtomicInteger(0);
+	private double hedgeBalance = 0;
+
+	private final AtomicLong hedgedRequestsCount = new AtomicLong(0);
+	private final AtomicLong hedgeWinsCount = new AtomicLong(0);
+	private final AtomicLong hedgesDeniedByBudgetCount = new AtomicLong(0);
+
+	private final ThreadPoolExecutor executor = new ThreadPoolExecutor(0, 64, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+		final Thread thread = new Thread(runnable, "RequestHedger");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Fixed hedge delay (default -1 = running 95th percentile of the response times)
+	 */
+	public RequestHedger setHedgeDelayMillis(final long hedgeDelayMillis) {
+		this.hedgeDelayMillis = hedgeDelayMillis;
+
+		return this;
+	}
+
+	/**
+	 * Lower bound of the hedge delay by percentile (default 10 milliseconds)
+	 */
+	public RequestHedger setMinimumHedgeDelayMillis(final long minimumHedgeDelayMillis) {
+		this.minimumHedgeDelayMillis = minimumHedgeDelayMillis;
+
+		return this;
+	}
+
+	/**
+	 * Hedge delay until minimumSamplesCount response times are recorded (defaults 100 milliseconds and 20 samples)
+	 */
+	public RequestHedger setInitialHedgeDelay(final long initialHedgeDelayMillis, final int minimumSamplesCount) {
+		this.initialHedgeDelayMillis = initialHedgeDelayMillis;
+		this.minimumSamplesCount = minimumSamplesCount;
+
+		return this;
+	}
+
+	/**
+	 * Hedge budget: Fraction of the requests, which may be hedged (default 0.1), and maximum number of hedged copies in a burst (default 10)
+	 */
+	public synchronized RequestHedger setHedgeBudget(final double hedgeRatio, final double maximumHedgeBalance) {
+		this.hedgeRatio = hedgeRatio;
+		this.maximumHedgeBalance = maximumHedgeBalance;
+		hedgeBalance = Math.min(hedgeBalance, maximumHedgeBalance);
+
+		return this;
+	}
+
+	/**
+	 * Maximum number of threads executing the attempts (default 64)
+	 */
+	public RequestHedger setMaximumThreads(final int maximumThreads) {
+		executor.setMaximumPoolSize(maximumThreads);
+
+		return this;
+	}
+
+	/**
+	 * Alternate host (and port) for hedged copies of requests, which are used in round robin order. Without alternate hosts the hedged copies are sent to the same host.
+	 */
+	public RequestHedger addAlternateHost(final String alternateHost) {
+		synchronized (alternateHosts) {
+			alternateHosts.add(alternateHost);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Current hedge delay in milliseconds
+	 */
+	public long getHedgeDelayMillis() {
+		if (hedgeDelayMillis >= 0) {
+			return hedgeDelayMillis;
+		} else if (responseTimes.getCount() < minimumSamplesCount) {
+			return initialHedgeDelayMillis;
+		} else {
+			return Math.max(minimumHedgeDelayMillis, responseTimes.getValueAtPercentile(95.0) / 1000);
+		}
+	}
+
+	public long getHedgedRequestsCount() {
+		return hedgedRequestsCount.get();
+	}
+
+	/**
+	 * Number of requests answered by the hedged copy
+	 */
+	public long getHedgeWinsCount() {
+		return hedgeWinsCount.get();
+	}
+
+	public long getHedgesDeniedByBudgetCount() {
+		return hedgesDeniedByBudgetCount.get();
+	}
+
+	static boolean isHedgeable(final HttpRequest httpRequest) {
+		return httpRequest.getRequestMethod().isIdempotent()
+				&& httpRequest.getRequestBodyContentStream() == null
+				&& httpRequest.getDownloadStream() == null
+				&& httpRequest.getDownloadFile() == null;
+	}
+
+	/**
+	 * Execute the request and a hedged copy of it, when there is no response within the hedge delay
+	 */
+	HttpResponse execute(final HttpRequest httpRequest, final RequestExecutor requestExecutor) throws Exception {
+		final long startNanos = System.nanoTime();
+		depositHedgeBudget();
+
+		// Only the attempts are cancelled by the hedger, the given request stays usable for the caller
+		final HttpRequest primaryRequest = httpRequest.createCopy(httpRequest.getUrlWithProtocol());
+		final HttpRequest hedgedRequest = httpRequest.createCopy(getHedgeUrl(httpRequest));
+		httpRequest.setEngineConnection(() -> {
+			primaryRequest.cancel();
+			hedgedRequest.cancel();
+		});
+		try {
+			return executeAttempts(primaryRequest, hedgedRequest, requestExecutor, startNanos);
+		} finally {
+			httpRequest.setEngineConnection(null);
+		}
+	}
+
+	private HttpResponse executeAttempts(final HttpRequest primaryRequest, final HttpRequest hedgedRequest, final RequestExecutor requestExecutor, final long startNanos) throws Exception {
+		final CompletionService<HttpResponse> completionService = new ExecutorCompletionService<>(executor);
+		final Future<HttpResponse> primaryFuture;
+		try {
+			primaryFuture = completionService.submit(() -> requestExecutor.execute(primaryRequest));
+		} catch (@SuppressWarnings("unused") final RejectedExecutionException e) {
+			// All threads are busy, so the request is executed without hedging
+			final HttpResponse httpResponse = requestExecutor.execute(primaryRequest);
+			responseTimes.record((System.nanoTime() - startNanos) / 1000);
+			return httpResponse;
+		}
+		Future<HttpResponse> completedFuture = completionService.poll(getHedgeDelayMillis(), TimeUnit.MILLISECONDS);
+		if (completedFuture != null || !withdrawHedgeBudget()) {
+			if (completedFuture == null) {
+				hedgesDeniedByBudgetCount.incrementAndGet();
+			}
+			final HttpResponse httpResponse = getResult(primaryFuture);
+			responseTimes.record((System.nanoTime() - startNanos) / 1000);
+			return httpResponse;
+		}
+
+		final Future<HttpResponse> hedgedFuture;
+		try {
+			hedgedFuture = completionService.submit(() -> requestExecutor.execute(hedgedRequest));
+		} catch (@SuppressWarnings("unused") final RejectedExecutionException e) {
+			// All threads are busy, so the primary request is not hedged
+			final HttpResponse httpResponse = getResult(primaryFuture);
+			responseTimes.record((System.nanoTime() - startNanos) / 1000);
+			return httpResponse;
+		}
+		hedgedRequestsCount.incrementAndGet();
+
+		completedFuture = completionService.take();
+		final HttpResponse firstResponse;
+		try {
+			firstResponse = getResult(completedFuture);
+		} catch (@SuppressWarnings("unused") final Exception e) {
+			// The first failing request does not decide, so use the result of the other request
+			final Future<HttpResponse> otherFuture = completedFuture == primaryFuture ? hedgedFuture : primaryFuture;
+			final HttpResponse httpResponse = getResult(otherFuture);
+			if (otherFuture == hedgedFuture) {
+				hedgeWinsCount.incrementAndGet();
+			}
+			responseTimes.record((System.nanoTime() - startNanos) / 1000);
+			return httpResponse;
+		}
+
+		if (completedFuture == primaryFuture) {
+			hedgedRequest.cancel();
+		} else {
+			hedgeWinsCount.incrementAndGet();
+			primaryRequest.cancel();
+		}
+		responseTimes.record((System.nanoTime() - startNanos) / 1000);
+		return firstResponse;
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private synchronized void depositHedgeBudget() {
+		hedgeBalance = Math.min(maximumHedgeBalance, hedgeBalance + hedgeRatio);
+	}
+
+	private synchronized boolean withdrawHedgeBudget() {
+		if (hedgeBalance >= 1) {
+			hedgeBalance -= 1;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	private String getHedgeUrl(final HttpRequest httpRequest) throws Exception {
+		final String url = httpRequest.getUrlWithProtocol();
+		final String alternateHost;
+		synchronized (alternateHosts) {
+			if (alternateHosts.isEmpty()) {
+				return url;
+			}
+			alternateHost = alternateHosts.get(Math.floorMod(nextAlternateHostIndex.getAndIncrement(), alternateHosts.size()));
+		}
+		final int hostStart = url.indexOf("://") + 3;
+		int hostEnd = hostStart;
+		while (hostEnd < url.length() && url.charAt(hostEnd) != '/' && url.charAt(hostEnd) != '?' && url.charAt(hostEnd) != '#') {
+			hostEnd++;
+		}
+		return url.substring(0, hostStart) + alternateHost + url.substring(hostEnd);
+	}
+
+	private static HttpResponse getResult(final Future<HttpResponse> future) throws Exception {
+		try {
+			return future.get();
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			} else {
+				throw e;
+			}
+		}
+	}
+}
@@ -0,0 +1,972 @@
+package de.soderer.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+
+import de.soderer.network.SocketHttpConnection.ResponseBodyInputStream;
+import de.soderer.network.SocketHttpConnection.ResponseHead;
+import de.soderer.network.metrics.MetricsRegistry;
+import de.soderer.network.trustmanager.KeyManagerRegistry;
+import de.soderer.network.utilities.BandwidthLimitedInputStream;
+import de.soderer.network.utilities.BandwidthLimiter;
+import de.soderer.network.utilities.ByteBufferPool;
+import de.soderer.network.utilities.TransferMonitor;
+import de.soderer.network.utilities.TransferProgress.Direction;
+
+/**
+ * HttpClientEngine writing and reading HTTP/1.1 directly on sockets instead of using HttpURLConnection.<br />
+ * Request heads are assembled from pre-encoded byte fragments in pooled buffers, response heads are parsed directly from pooled buffers
+ * and connections are kept alive in a pool per host, port and TLS configuration.<br />
+ *<br />
+ * Usage example:
+ *
+ * <pre>
+ * HttpUtilities.setHttpClientEngine(new SocketHttpClientEngine());
+ * HttpResponse response = HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, "https://example.com"));
+ * </pre>
+ */
+public class SocketHttpClientEngine implements HttpClientEngine, Closeable {
+	private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] HEADER_SEPARATOR = ": ".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] REQUEST_LINE_END = " HTTP/1.1\r\n".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] CONTENT_LENGTH_HEADER_START = (HttpConstants.HTTPHEADERNAME_CONTENTLENGTH + ": ").getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] CONTENT_LENGTH_ZERO_HEADER = (HttpConstants.HTTPHEADERNAME_CONTENTLENGTH + ": 0\r\n").getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] CONTENT_TYPE_HEADER_START = (HttpConstants.HTTPHEADERNAME_CONTENTTYPE + ": ").getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] COOKIE_HEADER_START = (HttpConstants.HTTPHEADERNAME_COOKIE + ": ").getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] TRANSFER_ENCODING_CHUNKED_HEADER = "Transfer-Encoding: chunked\r\n".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] CONNECTION_CLOSE_HEADER = "Connection: close\r\n".getBytes(StandardCharsets.ISO_8859_1);
+	private static final Map<HttpMethod, byte[]> REQUEST_LINE_STARTS = new EnumMap<>(HttpMethod.class);
+	static {
+		for (final HttpMethod httpMethod : HttpMethod.values()) {
+			REQUEST_LINE_STARTS.put(httpMethod, (httpMethod.name() + " ").getBytes(StandardCharsets.ISO_8859_1));
+		}
+	}
+
+	/**
+	 * Target of pooled connections. Connections are only shared between requests with the same TLS trust configuration and client key configuration.
+	 * Connections of a previous KeyManager of the client key configuration, like before a certificate rotation, are not reused.
+	 * Requests with a connect address have their own routes per address.
+	 */
+	private static final class Route {
+		private final String host;
+		private final InetAddress connectAddress;
+		private final int port;
+		private final boolean secure;
+		private final TrustManager trustManager;
+		private final Object keyConfigurationKey;
+		private final KeyManager keyManager;
+		private final boolean deactivateHostnameVerification;
+		private final byte[] hostHeader;
+
+		private Route(final String host, final InetAddress connectAddress, final int port, final boolean secure, final TrustManager trustManager, final Object keyConfigurationKey, final KeyManager keyManager, final boolean deactivateHostnameVerification) {
+			this.host = host;
+			this.connectAddress = connectAddress;
+			this.port = port;
+			this.secure = secure;
+			this.trustManager = secure ? trustManager : null;
+			this.keyConfigurationKey = secure ? keyConfigurationKey : null;
+			this.keyManager = secure ? keyManager : null;
+			this.deactivateHostnameVerification = secure && deactivateHostnameVerification;
+			final boolean defaultPort = (secure && port == 443) || (!secure && port == 80);
+			final String hostValue = host.indexOf(':') >= 0 ? "[" + host + "]" : host;
+			hostHeader = ("Host: " + hostValue + (defaultPort ? "" : ":" + port) + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+		}
+
+		@Override
+		public int hashCode() {
+			return host.hashCode() * 31 + port + (secure ? 1 : 0) + System.identityHashCode(trustManager) + Objects.hashCode(keyConfigurationKey) + Objects.hashCode(connectAddress) + (deactivateHostnameVerification ? 7 : 0);
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			if (this == other) {
+				return true;
+			} else if (!(other instanceof Route)) {
+				return false;
+			} else {
+				final Route otherRoute = (Route) other;
+				return port == otherRoute.port
+						&& secure == otherRoute.secure
+						&& trustManager == otherRoute.trustManager
+						&& Objects.equals(keyConfigurationKey, otherRoute.keyConfigurationKey)
+						&& deactivateHostnameVerification == otherRoute.deactivateHostnameVerification
+						&& host.equals(otherRoute.host)
+						&& Objects.equals(connectAddress, otherRoute.connectAddress);
+			}
+		}
+	}
+
+	private final ByteBufferPool bufferPool;
+	private final ConcurrentHashMap<Route, Deque<SocketHttpConnection>> idleConnections = new ConcurrentHashMap<>();
+	private volatile SslSocketFactoryCache sslSocketFactoryCache = new SslSocketFactoryCache("TLS", 64);
+
+	private int maximumIdleConnectionsPerRoute = 8;
+	private long keepAliveTimeoutMillis = 30000;
+	private int maximumResponseHeadSize = 64 * 1024;
+	private int maximumPipelineDepth = 16;
+
+	private final AtomicLong openedConnectionsCount = new AtomicLong(0);
+	private final AtomicLong reusedConnectionsCount = new AtomicLong(0);
+	private final AtomicLong replayedRequestsCount = new AtomicLong(0);
+	private volatile boolean closed = false;
+
+	public SocketHttpClientEngine() {
+		this(16 * 1024, 256);
+	}
+
+	/**
+	 * @param bufferSize size of the pooled read and write buffers
+	 * @param maximumPooledBuffers maximum number of unused buffers kept for reuse
+	 */
+	public SocketHttpClientEngine(final int bufferSize, final int maximumPooledBuffers) {
+		bufferPool = new ByteBufferPool(bufferSize, maximumPooledBuffers, false);
+	}
+
+	public SocketHttpClientEngine setMaximumIdleConnectionsPerRoute(final int maximumIdleConnectionsPerRoute) {
+		this.maximumIdleConnectionsPerRoute = maximumIdleConnectionsPerRoute;
+
+		return this;
+	}
+
+	/**
+	 * Idle connections older than this are not reused anymore
+	 */
+	public SocketHttpClientEngine setKeepAliveTimeoutMillis(final long keepAliveTimeoutMillis) {
+		this.keepAliveTimeoutMillis = keepAliveTimeoutMillis;
+
+		return this;
+	}
+
+	public SocketHttpClientEngine setMaximumResponseHeadSize(final int maximumResponseHeadSize) {
+		this.maximumResponseHeadSize = maximumResponseHeadSize;
+
+		return this;
+	}
+
+	/**
+	 * SSLContext protocol, like "TLS", "TLSv1.2" or "TLSv1.3"
+	 */
+	public SocketHttpClientEngine setTlsVersion(final String tlsVersion) {
+		sslSocketFactoryCache = new SslSocketFactoryCache(tlsVersion, 64);
+
+		return this;
+	}
+
+	/**
+	 * Maximum number of requests sent on one connection before their responses are read by executePipelinedHttpRequests(...)
+	 */
+	public SocketHttpClientEngine setMaximumPipelineDepth(final int maximumPipelineDepth) {
+		if (maximumPipelineDepth < 1) {
+			throw new IllegalArgumentException("Invalid maximum pipeline depth: " + maximumPipelineDepth);
+		}
+		this.maximumPipelineDepth = maximumPipelineDepth;
+
+		return this;
+	}
+
+	public long getOpenedConnectionsCount() {
+		return openedConnectionsCount.get();
+	}
+
+	public long getReusedConnectionsCount() {
+		return reusedConnectionsCount.get();
+	}
+
+	/**
+	 * Number of pipelined requests sent again, because the server closed the connection before answering them
+	 */
+	public long getReplayedRequestsCount() {
+		return replayedRequestsCount.get();
+	}
+
+	public int getIdleConnectionsCount() {
+		int idleConnectionsCount = 0;
+		for (final Deque<SocketHttpConnection> routeConnections : idleConnections.values()) {
+			idleConnectionsCount += routeConnections.size();
+		}
+		return idleConnectionsCount;
+	}
+
+	@Override
+	public HttpResponse executeHttpRequest(final HttpRequest httpRequest, final TrustManager trustManager, final boolean deactivateHostnameVerification) throws Exception {
+		if (closed) {
+			throw new IllegalStateException("SocketHttpClientEngine is already closed");
+		}
+
+		final PreparedRequest preparedRequest = prepareRequest(httpRequest, trustManager, deactivateHostnameVerification);
+		SocketHttpConnection connection = null;
+		try {
+			ResponseHead responseHead;
+			while (true) {
+				connection = takeIdleConnection(preparedRequest.route);
+				final boolean reusedConnection = connection != null;
+				if (connection == null) {
+					connection = openConnection(preparedRequest.route, httpRequest.getConnectTimeoutMillis());
+				}
+				httpRequest.setEngineConnection(connection);
+				final long receivedBytesBeforeRequest = connection.getReceivedBytes();
+				try {
+					connection.setReadTimeoutMillis(httpRequest.getReadTimeoutMillis());
+					writeRequest(connection, preparedRequest);
+					connection.finishRequest();
+					responseHead = readFinalResponseHead(connection);
+					break;
+				} catch (final IOException e) {
+					final boolean responseDataReceived = connection.getReceivedBytes() != receivedBytesBeforeRequest;
+					discardConnection(connection);
+					connection = null;
+					if (!reusedConnection
+							|| !preparedRequest.httpMethod.isIdempotent()
+							|| preparedRequest.body.stream != null
+							|| responseDataReceived
+							|| e instanceof SocketTimeoutException) {
+						// The server may already have processed the request or is only slow, so it must not be sent again
+						throw e;
+					}
+					// The server closed the idle keep-alive connection, so the idempotent request is sent again on another connection
+				}
+			}
+
+			final ResponseBodyInputStream bodyInputStream = createResponseBodyInputStream(connection, preparedRequest.httpMethod, responseHead);
+			final HttpResponse httpResponse = readResponseContent(connection, preparedRequest, responseHead, bodyInputStream);
+			releaseConnection(connection, preparedRequest.route, responseHead, bodyInputStream);
+			connection = null;
+
+			if (httpResponse == null) {
+				return followRedirect(preparedRequest, responseHead, trustManager, deactivateHostnameVerification);
+			} else {
+				return httpResponse;
+			}
+		} catch (final UnknownHostException e) {
+			throw new Exception("Unknown host '" + e.getMessage() + "'", e);
+		} catch (final SSLHandshakeException e) {
+			throw new Exception("Cannot validate TLS server certificate for URL '" + httpRequest.getUrlWithProtocol() + "'", e);
+		} finally {
+			httpRequest.setEngineConnection(null);
+			if (connection != null) {
+				discardConnection(connection);
+			}
+		}
+	}
+
+	/**
+	 * Execute requests to one host by HTTP/1.1 pipelining: The request heads are written back to back on one keep-alive connection
+	 * and the responses are read in the same order, so one round trip is shared by up to maximumPipelineDepth requests.<br />
+	 * If the server closes the connection within the pipeline, only the unanswered requests are sent again on another connection.
+	 * Therefore only idempotent requests without body streams are allowed.
+	 *
+	 * @return responses in the order of the requests
+	 */
+	public List<HttpResponse> executePipelinedHttpRequests(final List<HttpRequest> httpRequests, final TrustManager trustManager, final boolean deactivateHostnameVerification) throws Exception {
+		if (closed) {
+			throw new IllegalStateException("SocketHttpClientEngine is already closed");
+		}
+
+		final PreparedRequest[] preparedRequests = new PreparedRequest[httpRequests.size()];
+		for (int i = 0; i < preparedRequests.length; i++) {
+			final HttpRequest httpRequest = httpRequests.get(i);
+			preparedRequests[i] = prepareRequest(httpRequest, trustManager, deactivateHostnameVerification);
+			if (!preparedRequests[i].httpMethod.isIdempotent()) {
+				throw new IllegalArgumentException("Request method " + preparedRequests[i].httpMethod.name() + " is not idempotent and may not be pipelined: " + httpRequest);
+			} else if (preparedRequests[i].body.stream != null) {
+				throw new IllegalArgumentException("Request with body stream may not be pipelined: " + httpRequest);
+			} else if (!preparedRequests[i].route.equals(preparedRequests[0].route)) {
+				throw new IllegalArgumentException("Pipelined requests must all be sent to the same host: " + httpRequest);
+			}
+		}
+
+		final HttpResponse[] httpResponses = new HttpResponse[preparedRequests.length];
+		final Deque<Integer> unsentRequestIndexes = new ArrayDeque<>();
+		for (int i = 0; i < preparedRequests.length; i++) {
+			unsentRequestIndexes.add(i);
+		}
+
+		try {
+			while (!unsentRequestIndexes.isEmpty()) {
+				executePipeline(preparedRequests, httpResponses, unsentRequestIndexes);
+			}
+		} catch (final UnknownHostException e) {
+			throw new Exception("Unknown host '" + e.getMessage() + "'", e);
+		} catch (final SSLHandshakeException e) {
+			throw new Exception("Cannot validate TLS server certificate for URL '" + preparedRequests[0].httpRequest.getUrlWithProtocol() + "'", e);
+		}
+
+		for (int i = 0; i < httpResponses.length; i++) {
+			if (httpResponses[i] == null) {
+				httpResponses[i] = followRedirect(preparedRequests[i], preparedRequests[i].redirectResponseHead, trustManager, deactivateHostnameVerification);
+			}
+		}
+		return Arrays.asList(httpResponses);
+	}
+
+	/**
+	 * Send as many of the unsent requests as possible on one connection.
+	 * Requests, which were sent but not answered before the connection was closed, are put back to the unsent requests.
+	 */
+	private void executePipeline(final PreparedRequest[] preparedRequests, final HttpResponse[] httpResponses, final Deque<Integer> unsentRequestIndexes) throws Exception {
+		final Route route = preparedRequests[unsentRequestIndexes.peekFirst()].route;
+		SocketHttpConnection connection = takeIdleConnection(route);
+		final boolean reusedConnection = connection != null;
+		if (connection == null) {
+			connection = openConnection(route, preparedRequests[unsentRequestIndexes.peekFirst()].httpRequest.getConnectTimeoutMillis());
+		}
+
+		final Deque<Integer> sentRequestIndexes = new ArrayDeque<>();
+		int answeredRequestsCount = 0;
+		boolean connectionReusable = true;
+		try {
+			while (connectionReusable && (!unsentRequestIndexes.isEmpty() || !sentRequestIndexes.isEmpty())) {
+				if (sentRequestIndexes.size() < maximumPipelineDepth && !unsentRequestIndexes.isEmpty()) {
+					// Fill the pipeline and send all request heads by one write
+					while (sentRequestIndexes.size() < maximumPipelineDepth && !unsentRequestIndexes.isEmpty()) {
+						final int requestIndex = unsentRequestIndexes.pollFirst();
+						sentRequestIndexes.addLast(requestIndex);
+						preparedRequests[requestIndex].httpRequest.setEngineConnection(connection);
+						writeRequest(connection, preparedRequests[requestIndex]);
+					}
+					connection.finishRequest();
+				}
+
+				final int requestIndex = sentRequestIndexes.peekFirst();
+				final PreparedRequest preparedRequest = preparedRequests[requestIndex];
+				connection.setReadTimeoutMillis(preparedRequest.httpRequest.getReadTimeoutMillis());
+				final ResponseHead responseHead = readFinalResponseHead(connection);
+				final ResponseBodyInputStream bodyInputStream = createResponseBodyInputStream(connection, preparedRequest.httpMethod, responseHead);
+				httpResponses[requestIndex] = readResponseContent(connection, preparedRequest, responseHead, bodyInputStream);
+				if (httpResponses[requestIndex] == null) {
+					preparedRequest.redirectResponseHead = responseHead;
+				}
+				sentRequestIndexes.pollFirst();
+				preparedRequest.httpRequest.setEngineConnection(null);
+				answeredRequestsCount++;
+				connectionReusable = isReusable(connection, responseHead, bodyInputStream);
+			}
+		} catch (final IOException e) {
+			discardConnection(connection);
+			if (answeredRequestsCount == 0 && !reusedConnection) {
+				throw e;
+			}
+			// The server closed the connection within the pipeline, so the unanswered requests are sent again on another connection
+			connectionReusable = false;
+			connection = null;
+		} catch (final Exception e) {
+			discardConnection(connection);
+			throw e;
+		} finally {
+			for (final int requestIndex : sentRequestIndexes) {
+				preparedRequests[requestIndex].httpRequest.setEngineConnection(null);
+			}
+		}
+
+		if (!sentRequestIndexes.isEmpty()) {
+			replayedRequestsCount.addAndGet(sentRequestIndexes.size());
+			while (!sentRequestIndexes.isEmpty()) {
+				unsentRequestIndexes.addFirst(sentRequestIndexes.pollLast());
+			}
+		}
+		if (connection != null) {
+			recordTransferredBytes(connection, route);
+			if (connectionReusable) {
+				returnToPool(connection, route);
+			} else {
+				discardConnection(connection);
+			}
+		}
+	}
+
+
+	/**
+	 * Open keep-alive connections to the origins ("https://host:port") ahead of the first requests and park them in the pool.<br />
+	 * This resolves the hosts, creates the SSLContext of the TrustManager and fills its TLS session cache by the first handshake,
+	 * so the further connections and later connections resume the TLS session.
+	 * The origins are warmed up in parallel. Parked connections expire after the keep-alive timeout like all idle connections.<br />
+	 * Requests use the parked connections, if they are executed with the same TrustManager instance,
+	 * like the shared instance returned by TlsCheckConfiguration.getTrustManager().
+	 *
+	 * @param connectionsPerOrigin number of idle connections per origin, limited by the maximum idle connections per route
+	 * @return results in the order of the origins
+	 */
+	public List<ConnectionWarmUpResult> warmUp(final List<String> origins, final TrustManager trustManager, final boolean deactivateHostnameVerification, final int connectionsPerOrigin, final int connectTimeoutMillis) throws Exception {
+		return warmUp(origins, trustManager, null, deactivateHostnameVerification, connectionsPerOrigin, connectTimeoutMillis);
+	}
+
+	/**
+	 * Open keep-alive connections with client certificate to the origins ahead of the first requests and park them in the pool
+	 *
+	 * @param clientKeyConfiguration client key material of the later requests (null = no client certificate)
+	 * @return results in the order of the origins
+	 */
+	public List<ConnectionWarmUpResult> warmUp(final List<String> origins, final TrustManager trustManager, final ClientKeyConfiguration clientKeyConfiguration, final boolean deactivateHostnameVerification, final int connectionsPerOrigin, final int connectTimeoutMillis) throws Exception {
+		if (closed) {
+			throw new IllegalStateException("SocketHttpClientEngine is already closed");
+		}
+
+		final List<ConnectionWarmUpResult> results = new ArrayList<>();
+		if (origins.isEmpty()) {
+			return results;
+		}
+
+		final Object keyConfigurationKey = clientKeyConfiguration == null ? null : KeyManagerRegistry.getConfigurationKey(clientKeyConfiguration);
+		final KeyManager keyManager = clientKeyConfiguration == null ? null : clientKeyConfiguration.getKeyManager();
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(origins.size(), 16), runnable -> {
+			final Thread thread = new Thread(runnable, "SocketHttpClientEngine-WarmUp");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			final List<Future<ConnectionWarmUpResult>> futures = new ArrayList<>();
+			for (final String origin : origins) {
+				futures.add(executor.submit(() -> warmUpOrigin(origin, trustManager, keyConfigurationKey, keyManager, deactivateHostnameVerification, connectionsPerOrigin, connectTimeoutMillis)));
+			}
+			for (final Future<ConnectionWarmUpResult> future : futures) {
+				results.add(future.get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return results;
+	}
+
+	private ConnectionWarmUpResult warmUpOrigin(final String origin, final TrustManager trustManager, final Object keyConfigurationKey, final KeyManager keyManager, final boolean deactivateHostnameVerification, final int connectionsPerOrigin, final int connectTimeoutMillis) {
+		final long startNanos = System.nanoTime();
+		final int requestedConnectionsCount = Math.min(connectionsPerOrigin, maximumIdleConnectionsPerRoute);
+		int openedConnectionsCount = 0;
+		long dnsMillis = 0;
+		long firstConnectionMillis = -1;
+		try {
+			final URI uri = URI.create(origin);
+			final boolean secure;
+			if ("https".equalsIgnoreCase(uri.getScheme())) {
+				secure = true;
+			} else if ("http".equalsIgnoreCase(uri.getScheme())) {
+				secure = false;
+			} else {
+				throw new Exception("Unsupported protocol in origin '" + origin + "'");
+			}
+			if (uri.getHost() == null) {
+				throw new Exception("Missing host in origin '" + origin + "'");
+			}
+			final Route route = new Route(uri.getHost(), null, uri.getPort() < 0 ? (secure ? 443 : 80) : uri.getPort(), secure, trustManager, keyConfigurationKey, keyManager, deactivateHostnameVerification);
+
+			// Fill the JVM DNS cache
+			final long dnsStartNanos = System.nanoTime();
+			try {
+				InetAddress.getAllByName(route.host);
+			} catch (final UnknownHostException e) {
+				throw new Exception("Unknown host '" + route.host + "'", e);
+			}
+			dnsMillis = (System.nanoTime() - dnsStartNanos) / 1_000_000;
+
+			final Deque<SocketHttpConnection> routeConnections = idleConnections.get(route);
+			final int missingConnectionsCount = requestedConnectionsCount - (routeConnections == null ? 0 : routeConnections.size());
+			for (int i = 0; i < missingConnectionsCount && !closed; i++) {
+				final long connectionStartNanos = System.nanoTime();
+				final SocketHttpConnection connection = openConnection(route, connectTimeoutMillis);
+				if (firstConnectionMillis < 0) {
+					firstConnectionMillis = (System.nanoTime() - connectionStartNanos) / 1_000_000;
+				}
+				returnToPool(connection, route);
+				openedConnectionsCount++;
+			}
+			return new ConnectionWarmUpResult(origin, requestedConnectionsCount, openedConnectionsCount, dnsMillis, firstConnectionMillis, (System.nanoTime() - startNanos) / 1_000_000, null);
+		} catch (final Exception e) {
+			return new ConnectionWarmUpResult(origin, requestedConnectionsCount, openedConnectionsCount, dnsMillis, firstConnectionMillis, (System.nanoTime() - startNanos) / 1_000_000, e);
+		}
+	}
+
+	/**
+	 * Close all idle connections. Connections in use are closed, when their requests are finished.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (final Deque<SocketHttpConnection> routeConnections : idleConnections.values()) {
+			SocketHttpConnection connection;
+			while ((connection = routeConnections.pollFirst()) != null) {
+				discardConnection(connection);
+			}
+		}
+		idleConnections.clear();
+	}
+
+	/**
+	 * Close idle connections exceeding the keep-alive timeout
+	 */
+	public void closeExpiredConnections() {
+		final long minimumLastUsedMillis = System.currentTimeMillis() - keepAliveTimeoutMillis;
+		for (final Deque<SocketHttpConnection> routeConnections : idleConnections.values()) {
+			final Iterator<SocketHttpConnection> iterator = routeConnections.iterator();
+			while (iterator.hasNext()) {
+				final SocketHttpConnection connection = iterator.next();
+				if (connection.getLastUsedMillis() < minimumLastUsedMillis && routeConnections.removeFirstOccurrence(connection)) {
+					discardConnection(connection);
+				}
+			}
+		}
+		removeEmptyRoutes();
+	}
+
+	/**
+	 * Number of routes with idle connections
+	 */
+	public int getIdleRoutesCount() {
+		return idleConnections.size();
+	}
+
+	/**
+	 * Number of cached SSLContexts
+	 */
+	public int getSslContextsCount() {
+		return sslSocketFactoryCache.getSize();
+	}
+
+	/**
+	 * Remove the pool entries of routes without idle connections, like routes of TrustManagers and KeyManagers not used anymore
+	 */
+	private void removeEmptyRoutes() {
+		for (final Route route : idleConnections.keySet()) {
+			idleConnections.computeIfPresent(route, (key, routeConnections) -> routeConnections.isEmpty() ? null : routeConnections);
+		}
+	}
+
+	/**
+	 * Request body data prepared before the connection is used, so a failed request on a stale connection can be resent
+	 */
+	private static class RequestBody {
+		private byte[] data = null;
+		private InputStream stream = null;
+		private TransferMonitor streamMonitor = null;
+		private String contentType = null;
+	}
+
+	/**
+	 * Request with all data needed to send it
+	 */
+	private static class PreparedRequest {
+		private final HttpRequest httpRequest;
+		private final Route route;
+		private final HttpMethod httpMethod;
+		private final String requestTarget;
+		private final RequestBody body;
+		private ResponseHead redirectResponseHead = null;
+
+		private PreparedRequest(final HttpRequest httpRequest, final Route route, final HttpMethod httpMethod, final String requestTarget, final RequestBody body) {
+			this.httpRequest = httpRequest;
+			this.route = route;
+			this.httpMethod = httpMethod;
+			this.requestTarget = requestTarget;
+			this.body = body;
+		}
+	}
+
+	private static PreparedRequest prepareRequest(final HttpRequest httpRequest, final TrustManager trustManager, final boolean deactivateHostnameVerification) throws Exception {
+		final String requestedUrl = HttpUtilities.createRequestedUrl(httpRequest);
+		final URI uri = URI.create(requestedUrl);
+		final boolean secure;
+		if ("https".equalsIgnoreCase(uri.getScheme())) {
+			secure = true;
+		} else if ("http".equalsIgnoreCase(uri.getScheme())) {
+			secure = false;
+		} else {
+			throw new Exception("Unsupported protocol in URL '" + requestedUrl + "'");
+		}
+		if (uri.getHost() == null) {
+			throw new Exception("Missing host in URL '" + requestedUrl + "'");
+		}
+		final ClientKeyConfiguration clientKeyConfiguration = httpRequest.getClientKeyConfiguration();
+		final Object keyConfigurationKey = clientKeyConfiguration == null ? null : KeyManagerRegistry.getConfigurationKey(clientKeyConfiguration);
+		final KeyManager keyManager = clientKeyConfiguration == null ? null : clientKeyConfiguration.getKeyManager();
+		final Route route = new Route(uri.getHost(), httpRequest.getConnectAddress(), uri.getPort() < 0 ? (secure ? 443 : 80) : uri.getPort(), secure, trustManager, keyConfigurationKey, keyManager, deactivateHostnameVerification);
+		final String requestTarget = (uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath()) + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+		final HttpMethod httpMethod = httpRequest.getRequestMethod() == null ? HttpMethod.GET : httpRequest.getRequestMethod();
+		return new PreparedRequest(httpRequest, route, httpMethod, requestTarget, createRequestBody(httpRequest));
+	}
+
+	private static RequestBody createRequestBody(final HttpRequest httpRequest) throws Exception {
+		final RequestBody requestBody = new RequestBody();
+		final Charset encoding = httpRequest.getEncoding() == null ? StandardCharsets.UTF_8 : httpRequest.getEncoding();
+		if (httpRequest.getRequestBodyContentStream() != null) {
+			final List<BandwidthLimiter> bandwidthLimiters = HttpUtilities.getBandwidthLimiters(httpRequest);
+			requestBody.stream = bandwidthLimiters.isEmpty() ? httpRequest.getRequestBodyContentStream() : new BandwidthLimitedInputStream(httpRequest.getRequestBodyContentStream(), bandwidthLimiters);
+			requestBody.streamMonitor = HttpUtilities.createTransferMonitor(httpRequest, Direction.Upload, -1);
+		} else if (httpRequest.getRequestBody() != null) {
+			requestBody.data = httpRequest.getRequestBody().getBytes(encoding);
+			requestBody.contentType = "text/plain; charset=" + encoding;
+		} else if (httpRequest.getUploadFileAttachments() != null && httpRequest.getUploadFileAttachments().size() > 0) {
+			final String boundary = HttpUtilities.generateBoundary();
+			final ByteArrayOutputStream multipartData = new ByteArrayOutputStream();
+			HttpUtilities.writeMultipartFormData(httpRequest, boundary, multipartData);
+			requestBody.data = multipartData.toByteArray();
+			requestBody.contentType = HttpContentType.MultipartForm.getStringRepresentation() + "; boundary=" + boundary;
+		} else if (httpRequest.getPostParameters() != null && httpRequest.getPostParameters().size() > 0) {
+			requestBody.data = HttpUtilities.convertToParameterString(httpRequest.getPostParameters(), null).getBytes(encoding);
+			requestBody.contentType = HttpContentType.HtmlForm.getStringRepresentation();
+		}
+		return requestBody;
+	}
+
+	/**
+	 * Write the request into the connections buffer. The data is sent by SocketHttpConnection.finishRequest().
+	 */
+	private void writeRequest(final SocketHttpConnection connection, final PreparedRequest preparedRequest) throws IOException {
+		final HttpRequest httpRequest = preparedRequest.httpRequest;
+		final HttpMethod httpMethod = preparedRequest.httpMethod;
+		final RequestBody requestBody = preparedRequest.body;
+		connection.startRequest();
+		connection.write(REQUEST_LINE_STARTS.get(httpMethod));
+		connection.writeString(preparedRequest.requestTarget);
+		connection.write(REQUEST_LINE_END);
+
+		boolean containsHost = false;
+		boolean containsContentType = false;
+		if (httpRequest.getHeaders() != null) {
+			for (final Entry<String, String> headerEntry : httpRequest.getHeaders().entrySet()) {
+				final String headerName = headerEntry.getKey();
+				if (HttpConstants.HTTPHEADERNAME_CONTENTLENGTH.equalsIgnoreCase(headerName) || "Transfer-Encoding".equalsIgnoreCase(headerName)) {
+					// Set by the engine according to the request body
+					continue;
+				} else if ("Host".equalsIgnoreCase(headerName)) {
+					containsHost = true;
+				} else if (HttpConstants.HTTPHEADERNAME_CONTENTTYPE.equalsIgnoreCase(headerName)) {
+					containsContentType = true;
+				}
+				connection.writeString(headerName);
+				connection.write(HEADER_SEPARATOR);
+				connection.writeString(headerEntry.getValue() == null ? "" : headerEntry.getValue());
+				connection.write(CRLF);
+			}
+		}
+		if (!containsHost) {
+			connection.write(preparedRequest.route.hostHeader);
+		}
+		if (httpRequest.getCookieData() != null && httpRequest.getCookieData().size() > 0) {
+			connection.write(COOKIE_HEADER_START);
+			connection.writeString(HttpUtilities.createCookieHeaderValue(httpRequest.getCookieData()));
+			connection.write(CRLF);
+		}
+		if (requestBody.contentType != null && !containsContentType) {
+			connection.write(CONTENT_TYPE_HEADER_START);
+			connection.writeString(requestBody.contentType);
+			connection.write(CRLF);
+		}
+		if (closed) {
+			connection.write(CONNECTION_CLOSE_HEADER);
+		}
+
+		if (requestBody.stream != null) {
+			connection.write(TRANSFER_ENCODING_CHUNKED_HEADER);
+			connection.write(CRLF);
+			connection.writeChunked(requestBody.stream, requestBody.streamMonitor);
+		} else if (requestBody.data != null) {
+			connection.write(CONTENT_LENGTH_HEADER_START);
+			connection.writeDecimal(requestBody.data.length);
+			connection.write(CRLF);
+			connection.write(CRLF);
+			connection.write(requestBody.data);
+		} else {
+			if (httpMethod == HttpMethod.POST || httpMethod == HttpMethod.PUT || httpMethod == HttpMethod.PATCH) {
+				connection.write(CONTENT_LENGTH_ZERO_HEADER);
+			}
+			connection.write(CRLF);
+		}
+	}
+
+	/**
+	 * Read the next response head and skip interim responses like "100 Continue"
+	 */
+	private static ResponseHead readFinalResponseHead(final SocketHttpConnection connection) throws IOException {
+		ResponseHead responseHead = connection.readResponseHead();
+		while (responseHead.getHttpCode() >= 100 && responseHead.getHttpCode() < 200 && responseHead.getHttpCode() != 101) {
+			responseHead = connection.readResponseHead();
+		}
+		return responseHead;
+	}
+
+	/**
+	 * Read the response body completely, so the connection may be reused afterwards
+	 *
+	 * @return null, if the redirection of this response should be followed
+	 */
+	private HttpResponse readResponseContent(final SocketHttpConnection connection, final PreparedRequest preparedRequest, final ResponseHead responseHead, final ResponseBodyInputStream bodyInputStream) throws Exception {
+		final HttpRequest httpRequest = preparedRequest.httpRequest;
+		final Map<String, String> headers = responseHead.getHeaders();
+		final int httpResponseCode = responseHead.getHttpCode();
+		final String contentType = headers.get(HttpConstants.HTTPHEADERNAME_CONTENTTYPE);
+		final Map<String, String> cookiesMap = HttpUtilities.parseCookies(headers.get(HttpConstants.HTTPHEADERNAME_DOWNLOAD_COOKIE));
+		final String ipAddress = connection.getIpAddress();
+
+		if ((httpResponseCode == 301 || httpResponseCode == 302) && httpRequest.isFollowRedirects()) {
+			skipContent(bodyInputStream);
+			return null;
+		} else if (httpResponseCode >= 200 && httpResponseCode <= 299 && httpRequest.getDownloadStream() != null) {
+			final Map<String, String> downloadDigests = HttpUtilities.transferDownload(bodyInputStream, httpRequest.getDownloadStream(), httpRequest, getContentLength(responseHead));
+			return new HttpResponse(ipAddress, httpResponseCode, responseHead.getHttpCodeMessage(), "File downloaded", contentType, headers, cookiesMap).setDownloadDigests(downloadDigests);
+		} else if (httpResponseCode >= 200 && httpResponseCode <= 299 && httpRequest.getDownloadFile() != null) {
+			final Map<String, String> downloadDigests;
+			try (FileOutputStream downloadFileOutputStream = new FileOutputStream(httpRequest.getDownloadFile())) {
+				downloadDigests = HttpUtilities.transferDownload(bodyInputStream, downloadFileOutputStream, httpRequest, getContentLength(responseHead));
+			} catch (final Exception e) {
+				if (httpRequest.getDownloadFile().exists()) {
+					httpRequest.getDownloadFile().delete();
+				}
+				throw e;
+			}
+			return new HttpResponse(ipAddress, httpResponseCode, responseHead.getHttpCodeMessage(), "File downloaded", contentType, headers, cookiesMap).setDownloadDigests(downloadDigests);
+		} else {
+			final String content = readTextContent(bodyInputStream, HttpUtilities.getCharsetFromContentType(contentType));
+			return new HttpResponse(ipAddress, httpResponseCode, responseHead.getHttpCodeMessage(), content, contentType, headers, cookiesMap);
+		}
+	}
+
+	/**
+	 * Optionally follow redirections (HttpCodes 301 and 302) by this engine, so the redirected request does not pass concurrency limiter, hedger and coalescer of HttpUtilities again
+	 */
+	private HttpResponse followRedirect(final PreparedRequest preparedRequest, final ResponseHead responseHead, final TrustManager trustManager, final boolean deactivateHostnameVerification) throws Exception {
+		final String redirectUrl = responseHead.getHeaders().get("Location");
+		if (NetworkUtilities.isNotBlank(redirectUrl)) {
+			final HttpRequest httpRequest = preparedRequest.httpRequest;
+			final HttpRequest redirectedHttpRequest = new HttpRequest(httpRequest.getRequestMethod(), URI.create(httpRequest.getUrlWithProtocol()).resolve(redirectUrl).toString()).setClientKeyConfiguration(httpRequest.getClientKeyConfiguration());
+			return executeHttpRequest(redirectedHttpRequest, trustManager, deactivateHostnameVerification);
+		} else {
+			throw new Exception("Redirection url was empty");
+		}
+	}
+
+	private static ResponseBodyInputStream createResponseBodyInputStream(final SocketHttpConnection connection, final HttpMethod httpMethod, final ResponseHead responseHead) throws IOException {
+		final int httpCode = responseHead.getHttpCode();
+		if (httpMethod == HttpMethod.HEAD || httpCode == 204 || httpCode == 304) {
+			return connection.createResponseBodyInputStream(0, false);
+		}
+
+		final String transferEncoding = responseHead.getHeaders().get("Transfer-Encoding");
+		if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+			return connection.createResponseBodyInputStream(-1, true);
+		}
+
+		final String contentLength = responseHead.getHeaders().get(HttpConstants.HTTPHEADERNAME_CONTENTLENGTH);
+		if (contentLength != null) {
+			try {
+				return connection.createResponseBodyInputStream(Long.parseLong(contentLength.trim()), false);
+			} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+				throw new IOException("Invalid Content-Length in response: " + contentLength);
+			}
+		} else {
+			return connection.createResponseBodyInputStream(-1, false);
+		}
+	}
+
+	/**
+	 * @return announced length of the response body or -1, if unknown
+	 */
+	private static long getContentLength(final ResponseHead responseHead) {
+		final String contentLength = responseHead.getHeaders().get(HttpConstants.HTTPHEADERNAME_CONTENTLENGTH);
+		if (contentLength == null) {
+			return -1;
+		} else {
+			try {
+				return Long.parseLong(contentLength.trim());
+			} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Text content with line breaks normalized like done for HttpURLConnection responses, read in one pooled buffer
+	 */
+	private String readTextContent(final InputStream bodyInputStream, final Charset encoding) throws IOException {
+		final ByteBuffer contentBuffer = bufferPool.acquire();
+		try {
+			final ByteArrayOutputStream largeContent = new ByteArrayOutputStream(0);
+			int bytesRead;
+			while ((bytesRead = bodyInputStream.read(contentBuffer.array(), contentBuffer.arrayOffset() + contentBuffer.position(), contentBuffer.remaining())) != -1) {
+				contentBuffer.position(contentBuffer.position() + bytesRead);
+				if (!contentBuffer.hasRemaining()) {
+					largeContent.write(contentBuffer.array(), contentBuffer.arrayOffset(), contentBuffer.position());
+					contentBuffer.clear();
+				}
+			}
+			final String content;
+			if (largeContent.size() == 0) {
+				content = new String(contentBuffer.array(), contentBuffer.arrayOffset(), contentBuffer.position(), encoding);
+			} else {
+				largeContent.write(contentBuffer.array(), contentBuffer.arrayOffset(), contentBuffer.position());
+				content = largeContent.toString(encoding);
+			}
+			return normalizeLineBreaks(content);
+		} finally {
+			bufferPool.release(contentBuffer);
+		}
+	}
+
+	/**
+	 * Same result as reading the text line by line and joining the lines by "\n"
+	 */
+	private static String normalizeLineBreaks(final String content) {
+		if (content.indexOf('\r') < 0) {
+			return content.endsWith("\n") ? content.substring(0, content.length() - 1) : content;
+		} else {
+			String normalizedContent = content.replace("\r\n", "\n").replace('\r', '\n');
+			if (normalizedContent.endsWith("\n")) {
+				normalizedContent = normalizedContent.substring(0, normalizedContent.length() - 1);
+			}
+			return normalizedContent;
+		}
+	}
+
+	private void skipContent(final InputStream bodyInputStream) throws IOException {
+		final ByteBuffer skipBuffer = bufferPool.acquire();
+		try {
+			while (bodyInputStream.read(skipBuffer.array(), skipBuffer.arrayOffset(), skipBuffer.capacity()) != -1) {
+				// do nothing
+			}
+		} finally {
+			bufferPool.release(skipBuffer);
+		}
+	}
+
+	private SocketHttpConnection takeIdleConnection(final Route route) {
+		final Deque<SocketHttpConnection> routeConnections = idleConnections.get(route);
+		if (routeConnections != null) {
+			final long minimumLastUsedMillis = System.currentTimeMillis() - keepAliveTimeoutMillis;
+			SocketHttpConnection connection;
+			while ((connection = routeConnections.pollFirst()) != null) {
+				if (connection.isClosed() || connection.hasUnexpectedData() || connection.getLastUsedMillis() < minimumLastUsedMillis || ((Route) connection.getRoute()).keyManager != route.keyManager) {
+					discardConnection(connection);
+				} else {
+					reusedConnectionsCount.incrementAndGet();
+					return connection;
+				}
+			}
+			idleConnections.computeIfPresent(route, (key, currentRouteConnections) -> currentRouteConnections.isEmpty() ? null : currentRouteConnections);
+		}
+		return null;
+	}
+
+	private SocketHttpConnection openConnection(final Route route, final int connectTimeoutMillis) throws Exception {
+		final Socket socket = new Socket();
+		try {
+			socket.setTcpNoDelay(true);
+			socket.setKeepAlive(true);
+			socket.connect(route.connectAddress == null ? new InetSocketAddress(route.host, route.port) : new InetSocketAddress(route.connectAddress, route.port), Math.max(0, connectTimeoutMillis));
+			final Socket connectedSocket;
+			if (route.secure) {
+				final SSLSocket sslSocket = (SSLSocket) sslSocketFactoryCache.getSslSocketFactory(route.trustManager, route.keyConfigurationKey, route.keyManager).createSocket(socket, route.host, route.port, true);
+				if (!route.deactivateHostnameVerification) {
+					final SSLParameters sslParameters = sslSocket.getSSLParameters();
+					sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+					sslSocket.setSSLParameters(sslParameters);
+				}
+				sslSocket.setSoTimeout(Math.max(0, connectTimeoutMillis));
+				sslSocket.startHandshake();
+				connectedSocket = sslSocket;
+			} else {
+				connectedSocket = socket;
+			}
+			openedConnectionsCount.incrementAndGet();
+			return new SocketHttpConnection(route, connectedSocket, bufferPool, maximumResponseHeadSize);
+		} catch (final Exception e) {
+			try {
+				socket.close();
+			} catch (@SuppressWarnings("unused") final IOException e1) {
+				// do nothing
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Put the connection back to the keep-alive pool, if the response was read completely and the server allows reuse
+	 */
+	private void releaseConnection(final SocketHttpConnection connection, final Route route, final ResponseHead responseHead, final ResponseBodyInputStream bodyInputStream) {
+		recordTransferredBytes(connection, route);
+		if (isReusable(connection, responseHead, bodyInputStream)) {
+			returnToPool(connection, route);
+		} else {
+			discardConnection(connection);
+		}
+	}
+
+	private boolean isReusable(final SocketHttpConnection connection, final ResponseHead responseHead, final ResponseBodyInputStream bodyInputStream) {
+		final String connectionHeader = responseHead.getHeaders().get("Connection");
+		final boolean keepAlive;
+		if ("HTTP/1.0".equals(responseHead.getProtocolVersion())) {
+			keepAlive = connectionHeader != null && "keep-alive".equalsIgnoreCase(connectionHeader.trim());
+		} else {
+			keepAlive = connectionHeader == null || !"close".equalsIgnoreCase(connectionHeader.trim());
+		}
+		return !closed && keepAlive && bodyInputStream.isFinished() && !bodyInputStream.isTerminatedByClose() && !connection.isClosed();
+	}
+
+	private void returnToPool(final SocketHttpConnection connection, final Route route) {
+		if (connection.hasUnexpectedData()) {
+			discardConnection(connection);
+		} else {
+			// Added within compute, so the route entry cannot be removed as empty at the same time
+			final boolean[] pooled = new boolean[] { false };
+			idleConnections.compute(route, (key, routeConnections) -> {
+				final Deque<SocketHttpConnection> currentRouteConnections = routeConnections == null ? new ConcurrentLinkedDeque<>() : routeConnections;
+				if (currentRouteConnections.size() < maximumIdleConnectionsPerRoute) {
+					currentRouteConnections.offerFirst(connection);
+					pooled[0] = true;
+				}
+				return currentRouteConnections.isEmpty() ? null : currentRouteConnections;
+			});
+			if (!pooled[0]) {
+				discardConnection(connection);
+			}
+		}
+	}
+
+	private static void discardConnection(final SocketHttpConnection connection) {
+		connection.close();
+		connection.releaseBuffers();
+	}
+
+	/**
+	 * Account the traffic of a connection in the HttpUtilities metrics since its last request
+	 */
+	private static void recordTransferredBytes(final SocketHttpConnection connection, final Route route) {
+		final MetricsRegistry metricsRegistry = HttpUtilities.getMetricsRegistry();
+		if (metricsRegistry != null) {
+			metricsRegistry.addToCounter("http_client_bytes_sent_total", connection.getSentBytes(), "host", route.host.toLowerCase());
+			metricsRegistry.addToCounter("http_client_bytes_received_total", connection.getReceivedBytes(), "host", route.host.toLowerCase());
+		}
+		connection.resetTransferredBytes();
+	}
+}
@@ -0,0 +1,509 @@
+package de.soderer.network;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import de.soderer.network.utilities.ByteBufferPool;
+import de.soderer.network.utilities.CaseInsensitiveLinkedMap;
+import de.soderer.network.utilities.TransferMonitor;
+
+/**
+ * Keep-alive connection of the SocketHttpClientEngine.<br />
+ * Request heads are encoded into a pooled buffer and written by one socket write.
+ * Response heads are parsed directly from the pooled read buffer without any intermediate line Strings.
+ */
+class SocketHttpConnection implements Closeable {
+	private static final int MAXIMUM_LINE_LENGTH = 8192;
+
+	/**
+	 * Status line and headers of a response
+	 */
+	static class ResponseHead {
+		private final String protocolVersion;
+		private final int httpCode;
+		private final String httpCodeMessage;
+		private final Map<String, String> headers;
+
+		private ResponseHead(final String protocolVersion, final int httpCode, final String httpCodeMessage, final Map<String, String> headers) {
+			this.protocolVersion = protocolVersion;
+			this.httpCode = httpCode;
+			this.httpCodeMessage = httpCodeMessage;
+			this.headers = headers;
+		}
+
+		String getProtocolVersion() {
+			return protocolVersion;
+		}
+
+		int getHttpCode() {
+			return httpCode;
+		}
+
+		String getHttpCodeMessage() {
+			return httpCodeMessage;
+		}
+
+		Map<String, String> getHeaders() {
+			return headers;
+		}
+	}
+
+	private final Object route;
+	private final Socket socket;
+	private final InputStream inputStream;
+	private final OutputStream outputStream;
+	private final ByteBufferPool bufferPool;
+	private final int maximumResponseHeadSize;
+
+	/** Received data, kept in drain mode */
+	private ByteBuffer readBuffer;
+	/** Request data to be sent, kept in fill mode */
+	private ByteBuffer writeBuffer = null;
+
+	private long lastUsedMillis = System.currentTimeMillis();
+	private int requestsCount = 0;
+	private long sentBytes = 0;
+	private long receivedBytes = 0;
+	private volatile boolean closed = false;
+
+	SocketHttpConnection(final Object route, final Socket socket, final ByteBufferPool bufferPool, final int maximumResponseHeadSize) throws IOException {
+		this.route = route;
+		this.socket = socket;
+		this.bufferPool = bufferPool;
+		this.maximumResponseHeadSize = maximumResponseHeadSize;
+		inputStream = socket.getInputStream();
+		outputStream = socket.getOutputStream();
+		readBuffer = bufferPool.acquire();
+		readBuffer.flip();
+	}
+
+	Object getRoute() {
+		return route;
+	}
+
+	String getIpAddress() {
+		return socket.getInetAddress() == null ? null : socket.getInetAddress().getHostAddress();
+	}
+
+	long getLastUsedMillis() {
+		return lastUsedMillis;
+	}
+
+	/**
+	 * Number of requests sent on this connection, more than one means it was reused from the keep-alive pool
+	 */
+	int getRequestsCount() {
+		return requestsCount;
+	}
+
+	long getSentBytes() {
+		return sentBytes;
+	}
+
+	long getReceivedBytes() {
+		return receivedBytes;
+	}
+
+	void resetTransferredBytes() {
+		sentBytes = 0;
+		receivedBytes = 0;
+	}
+
+	boolean isClosed() {
+		return closed || socket.isClosed();
+	}
+
+	void setReadTimeoutMillis(final int readTimeoutMillis) throws IOException {
+		socket.setSoTimeout(Math.max(0, readTimeoutMillis));
+	}
+
+	/**
+	 * Received data, which does not belong to any response sent yet
+	 */
+	boolean hasUnexpectedData() {
+		return readBuffer.hasRemaining();
+	}
+
+	void startRequest() {
+		requestsCount++;
+		lastUsedMillis = System.currentTimeMillis();
+		if (writeBuffer == null) {
+			writeBuffer = bufferPool.acquire();
+		}
+	}
+
+	void write(final byte[] data) throws IOException {
+		write(data, 0, data.length);
+	}
+
+	void write(final byte[] data, int offset, int length) throws IOException {
+		if (length > writeBuffer.capacity()) {
+			// Large data is written directly without copying it into the buffer
+			flush();
+			outputStream.write(data, offset, length);
+			sentBytes += length;
+		} else {
+			while (length > 0) {
+				if (!writeBuffer.hasRemaining()) {
+					flush();
+				}
+				final int bytesToCopy = Math.min(length, writeBuffer.remaining());
+				writeBuffer.put(data, offset, bytesToCopy);
+				offset += bytesToCopy;
+				length -= bytesToCopy;
+			}
+		}
+	}
+
+	/**
+	 * Write text as ISO-8859-1 like required for http heads. Other characters are replaced by '?'.
+	 */
+	void writeString(final String text) throws IOException {
+		for (int i = 0; i < text.length(); i++) {
+			if (!writeBuffer.hasRemaining()) {
+				flush();
+			}
+			final char character = text.charAt(i);
+			writeBuffer.put(character <= 0xFF ? (byte) character : (byte) '?');
+		}
+	}
+
+	void writeDecimal(final long value) throws IOException {
+		writeString(Long.toString(value));
+	}
+
+	/**
+	 * Write the content of a stream in http chunked transfer encoding
+	 */
+	void writeChunked(final InputStream contentStream, final TransferMonitor transferMonitor) throws IOException {
+		flush();
+		final byte[] chunkData = writeBuffer.array();
+		final int chunkDataOffset = writeBuffer.arrayOffset();
+		int bytesRead;
+		while ((bytesRead = contentStream.read(chunkData, chunkDataOffset, writeBuffer.capacity())) != -1) {
+			if (bytesRead > 0) {
+				final byte[] chunkHead = (Integer.toHexString(bytesRead) + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+				outputStream.write(chunkHead);
+				outputStream.write(chunkData, chunkDataOffset, bytesRead);
+				outputStream.write('\r');
+				outputStream.write('\n');
+				sentBytes += chunkHead.length + bytesRead + 2;
+				transferMonitor.update(bytesRead);
+			}
+		}
+		writeString("0\r\n\r\n");
+		transferMonitor.finish();
+	}
+
+	/**
+	 * Send all buffered request data
+	 */
+	void finishRequest() throws IOException {
+		flush();
+		outputStream.flush();
+		bufferPool.release(writeBuffer);
+		writeBuffer = null;
+	}
+
+	private void flush() throws IOException {
+		if (writeBuffer.position() > 0) {
+			outputStream.write(writeBuffer.array(), writeBuffer.arrayOffset(), writeBuffer.position());
+			sentBytes += writeBuffer.position();
+			writeBuffer.clear();
+		}
+	}
+
+	/**
+	 * Read and parse the status line and headers of the next response
+	 */
+	ResponseHead readResponseHead() throws IOException {
+		int searchOffset = 0;
+		int headLength = -1;
+		while (headLength < 0) {
+			final byte[] data = readBuffer.array();
+			final int start = readBuffer.arrayOffset() + readBuffer.position();
+			final int end = readBuffer.arrayOffset() + readBuffer.limit();
+			for (int i = start + searchOffset; i + 3 < end; i++) {
+				if (data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r' && data[i + 3] == '\n') {
+					headLength = i + 4 - start;
+					break;
+				}
+			}
+			if (headLength < 0) {
+				searchOffset = Math.max(0, readBuffer.remaining() - 3);
+				if (readBuffer.remaining() >= maximumResponseHeadSize) {
+					throw new IOException("Response head exceeds maximum size of " + maximumResponseHeadSize + " bytes");
+				} else if (fill() < 0) {
+					throw new EOFException("Connection closed by server before response head was received");
+				}
+			}
+		}
+
+		final byte[] data = readBuffer.array();
+		final int headStart = readBuffer.arrayOffset() + readBuffer.position();
+		final int headEnd = headStart + headLength - 2;
+		readBuffer.position(readBuffer.position() + headLength);
+
+		int lineEnd = indexOfLineEnd(data, headStart, headEnd);
+		final int firstSpace = indexOf(data, (byte) ' ', headStart, lineEnd);
+		if (firstSpace < 0 || lineEnd - firstSpace < 4) {
+			throw new IOException("Invalid response status line: " + new String(data, headStart, lineEnd - headStart, StandardCharsets.ISO_8859_1));
+		}
+		final String protocolVersion = new String(data, headStart, firstSpace - headStart, StandardCharsets.ISO_8859_1);
+		int httpCode = 0;
+		for (int i = firstSpace + 1; i < firstSpace + 4; i++) {
+			if (data[i] < '0' || data[i] > '9') {
+				throw new IOException("Invalid response status code: " + new String(data, headStart, lineEnd - headStart, StandardCharsets.ISO_8859_1));
+			}
+			httpCode = httpCode * 10 + (data[i] - '0');
+		}
+		final String httpCodeMessage = lineEnd > firstSpace + 5 ? new String(data, firstSpace + 5, lineEnd - firstSpace - 5, StandardCharsets.ISO_8859_1) : "";
+
+		final Map<String, String> headers = new CaseInsensitiveLinkedMap<>();
+		String lastHeaderName = null;
+		int lineStart = lineEnd + 2;
+		while (lineStart < headEnd) {
+			lineEnd = indexOfLineEnd(data, lineStart, headEnd);
+			if (data[lineStart] == ' ' || data[lineStart] == '\t') {
+				// Obsolete folded header line
+				if (lastHeaderName != null) {
+					headers.put(lastHeaderName, headers.get(lastHeaderName) + " " + new String(data, lineStart, lineEnd - lineStart, StandardCharsets.ISO_8859_1).trim());
+				}
+			} else {
+				final int colon = indexOf(data, (byte) ':', lineStart, lineEnd);
+				if (colon > lineStart) {
+					int valueStart = colon + 1;
+					while (valueStart < lineEnd && (data[valueStart] == ' ' || data[valueStart] == '\t')) {
+						valueStart++;
+					}
+					int valueEnd = lineEnd;
+					while (valueEnd > valueStart && (data[valueEnd - 1] == ' ' || data[valueEnd - 1] == '\t')) {
+						valueEnd--;
+					}
+					lastHeaderName = new String(data, lineStart, colon - lineStart, StandardCharsets.ISO_8859_1);
+					headers.put(lastHeaderName, new String(data, valueStart, valueEnd - valueStart, StandardCharsets.ISO_8859_1));
+				}
+			}
+			lineStart = lineEnd + 2;
+		}
+
+		return new ResponseHead(protocolVersion, httpCode, httpCodeMessage, headers);
+	}
+
+	/**
+	 * Stream of the response body, which is read directly from the read buffer and the socket
+	 *
+	 * @param contentLength -1 for chunked content or content terminated by closing the connection
+	 */
+	ResponseBodyInputStream createResponseBodyInputStream(final long contentLength, final boolean chunked) {
+		return new ResponseBodyInputStream(contentLength, chunked);
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			try {
+				socket.close();
+			} catch (@SuppressWarnings("unused") final IOException e) {
+				// do nothing
+			}
+		}
+	}
+
+	/**
+	 * Return the pooled buffers after the connection was closed. Must not be called while another thread still uses the connection.
+	 */
+	void releaseBuffers() {
+		if (readBuffer != null) {
+			bufferPool.release(readBuffer);
+			readBuffer = ByteBuffer.allocate(0);
+		}
+		if (writeBuffer != null) {
+			bufferPool.release(writeBuffer);
+			writeBuffer = null;
+		}
+	}
+
+	/**
+	 * Read more data into the read buffer
+	 *
+	 * @return number of read bytes or -1 on end of stream
+	 */
+	private int fill() throws IOException {
+		readBuffer.compact();
+		if (!readBuffer.hasRemaining()) {
+			final ByteBuffer largerReadBuffer = bufferPool.acquire(readBuffer.capacity() * 2);
+			readBuffer.flip();
+			largerReadBuffer.put(readBuffer);
+			bufferPool.release(readBuffer);
+			readBuffer = largerReadBuffer;
+		}
+		try {
+			final int bytesRead = inputStream.read(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(), readBuffer.remaining());
+			if (bytesRead > 0) {
+				readBuffer.position(readBuffer.position() + bytesRead);
+				receivedBytes += bytesRead;
+			}
+			return bytesRead;
+		} finally {
+			readBuffer.flip();
+		}
+	}
+
+	private String readLine() throws IOException {
+		int searchOffset = 0;
+		while (true) {
+			final byte[] data = readBuffer.array();
+			final int start = readBuffer.arrayOffset() + readBuffer.position();
+			final int end = readBuffer.arrayOffset() + readBuffer.limit();
+			for (int i = start + searchOffset; i < end; i++) {
+				if (data[i] == '\n') {
+					final int lineLength = i > start && data[i - 1] == '\r' ? i - 1 - start : i - start;
+					final String line = new String(data, start, lineLength, StandardCharsets.ISO_8859_1);
+					readBuffer.position(readBuffer.position() + i + 1 - start);
+					return line;
+				}
+			}
+			searchOffset = readBuffer.remaining();
+			if (searchOffset > MAXIMUM_LINE_LENGTH) {
+				throw new IOException("Response line exceeds maximum length of " + MAXIMUM_LINE_LENGTH + " bytes");
+			} else if (fill() < 0) {
+				throw new EOFException("Connection closed by server within response");
+			}
+		}
+	}
+
+	private static int indexOfLineEnd(final byte[] data, final int start, final int end) {
+		for (int i = start; i < end; i++) {
+			if (data[i] == '\r' && data[i + 1] == '\n') {
+				return i;
+			}
+		}
+		return end;
+	}
+
+	private static int indexOf(final byte[] data, final byte searchedByte, final int start, final int end) {
+		for (int i = start; i < end; i++) {
+			if (data[i] == searchedByte) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Response body of fixed length, in chunked transfer encoding or terminated by closing the connection
+	 */
+	class ResponseBodyInputStream extends InputStream {
+		private final boolean chunked;
+		private final boolean untilClose;
+		private long remainingBytes;
+		private boolean finished = false;
+
+		private ResponseBodyInputStream(final long contentLength, final boolean chunked) {
+			this.chunked = chunked;
+			untilClose = !chunked && contentLength < 0;
+			remainingBytes = chunked ? 0 : contentLength;
+			finished = !chunked && contentLength == 0;
+		}
+
+		/**
+		 * The body was read completely, so the connection may be reused for the next request
+		 */
+		boolean isFinished() {
+			return finished;
+		}
+
+		boolean isTerminatedByClose() {
+			return untilClose;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] singleByte = new byte[1];
+			final int bytesRead = read(singleByte, 0, 1);
+			return bytesRead < 0 ? -1 : singleByte[0] & 0xFF;
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+			if (finished) {
+				return -1;
+			} else if (length == 0) {
+				return 0;
+			}
+
+			if (chunked && remainingBytes == 0) {
+				final String chunkSizeLine = readLine();
+				final int extensionStart = chunkSizeLine.indexOf(';');
+				try {
+					remainingBytes = Long.parseLong((extensionStart >= 0 ? chunkSizeLine.substring(0, extensionStart) : chunkSizeLine).trim(), 16);
+				} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+					throw new IOException("Invalid chunk size: " + chunkSizeLine);
+				}
+				if (remainingBytes == 0) {
+					// Skip trailer headers
+					while (readLine().length() > 0) {
+						// do nothing
+					}
+					finished = true;
+					return -1;
+				}
+			}
+
+			final int bytesToRead = untilClose ? length : (int) Math.min(length, remainingBytes);
+			final int bytesRead;
+			if (readBuffer.hasRemaining()) {
+				bytesRead = Math.min(bytesToRead, readBuffer.remaining());
+				readBuffer.get(buffer, offset, bytesRead);
+			} else if (bytesToRead >= readBuffer.capacity() / 2) {
+				// Read large blocks directly into the callers buffer
+				bytesRead = inputStream.read(buffer, offset, bytesToRead);
+				if (bytesRead > 0) {
+					receivedBytes += bytesRead;
+				}
+			} else if (fill() < 0) {
+				bytesRead = -1;
+			} else {
+				bytesRead = Math.min(bytesToRead, readBuffer.remaining());
+				readBuffer.get(buffer, offset, bytesRead);
+			}
+
+			if (bytesRead < 0) {
+				if (untilClose) {
+					finished = true;
+					return -1;
+				} else {
+					throw new EOFException("Connection closed by server before response body was received completely");
+				}
+			}
+
+			if (!untilClose) {
+				remainingBytes -= bytesRead;
+				if (remainingBytes == 0) {
+					if (chunked) {
+						if (readLine().length() > 0) {
+							throw new IOException("Missing line break after chunk data");
+						}
+					} else {
+						finished = true;
+					}
+				}
+			}
+			return bytesRead;
+		}
+
+		@Override
+		public int available() {
+			return untilClose ? readBuffer.remaining() : (int) Math.min(readBuffer.remaining(), remainingBytes);
+		}
+	}
+}
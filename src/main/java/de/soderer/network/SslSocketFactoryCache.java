@@ -0,0 +1,96 @@
+package de.soderer.network;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+import de.soderer.network.trustmanager.KeyManagerRegistry;
+
+/**
+ * SSLSocketFactories of the recently used TrustManagers and client key configurations, so their SSLContext is created only once and keeps its TLS session cache.<br />
+ * The number of cached SSLContexts is limited, the least recently used one is dropped first.
+ * Client key material is keyed by its configuration, so the SSLContext of a rotated KeyManager replaces the previous one of its configuration.
+ */
+class SslSocketFactoryCache {
+	/**
+	 * SSLSocketFactory and the KeyManager it was created for
+	 */
+	private static class CachedSslSocketFactory {
+		private final KeyManager keyManager;
+		private final SSLSocketFactory sslSocketFactory;
+
+		private CachedSslSocketFactory(final KeyManager keyManager, final SSLSocketFactory sslSocketFactory) {
+			this.keyManager = keyManager;
+			this.sslSocketFactory = sslSocketFactory;
+		}
+	}
+
+	private final String tlsVersion;
+	private final Map<List<Object>, CachedSslSocketFactory> sslSocketFactories;
+
+	SslSocketFactoryCache(final String tlsVersion, final int maximumSize) {
+		this.tlsVersion = tlsVersion;
+		sslSocketFactories = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = -2712377530218839446L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<List<Object>, CachedSslSocketFactory> eldest) {
+				return size() > maximumSize;
+			}
+		};
+	}
+
+	/**
+	 * @param trustManager null = systems default truststore
+	 * @param clientKeyConfiguration null = no client certificate
+	 */
+	SSLSocketFactory getSslSocketFactory(final TrustManager trustManager, final ClientKeyConfiguration clientKeyConfiguration) throws Exception {
+		if (clientKeyConfiguration == null) {
+			return getSslSocketFactory(trustManager, null, null);
+		} else {
+			return getSslSocketFactory(trustManager, KeyManagerRegistry.getConfigurationKey(clientKeyConfiguration), clientKeyConfiguration.getKeyManager());
+		}
+	}
+
+	/**
+	 * @param trustManager null = systems default truststore
+	 * @param keyConfigurationKey key of the client key configuration by KeyManagerRegistry.getConfigurationKey
+	 * @param keyManager current KeyManager of the client key configuration (null = no client certificate)
+	 */
+	SSLSocketFactory getSslSocketFactory(final TrustManager trustManager, final Object keyConfigurationKey, final KeyManager keyManager) throws Exception {
+		if (trustManager == null && keyManager == null) {
+			return HttpsURLConnection.getDefaultSSLSocketFactory();
+		}
+		final List<Object> sslSocketFactoryKey = Arrays.asList(trustManager, keyConfigurationKey);
+		synchronized (sslSocketFactories) {
+			CachedSslSocketFactory cachedSslSocketFactory = sslSocketFactories.get(sslSocketFactoryKey);
+			if (cachedSslSocketFactory == null || cachedSslSocketFactory.keyManager != keyManager) {
+				final SSLContext sslContext = SSLContext.getInstance(tlsVersion);
+				sslContext.init(keyManager == null ? null : new KeyManager[] { keyManager }, trustManager == null ? null : new TrustManager[] { trustManager }, new SecureRandom());
+				cachedSslSocketFactory = new CachedSslSocketFactory(keyManager, sslContext.getSocketFactory());
+				sslSocketFactories.put(sslSocketFactoryKey, cachedSslSocketFactory);
+			}
+			return cachedSslSocketFactory.sslSocketFactory;
+		}
+	}
+
+	int getSize() {
+		synchronized (sslSocketFactories) {
+			return sslSocketFactories.size();
+		}
+	}
+
+	void clear() {
+		synchronized (sslSocketFactories) {
+			sslSocketFactories.clear();
+		}
+	}
+}
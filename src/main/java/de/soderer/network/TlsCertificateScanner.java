@@ -0,0 +1,163 @@
+package de.soderer.network;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import de.soderer.network.trustmanager.TrustManagerUtilities;
+
+/**
+ * Reads the TLS certificate chains of many targets ("host:port" or "host" for port 443) in parallel.<br />
+ * Each connection is closed right after the TLS handshake without sending a http request. All handshakes use one shared SSLContext trusting all certificates.
+ * The number of handshakes running at the same time is limited by the parallelism, so also very long target lists are read only as fast as they are scanned.<br />
+ * The results are reported to the listener as soon as each handshake finishes. The listener is never called concurrently.<br />
+ *<br />
+ * Usage example:
+ *
+ * <pre>
+ * try (Writer reportWriter = new FileWriter("tls-inventory.tsv")) {
+ *     new TlsCertificateScanner().setParallelism(200).scan(targets, result -> reportWriter.write(result.toReportLine() + "\n"));
+ * }
+ * </pre>
+ */
+public class TlsCertificateScanner {
+	/**
+	 * Receives the result of each scanned target
+	 */
+	public interface TlsScanResultListener {
+		void scanResult(TlsScanResult scanResult) throws Exception;
+	}
+
+	private int parallelism = 64;
+	private int connectTimeoutMillis = 5000;
+	private int handshakeTimeoutMillis = 10000;
+
+	/**
+	 * Maximum number of handshakes at the same time (default 64)
+	 */
+	public TlsCertificateScanner setParallelism(final int parallelism) {
+		this.parallelism = parallelism;
+
+		return this;
+	}
+
+	/**
+	 * Timeouts of the connection and of the TLS handshake (defaults 5 and 10 seconds)
+	 */
+	public TlsCertificateScanner setTimeouts(final int connectTimeoutMillis, final int handshakeTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+
+		return this;
+	}
+
+	/**
+	 * Scan all targets and report each result to the listener
+	 *
+	 * @return number of targets with successful handshakes
+	 */
+	public int scan(final Iterable<String> targets, final TlsScanResultListener listener) throws Exception {
+		final SSLSocketFactory sslSocketFactory = TrustManagerUtilities.getTrustAllSslContext().getSocketFactory();
+		final Semaphore runningScans = new Semaphore(parallelism);
+		final AtomicInteger successfulCount = new AtomicInteger(0);
+		final List<Exception> listenerErrors = new ArrayList<>();
+		final ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+			final Thread thread = new Thread(runnable, "TlsCertificateScanner");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			for (final String target : targets) {
+				runningScans.acquire();
+				synchronized (listenerErrors) {
+					if (!listenerErrors.isEmpty()) {
+						break;
+					}
+				}
+				executor.execute(() -> {
+					try {
+						final TlsScanResult scanResult = scanTarget(sslSocketFactory, target);
+						if (scanResult.isSuccessful()) {
+							successfulCount.incrementAndGet();
+						}
+						synchronized (listener) {
+							listener.scanResult(scanResult);
+						}
+					} catch (final Exception e) {
+						synchronized (listenerErrors) {
+							listenerErrors.add(e);
+						}
+					} finally {
+						runningScans.release();
+					}
+				});
+			}
+			executor.shutdown();
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				// wait for running handshakes
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		if (!listenerErrors.isEmpty()) {
+			throw new Exception("Cannot report TLS scan result: " + listenerErrors.get(0).getMessage(), listenerErrors.get(0));
+		}
+		return successfulCount.get();
+	}
+
+	/**
+	 * Scan a single target
+	 */
+	public TlsScanResult scan(final String target) throws Exception {
+		return scanTarget(TrustManagerUtilities.getTrustAllSslContext().getSocketFactory(), target);
+	}
+
+	private TlsScanResult scanTarget(final SSLSocketFactory sslSocketFactory, final String target) {
+		final long startNanos = System.nanoTime();
+		String host = target.trim();
+		int port = 443;
+		final int portSeparatorIndex = host.lastIndexOf(':');
+		if (portSeparatorIndex > 0 && host.indexOf(']', portSeparatorIndex) < 0 && (host.indexOf(':') == portSeparatorIndex || host.startsWith("["))) {
+			try {
+				port = Integer.parseInt(host.substring(portSeparatorIndex + 1));
+				host = host.substring(0, portSeparatorIndex);
+			} catch (final NumberFormatException e) {
+				return new TlsScanResult(target, host, -1, null, null, List.of(), new Exception("Invalid port in target '" + target + "'", e), 0);
+			}
+		}
+		if (host.startsWith("[") && host.endsWith("]")) {
+			host = host.substring(1, host.length() - 1);
+		}
+
+		try (Socket socket = new Socket()) {
+			socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+			socket.setSoTimeout(handshakeTimeoutMillis);
+			try (SSLSocket sslSocket = (SSLSocket) sslSocketFactory.createSocket(socket, host, port, false)) {
+				sslSocket.startHandshake();
+				final SSLSession session = sslSocket.getSession();
+				final List<X509Certificate> certificateChain = new ArrayList<>();
+				for (final Certificate certificate : session.getPeerCertificates()) {
+					if (certificate instanceof X509Certificate) {
+						certificateChain.add((X509Certificate) certificate);
+					}
+				}
+				return new TlsScanResult(target, host, port, session.getProtocol(), session.getCipherSuite(), certificateChain, null, (System.nanoTime() - startNanos) / 1_000_000);
+			}
+		} catch (final Exception e) {
+			return new TlsScanResult(target, host, port, null, null, List.of(), e, (System.nanoTime() - startNanos) / 1_000_000);
+		}
+	}
+}
@@ -6,8 +6,10 @@ import javax.net.ssl.TrustManager;
 
 import de.soderer.network.trustmanager.AdditionalTruststoreTrustManager;
 import de.soderer.network.trustmanager.PemFileTrustManager;
+import de.soderer.network.trustmanager.PinningTrustManager;
 import de.soderer.network.trustmanager.SavingToPemFileTrustManager;
 import de.soderer.network.trustmanager.SavingToTruststoreTrustManager;
+import de.soderer.network.trustmanager.TrustManagerRegistry;
 import de.soderer.network.trustmanager.TrustManagerUtilities;
 import de.soderer.network.trustmanager.TruststoreTrustManager;
 
@@ -19,6 +21,10 @@ public class TlsCheckConfiguration {
 		RecordingToTrustStoreFile,
 		SingleCertificate,
 		RecordingSingleCertificate,
+		/** Pins of a pin file replace the PKIX check for pinned hosts, other hosts are checked by the systems truststore */
+		PinnedKeys,
+		/** Pins of a pin file are checked in addition to the PKIX check by the systems truststore */
+		PinnedKeysWithSystemTrustStore,
 		NoCheck;
 
 		public static TlsCheckConfigurationType getTlsCheckConfigurationByName(final String tlsCheckConfigurationTypeString) throws Exception {
@@ -62,10 +68,22 @@ public class TlsCheckConfiguration {
 			throw new IllegalArgumentException("TlsCheckConfigurationType 'SingleCertificate' needs truststore file parameter not to be null");
 		} else if (type == TlsCheckConfigurationType.RecordingSingleCertificate && trustoreOrPemFile == null) {
 			throw new IllegalArgumentException("TlsCheckConfigurationType 'RecordingSingleCertificate' needs truststore file parameter not to be null");
+		} else if ((type == TlsCheckConfigurationType.PinnedKeys || type == TlsCheckConfigurationType.PinnedKeysWithSystemTrustStore) && trustoreOrPemFile == null) {
+			throw new IllegalArgumentException("TlsCheckConfigurationType '" + type.name() + "' needs pin file parameter not to be null");
 		}
 	}
 
+	/**
+	 * Cached TrustManager of this configuration, which is rebuilt when its truststore or PEM file changes
+	 */
 	public TrustManager getTrustManager() throws Exception {
+		return TrustManagerRegistry.getTrustManager(this);
+	}
+
+	/**
+	 * New TrustManager of this configuration read from its truststore or PEM file
+	 */
+	public TrustManager createTrustManager() throws Exception {
 		switch(type) {
 			case AdditionalTrustStoreFile:
 				return new AdditionalTruststoreTrustManager(trustoreOrPemFile, trustorePassword);
@@ -77,6 +95,10 @@ public class TlsCheckConfiguration {
 				return new SavingToTruststoreTrustManager(trustoreOrPemFile, trustorePassword);
 			case SingleCertificate:
 				return new PemFileTrustManager(trustoreOrPemFile);
+			case PinnedKeys:
+				return new PinningTrustManager(trustoreOrPemFile, TrustManagerUtilities.getDefaultTrustManager(), false);
+			case PinnedKeysWithSystemTrustStore:
+				return new PinningTrustManager(trustoreOrPemFile, TrustManagerUtilities.getDefaultTrustManager(), true);
 			case TrustStoreFile:
 				return new TruststoreTrustManager(trustoreOrPemFile, trustorePassword);
 			case SystemTrustStore:
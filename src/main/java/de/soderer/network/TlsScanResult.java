@@ -0,0 +1,141 @@
+package de.soderer.network;
+
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Result of the TLS handshake with one target of a TlsCertificateScanner
+ */
+public class TlsScanResult {
+	private final String target;
+	private final String host;
+	private final int port;
+	private final String protocol;
+	private final String cipherSuite;
+	private final List<X509Certificate> certificateChain;
+	private final Exception error;
+	private final long durationMillis;
+
+	TlsScanResult(final String target, final String host, final int port, final String protocol, final String cipherSuite, final List<X509Certificate> certificateChain, final Exception error, final long durationMillis) {
+		this.target = target;
+		this.host = host;
+		this.port = port;
+		this.protocol = protocol;
+		this.cipherSuite = cipherSuite;
+		this.certificateChain = certificateChain;
+		this.error = error;
+		this.durationMillis = durationMillis;
+	}
+
+	/**
+	 * Target as given to the scanner
+	 */
+	public String getTarget() {
+		return target;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Negotiated protocol like "TLSv1.3" or null on error
+	 */
+	public String getProtocol() {
+		return protocol;
+	}
+
+	public String getCipherSuite() {
+		return cipherSuite;
+	}
+
+	/**
+	 * Certificate chain presented by the server, beginning with the server certificate (empty on error)
+	 */
+	public List<X509Certificate> getCertificateChain() {
+		return certificateChain;
+	}
+
+	public X509Certificate getServerCertificate() {
+		return certificateChain.isEmpty() ? null : certificateChain.get(0);
+	}
+
+	/**
+	 * Error of the connection or handshake or null
+	 */
+	public Exception getError() {
+		return error;
+	}
+
+	public boolean isSuccessful() {
+		return error == null;
+	}
+
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	/**
+	 * DNS names and ip addresses of the server certificate
+	 */
+	public List<String> getSubjectAlternativeNames() {
+		final List<String> subjectAlternativeNames = new ArrayList<>();
+		final X509Certificate serverCertificate = getServerCertificate();
+		if (serverCertificate != null) {
+			try {
+				final Collection<List<?>> alternativeNames = serverCertificate.getSubjectAlternativeNames();
+				if (alternativeNames != null) {
+					for (final List<?> alternativeName : alternativeNames) {
+						if (alternativeName.size() >= 2 && alternativeName.get(1) instanceof String) {
+							subjectAlternativeNames.add((String) alternativeName.get(1));
+						}
+					}
+				}
+			} catch (@SuppressWarnings("unused") final Exception e) {
+				// Invalid extension, no alternative names
+			}
+		}
+		return subjectAlternativeNames;
+	}
+
+	/**
+	 * Earliest end of validity of all certificates of the chain in milliseconds since epoch or -1 on error
+	 */
+	public long getExpiryMillis() {
+		long expiryMillis = -1;
+		for (final X509Certificate certificate : certificateChain) {
+			if (expiryMillis < 0 || certificate.getNotAfter().getTime() < expiryMillis) {
+				expiryMillis = certificate.getNotAfter().getTime();
+			}
+		}
+		return expiryMillis;
+	}
+
+	/**
+	 * Tab separated report line: host, port, protocol, cipher suite, server certificate subject, SANs, expiry, chain length, error
+	 */
+	public String toReportLine() {
+		final X509Certificate serverCertificate = getServerCertificate();
+		return host
+				+ "\t" + port
+				+ "\t" + (protocol == null ? "" : protocol)
+				+ "\t" + (cipherSuite == null ? "" : cipherSuite)
+				+ "\t" + (serverCertificate == null ? "" : serverCertificate.getSubjectX500Principal().getName())
+				+ "\t" + String.join(",", getSubjectAlternativeNames())
+				+ "\t" + (certificateChain.isEmpty() ? "" : Instant.ofEpochMilli(getExpiryMillis()).toString())
+				+ "\t" + certificateChain.size()
+				+ "\t" + (error == null ? "" : error.getClass().getSimpleName() + ": " + error.getMessage());
+	}
+
+	@Override
+	public String toString() {
+		return toReportLine();
+	}
+}
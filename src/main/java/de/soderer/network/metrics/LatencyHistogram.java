@@ -0,0 +1,123 @@
+package de.soderer.network.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of non negative values (like latencies in microseconds) with a log-linear bucket layout as known from HdrHistogram.<br />
+ * Values below 2^precisionBits are counted exactly, larger values are counted in buckets with a relative width of at most 2^-(precisionBits-1).
+ * Recording a value is a single atomic increment without any allocation.
+ */
+public class LatencyHistogram {
+	private final int precisionBits;
+	private final int subBucketCount;
+	private final int halfSubBucketCount;
+	private final AtomicLongArray bucketCounts;
+
+	private final LongAdder totalCount = new LongAdder();
+	private final LongAdder totalSum = new LongAdder();
+	private final LongAccumulator maximumValue = new LongAccumulator(Long::max, 0);
+
+	/**
+	 * Histogram with a maximum relative error of about 3%
+	 */
+	public LatencyHistogram() {
+		this(6);
+	}
+
+	public LatencyHistogram(final int precisionBits) {
+		if (precisionBits < 2 || precisionBits > 16) {
+			throw new IllegalArgumentException("Invalid precisionBits: " + precisionBits);
+		}
+		this.precisionBits = precisionBits;
+		subBucketCount = 1 << precisionBits;
+		halfSubBucketCount = subBucketCount >> 1;
+		bucketCounts = new AtomicLongArray(subBucketCount + (64 - precisionBits) * halfSubBucketCount);
+	}
+
+	public void record(final long value) {
+		final long validValue = Math.max(0, value);
+		bucketCounts.incrementAndGet(getBucketIndex(validValue));
+		totalCount.increment();
+		totalSum.add(validValue);
+		maximumValue.accumulate(validValue);
+	}
+
+	public long getCount() {
+		return totalCount.sum();
+	}
+
+	public long getSum() {
+		return totalSum.sum();
+	}
+
+	public long getMaximum() {
+		return maximumValue.get();
+	}
+
+	public double getMean() {
+		final long count = totalCount.sum();
+		return count == 0 ? 0 : (double) totalSum.sum() / count;
+	}
+
+	/**
+	 * Value below or equal to which the given percentage of all recorded values lie.
+	 * The result is the upper bound of the matching bucket, so it is never below the exact value.
+	 *
+	 * @param percentile 0.0 to 100.0
+	 */
+	public long getValueAtPercentile(final double percentile) {
+		final long[] counts = new long[bucketCounts.length()];
+		long count = 0;
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = bucketCounts.get(i);
+			count += counts[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+
+		final long requestedCount = Math.max(1, (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * count));
+		long cumulatedCount = 0;
+		for (int i = 0; i < counts.length; i++) {
+			cumulatedCount += counts[i];
+			if (cumulatedCount >= requestedCount) {
+				return Math.min(getBucketUpperBound(i), getMaximum());
+			}
+		}
+		return getMaximum();
+	}
+
+	public void reset() {
+		for (int i = 0; i < bucketCounts.length(); i++) {
+			bucketCounts.set(i, 0);
+		}
+		totalCount.reset();
+		totalSum.reset();
+		maximumValue.reset();
+	}
+
+	int getBucketIndex(final long value) {
+		if (value < subBucketCount) {
+			return (int) value;
+		} else {
+			final int mostSignificantBit = 63 - Long.numberOfLeadingZeros(value);
+			final int shift = mostSignificantBit - precisionBits + 1;
+			final int mantissa = (int) (value >>> shift);
+			return subBucketCount + (shift - 1) * halfSubBucketCount + (mantissa - halfSubBucketCount);
+		}
+	}
+
+	long getBucketUpperBound(final int bucketIndex) {
+		if (bucketIndex < subBucketCount) {
+			return bucketIndex;
+		} else {
+			final int offset = bucketIndex - subBucketCount;
+			final int shift = offset / halfSubBucketCount + 1;
+			final long mantissa = offset % halfSubBucketCount + halfSubBucketCount;
+			final long upperBound = ((mantissa + 1) << shift) - 1;
+			return upperBound < 0 ? Long.MAX_VALUE : upperBound;
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package de.soderer.network.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of named and labeled metrics.<br />
+ * Counters and gauges are striped LongAdders and histograms are lock free LatencyHistograms, so recording never blocks concurrent requests.<br />
+ *<br />
+ * Usage example:
+ *
+ * <pre>
+ * MetricsRegistry metricsRegistry = new MetricsRegistry();
+ * HttpUtilities.setMetricsRegistry(metricsRegistry);
+ * ...
+ * System.out.println(metricsRegistry.snapshot().toPrometheusText());
+ * </pre>
+ */
+public class MetricsRegistry {
+	private final ConcurrentHashMap<MetricKey, LongAdder> counters = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<MetricKey, LongAdder> gauges = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<MetricKey, LongSupplier> gaugeSuppliers = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<MetricKey, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+	/**
+	 * Name and label values of a metric
+	 */
+	static final class MetricKey {
+		private final String name;
+		private final String[] labelNamesAndValues;
+		private final int hashCode;
+
+		MetricKey(final String name, final String... labelNamesAndValues) {
+			if (labelNamesAndValues != null && labelNamesAndValues.length % 2 != 0) {
+				throw new IllegalArgumentException("Labels must be given as pairs of name and value");
+			}
+			this.name = name;
+			this.labelNamesAndValues = labelNamesAndValues == null ? new String[0] : labelNamesAndValues;
+			int newHashCode = name.hashCode();
+			for (final String labelNameOrValue : this.labelNamesAndValues) {
+				newHashCode = 31 * newHashCode + (labelNameOrValue == null ? 0 : labelNameOrValue.hashCode());
+			}
+			hashCode = newHashCode;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		String[] getLabelNamesAndValues() {
+			return labelNamesAndValues;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			if (this == other) {
+				return true;
+			} else if (!(other instanceof MetricKey)) {
+				return false;
+			} else {
+				final MetricKey otherMetricKey = (MetricKey) other;
+				if (hashCode != otherMetricKey.hashCode || !name.equals(otherMetricKey.name) || labelNamesAndValues.length != otherMetricKey.labelNamesAndValues.length) {
+					return false;
+				}
+				for (int i = 0; i < labelNamesAndValues.length; i++) {
+					if (labelNamesAndValues[i] == null ? otherMetricKey.labelNamesAndValues[i] != null : !labelNamesAndValues[i].equals(otherMetricKey.labelNamesAndValues[i])) {
+						return false;
+					}
+				}
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @param labelNamesAndValues pairs of label name and label value, like "host", "example.com", "method", "GET"
+	 */
+	public void incrementCounter(final String name, final String... labelNamesAndValues) {
+		addToCounter(name, 1, labelNamesAndValues);
+	}
+
+	public void addToCounter(final String name, final long value, final String... labelNamesAndValues) {
+		getCounter(name, labelNamesAndValues).add(value);
+	}
+
+	/**
+	 * Counter to be updated directly, like the byte counter of a CountingInputStream
+	 */
+	public LongAdder getCounter(final String name, final String... labelNamesAndValues) {
+		return counters.computeIfAbsent(new MetricKey(name, labelNamesAndValues), k -> new LongAdder());
+	}
+
+	public long getCounterValue(final String name, final String... labelNamesAndValues) {
+		final LongAdder counter = counters.get(new MetricKey(name, labelNamesAndValues));
+		return counter == null ? 0 : counter.sum();
+	}
+
+	/**
+	 * Change a gauge, like the number of requests in flight, by a positive or negative value
+	 */
+	public void addToGauge(final String name, final long value, final String... labelNamesAndValues) {
+		gauges.computeIfAbsent(new MetricKey(name, labelNamesAndValues), k -> new LongAdder()).add(value);
+	}
+
+	/**
+	 * Gauge whose value is read from the given supplier on each snapshot
+	 */
+	public void registerGauge(final String name, final LongSupplier valueSupplier, final String... labelNamesAndValues) {
+		gaugeSuppliers.put(new MetricKey(name, labelNamesAndValues), valueSupplier);
+	}
+
+	public void unregisterGauge(final String name, final String... labelNamesAndValues) {
+		gaugeSuppliers.remove(new MetricKey(name, labelNamesAndValues));
+	}
+
+	public long getGaugeValue(final String name, final String... labelNamesAndValues) {
+		final MetricKey metricKey = new MetricKey(name, labelNamesAndValues);
+		final LongSupplier gaugeSupplier = gaugeSuppliers.get(metricKey);
+		if (gaugeSupplier != null) {
+			return gaugeSupplier.getAsLong();
+		} else {
+			final LongAdder gauge = gauges.get(metricKey);
+			return gauge == null ? 0 : gauge.sum();
+		}
+	}
+
+	public void recordValue(final String name, final long value, final String... labelNamesAndValues) {
+		getHistogram(name, labelNamesAndValues).record(value);
+	}
+
+	public LatencyHistogram getHistogram(final String name, final String... labelNamesAndValues) {
+		return histograms.computeIfAbsent(new MetricKey(name, labelNamesAndValues), k -> new LatencyHistogram());
+	}
+
+	/**
+	 * Copy of all current metric values for export.<br />
+	 * Each value is read on its own while requests keep recording, so the values of a snapshot may not match each other exactly.
+	 */
+	public MetricsSnapshot snapshot() {
+		final List<MetricsSnapshot.MetricValue> counterValues = new ArrayList<>();
+		for (final Entry<MetricKey, LongAdder> counterEntry : counters.entrySet()) {
+			counterValues.add(new MetricsSnapshot.MetricValue(counterEntry.getKey(), counterEntry.getValue().sum()));
+		}
+
+		final List<MetricsSnapshot.MetricValue> gaugeValues = new ArrayList<>();
+		for (final Entry<MetricKey, LongAdder> gaugeEntry : gauges.entrySet()) {
+			gaugeValues.add(new MetricsSnapshot.MetricValue(gaugeEntry.getKey(), gaugeEntry.getValue().sum()));
+		}
+		for (final Entry<MetricKey, LongSupplier> gaugeSupplierEntry : gaugeSuppliers.entrySet()) {
+			try {
+				gaugeValues.add(new MetricsSnapshot.MetricValue(gaugeSupplierEntry.getKey(), gaugeSupplierEntry.getValue().getAsLong()));
+			} catch (@SuppressWarnings("unused") final Exception e) {
+				// Skip gauges, which cannot be read at the moment
+			}
+		}
+
+		final List<MetricsSnapshot.HistogramValue> histogramValues = new ArrayList<>();
+		for (final Entry<MetricKey, LatencyHistogram> histogramEntry : histograms.entrySet()) {
+			histogramValues.add(new MetricsSnapshot.HistogramValue(histogramEntry.getKey(), histogramEntry.getValue()));
+		}
+
+		return new MetricsSnapshot(counterValues, gaugeValues, histogramValues);
+	}
+
+	/**
+	 * Clear all counters and histograms.<br />
+	 * Gauges are kept, because they are changed by positive and negative values, like the number of requests in flight, and would go negative otherwise.
+	 */
+	public void reset() {
+		counters.clear();
+		histograms.clear();
+	}
+}
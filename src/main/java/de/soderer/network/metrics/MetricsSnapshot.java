@@ -0,0 +1,311 @@
+package de.soderer.network.metrics;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Point in time copy of the values of a MetricsRegistry with export as JSON or Prometheus text format
+ */
+public class MetricsSnapshot {
+	/** Percentiles exported for each histogram */
+	private static final double[] EXPORTED_PERCENTILES = new double[] { 50.0, 90.0, 95.0, 99.0 };
+
+	private static final Comparator<MetricValue> METRIC_VALUE_ORDER = Comparator.comparing((final MetricValue metricValue) -> metricValue.getName()).thenComparing(metricValue -> String.join(",", metricValue.getLabelNamesAndValues()));
+	private static final Comparator<HistogramValue> HISTOGRAM_VALUE_ORDER = Comparator.comparing((final HistogramValue histogramValue) -> histogramValue.getName()).thenComparing(histogramValue -> String.join(",", histogramValue.getLabelNamesAndValues()));
+
+	public static class MetricValue {
+		private final String name;
+		private final String[] labelNamesAndValues;
+		private final long value;
+
+		MetricValue(final MetricsRegistry.MetricKey metricKey, final long value) {
+			name = metricKey.getName();
+			labelNamesAndValues = metricKey.getLabelNamesAndValues();
+			this.value = value;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String[] getLabelNamesAndValues() {
+			return labelNamesAndValues.clone();
+		}
+
+		public long getValue() {
+			return value;
+		}
+	}
+
+	public static class HistogramValue {
+		private final String name;
+		private final String[] labelNamesAndValues;
+		private final long count;
+		private final long sum;
+		private final long maximum;
+		private final long[] percentileValues;
+
+		HistogramValue(final MetricsRegistry.MetricKey metricKey, final LatencyHistogram histogram) {
+			name = metricKey.getName();
+			labelNamesAndValues = metricKey.getLabelNamesAndValues();
+			count = histogram.getCount();
+			sum = histogram.getSum();
+			maximum = histogram.getMaximum();
+			percentileValues = new long[EXPORTED_PERCENTILES.length];
+			for (int i = 0; i < EXPORTED_PERCENTILES.length; i++) {
+				percentileValues[i] = histogram.getValueAtPercentile(EXPORTED_PERCENTILES[i]);
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String[] getLabelNamesAndValues() {
+			return labelNamesAndValues.clone();
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getSum() {
+			return sum;
+		}
+
+		public long getMaximum() {
+			return maximum;
+		}
+
+		/**
+		 * @param percentile one of 50, 90, 95 or 99
+		 */
+		public long getValueAtPercentile(final double percentile) {
+			for (int i = 0; i < EXPORTED_PERCENTILES.length; i++) {
+				if (EXPORTED_PERCENTILES[i] == percentile) {
+					return percentileValues[i];
+				}
+			}
+			throw new IllegalArgumentException("Percentile is not part of snapshot: " + percentile);
+		}
+	}
+
+	private final long timestamp = System.currentTimeMillis();
+	private final List<MetricValue> counters;
+	private final List<MetricValue> gauges;
+	private final List<HistogramValue> histograms;
+
+	MetricsSnapshot(final List<MetricValue> counters, final List<MetricValue> gauges, final List<HistogramValue> histograms) {
+		counters.sort(METRIC_VALUE_ORDER);
+		gauges.sort(METRIC_VALUE_ORDER);
+		histograms.sort(HISTOGRAM_VALUE_ORDER);
+		this.counters = Collections.unmodifiableList(counters);
+		this.gauges = Collections.unmodifiableList(gauges);
+		this.histograms = Collections.unmodifiableList(histograms);
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public List<MetricValue> getCounters() {
+		return counters;
+	}
+
+	public List<MetricValue> getGauges() {
+		return gauges;
+	}
+
+	public List<HistogramValue> getHistograms() {
+		return histograms;
+	}
+
+	public String toJson() {
+		final StringBuilder json = new StringBuilder();
+		json.append("{\n\t\"timestamp\": ").append(timestamp).append(",\n");
+
+		json.append("\t\"counters\": [");
+		appendJsonMetricValues(json, counters);
+		json.append("],\n");
+
+		json.append("\t\"gauges\": [");
+		appendJsonMetricValues(json, gauges);
+		json.append("],\n");
+
+		json.append("\t\"histograms\": [");
+		boolean first = true;
+		for (final HistogramValue histogramValue : histograms) {
+			json.append(first ? "\n" : ",\n");
+			first = false;
+			json.append("\t\t{\"name\": \"").append(escapeJson(histogramValue.name)).append("\", \"labels\": ");
+			appendJsonLabels(json, histogramValue.labelNamesAndValues);
+			json.append(", \"count\": ").append(histogramValue.count);
+			json.append(", \"sum\": ").append(histogramValue.sum);
+			json.append(", \"max\": ").append(histogramValue.maximum);
+			for (int i = 0; i < EXPORTED_PERCENTILES.length; i++) {
+				json.append(", \"p").append((int) EXPORTED_PERCENTILES[i]).append("\": ").append(histogramValue.percentileValues[i]);
+			}
+			json.append("}");
+		}
+		json.append(first ? "]\n" : "\n\t]\n");
+
+		json.append("}\n");
+		return json.toString();
+	}
+
+	/**
+	 * Prometheus text exposition format (version 0.0.4). Histograms are exported as summaries with quantiles.
+	 */
+	public String toPrometheusText() {
+		final StringBuilder text = new StringBuilder();
+
+		String lastName = null;
+		for (final MetricValue counterValue : counters) {
+			final String name = toPrometheusName(counterValue.name);
+			if (!name.equals(lastName)) {
+				text.append("# TYPE ").append(name).append(" counter\n");
+				lastName = name;
+			}
+			text.append(name);
+			appendPrometheusLabels(text, counterValue.labelNamesAndValues, null);
+			text.append(" ").append(counterValue.value).append("\n");
+		}
+
+		lastName = null;
+		for (final MetricValue gaugeValue : gauges) {
+			final String name = toPrometheusName(gaugeValue.name);
+			if (!name.equals(lastName)) {
+				text.append("# TYPE ").append(name).append(" gauge\n");
+				lastName = name;
+			}
+			text.append(name);
+			appendPrometheusLabels(text, gaugeValue.labelNamesAndValues, null);
+			text.append(" ").append(gaugeValue.value).append("\n");
+		}
+
+		lastName = null;
+		for (final HistogramValue histogramValue : histograms) {
+			final String name = toPrometheusName(histogramValue.name);
+			if (!name.equals(lastName)) {
+				text.append("# TYPE ").append(name).append(" summary\n");
+				lastName = name;
+			}
+			for (int i = 0; i < EXPORTED_PERCENTILES.length; i++) {
+				text.append(name);
+				appendPrometheusLabels(text, histogramValue.labelNamesAndValues, String.format(Locale.ROOT, "%.2f", EXPORTED_PERCENTILES[i] / 100.0));
+				text.append(" ").append(histogramValue.percentileValues[i]).append("\n");
+			}
+			text.append(name).append("_sum");
+			appendPrometheusLabels(text, histogramValue.labelNamesAndValues, null);
+			text.append(" ").append(histogramValue.sum).append("\n");
+			text.append(name).append("_count");
+			appendPrometheusLabels(text, histogramValue.labelNamesAndValues, null);
+			text.append(" ").append(histogramValue.count).append("\n");
+		}
+
+		return text.toString();
+	}
+
+	private static void appendJsonMetricValues(final StringBuilder json, final List<MetricValue> metricValues) {
+		boolean first = true;
+		for (final MetricValue metricValue : metricValues) {
+			json.append(first ? "\n" : ",\n");
+			first = false;
+			json.append("\t\t{\"name\": \"").append(escapeJson(metricValue.name)).append("\", \"labels\": ");
+			appendJsonLabels(json, metricValue.labelNamesAndValues);
+			json.append(", \"value\": ").append(metricValue.value).append("}");
+		}
+		if (!first) {
+			json.append("\n\t");
+		}
+	}
+
+	private static void appendJsonLabels(final StringBuilder json, final String[] labelNamesAndValues) {
+		json.append("{");
+		for (int i = 0; i < labelNamesAndValues.length; i += 2) {
+			if (i > 0) {
+				json.append(", ");
+			}
+			json.append("\"").append(escapeJson(labelNamesAndValues[i])).append("\": \"").append(escapeJson(labelNamesAndValues[i + 1])).append("\"");
+		}
+		json.append("}");
+	}
+
+	private static void appendPrometheusLabels(final StringBuilder text, final String[] labelNamesAndValues, final String quantile) {
+		if (labelNamesAndValues.length > 0 || quantile != null) {
+			text.append("{");
+			boolean first = true;
+			for (int i = 0; i < labelNamesAndValues.length; i += 2) {
+				if (!first) {
+					text.append(",");
+				}
+				first = false;
+				text.append(toPrometheusName(labelNamesAndValues[i])).append("=\"").append(escapePrometheusLabelValue(labelNamesAndValues[i + 1])).append("\"");
+			}
+			if (quantile != null) {
+				if (!first) {
+					text.append(",");
+				}
+				text.append("quantile=\"").append(quantile).append("\"");
+			}
+			text.append("}");
+		}
+	}
+
+	private static String toPrometheusName(final String name) {
+		final StringBuilder prometheusName = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			final char character = name.charAt(i);
+			if ((character >= 'a' && character <= 'z') || (character >= 'A' && character <= 'Z') || character == '_' || (character >= '0' && character <= '9' && i > 0)) {
+				prometheusName.append(character);
+			} else {
+				prometheusName.append('_');
+			}
+		}
+		return prometheusName.toString();
+	}
+
+	private static String escapePrometheusLabelValue(final String value) {
+		if (value == null) {
+			return "";
+		} else {
+			return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+		}
+	}
+
+	private static String escapeJson(final String value) {
+		if (value == null) {
+			return "";
+		}
+		final StringBuilder escaped = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			final char character = value.charAt(i);
+			switch (character) {
+				case '"':
+					escaped.append("\\\"");
+					break;
+				case '\\':
+					escaped.append("\\\\");
+					break;
+				case '\n':
+					escaped.append("\\n");
+					break;
+				case '\r':
+					escaped.append("\\r");
+					break;
+				case '\t':
+					escaped.append("\\t");
+					break;
+				default:
+					if (character < 0x20) {
+						escaped.append(String.format("\\u%04x", (int) character));
+					} else {
+						escaped.append(character);
+					}
+			}
+		}
+		return escaped.toString();
+	}
+}
@@ -0,0 +1,47 @@
+package de.soderer.network.server;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes data in HTTP/1.1 chunked transfer encoding.<br />
+ * Closing this stream writes the terminating chunk, but does not close the underlying stream.
+ */
+class ChunkedOutputStream extends FilterOutputStream {
+	private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+	private boolean closed = false;
+
+	ChunkedOutputStream(final OutputStream outputStream) {
+		super(outputStream);
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(final byte[] data, final int offset, final int length) throws IOException {
+		if (closed) {
+			throw new IOException("Stream already closed");
+		} else if (length > 0) {
+			out.write(Integer.toHexString(length).getBytes(StandardCharsets.ISO_8859_1));
+			out.write(CRLF);
+			out.write(data, offset, length);
+			out.write(CRLF);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			out.write(LAST_CHUNK);
+			out.flush();
+		}
+	}
+}
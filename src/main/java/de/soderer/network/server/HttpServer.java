@@ -0,0 +1,440 @@
+package de.soderer.network.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLEngine;
+
+import de.soderer.network.metrics.MetricsRegistry;
+import de.soderer.network.utilities.ByteBufferPool;
+
+/**
+ * Embedded HTTP/1.1 server based on non blocking NIO channels.<br />
+ * One network thread accepts connections, reads requests and writes responses, also doing the TLS termination by SSLEngine.
+ * Request handlers are executed by a pool of worker threads.<br />
+ *<br />
+ * Usage example:
+ *
+ * <pre>
+ * try (HttpServer server = new HttpServer(8080)) {
+ * 	server.addHandler("/hello", request -&gt; new HttpServerResponse(200, "Hello " + request.getUrlParameter("name"), HttpContentType.Text));
+ * 	server.start();
+ * 	...
+ * }
+ * </pre>
+ */
+public class HttpServer implements Closeable {
+	private final InetSocketAddress bindAddress;
+	private TlsServerConfiguration tlsServerConfiguration = null;
+	private final Map<String, HttpServerHandler> handlers = new ConcurrentHashMap<>();
+
+	private ExecutorService workerExecutor = null;
+	private boolean ownWorkerExecutor = false;
+	private int workerThreads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+	private int maximumHeaderSize = 64 * 1024;
+	private int maximumRequestBodySize = 10 * 1024 * 1024;
+	private int maximumQueuedResponseBytes = 256 * 1024;
+	private long idleTimeoutMillis = 60000;
+	private int compressionMinimumSize = 1024;
+	private MetricsRegistry metricsRegistry = null;
+
+	private Selector selector = null;
+	private ServerSocketChannel serverSocketChannel = null;
+	private Thread networkThread = null;
+	private volatile boolean running = false;
+	private volatile Exception lastError = null;
+
+	private final ConcurrentLinkedQueue<Runnable> networkThreadTasks = new ConcurrentLinkedQueue<>();
+	private final Set<HttpServerConnection> connections = ConcurrentHashMap.newKeySet();
+
+	private ByteBufferPool packetBufferPool = null;
+	private final ByteBufferPool responseBufferPool = new ByteBufferPool(16 * 1024, 1024, false);
+
+	public HttpServer(final int port) {
+		this(new InetSocketAddress(port));
+	}
+
+	public HttpServer(final InetSocketAddress bindAddress) {
+		this.bindAddress = bindAddress;
+	}
+
+	public TlsServerConfiguration getTlsServerConfiguration() {
+		return tlsServerConfiguration;
+	}
+
+	/**
+	 * Use TLS for all connections (null = plain HTTP)
+	 */
+	public HttpServer setTlsServerConfiguration(final TlsServerConfiguration tlsServerConfiguration) {
+		if (running) {
+			throw new IllegalStateException("Server is already running");
+		}
+		this.tlsServerConfiguration = tlsServerConfiguration;
+
+		return this;
+	}
+
+	public boolean isSecure() {
+		return tlsServerConfiguration != null;
+	}
+
+	/**
+	 * Handler for all requests with a path starting with the given path prefix. The handler with the longest matching path prefix is used.
+	 */
+	public HttpServer addHandler(final String pathPrefix, final HttpServerHandler handler) {
+		handlers.put(pathPrefix == null || pathPrefix.length() == 0 ? "/" : pathPrefix, handler);
+
+		return this;
+	}
+
+	public HttpServer removeHandler(final String pathPrefix) {
+		handlers.remove(pathPrefix);
+
+		return this;
+	}
+
+	HttpServerHandler getHandler(final String path) {
+		HttpServerHandler bestMatchingHandler = null;
+		int bestMatchingPathPrefixLength = -1;
+		for (final Entry<String, HttpServerHandler> handlerEntry : handlers.entrySet()) {
+			if (path.startsWith(handlerEntry.getKey()) && handlerEntry.getKey().length() > bestMatchingPathPrefixLength) {
+				bestMatchingHandler = handlerEntry.getValue();
+				bestMatchingPathPrefixLength = handlerEntry.getKey().length();
+			}
+		}
+		return bestMatchingHandler;
+	}
+
+	/**
+	 * Use an external executor for the request handlers. It is not shut down by the server.
+	 */
+	public HttpServer setWorkerExecutor(final ExecutorService workerExecutor) {
+		if (running) {
+			throw new IllegalStateException("Server is already running");
+		}
+		this.workerExecutor = workerExecutor;
+		ownWorkerExecutor = false;
+
+		return this;
+	}
+
+	public HttpServer setWorkerThreads(final int workerThreads) {
+		this.workerThreads = workerThreads;
+
+		return this;
+	}
+
+	public int getMaximumHeaderSize() {
+		return maximumHeaderSize;
+	}
+
+	public HttpServer setMaximumHeaderSize(final int maximumHeaderSize) {
+		this.maximumHeaderSize = maximumHeaderSize;
+
+		return this;
+	}
+
+	public int getMaximumRequestBodySize() {
+		return maximumRequestBodySize;
+	}
+
+	public HttpServer setMaximumRequestBodySize(final int maximumRequestBodySize) {
+		this.maximumRequestBodySize = maximumRequestBodySize;
+
+		return this;
+	}
+
+	public int getMaximumQueuedResponseBytes() {
+		return maximumQueuedResponseBytes;
+	}
+
+	/**
+	 * Maximum response data per connection waiting to be sent, before the worker thread is blocked
+	 */
+	public HttpServer setMaximumQueuedResponseBytes(final int maximumQueuedResponseBytes) {
+		this.maximumQueuedResponseBytes = maximumQueuedResponseBytes;
+
+		return this;
+	}
+
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	/**
+	 * Timeout for keep-alive connections and for clients sending their request data
+	 */
+	public HttpServer setIdleTimeoutMillis(final long idleTimeoutMillis) {
+		this.idleTimeoutMillis = idleTimeoutMillis;
+
+		return this;
+	}
+
+	public int getCompressionMinimumSize() {
+		return compressionMinimumSize;
+	}
+
+	/**
+	 * Responses of compressible content types with at least this size are sent gzip compressed to clients accepting gzip (-1 = no compression)
+	 */
+	public HttpServer setCompressionMinimumSize(final int compressionMinimumSize) {
+		this.compressionMinimumSize = compressionMinimumSize;
+
+		return this;
+	}
+
+	public MetricsRegistry getMetricsRegistry() {
+		return metricsRegistry;
+	}
+
+	/**
+	 * Registry to record request counts, durations, transferred bytes and open connections of this server (null = no metrics)
+	 */
+	public HttpServer setMetricsRegistry(final MetricsRegistry metricsRegistry) {
+		if (this.metricsRegistry != null) {
+			this.metricsRegistry.unregisterGauge("http_server_open_connections");
+		}
+		this.metricsRegistry = metricsRegistry;
+		if (metricsRegistry != null) {
+			metricsRegistry.registerGauge("http_server_open_connections", this::getOpenConnectionsCount);
+		}
+
+		return this;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Last error of the network thread, like a failed accept of a connection, or null.
+	 * If the network thread stopped by this error, isRunning() returns false.
+	 */
+	public Exception getLastError() {
+		return lastError;
+	}
+
+	/**
+	 * Port the server is listening on. This is also the port chosen by the system, if the server was created for port 0.
+	 */
+	public int getPort() {
+		if (serverSocketChannel != null && serverSocketChannel.isOpen()) {
+			try {
+				return ((InetSocketAddress) serverSocketChannel.getLocalAddress()).getPort();
+			} catch (@SuppressWarnings("unused") final IOException e) {
+				return bindAddress.getPort();
+			}
+		} else {
+			return bindAddress.getPort();
+		}
+	}
+
+	public int getOpenConnectionsCount() {
+		return connections.size();
+	}
+
+	public synchronized HttpServer start() throws Exception {
+		if (running) {
+			throw new IllegalStateException("Server is already running");
+		}
+
+		if (tlsServerConfiguration != null) {
+			// Check the key material before accepting any connection and size the packet buffers
+			final SSLEngine sslEngine = tlsServerConfiguration.createSslEngine();
+			final int packetBufferSize = Math.max(sslEngine.getSession().getPacketBufferSize(), sslEngine.getSession().getApplicationBufferSize());
+			packetBufferPool = new ByteBufferPool(packetBufferSize, 1024, true);
+		}
+
+		if (workerExecutor == null) {
+			final AtomicInteger workerThreadIndex = new AtomicInteger(0);
+			workerExecutor = Executors.newFixedThreadPool(workerThreads, runnable -> {
+				final Thread thread = new Thread(runnable, "HttpServer-Worker-" + workerThreadIndex.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			ownWorkerExecutor = true;
+		}
+
+		selector = Selector.open();
+		serverSocketChannel = ServerSocketChannel.open();
+		serverSocketChannel.configureBlocking(false);
+		serverSocketChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+		serverSocketChannel.bind(bindAddress);
+		serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+		lastError = null;
+		running = true;
+		networkThread = new Thread(this::runNetworkLoop, "HttpServer-" + getPort());
+		networkThread.setDaemon(true);
+		networkThread.start();
+
+		return this;
+	}
+
+	/**
+	 * Stop accepting connections and close all open connections
+	 */
+	public synchronized void stop() {
+		if (running) {
+			running = false;
+			selector.wakeup();
+			try {
+				networkThread.join(5000);
+			} catch (@SuppressWarnings("unused") final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (ownWorkerExecutor) {
+				workerExecutor.shutdownNow();
+				try {
+					workerExecutor.awaitTermination(5, TimeUnit.SECONDS);
+				} catch (@SuppressWarnings("unused") final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				workerExecutor = null;
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		stop();
+	}
+
+	/**
+	 * Execute a task by a worker thread
+	 *
+	 * @return false, if the server is shutting down and the task is not executed
+	 */
+	boolean execute(final Runnable task) {
+		try {
+			workerExecutor.execute(task);
+			return true;
+		} catch (@SuppressWarnings("unused") final RejectedExecutionException e) {
+			// Server is shutting down
+			return false;
+		}
+	}
+
+	/**
+	 * Run a task in the network thread, which is the only thread allowed to access the channels
+	 */
+	void runInNetworkThread(final Runnable task) {
+		networkThreadTasks.add(task);
+		if (Thread.currentThread() != networkThread) {
+			selector.wakeup();
+		}
+	}
+
+	void connectionClosed(final HttpServerConnection connection) {
+		connections.remove(connection);
+	}
+
+	ByteBufferPool getResponseBufferPool() {
+		return responseBufferPool;
+	}
+
+	private void runNetworkLoop() {
+		long nextIdleCheckMillis = System.currentTimeMillis() + 1000;
+		try {
+			while (running) {
+				selector.select(1000);
+
+				Runnable task;
+				while ((task = networkThreadTasks.poll()) != null) {
+					task.run();
+				}
+
+				for (final SelectionKey selectionKey : selector.selectedKeys()) {
+					if (!selectionKey.isValid()) {
+						continue;
+					} else if (selectionKey.isAcceptable()) {
+						acceptConnection();
+					} else {
+						final HttpServerConnection connection = (HttpServerConnection) selectionKey.attachment();
+						if (selectionKey.isReadable()) {
+							connection.onReadable();
+						}
+						if (selectionKey.isValid() && selectionKey.isWritable()) {
+							connection.onWritable();
+						}
+					}
+				}
+				selector.selectedKeys().clear();
+
+				final long nowMillis = System.currentTimeMillis();
+				if (nowMillis >= nextIdleCheckMillis) {
+					nextIdleCheckMillis = nowMillis + 1000;
+					for (final HttpServerConnection connection : new ArrayList<>(connections)) {
+						if (connection.isIdle(nowMillis, idleTimeoutMillis)) {
+							connection.close();
+						}
+					}
+				}
+			}
+		} catch (final IOException e) {
+			lastError = e;
+			running = false;
+		} finally {
+			for (final HttpServerConnection connection : new ArrayList<>(connections)) {
+				connection.close();
+			}
+			try {
+				serverSocketChannel.close();
+			} catch (@SuppressWarnings("unused") final IOException e) {
+				// do nothing
+			}
+			try {
+				selector.close();
+			} catch (@SuppressWarnings("unused") final IOException e) {
+				// do nothing
+			}
+		}
+	}
+
+	private void acceptConnection() {
+		SocketChannel socketChannel = null;
+		try {
+			socketChannel = serverSocketChannel.accept();
+			if (socketChannel != null) {
+				socketChannel.configureBlocking(false);
+				socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+				TlsServerSession tlsServerSession = null;
+				if (tlsServerConfiguration != null) {
+					tlsServerSession = new TlsServerSession(tlsServerConfiguration.createSslEngine(), socketChannel, packetBufferPool);
+				}
+
+				final HttpServerConnection connection = new HttpServerConnection(this, socketChannel, tlsServerSession);
+				connection.setSelectionKey(socketChannel.register(selector, SelectionKey.OP_READ, connection));
+				connections.add(connection);
+			}
+		} catch (final Exception e) {
+			lastError = e;
+			if (socketChannel != null) {
+				try {
+					socketChannel.close();
+				} catch (@SuppressWarnings("unused") final IOException e1) {
+					// do nothing
+				}
+			}
+		}
+	}
+}
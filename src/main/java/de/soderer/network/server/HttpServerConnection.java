@@ -0,0 +1,755 @@
+package de.soderer.network.server;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import de.soderer.network.HttpConstants;
+import de.soderer.network.HttpContentType;
+import de.soderer.network.HttpMethod;
+import de.soderer.network.HttpUtilities;
+import de.soderer.network.NetworkUtilities;
+import de.soderer.network.metrics.MetricsRegistry;
+import de.soderer.network.utilities.CaseInsensitiveLinkedMap;
+
+/**
+ * State of one client connection of the embedded HttpServer.<br />
+ * Reading, parsing and writing is done by the servers network thread.
+ * Handlers are executed by the worker threads, which hand over the response data by a queue of pooled buffers.
+ */
+class HttpServerConnection {
+	private static final String HTTP_VERSION_1_0 = "HTTP/1.0";
+	private static final String HTTP_VERSION_1_1 = "HTTP/1.1";
+	private static final int COMPRESSION_BUFFER_SIZE = 8192;
+	private static final byte[] CONTINUE_RESPONSE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+	private enum State {
+		ReadingRequest,
+		ProcessingRequest,
+		Closed
+	}
+
+	/**
+	 * Invalid request, which is answered with the given http code
+	 */
+	private static class InvalidRequestException extends Exception {
+		private static final long serialVersionUID = -2962404834451298361L;
+
+		private final int httpCode;
+
+		InvalidRequestException(final int httpCode, final String message) {
+			super(message);
+			this.httpCode = httpCode;
+		}
+	}
+
+	private final HttpServer server;
+	private final SocketChannel socketChannel;
+	private final TlsServerSession tlsServerSession;
+	private final InetSocketAddress remoteAddress;
+	private SelectionKey selectionKey;
+
+	/** Received request data, kept in fill mode */
+	private ByteBuffer requestBuffer = ByteBuffer.allocate(8192);
+	private int headerSearchPosition = 0;
+	private boolean continueSent = false;
+	private long requestStartNanos = 0;
+
+	private volatile State state = State.ReadingRequest;
+	private volatile long lastActivityMillis = System.currentTimeMillis();
+	private volatile boolean responseComplete = false;
+	private volatile boolean closeAfterResponse = false;
+
+	private final ConcurrentLinkedQueue<ByteBuffer> outboundQueue = new ConcurrentLinkedQueue<>();
+	private final AtomicLong outboundQueuedBytes = new AtomicLong(0);
+	private final Object outboundLock = new Object();
+	private ByteBuffer currentOutboundBuffer = null;
+
+	HttpServerConnection(final HttpServer server, final SocketChannel socketChannel, final TlsServerSession tlsServerSession) throws IOException {
+		this.server = server;
+		this.socketChannel = socketChannel;
+		this.tlsServerSession = tlsServerSession;
+		remoteAddress = (InetSocketAddress) socketChannel.getRemoteAddress();
+	}
+
+	void setSelectionKey(final SelectionKey selectionKey) {
+		this.selectionKey = selectionKey;
+	}
+
+	boolean isClosed() {
+		return state == State.Closed;
+	}
+
+	boolean isIdle(final long nowMillis, final long idleTimeoutMillis) {
+		return state == State.ReadingRequest && nowMillis - lastActivityMillis > idleTimeoutMillis;
+	}
+
+	/**
+	 * Called by the network thread, when data is available
+	 */
+	void onReadable() {
+		try {
+			final int bytesRead;
+			if (tlsServerSession != null) {
+				bytesRead = tlsServerSession.read(this::appendRequestData);
+			} else {
+				ensureRequestBufferSpace(1);
+				bytesRead = socketChannel.read(requestBuffer);
+			}
+
+			if (bytesRead < 0) {
+				close();
+			} else {
+				if (bytesRead > 0) {
+					lastActivityMillis = System.currentTimeMillis();
+					final MetricsRegistry metricsRegistry = server.getMetricsRegistry();
+					if (metricsRegistry != null) {
+						metricsRegistry.addToCounter("http_server_bytes_received_total", bytesRead);
+					}
+				}
+				if (state == State.ReadingRequest) {
+					dispatchNextRequest();
+				}
+				if (tlsServerSession != null && tlsServerSession.hasPendingNetworkData()) {
+					updateInterest();
+				}
+			}
+		} catch (@SuppressWarnings("unused") final Exception e) {
+			close();
+		}
+	}
+
+	/**
+	 * Called by the network thread, when the channel accepts data or new response data was queued
+	 */
+	void onWritable() {
+		if (state == State.Closed) {
+			return;
+		}
+
+		try {
+			if (tlsServerSession != null && !tlsServerSession.flush()) {
+				updateInterest();
+				return;
+			}
+
+			while (true) {
+				if (currentOutboundBuffer == null) {
+					currentOutboundBuffer = outboundQueue.poll();
+					if (currentOutboundBuffer == null) {
+						break;
+					}
+				}
+
+				final boolean written;
+				if (tlsServerSession != null) {
+					written = tlsServerSession.write(currentOutboundBuffer);
+				} else {
+					while (currentOutboundBuffer.hasRemaining() && socketChannel.write(currentOutboundBuffer) > 0) {
+						// write as much as possible
+					}
+					written = !currentOutboundBuffer.hasRemaining();
+				}
+
+				if (!currentOutboundBuffer.hasRemaining()) {
+					releaseOutboundBuffer(currentOutboundBuffer);
+					currentOutboundBuffer = null;
+				}
+
+				if (!written) {
+					lastActivityMillis = System.currentTimeMillis();
+					updateInterest();
+					return;
+				}
+			}
+
+			lastActivityMillis = System.currentTimeMillis();
+			if (responseComplete && state == State.ProcessingRequest) {
+				finishResponse();
+			} else {
+				updateInterest();
+			}
+		} catch (@SuppressWarnings("unused") final Exception e) {
+			close();
+		}
+	}
+
+	void close() {
+		if (state != State.Closed) {
+			state = State.Closed;
+			if (selectionKey != null) {
+				selectionKey.cancel();
+			}
+			if (tlsServerSession != null) {
+				tlsServerSession.close();
+			}
+			try {
+				socketChannel.close();
+			} catch (@SuppressWarnings("unused") final IOException e) {
+				// do nothing
+			}
+			if (currentOutboundBuffer != null) {
+				releaseOutboundBuffer(currentOutboundBuffer);
+				currentOutboundBuffer = null;
+			}
+			ByteBuffer outboundBuffer;
+			while ((outboundBuffer = outboundQueue.poll()) != null) {
+				releaseOutboundBuffer(outboundBuffer);
+			}
+			synchronized (outboundLock) {
+				outboundLock.notifyAll();
+			}
+			server.connectionClosed(this);
+		}
+	}
+
+	private void appendRequestData(final ByteBuffer applicationData) {
+		ensureRequestBufferSpace(applicationData.remaining());
+		requestBuffer.put(applicationData);
+	}
+
+	private void ensureRequestBufferSpace(final int minimumFreeSpace) {
+		if (requestBuffer.remaining() < minimumFreeSpace) {
+			final ByteBuffer enlargedRequestBuffer = ByteBuffer.allocate(Math.max(requestBuffer.capacity() * 2, requestBuffer.position() + minimumFreeSpace));
+			requestBuffer.flip();
+			enlargedRequestBuffer.put(requestBuffer);
+			requestBuffer = enlargedRequestBuffer;
+		}
+	}
+
+	/**
+	 * Start processing of the next completely received request, if there is one
+	 */
+	private void dispatchNextRequest() {
+		final HttpServerRequest request;
+		try {
+			request = parseRequest();
+		} catch (final InvalidRequestException e) {
+			requestStartNanos = System.nanoTime();
+			state = State.ProcessingRequest;
+			closeAfterResponse = true;
+			updateInterest();
+			final HttpServerResponse errorResponse = new HttpServerResponse(e.httpCode, e.getMessage(), HttpContentType.Text);
+			executeRequest(() -> writeResponse(null, errorResponse));
+			return;
+		}
+
+		if (request == null) {
+			updateInterest();
+		} else {
+			requestStartNanos = System.nanoTime();
+			state = State.ProcessingRequest;
+			final String connectionHeader = request.getHeader("Connection");
+			if (HTTP_VERSION_1_0.equals(request.getProtocolVersion())) {
+				closeAfterResponse = connectionHeader == null || !"keep-alive".equalsIgnoreCase(connectionHeader.trim());
+			} else {
+				closeAfterResponse = connectionHeader != null && "close".equalsIgnoreCase(connectionHeader.trim());
+			}
+			if (!server.isRunning()) {
+				closeAfterResponse = true;
+			}
+			updateInterest();
+			executeRequest(() -> processRequest(request));
+		}
+	}
+
+	/**
+	 * Hand a request over to a worker thread. The request is in flight until its response is written by writeResponse.
+	 */
+	private void executeRequest(final Runnable requestTask) {
+		final MetricsRegistry metricsRegistry = server.getMetricsRegistry();
+		if (metricsRegistry != null) {
+			metricsRegistry.addToGauge("http_server_requests_in_flight", 1);
+		}
+		if (!server.execute(requestTask) && metricsRegistry != null) {
+			metricsRegistry.addToGauge("http_server_requests_in_flight", -1);
+		}
+	}
+
+	/**
+	 * Parse the next request from the received data
+	 *
+	 * @return null, if the request is not yet completely received
+	 */
+	private HttpServerRequest parseRequest() throws InvalidRequestException {
+		final byte[] data = requestBuffer.array();
+		final int dataLength = requestBuffer.position();
+
+		int headerEnd = -1;
+		for (int i = Math.max(0, headerSearchPosition - 3); i + 3 < dataLength; i++) {
+			if (data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r' && data[i + 3] == '\n') {
+				headerEnd = i;
+				break;
+			}
+		}
+		if (headerEnd < 0) {
+			headerSearchPosition = dataLength;
+			if (dataLength > server.getMaximumHeaderSize()) {
+				throw new InvalidRequestException(431, "Request header fields too large");
+			}
+			return null;
+		} else if (headerEnd > server.getMaximumHeaderSize()) {
+			throw new InvalidRequestException(431, "Request header fields too large");
+		}
+
+		final String[] headerLines = new String(data, 0, headerEnd, StandardCharsets.ISO_8859_1).split("\r\n");
+		final String[] requestLineParts = headerLines[0].trim().split(" ");
+		if (requestLineParts.length != 3) {
+			throw new InvalidRequestException(400, "Invalid request line");
+		}
+
+		final HttpMethod requestMethod;
+		try {
+			requestMethod = HttpMethod.getHttpMethodByName(requestLineParts[0]);
+		} catch (final Exception e) {
+			throw new InvalidRequestException(501, e.getMessage());
+		}
+
+		final String protocolVersion = requestLineParts[2].toUpperCase();
+		if (!HTTP_VERSION_1_1.equals(protocolVersion) && !HTTP_VERSION_1_0.equals(protocolVersion)) {
+			throw new InvalidRequestException(505, "HTTP version not supported: " + requestLineParts[2]);
+		}
+
+		final CaseInsensitiveLinkedMap<String> headers = new CaseInsensitiveLinkedMap<>();
+		for (int i = 1; i < headerLines.length; i++) {
+			final int separatorIndex = headerLines[i].indexOf(':');
+			if (separatorIndex <= 0) {
+				throw new InvalidRequestException(400, "Invalid header line");
+			}
+			final String headerName = headerLines[i].substring(0, separatorIndex).trim();
+			final String headerValue = headerLines[i].substring(separatorIndex + 1).trim();
+			final String existingHeaderValue = headers.get(headerName);
+			headers.put(headerName, existingHeaderValue == null ? headerValue : existingHeaderValue + ", " + headerValue);
+		}
+
+		final boolean chunked;
+		if (headers.containsKey("Transfer-Encoding")) {
+			if (!"chunked".equalsIgnoreCase(headers.get("Transfer-Encoding"))) {
+				throw new InvalidRequestException(501, "Transfer-Encoding of request body is not supported");
+			}
+			chunked = true;
+		} else {
+			chunked = false;
+		}
+
+		int contentLength = 0;
+		if (!chunked && headers.containsKey(HttpConstants.HTTPHEADERNAME_CONTENTLENGTH)) {
+			try {
+				final long contentLengthValue = Long.parseLong(headers.get(HttpConstants.HTTPHEADERNAME_CONTENTLENGTH).trim());
+				if (contentLengthValue < 0) {
+					throw new InvalidRequestException(400, "Invalid Content-Length");
+				} else if (contentLengthValue > server.getMaximumRequestBodySize()) {
+					throw new InvalidRequestException(413, "Request body too large");
+				}
+				contentLength = (int) contentLengthValue;
+			} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+				throw new InvalidRequestException(400, "Invalid Content-Length");
+			}
+		}
+
+		final int bodyStart = headerEnd + 4;
+		final int requestEnd = chunked ? findChunkedBodyEnd(data, bodyStart, dataLength) : bodyStart + contentLength;
+		if (requestEnd < 0 || dataLength < requestEnd) {
+			if (!continueSent && "100-continue".equalsIgnoreCase(headers.get("Expect"))) {
+				continueSent = true;
+				queueOutboundData(ByteBuffer.wrap(CONTINUE_RESPONSE));
+				onWritable();
+			}
+			return null;
+		}
+
+		final byte[] body;
+		if (chunked) {
+			body = decodeChunkedBody(data, bodyStart, requestEnd);
+			headers.remove("Transfer-Encoding");
+			headers.put(HttpConstants.HTTPHEADERNAME_CONTENTLENGTH, Integer.toString(body.length));
+		} else {
+			body = new byte[contentLength];
+			System.arraycopy(data, bodyStart, body, 0, contentLength);
+		}
+
+		// Keep data of pipelined following requests
+		System.arraycopy(data, requestEnd, data, 0, dataLength - requestEnd);
+		requestBuffer.position(dataLength - requestEnd);
+		headerSearchPosition = 0;
+		continueSent = false;
+
+		final HttpServerRequest request = new HttpServerRequest(requestMethod, requestLineParts[1], protocolVersion, headers, body, remoteAddress);
+		if (tlsServerSession != null) {
+			request.setTlsData(tlsServerSession.getProtocol(), tlsServerSession.getCipherSuite(), tlsServerSession.getApplicationProtocol(), tlsServerSession.getPeerCertificates());
+		}
+		return request;
+	}
+
+	/**
+	 * Find the end of a request body in chunked transfer encoding
+	 *
+	 * @return -1, if the body is not yet completely received
+	 */
+	private int findChunkedBodyEnd(final byte[] data, final int bodyStart, final int dataLength) throws InvalidRequestException {
+		long bodySize = 0;
+		int position = bodyStart;
+		while (true) {
+			final int chunkSizeLineEnd = indexOfLineEnd(data, position, dataLength);
+			if (chunkSizeLineEnd < 0) {
+				return -1;
+			}
+			final long chunkSize = parseChunkSize(data, position, chunkSizeLineEnd);
+			position = chunkSizeLineEnd + 2;
+			if (chunkSize == 0) {
+				// Skip trailer headers up to the empty line
+				while (true) {
+					final int trailerLineEnd = indexOfLineEnd(data, position, dataLength);
+					if (trailerLineEnd < 0) {
+						return -1;
+					} else if (trailerLineEnd == position) {
+						return position + 2;
+					} else {
+						position = trailerLineEnd + 2;
+					}
+				}
+			}
+			bodySize += chunkSize;
+			if (bodySize > server.getMaximumRequestBodySize()) {
+				throw new InvalidRequestException(413, "Request body too large");
+			}
+			position += chunkSize + 2;
+			if (position > dataLength) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Concatenate the chunks of a completely received request body in chunked transfer encoding
+	 */
+	private static byte[] decodeChunkedBody(final byte[] data, final int bodyStart, final int bodyEnd) throws InvalidRequestException {
+		int bodySize = 0;
+		int position = bodyStart;
+		long chunkSize;
+		do {
+			final int chunkSizeLineEnd = indexOfLineEnd(data, position, bodyEnd);
+			chunkSize = parseChunkSize(data, position, chunkSizeLineEnd);
+			position = chunkSizeLineEnd + 2 + (int) chunkSize + 2;
+			bodySize += chunkSize;
+		} while (chunkSize > 0);
+
+		final byte[] body = new byte[bodySize];
+		int bodyPosition = 0;
+		position = bodyStart;
+		do {
+			final int chunkSizeLineEnd = indexOfLineEnd(data, position, bodyEnd);
+			chunkSize = parseChunkSize(data, position, chunkSizeLineEnd);
+			System.arraycopy(data, chunkSizeLineEnd + 2, body, bodyPosition, (int) chunkSize);
+			bodyPosition += (int) chunkSize;
+			position = chunkSizeLineEnd + 2 + (int) chunkSize + 2;
+		} while (chunkSize > 0);
+		return body;
+	}
+
+	private static long parseChunkSize(final byte[] data, final int start, final int end) throws InvalidRequestException {
+		long chunkSize = 0;
+		int digits = 0;
+		for (int i = start; i < end && data[i] != ';'; i++) {
+			final int digit = Character.digit(data[i], 16);
+			if (digit >= 0) {
+				if (++digits > 8) {
+					throw new InvalidRequestException(413, "Request body too large");
+				}
+				chunkSize = chunkSize * 16 + digit;
+			} else if (data[i] != ' ' && data[i] != '\t') {
+				throw new InvalidRequestException(400, "Invalid chunk size");
+			}
+		}
+		if (digits == 0) {
+			throw new InvalidRequestException(400, "Invalid chunk size");
+		}
+		return chunkSize;
+	}
+
+	/**
+	 * @return index of the next line break or -1, if there is none
+	 */
+	private static int indexOfLineEnd(final byte[] data, final int start, final int end) {
+		for (int i = start; i + 1 < end; i++) {
+			if (data[i] == '\r' && data[i + 1] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Executed by a worker thread
+	 */
+	private void processRequest(final HttpServerRequest request) {
+		HttpServerResponse response;
+		try {
+			final HttpServerHandler handler = server.getHandler(request.getPath());
+			if (handler == null) {
+				response = new HttpServerResponse(404, "Not Found", HttpContentType.Text);
+			} else {
+				response = handler.handle(request);
+				if (response == null) {
+					response = new HttpServerResponse(404, "Not Found", HttpContentType.Text);
+				}
+			}
+		} catch (@SuppressWarnings("unused") final Exception e) {
+			response = new HttpServerResponse(500, "Internal Server Error", HttpContentType.Text);
+		}
+
+		writeResponse(request, response);
+	}
+
+	/**
+	 * Executed by a worker thread
+	 */
+	private void writeResponse(final HttpServerRequest request, final HttpServerResponse response) {
+		final String protocolVersion = request == null ? HTTP_VERSION_1_1 : request.getProtocolVersion();
+		final boolean sendContent = request == null || request.getRequestMethod() != HttpMethod.HEAD;
+		final boolean compress = isCompressionApplicable(request, response);
+		final long contentLength = compress ? -1 : response.getContentLength();
+		final boolean chunked = contentLength < 0 && HTTP_VERSION_1_1.equals(protocolVersion);
+		if (contentLength < 0 && !chunked) {
+			// Content of unknown length is terminated by closing the connection
+			closeAfterResponse = true;
+		}
+
+		final MetricsRegistry metricsRegistry = server.getMetricsRegistry();
+		final ResponseOutputStream responseOutputStream = new ResponseOutputStream();
+		try (responseOutputStream) {
+			final StringBuilder responseHead = new StringBuilder();
+			responseHead.append(protocolVersion).append(' ').append(response.getHttpCode()).append(' ').append(response.getHttpCodeMessage() == null ? "" : response.getHttpCodeMessage()).append("\r\n");
+			for (final Entry<String, String> headerEntry : response.getHeaders().entrySet()) {
+				if (!HttpConstants.HTTPHEADERNAME_CONTENTLENGTH.equalsIgnoreCase(headerEntry.getKey())
+						&& !"Transfer-Encoding".equalsIgnoreCase(headerEntry.getKey())
+						&& !"Connection".equalsIgnoreCase(headerEntry.getKey())
+						&& !(compress && HttpConstants.HTTPHEADERNAME_VARY.equalsIgnoreCase(headerEntry.getKey()))) {
+					if (compress && "ETag".equalsIgnoreCase(headerEntry.getKey())) {
+						// The compressed content is another representation than the uncompressed one
+						responseHead.append(headerEntry.getKey()).append(": ").append(HttpServerResponse.getGzipEntityTag(headerEntry.getValue())).append("\r\n");
+					} else {
+						responseHead.append(headerEntry.getKey()).append(": ").append(headerEntry.getValue()).append("\r\n");
+					}
+				}
+			}
+			if (response.getContentType() != null && !response.getHeaders().containsKey(HttpConstants.HTTPHEADERNAME_CONTENTTYPE)) {
+				responseHead.append(HttpConstants.HTTPHEADERNAME_CONTENTTYPE).append(": ").append(response.getContentType()).append("\r\n");
+			}
+			if (compress) {
+				responseHead.append(HttpConstants.HTTPHEADERNAME_CONTENT_ENCODING).append(": ").append(HttpConstants.CONTENT_ENCODING_GZIP).append("\r\n");
+				final String varyHeader = response.getHeaders().get(HttpConstants.HTTPHEADERNAME_VARY);
+				if (varyHeader == null) {
+					responseHead.append(HttpConstants.HTTPHEADERNAME_VARY).append(": ").append(HttpConstants.HTTPHEADERNAME_ACCEPT_ENCODING).append("\r\n");
+				} else if (!varyHeader.toLowerCase().contains(HttpConstants.HTTPHEADERNAME_ACCEPT_ENCODING.toLowerCase())) {
+					responseHead.append(HttpConstants.HTTPHEADERNAME_VARY).append(": ").append(varyHeader).append(", ").append(HttpConstants.HTTPHEADERNAME_ACCEPT_ENCODING).append("\r\n");
+				} else {
+					responseHead.append(HttpConstants.HTTPHEADERNAME_VARY).append(": ").append(varyHeader).append("\r\n");
+				}
+			}
+			if (chunked) {
+				responseHead.append("Transfer-Encoding: chunked\r\n");
+			} else if (contentLength >= 0) {
+				responseHead.append(HttpConstants.HTTPHEADERNAME_CONTENTLENGTH).append(": ").append(contentLength).append("\r\n");
+			}
+			responseHead.append("Connection: ").append(closeAfterResponse ? "close" : "keep-alive").append("\r\n");
+			responseHead.append("\r\n");
+			responseOutputStream.write(responseHead.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+			if (sendContent) {
+				OutputStream contentOutputStream = responseOutputStream;
+				if (chunked) {
+					contentOutputStream = new ChunkedOutputStream(contentOutputStream);
+				}
+				if (compress) {
+					// Compression is streamed, so the compressed data is never held completely in memory
+					contentOutputStream = new GZIPOutputStream(contentOutputStream, COMPRESSION_BUFFER_SIZE);
+				}
+
+				if (response.getContent() != null) {
+					contentOutputStream.write(response.getContent());
+				} else if (response.getContentFile() != null) {
+					try (InputStream contentInputStream = new FileInputStream(response.getContentFile())) {
+						NetworkUtilities.copy(contentInputStream, contentOutputStream);
+					}
+				} else if (response.getContentStream() != null) {
+					NetworkUtilities.copy(response.getContentStream(), contentOutputStream);
+				}
+
+				if (contentOutputStream != responseOutputStream) {
+					contentOutputStream.close();
+				}
+			}
+		} catch (@SuppressWarnings("unused") final IOException e) {
+			closeAfterResponse = true;
+			server.runInNetworkThread(this::close);
+		} finally {
+			if (response.getContentStream() != null) {
+				try {
+					response.getContentStream().close();
+				} catch (@SuppressWarnings("unused") final IOException e) {
+					// do nothing
+				}
+			}
+
+			if (metricsRegistry != null) {
+				final String method = request == null ? "INVALID" : request.getRequestMethod().name();
+				metricsRegistry.addToGauge("http_server_requests_in_flight", -1);
+				metricsRegistry.incrementCounter("http_server_requests_total", "method", method, "status", Integer.toString(response.getHttpCode()));
+				metricsRegistry.addToCounter("http_server_bytes_sent_total", responseOutputStream.bytesWritten);
+				metricsRegistry.recordValue("http_server_request_duration_micros", (System.nanoTime() - requestStartNanos) / 1000, "method", method);
+			}
+		}
+	}
+
+	/**
+	 * Compress the response by gzip, if the client accepts it and the content type is compressible and the content is large enough
+	 */
+	private boolean isCompressionApplicable(final HttpServerRequest request, final HttpServerResponse response) {
+		if (request == null || server.getCompressionMinimumSize() < 0) {
+			return false;
+		} else if (response.getHttpCode() < 200 || response.getHttpCode() == 204 || response.getHttpCode() == 304) {
+			return false;
+		} else if (response.getHeaders().containsKey(HttpConstants.HTTPHEADERNAME_CONTENT_ENCODING)) {
+			// Content is already encoded, like precompressed static content
+			return false;
+		} else if (!HttpContentType.isCompressibleContentType(response.getContentType())) {
+			return false;
+		} else {
+			final long contentLength = response.getContentLength();
+			if (contentLength >= 0 && contentLength < server.getCompressionMinimumSize()) {
+				return false;
+			} else {
+				return HttpUtilities.acceptsContentEncoding(request.getHeader(HttpConstants.HTTPHEADERNAME_ACCEPT_ENCODING), HttpConstants.CONTENT_ENCODING_GZIP);
+			}
+		}
+	}
+
+	/**
+	 * Executed by the network thread after the last response data was sent
+	 */
+	private void finishResponse() {
+		responseComplete = false;
+		if (closeAfterResponse) {
+			close();
+		} else {
+			state = State.ReadingRequest;
+			lastActivityMillis = System.currentTimeMillis();
+			dispatchNextRequest();
+		}
+	}
+
+	private void updateInterest() {
+		if (state != State.Closed && selectionKey != null && selectionKey.isValid()) {
+			int interestOps = 0;
+			if (state == State.ReadingRequest) {
+				interestOps |= SelectionKey.OP_READ;
+			}
+			if (currentOutboundBuffer != null || !outboundQueue.isEmpty() || (tlsServerSession != null && tlsServerSession.hasPendingNetworkData())) {
+				interestOps |= SelectionKey.OP_WRITE;
+			}
+			selectionKey.interestOps(interestOps);
+		}
+	}
+
+	private void queueOutboundData(final ByteBuffer outboundData) {
+		outboundQueuedBytes.addAndGet(outboundData.remaining());
+		outboundQueue.add(outboundData);
+	}
+
+	private void releaseOutboundBuffer(final ByteBuffer outboundBuffer) {
+		outboundQueuedBytes.addAndGet(-outboundBuffer.limit());
+		server.getResponseBufferPool().release(outboundBuffer);
+		synchronized (outboundLock) {
+			outboundLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Collects the response data of a worker thread in pooled buffers and hands them over to the network thread.<br />
+	 * Blocks the worker thread, if the client does not read the data fast enough.
+	 */
+	private class ResponseOutputStream extends OutputStream {
+		private ByteBuffer buffer = null;
+		private boolean closed = false;
+		private long bytesWritten = 0;
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] data, int offset, int length) throws IOException {
+			if (closed) {
+				throw new IOException("Response already closed");
+			}
+			bytesWritten += length;
+			while (length > 0) {
+				if (buffer == null) {
+					buffer = server.getResponseBufferPool().acquire();
+				}
+				final int bytesToCopy = Math.min(length, buffer.remaining());
+				buffer.put(data, offset, bytesToCopy);
+				offset += bytesToCopy;
+				length -= bytesToCopy;
+				if (!buffer.hasRemaining()) {
+					flush();
+				}
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (buffer != null && buffer.position() > 0) {
+				synchronized (outboundLock) {
+					while (outboundQueuedBytes.get() > server.getMaximumQueuedResponseBytes() && state != State.Closed) {
+						try {
+							outboundLock.wait(100);
+						} catch (final InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new IOException("Interrupted while sending response", e);
+						}
+					}
+				}
+				if (state == State.Closed) {
+					server.getResponseBufferPool().release(buffer);
+					buffer = null;
+					throw new IOException("Connection already closed");
+				}
+
+				buffer.flip();
+				queueOutboundData(buffer);
+				buffer = null;
+				server.runInNetworkThread(HttpServerConnection.this::onWritable);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				try {
+					flush();
+				} finally {
+					closed = true;
+					if (buffer != null) {
+						server.getResponseBufferPool().release(buffer);
+						buffer = null;
+					}
+					responseComplete = true;
+					server.runInNetworkThread(HttpServerConnection.this::onWritable);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,10 @@
+package de.soderer.network.server;
+
+/**
+ * Handler for requests to the embedded HttpServer.<br />
+ * Handlers are executed by the servers worker threads, not by the network thread.
+ */
+@FunctionalInterface
+public interface HttpServerHandler {
+	HttpServerResponse handle(HttpServerRequest request) throws Exception;
+}
@@ -0,0 +1,193 @@
+package de.soderer.network.server;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.soderer.network.HttpConstants;
+import de.soderer.network.HttpMethod;
+import de.soderer.network.HttpUtilities;
+import de.soderer.network.utilities.CaseInsensitiveLinkedMap;
+
+/**
+ * Request received by the embedded HttpServer
+ */
+public class HttpServerRequest {
+	private final HttpMethod requestMethod;
+	private final String requestTarget;
+	private final String path;
+	private final String queryString;
+	private final String protocolVersion;
+	private final Map<String, String> headers;
+	private final byte[] body;
+	private final InetSocketAddress remoteAddress;
+
+	private boolean secure = false;
+	private String tlsProtocol = null;
+	private String tlsCipherSuite = null;
+	private String applicationProtocol = null;
+	private X509Certificate[] peerCertificates = null;
+
+	private Map<String, List<String>> urlParameters = null;
+
+	public HttpServerRequest(final HttpMethod requestMethod, final String requestTarget, final String protocolVersion, final CaseInsensitiveLinkedMap<String> headers, final byte[] body, final InetSocketAddress remoteAddress) {
+		this.requestMethod = requestMethod;
+		this.requestTarget = requestTarget;
+		this.protocolVersion = protocolVersion;
+		this.headers = headers;
+		this.body = body == null ? new byte[0] : body;
+		this.remoteAddress = remoteAddress;
+
+		String pathPart = requestTarget;
+		if (pathPart.contains("#")) {
+			pathPart = pathPart.substring(0, pathPart.indexOf("#"));
+		}
+		if (pathPart.contains("?")) {
+			queryString = pathPart.substring(pathPart.indexOf("?") + 1);
+			pathPart = pathPart.substring(0, pathPart.indexOf("?"));
+		} else {
+			queryString = null;
+		}
+		path = HttpUtilities.urlDecode(pathPart, StandardCharsets.UTF_8);
+	}
+
+	public HttpMethod getRequestMethod() {
+		return requestMethod;
+	}
+
+	/**
+	 * Raw request target of the request line, like "/abc?b=10&c=11"
+	 */
+	public String getRequestTarget() {
+		return requestTarget;
+	}
+
+	/**
+	 * Url decoded path without query string
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	public String getQueryString() {
+		return queryString;
+	}
+
+	public Map<String, List<String>> getUrlParameters() {
+		if (urlParameters == null) {
+			final Map<String, List<String>> parsedUrlParameters = new LinkedHashMap<>();
+			if (queryString != null && queryString.length() > 0) {
+				for (final String parameter : queryString.split("&")) {
+					if (parameter.length() > 0) {
+						final String key;
+						final String value;
+						if (parameter.contains("=")) {
+							key = HttpUtilities.urlDecode(parameter.substring(0, parameter.indexOf("=")), StandardCharsets.UTF_8);
+							value = HttpUtilities.urlDecode(parameter.substring(parameter.indexOf("=") + 1), StandardCharsets.UTF_8);
+						} else {
+							key = HttpUtilities.urlDecode(parameter, StandardCharsets.UTF_8);
+							value = null;
+						}
+						parsedUrlParameters.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+					}
+				}
+			}
+			urlParameters = parsedUrlParameters;
+		}
+		return urlParameters;
+	}
+
+	public String getUrlParameter(final String key) {
+		final List<String> values = getUrlParameters().get(key);
+		return values == null || values.isEmpty() ? null : values.get(0);
+	}
+
+	/**
+	 * "HTTP/1.1" or "HTTP/1.0"
+	 */
+	public String getProtocolVersion() {
+		return protocolVersion;
+	}
+
+	/**
+	 * Request headers with case insensitive names
+	 */
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	public String getHeader(final String headerName) {
+		return headers.get(headerName);
+	}
+
+	public byte[] getBody() {
+		return body;
+	}
+
+	/**
+	 * Request body decoded by the charset of the "Content-Type" header (default: UTF-8)
+	 */
+	public String getBodyAsString() {
+		Charset encoding = StandardCharsets.UTF_8;
+		final String contentType = headers.get(HttpConstants.HTTPHEADERNAME_CONTENTTYPE);
+		if (contentType != null && contentType.toLowerCase().contains("charset=")) {
+			try {
+				encoding = Charset.forName(contentType.substring(contentType.toLowerCase().indexOf("charset=") + 8).trim());
+			} catch (@SuppressWarnings("unused") final Exception e) {
+				// Keep default encoding
+			}
+		}
+		return new String(body, encoding);
+	}
+
+	public InetSocketAddress getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	public boolean isSecure() {
+		return secure;
+	}
+
+	/**
+	 * Negotiated TLS version, like "TLSv1.3"
+	 */
+	public String getTlsProtocol() {
+		return tlsProtocol;
+	}
+
+	public String getTlsCipherSuite() {
+		return tlsCipherSuite;
+	}
+
+	/**
+	 * Negotiated ALPN protocol or null
+	 */
+	public String getApplicationProtocol() {
+		return applicationProtocol;
+	}
+
+	/**
+	 * Verified client certificate chain or null, if the client did not authenticate with a certificate
+	 */
+	public X509Certificate[] getPeerCertificates() {
+		return peerCertificates;
+	}
+
+	void setTlsData(final String tlsProtocol, final String tlsCipherSuite, final String applicationProtocol, final X509Certificate[] peerCertificates) {
+		secure = true;
+		this.tlsProtocol = tlsProtocol;
+		this.tlsCipherSuite = tlsCipherSuite;
+		this.applicationProtocol = applicationProtocol;
+		this.peerCertificates = peerCertificates;
+	}
+
+	@Override
+	public String toString() {
+		return requestMethod.name() + " " + requestTarget;
+	}
+}
@@ -0,0 +1,160 @@
+package de.soderer.network.server;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import de.soderer.network.HttpContentType;
+import de.soderer.network.HttpUtilities;
+import de.soderer.network.utilities.CaseInsensitiveLinkedMap;
+
+/**
+ * Response of a HttpServerHandler.<br />
+ * The content is either a byte array, a file or a stream of unknown length, which is sent in chunks.
+ */
+public class HttpServerResponse {
+	private final int httpCode;
+	private String httpCodeMessage;
+	private final Map<String, String> headers = new CaseInsensitiveLinkedMap<>();
+	private String contentType = null;
+	private byte[] content = null;
+	private File contentFile = null;
+	private InputStream contentStream = null;
+
+	public HttpServerResponse(final int httpCode) {
+		this.httpCode = httpCode;
+		httpCodeMessage = HttpUtilities.getHttpStatusText(httpCode);
+	}
+
+	public HttpServerResponse(final int httpCode, final String content, final HttpContentType contentType) {
+		this(httpCode);
+		setContent(content, contentType);
+	}
+
+	public int getHttpCode() {
+		return httpCode;
+	}
+
+	public String getHttpCodeMessage() {
+		return httpCodeMessage;
+	}
+
+	public HttpServerResponse setHttpCodeMessage(final String httpCodeMessage) {
+		this.httpCodeMessage = httpCodeMessage;
+
+		return this;
+	}
+
+	/**
+	 * ETag of the gzip representation of the content of a strong ETag, weak ETags are kept
+	 */
+	public static String getGzipEntityTag(final String entityTag) {
+		if (entityTag != null && entityTag.length() >= 2 && entityTag.startsWith("\"") && entityTag.endsWith("\"")) {
+			return entityTag.substring(0, entityTag.length() - 1) + "-gzip\"";
+		} else {
+			return entityTag;
+		}
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	public HttpServerResponse addHeader(final String key, final String value) {
+		headers.put(key, value);
+
+		return this;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public HttpServerResponse setContentType(final String contentType) {
+		this.contentType = contentType;
+
+		return this;
+	}
+
+	/**
+	 * Text content encoded in UTF-8
+	 */
+	public HttpServerResponse setContent(final String content, final HttpContentType contentType) {
+		return setContent(content, contentType == null ? null : contentType.getStringRepresentation(), StandardCharsets.UTF_8);
+	}
+
+	public HttpServerResponse setContent(final String content, final String contentType, final Charset encoding) {
+		this.content = content == null ? null : content.getBytes(encoding);
+		contentFile = null;
+		contentStream = null;
+		if (contentType != null) {
+			this.contentType = contentType.toLowerCase().contains("charset=") ? contentType : contentType + "; charset=" + encoding.name().toLowerCase();
+		}
+
+		return this;
+	}
+
+	public byte[] getContent() {
+		return content;
+	}
+
+	public HttpServerResponse setContent(final byte[] content, final String contentType) {
+		this.content = content;
+		contentFile = null;
+		contentStream = null;
+		this.contentType = contentType;
+
+		return this;
+	}
+
+	public File getContentFile() {
+		return contentFile;
+	}
+
+	public HttpServerResponse setContentFile(final File contentFile, final String contentType) {
+		this.contentFile = contentFile;
+		content = null;
+		contentStream = null;
+		this.contentType = contentType;
+
+		return this;
+	}
+
+	public InputStream getContentStream() {
+		return contentStream;
+	}
+
+	/**
+	 * Content of unknown length. The stream is closed by the server after sending.
+	 */
+	public HttpServerResponse setContentStream(final InputStream contentStream, final String contentType) {
+		this.contentStream = contentStream;
+		content = null;
+		contentFile = null;
+		this.contentType = contentType;
+
+		return this;
+	}
+
+	/**
+	 * Content length or -1 for content of unknown length
+	 */
+	public long getContentLength() {
+		if (content != null) {
+			return content.length;
+		} else if (contentFile != null) {
+			return contentFile.length();
+		} else if (contentStream != null) {
+			return -1;
+		} else {
+			return 0;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "HttpCode: " + httpCode + " (" + httpCodeMessage + "), ContentType: " + contentType + ", ContentLength: " + getContentLength();
+	}
+}
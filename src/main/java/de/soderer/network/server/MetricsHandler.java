@@ -0,0 +1,59 @@
+package de.soderer.network.server;
+
+import java.nio.charset.StandardCharsets;
+
+import de.soderer.network.HttpConstants;
+import de.soderer.network.HttpContentType;
+import de.soderer.network.HttpMethod;
+import de.soderer.network.metrics.MetricsRegistry;
+import de.soderer.network.metrics.MetricsSnapshot;
+
+/**
+ * Serves a snapshot of a MetricsRegistry in Prometheus text format or as JSON.<br />
+ * JSON is sent for the url parameter "format=json" or for requests accepting "application/json" but not "text/plain".<br />
+ *<br />
+ * Usage example:
+ *
+ * <pre>
+ * server.setMetricsRegistry(metricsRegistry);
+ * server.addHandler("/metrics", new MetricsHandler(metricsRegistry));
+ * </pre>
+ */
+public class MetricsHandler implements HttpServerHandler {
+	private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4";
+
+	private final MetricsRegistry metricsRegistry;
+
+	public MetricsHandler(final MetricsRegistry metricsRegistry) {
+		if (metricsRegistry == null) {
+			throw new IllegalArgumentException("Missing metrics registry");
+		}
+		this.metricsRegistry = metricsRegistry;
+	}
+
+	@Override
+	public HttpServerResponse handle(final HttpServerRequest request) throws Exception {
+		if (request.getRequestMethod() != HttpMethod.GET && request.getRequestMethod() != HttpMethod.HEAD) {
+			return new HttpServerResponse(405, "Method Not Allowed", HttpContentType.Text).addHeader("Allow", "GET, HEAD");
+		}
+
+		final MetricsSnapshot snapshot = metricsRegistry.snapshot();
+		final HttpServerResponse response;
+		if (isJsonRequested(request)) {
+			response = new HttpServerResponse(200, snapshot.toJson(), HttpContentType.Json);
+		} else {
+			response = new HttpServerResponse(200).setContent(snapshot.toPrometheusText(), PROMETHEUS_CONTENT_TYPE, StandardCharsets.UTF_8);
+		}
+		return response.addHeader("Cache-Control", "no-store");
+	}
+
+	private static boolean isJsonRequested(final HttpServerRequest request) {
+		final String format = request.getUrlParameter("format");
+		if (format != null) {
+			return "json".equalsIgnoreCase(format);
+		} else {
+			final String accept = request.getHeader(HttpConstants.HTTPHEADERNAME_ACCEPT);
+			return accept != null && accept.contains(HttpContentType.Json.getStringRepresentation()) && !accept.contains(HttpContentType.Text.getStringRepresentation());
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package de.soderer.network.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import de.soderer.network.NetworkUtilities;
+
+/**
+ * Size bounded LRU cache of gzip compressed file contents, so static content is compressed only once and not on every request.<br />
+ * Entries are invalidated, when the files modification time or size changes.
+ */
+public class PrecompressedContentCache {
+	private static class CacheEntry {
+		private final long lastModified;
+		private final long fileSize;
+		private final byte[] compressedContent;
+
+		private CacheEntry(final long lastModified, final long fileSize, final byte[] compressedContent) {
+			this.lastModified = lastModified;
+			this.fileSize = fileSize;
+			this.compressedContent = compressedContent;
+		}
+	}
+
+	private final long maximumCacheSize;
+	private final long maximumEntrySize;
+	private long currentCacheSize = 0;
+
+	/** Access ordered, so the first entry is the least recently used one */
+	private final Map<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * @param maximumCacheSize maximum sum of compressed bytes in the cache
+	 * @param maximumEntrySize maximum size of a single uncompressed file to be cached
+	 */
+	public PrecompressedContentCache(final long maximumCacheSize, final long maximumEntrySize) {
+		this.maximumCacheSize = maximumCacheSize;
+		this.maximumEntrySize = maximumEntrySize;
+	}
+
+	/**
+	 * Get the gzip compressed content of a file, compressing it, if it is not cached yet
+	 *
+	 * @return null, if the file is too large to be cached
+	 */
+	public byte[] getCompressedContent(final File file) throws IOException {
+		final String key = file.getCanonicalPath();
+		final long lastModified = file.lastModified();
+		final long fileSize = file.length();
+
+		synchronized (this) {
+			final CacheEntry cacheEntry = entries.get(key);
+			if (cacheEntry != null && cacheEntry.lastModified == lastModified && cacheEntry.fileSize == fileSize) {
+				hits++;
+				return cacheEntry.compressedContent;
+			}
+			misses++;
+		}
+
+		if (fileSize > maximumEntrySize) {
+			return null;
+		}
+
+		final byte[] compressedContent = compress(file);
+
+		synchronized (this) {
+			final CacheEntry replacedCacheEntry = entries.put(key, new CacheEntry(lastModified, fileSize, compressedContent));
+			if (replacedCacheEntry != null) {
+				currentCacheSize -= replacedCacheEntry.compressedContent.length;
+			}
+			currentCacheSize += compressedContent.length;
+
+			final Iterator<Map.Entry<String, CacheEntry>> iterator = entries.entrySet().iterator();
+			while (currentCacheSize > maximumCacheSize && iterator.hasNext()) {
+				final Map.Entry<String, CacheEntry> eldestEntry = iterator.next();
+				if (!eldestEntry.getKey().equals(key)) {
+					currentCacheSize -= eldestEntry.getValue().compressedContent.length;
+					iterator.remove();
+				}
+			}
+		}
+
+		return compressedContent;
+	}
+
+	public synchronized long getCurrentCacheSize() {
+		return currentCacheSize;
+	}
+
+	public synchronized int getEntriesCount() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		currentCacheSize = 0;
+	}
+
+	private static byte[] compress(final File file) throws IOException {
+		final ByteArrayOutputStream compressedOutputStream = new ByteArrayOutputStream((int) Math.min(file.length() / 2 + 64, Integer.MAX_VALUE - 8));
+		try (InputStream inputStream = new FileInputStream(file);
+				GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressedOutputStream, 8192)) {
+			NetworkUtilities.copy(inputStream, gzipOutputStream);
+		}
+		return compressedOutputStream.toByteArray();
+	}
+}
@@ -0,0 +1,172 @@
+package de.soderer.network.server;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import de.soderer.network.HttpConstants;
+import de.soderer.network.HttpContentType;
+import de.soderer.network.HttpMethod;
+import de.soderer.network.HttpUtilities;
+
+/**
+ * Serves the files of a directory.<br />
+ * Compressible files are sent gzip compressed to clients accepting gzip. A precompressed sibling file (like "app.js.gz" for "app.js") is preferred,
+ * else the compressed content is taken from a PrecompressedContentCache, so each file is compressed only once.
+ * The gzip representation has its own ETag with the suffix "-gzip", so caches never mix up the compressed and the uncompressed content.<br />
+ *<br />
+ * Usage example:
+ *
+ * <pre>
+ * server.addHandler("/static/", new StaticFileHandler(new File("www"), "/static/").setCacheControl("public, max-age=31536000, immutable"));
+ * </pre>
+ */
+public class StaticFileHandler implements HttpServerHandler {
+	private static final String PRECOMPRESSED_FILE_EXTENSION = ".gz";
+	private static final String INDEX_FILE_NAME = "index.html";
+
+	private static final Map<String, String> CONTENT_TYPES_BY_EXTENSION = new HashMap<>();
+	static {
+		CONTENT_TYPES_BY_EXTENSION.put("html", HttpContentType.Html.getStringRepresentation() + "; charset=utf-8");
+		CONTENT_TYPES_BY_EXTENSION.put("htm", HttpContentType.Html.getStringRepresentation() + "; charset=utf-8");
+		CONTENT_TYPES_BY_EXTENSION.put("txt", HttpContentType.Text.getStringRepresentation() + "; charset=utf-8");
+		CONTENT_TYPES_BY_EXTENSION.put("json", HttpContentType.Json.getStringRepresentation());
+		CONTENT_TYPES_BY_EXTENSION.put("xml", HttpContentType.Xml.getStringRepresentation());
+		CONTENT_TYPES_BY_EXTENSION.put("yaml", HttpContentType.Yaml.getStringRepresentation());
+		CONTENT_TYPES_BY_EXTENSION.put("yml", HttpContentType.Yaml.getStringRepresentation());
+		CONTENT_TYPES_BY_EXTENSION.put("css", "text/css; charset=utf-8");
+		CONTENT_TYPES_BY_EXTENSION.put("js", "application/javascript; charset=utf-8");
+		CONTENT_TYPES_BY_EXTENSION.put("svg", "image/svg+xml");
+		CONTENT_TYPES_BY_EXTENSION.put("png", "image/png");
+		CONTENT_TYPES_BY_EXTENSION.put("jpg", "image/jpeg");
+		CONTENT_TYPES_BY_EXTENSION.put("jpeg", "image/jpeg");
+		CONTENT_TYPES_BY_EXTENSION.put("gif", "image/gif");
+		CONTENT_TYPES_BY_EXTENSION.put("ico", "image/x-icon");
+		CONTENT_TYPES_BY_EXTENSION.put("pdf", "application/pdf");
+		CONTENT_TYPES_BY_EXTENSION.put("zip", HttpContentType.Zip.getStringRepresentation());
+	}
+
+	private final File rootDirectory;
+	private final String pathPrefix;
+	private PrecompressedContentCache precompressedContentCache = new PrecompressedContentCache(32 * 1024 * 1024, 4 * 1024 * 1024);
+	private int compressionMinimumSize = 1024;
+	private String cacheControl = null;
+
+	public StaticFileHandler(final File rootDirectory, final String pathPrefix) throws IOException {
+		if (rootDirectory == null || !rootDirectory.isDirectory()) {
+			throw new IllegalArgumentException("Invalid root directory for static files: " + rootDirectory);
+		}
+		this.rootDirectory = rootDirectory.getCanonicalFile();
+		this.pathPrefix = pathPrefix == null ? "/" : pathPrefix;
+	}
+
+	public PrecompressedContentCache getPrecompressedContentCache() {
+		return precompressedContentCache;
+	}
+
+	/**
+	 * Cache for compressed file contents (null = compress on every request)
+	 */
+	public StaticFileHandler setPrecompressedContentCache(final PrecompressedContentCache precompressedContentCache) {
+		this.precompressedContentCache = precompressedContentCache;
+
+		return this;
+	}
+
+	public StaticFileHandler setCompressionMinimumSize(final int compressionMinimumSize) {
+		this.compressionMinimumSize = compressionMinimumSize;
+
+		return this;
+	}
+
+	/**
+	 * Value of the "Cache-Control" header, like "public, max-age=31536000, immutable" for versioned static content
+	 */
+	public StaticFileHandler setCacheControl(final String cacheControl) {
+		this.cacheControl = cacheControl;
+
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse handle(final HttpServerRequest request) throws Exception {
+		if (request.getRequestMethod() != HttpMethod.GET && request.getRequestMethod() != HttpMethod.HEAD) {
+			return new HttpServerResponse(405, "Method Not Allowed", HttpContentType.Text).addHeader("Allow", "GET, HEAD");
+		}
+
+		final String relativePath = request.getPath().startsWith(pathPrefix) ? request.getPath().substring(pathPrefix.length()) : request.getPath();
+		File file = new File(rootDirectory, relativePath).getCanonicalFile();
+		if (!file.toPath().startsWith(rootDirectory.toPath())) {
+			return new HttpServerResponse(404, "Not Found", HttpContentType.Text);
+		} else if (file.isDirectory()) {
+			file = new File(file, INDEX_FILE_NAME);
+		}
+
+		final File precompressedFile = new File(file.getPath() + PRECOMPRESSED_FILE_EXTENSION);
+		final boolean fileExists = file.isFile();
+		final boolean precompressedFileExists = precompressedFile.isFile() && (!fileExists || precompressedFile.lastModified() >= file.lastModified());
+		if (!fileExists && !precompressedFileExists) {
+			return new HttpServerResponse(404, "Not Found", HttpContentType.Text);
+		}
+
+		final File sourceFile = fileExists ? file : precompressedFile;
+		final String entityTag = "\"" + Long.toHexString(sourceFile.lastModified()) + "-" + Long.toHexString(sourceFile.length()) + "\"";
+		final String contentType = getContentType(file.getName());
+		final boolean compressible = HttpContentType.isCompressibleContentType(contentType);
+		final boolean acceptsGzip = HttpUtilities.acceptsContentEncoding(request.getHeader(HttpConstants.HTTPHEADERNAME_ACCEPT_ENCODING), HttpConstants.CONTENT_ENCODING_GZIP);
+		final String gzipEntityTag = HttpServerResponse.getGzipEntityTag(entityTag);
+		final String ifNoneMatch = request.getHeader("If-None-Match");
+
+		final HttpServerResponse response;
+		if (entityTag.equals(ifNoneMatch) || (acceptsGzip && gzipEntityTag.equals(ifNoneMatch))) {
+			response = new HttpServerResponse(304);
+		} else if (precompressedFileExists && acceptsGzip) {
+			response = new HttpServerResponse(200).setContentFile(precompressedFile, contentType);
+			response.addHeader(HttpConstants.HTTPHEADERNAME_CONTENT_ENCODING, HttpConstants.CONTENT_ENCODING_GZIP);
+		} else if (!fileExists) {
+			// Only the precompressed file exists, but the client does not accept gzip
+			response = new HttpServerResponse(200).setContentStream(new GZIPInputStream(new FileInputStream(precompressedFile)), contentType);
+		} else if (acceptsGzip && compressible && precompressedContentCache != null && file.length() >= compressionMinimumSize) {
+			final byte[] compressedContent = precompressedContentCache.getCompressedContent(file);
+			if (compressedContent != null) {
+				response = new HttpServerResponse(200).setContent(compressedContent, contentType);
+				response.addHeader(HttpConstants.HTTPHEADERNAME_CONTENT_ENCODING, HttpConstants.CONTENT_ENCODING_GZIP);
+			} else {
+				// Too large for the cache: the server compresses the file while streaming it
+				response = new HttpServerResponse(200).setContentFile(file, contentType);
+			}
+		} else {
+			response = new HttpServerResponse(200).setContentFile(file, contentType);
+		}
+
+		if (response.getHttpCode() == 304) {
+			response.addHeader("ETag", ifNoneMatch);
+		} else if (response.getHeaders().containsKey(HttpConstants.HTTPHEADERNAME_CONTENT_ENCODING)) {
+			response.addHeader("ETag", gzipEntityTag);
+		} else {
+			// The server derives the ETag of the gzip representation, when it compresses the content while streaming it
+			response.addHeader("ETag", entityTag);
+		}
+		if (compressible || precompressedFileExists) {
+			response.addHeader(HttpConstants.HTTPHEADERNAME_VARY, HttpConstants.HTTPHEADERNAME_ACCEPT_ENCODING);
+		}
+		if (cacheControl != null) {
+			response.addHeader("Cache-Control", cacheControl);
+		}
+		return response;
+	}
+
+	private static String getContentType(final String fileName) {
+		final int extensionIndex = fileName.lastIndexOf('.');
+		if (extensionIndex >= 0) {
+			final String contentType = CONTENT_TYPES_BY_EXTENSION.get(fileName.substring(extensionIndex + 1).toLowerCase());
+			if (contentType != null) {
+				return contentType;
+			}
+		}
+		return HttpContentType.Binary.getStringRepresentation();
+	}
+}
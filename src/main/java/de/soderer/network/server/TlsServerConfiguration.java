@@ -0,0 +1,469 @@
+package de.soderer.network.server;
+
+import java.io.File;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+import de.soderer.network.TlsCheckConfiguration;
+import de.soderer.network.TlsCheckConfiguration.TlsCheckConfigurationType;
+import de.soderer.network.trustmanager.TrustManagerUtilities;
+
+/**
+ * TLS settings of the embedded HttpServer.<br />
+ * The servers key material is read from a keystore file (PKCS12 or JKS).
+ * Client certificates are checked by the trustmanagers of a TlsCheckConfiguration.<br />
+ * The keystore file and the client truststore file are checked for modifications periodically by a background thread,
+ * so rotated certificates are used for new connections without a server restart and the selector thread is never blocked by reading them.
+ * The key material is replaced within the same SSLContext, so its server session cache is kept and clients resume their sessions after a rotation.
+ * Resumed sessions keep the certificates of their full handshake.<br />
+ *<br />
+ * Usage example:
+ *
+ * <pre>
+ * TlsServerConfiguration tlsServerConfiguration = new TlsServerConfiguration(new File("server.p12"), "changeit".toCharArray())
+ * 	.setClientAuthentication(ClientAuthentication.Wanted, new TlsCheckConfiguration(TlsCheckConfigurationType.TrustStoreFile, new File("clients.p12"), "changeit".toCharArray()))
+ * 	.setApplicationProtocols("http/1.1");
+ *
+ * HttpServer server = new HttpServer(8443).setTlsServerConfiguration(tlsServerConfiguration);
+ * </pre>
+ */
+public class TlsServerConfiguration {
+	public enum ClientAuthentication {
+		None,
+		Wanted,
+		Required
+	}
+
+	private static final String TLS_VERSION = "TLS";
+
+	private static final ExecutorService reloadExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "TlsServerConfiguration-Reload");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * KeyManager of the SSLContext, whose key material is replaced on reload.<br />
+	 * Chosen aliases carry the generation of their key material, so a handshake running during a reload gets certificate chain and private key of the same generation.
+	 */
+	private static class ReloadingKeyManager extends X509ExtendedKeyManager {
+		/**
+		 * Key material of one reload and its predecessor
+		 */
+		private static class Generation {
+			private final int number;
+			private final X509ExtendedKeyManager keyManager;
+			private final X509ExtendedKeyManager previousKeyManager;
+
+			private Generation(final int number, final X509ExtendedKeyManager keyManager, final X509ExtendedKeyManager previousKeyManager) {
+				this.number = number;
+				this.keyManager = keyManager;
+				this.previousKeyManager = previousKeyManager;
+			}
+		}
+
+		private volatile Generation generation;
+
+		private ReloadingKeyManager(final X509ExtendedKeyManager keyManager) {
+			generation = new Generation(0, keyManager, null);
+		}
+
+		private void setKeyManager(final X509ExtendedKeyManager keyManager) {
+			final Generation currentGeneration = generation;
+			generation = new Generation(currentGeneration.number + 1, keyManager, currentGeneration.keyManager);
+		}
+
+		private static String toGenerationAlias(final Generation generation, final String alias) {
+			return alias == null ? null : generation.number + ":" + alias;
+		}
+
+		private static String[] toGenerationAliases(final Generation generation, final String[] aliases) {
+			if (aliases == null) {
+				return null;
+			}
+			final String[] generationAliases = new String[aliases.length];
+			for (int i = 0; i < aliases.length; i++) {
+				generationAliases[i] = toGenerationAlias(generation, aliases[i]);
+			}
+			return generationAliases;
+		}
+
+		/**
+		 * KeyManager of the generation of the alias or null, if this generation is outdated
+		 */
+		private X509ExtendedKeyManager getKeyManager(final String generationAlias) {
+			final Generation currentGeneration = generation;
+			final int separatorIndex = generationAlias == null ? -1 : generationAlias.indexOf(':');
+			if (separatorIndex < 0) {
+				return null;
+			}
+			final String number = generationAlias.substring(0, separatorIndex);
+			if (number.equals(Integer.toString(currentGeneration.number))) {
+				return currentGeneration.keyManager;
+			} else if (number.equals(Integer.toString(currentGeneration.number - 1))) {
+				return currentGeneration.previousKeyManager;
+			} else {
+				return null;
+			}
+		}
+
+		private static String getAlias(final String generationAlias) {
+			return generationAlias.substring(generationAlias.indexOf(':') + 1);
+		}
+
+		@Override
+		public String[] getClientAliases(final String keyType, final Principal[] issuers) {
+			final Generation currentGeneration = generation;
+			return toGenerationAliases(currentGeneration, currentGeneration.keyManager.getClientAliases(keyType, issuers));
+		}
+
+		@Override
+		public String chooseClientAlias(final String[] keyTypes, final Principal[] issuers, final Socket socket) {
+			final Generation currentGeneration = generation;
+			return toGenerationAlias(currentGeneration, currentGeneration.keyManager.chooseClientAlias(keyTypes, issuers, socket));
+		}
+
+		@Override
+		public String chooseEngineClientAlias(final String[] keyTypes, final Principal[] issuers, final SSLEngine sslEngine) {
+			final Generation currentGeneration = generation;
+			return toGenerationAlias(currentGeneration, currentGeneration.keyManager.chooseEngineClientAlias(keyTypes, issuers, sslEngine));
+		}
+
+		@Override
+		public String[] getServerAliases(final String keyType, final Principal[] issuers) {
+			final Generation currentGeneration = generation;
+			return toGenerationAliases(currentGeneration, currentGeneration.keyManager.getServerAliases(keyType, issuers));
+		}
+
+		@Override
+		public String chooseServerAlias(final String keyType, final Principal[] issuers, final Socket socket) {
+			final Generation currentGeneration = generation;
+			return toGenerationAlias(currentGeneration, currentGeneration.keyManager.chooseServerAlias(keyType, issuers, socket));
+		}
+
+		@Override
+		public String chooseEngineServerAlias(final String keyType, final Principal[] issuers, final SSLEngine sslEngine) {
+			final Generation currentGeneration = generation;
+			return toGenerationAlias(currentGeneration, currentGeneration.keyManager.chooseEngineServerAlias(keyType, issuers, sslEngine));
+		}
+
+		@Override
+		public X509Certificate[] getCertificateChain(final String generationAlias) {
+			final X509ExtendedKeyManager keyManager = getKeyManager(generationAlias);
+			return keyManager == null ? null : keyManager.getCertificateChain(getAlias(generationAlias));
+		}
+
+		@Override
+		public PrivateKey getPrivateKey(final String generationAlias) {
+			final X509ExtendedKeyManager keyManager = getKeyManager(generationAlias);
+			return keyManager == null ? null : keyManager.getPrivateKey(getAlias(generationAlias));
+		}
+	}
+
+	private final File keyStoreFile;
+	private final char[] keyStorePassword;
+	private char[] keyPassword = null;
+
+	private ClientAuthentication clientAuthentication = ClientAuthentication.None;
+	private TlsCheckConfiguration clientTlsCheckConfiguration = null;
+
+	private String[] applicationProtocols = new String[] { "http/1.1" };
+	private String[] enabledProtocols = null;
+
+	private int sessionCacheSize = -1;
+	private int sessionTimeoutSeconds = -1;
+	private Boolean sessionTicketsEnabled = null;
+
+	private long reloadCheckIntervalMillis = 10000;
+
+	private volatile SSLContext sslContext = null;
+	private ReloadingKeyManager reloadingKeyManager = null;
+	private TrustManager sslContextTrustManager = null;
+	private final AtomicBoolean reloadCheckScheduled = new AtomicBoolean(false);
+	private volatile long keyStoreFileLastModified = 0;
+	private volatile long trustStoreFileLastModified = 0;
+	private volatile long nextReloadCheckMillis = 0;
+	private volatile Exception lastReloadError = null;
+
+	public TlsServerConfiguration(final File keyStoreFile, final char[] keyStorePassword) {
+		if (keyStoreFile == null) {
+			throw new IllegalArgumentException("TlsServerConfiguration needs keystore file parameter not to be null");
+		}
+		this.keyStoreFile = keyStoreFile;
+		this.keyStorePassword = keyStorePassword;
+	}
+
+	public File getKeyStoreFile() {
+		return keyStoreFile;
+	}
+
+	/**
+	 * Password of the private key entry, if it differs from the keystore password
+	 */
+	public TlsServerConfiguration setKeyPassword(final char[] keyPassword) {
+		this.keyPassword = keyPassword;
+		sslContext = null;
+
+		return this;
+	}
+
+	public ClientAuthentication getClientAuthentication() {
+		return clientAuthentication;
+	}
+
+	/**
+	 * Request or require client certificates.
+	 * Client certificates are checked by the trustmanager of the given TlsCheckConfiguration (null = system truststore)
+	 */
+	public TlsServerConfiguration setClientAuthentication(final ClientAuthentication clientAuthentication, final TlsCheckConfiguration clientTlsCheckConfiguration) {
+		this.clientAuthentication = clientAuthentication == null ? ClientAuthentication.None : clientAuthentication;
+		this.clientTlsCheckConfiguration = clientTlsCheckConfiguration;
+		sslContext = null;
+
+		return this;
+	}
+
+	public TlsCheckConfiguration getClientTlsCheckConfiguration() {
+		return clientTlsCheckConfiguration;
+	}
+
+	public String[] getApplicationProtocols() {
+		return applicationProtocols;
+	}
+
+	/**
+	 * ALPN protocols offered by the server in order of preference (default: "http/1.1")
+	 */
+	public TlsServerConfiguration setApplicationProtocols(final String... applicationProtocols) {
+		this.applicationProtocols = applicationProtocols == null ? new String[0] : applicationProtocols;
+
+		return this;
+	}
+
+	public String[] getEnabledProtocols() {
+		return enabledProtocols;
+	}
+
+	/**
+	 * Restrict TLS versions, like "TLSv1.3", "TLSv1.2" (default: JVM defaults)
+	 */
+	public TlsServerConfiguration setEnabledProtocols(final String... enabledProtocols) {
+		this.enabledProtocols = enabledProtocols;
+
+		return this;
+	}
+
+	public int getSessionCacheSize() {
+		return sessionCacheSize;
+	}
+
+	/**
+	 * Maximum number of cached server side TLS sessions for session resumption (0 = unlimited, -1 = JVM default)
+	 */
+	public TlsServerConfiguration setSessionCacheSize(final int sessionCacheSize) {
+		this.sessionCacheSize = sessionCacheSize;
+		sslContext = null;
+
+		return this;
+	}
+
+	public int getSessionTimeoutSeconds() {
+		return sessionTimeoutSeconds;
+	}
+
+	/**
+	 * Lifetime of cached server side TLS sessions (0 = unlimited, -1 = JVM default)
+	 */
+	public TlsServerConfiguration setSessionTimeoutSeconds(final int sessionTimeoutSeconds) {
+		this.sessionTimeoutSeconds = sessionTimeoutSeconds;
+		sslContext = null;
+
+		return this;
+	}
+
+	public Boolean getSessionTicketsEnabled() {
+		return sessionTicketsEnabled;
+	}
+
+	/**
+	 * Stateless TLS session tickets (RFC 5077).<br />
+	 * This is a JVM wide setting ("jdk.tls.server.enableSessionTicketExtension"), which is only effective before the first TLS connection of the JVM.
+	 */
+	public TlsServerConfiguration setSessionTicketsEnabled(final boolean sessionTicketsEnabled) {
+		this.sessionTicketsEnabled = sessionTicketsEnabled;
+		System.setProperty("jdk.tls.server.enableSessionTicketExtension", Boolean.toString(sessionTicketsEnabled));
+
+		return this;
+	}
+
+	public long getReloadCheckIntervalMillis() {
+		return reloadCheckIntervalMillis;
+	}
+
+	/**
+	 * Interval for checking the keystore and truststore files for modifications (0 or negative = no hot reload)
+	 */
+	public TlsServerConfiguration setReloadCheckIntervalMillis(final long reloadCheckIntervalMillis) {
+		this.reloadCheckIntervalMillis = reloadCheckIntervalMillis;
+
+		return this;
+	}
+
+	/**
+	 * Error of the last failed hot reload. The previous SSLContext stays in use in that case.
+	 */
+	public Exception getLastReloadError() {
+		return lastReloadError;
+	}
+
+	/**
+	 * Current SSLContext. It is only created in the calling thread on first use, like by HttpServer.start().<br />
+	 * If the check interval elapsed, the keystore and truststore files are checked for modifications in a background thread,
+	 * so the calling selector thread is not blocked and uses the current SSLContext meanwhile.
+	 */
+	public SSLContext getSslContext() throws Exception {
+		SSLContext currentSslContext = sslContext;
+		if (currentSslContext == null) {
+			synchronized (this) {
+				currentSslContext = sslContext;
+				if (currentSslContext == null) {
+					currentSslContext = reload();
+				}
+			}
+		} else if (reloadCheckIntervalMillis > 0 && System.currentTimeMillis() >= nextReloadCheckMillis && reloadCheckScheduled.compareAndSet(false, true)) {
+			nextReloadCheckMillis = System.currentTimeMillis() + reloadCheckIntervalMillis;
+			try {
+				reloadExecutor.execute(this::reloadIfModified);
+			} catch (final RuntimeException e) {
+				reloadCheckScheduled.set(false);
+				lastReloadError = e;
+			}
+		}
+		return currentSslContext;
+	}
+
+	private void reloadIfModified() {
+		try {
+			synchronized (this) {
+				if (keyStoreFile.lastModified() != keyStoreFileLastModified || getTrustStoreFileLastModified() != trustStoreFileLastModified) {
+					try {
+						reload();
+					} catch (final Exception e) {
+						// Keep the last valid SSLContext, maybe the files are not completely written yet
+						lastReloadError = e;
+					}
+				}
+			}
+		} finally {
+			reloadCheckScheduled.set(false);
+		}
+	}
+
+	/**
+	 * Read the key material and client trustmanager for all following connections.<br />
+	 * The key material of the current SSLContext is replaced, so its session cache is kept. A new SSLContext is only created on first use,
+	 * after changed settings or when the client trustmanager instance changed.
+	 */
+	public synchronized SSLContext reload() throws Exception {
+		final long newKeyStoreFileLastModified = keyStoreFile.lastModified();
+		final long newTrustStoreFileLastModified = getTrustStoreFileLastModified();
+
+		final KeyStore keyStore = TrustManagerUtilities.readKeyStore(keyStoreFile, keyStorePassword);
+		final KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagerFactory.init(keyStore, keyPassword != null ? keyPassword : (keyStorePassword != null ? keyStorePassword : new char[0]));
+
+		final KeyManager[] keyManagers = keyManagerFactory.getKeyManagers();
+
+		// The TrustManagers of TrustManagerRegistry are the same instance for the same configuration and reload their certificates themselves
+		TrustManager trustManager = null;
+		if (clientAuthentication != ClientAuthentication.None) {
+			if (clientTlsCheckConfiguration == null) {
+				trustManager = new TlsCheckConfiguration(TlsCheckConfigurationType.SystemTrustStore).getTrustManager();
+			} else {
+				trustManager = clientTlsCheckConfiguration.getTrustManager();
+			}
+		}
+
+		final SSLContext newSslContext;
+		if (sslContext != null && reloadingKeyManager != null && trustManager == sslContextTrustManager && keyManagers.length == 1 && keyManagers[0] instanceof X509ExtendedKeyManager) {
+			// Keep the SSLContext and its session cache
+			newSslContext = sslContext;
+			reloadingKeyManager.setKeyManager((X509ExtendedKeyManager) keyManagers[0]);
+		} else {
+			newSslContext = SSLContext.getInstance(TLS_VERSION);
+			if (keyManagers.length == 1 && keyManagers[0] instanceof X509ExtendedKeyManager) {
+				reloadingKeyManager = new ReloadingKeyManager((X509ExtendedKeyManager) keyManagers[0]);
+				newSslContext.init(new KeyManager[] { reloadingKeyManager }, trustManager == null ? null : new TrustManager[] { trustManager }, new SecureRandom());
+			} else {
+				reloadingKeyManager = null;
+				newSslContext.init(keyManagers, trustManager == null ? null : new TrustManager[] { trustManager }, new SecureRandom());
+			}
+			sslContextTrustManager = trustManager;
+
+			final SSLSessionContext serverSessionContext = newSslContext.getServerSessionContext();
+			if (serverSessionContext != null) {
+				if (sessionCacheSize >= 0) {
+					serverSessionContext.setSessionCacheSize(sessionCacheSize);
+				}
+				if (sessionTimeoutSeconds >= 0) {
+					serverSessionContext.setSessionTimeout(sessionTimeoutSeconds);
+				}
+			}
+		}
+
+		keyStoreFileLastModified = newKeyStoreFileLastModified;
+		trustStoreFileLastModified = newTrustStoreFileLastModified;
+		nextReloadCheckMillis = System.currentTimeMillis() + reloadCheckIntervalMillis;
+		lastReloadError = null;
+		sslContext = newSslContext;
+		return newSslContext;
+	}
+
+	/**
+	 * Create a server side SSLEngine for a new connection
+	 */
+	public SSLEngine createSslEngine() throws Exception {
+		final SSLEngine sslEngine = getSslContext().createSSLEngine();
+		sslEngine.setUseClientMode(false);
+
+		final SSLParameters sslParameters = sslEngine.getSSLParameters();
+		if (enabledProtocols != null && enabledProtocols.length > 0) {
+			sslParameters.setProtocols(enabledProtocols);
+		}
+		if (applicationProtocols != null && applicationProtocols.length > 0) {
+			sslParameters.setApplicationProtocols(applicationProtocols);
+		}
+		if (clientAuthentication == ClientAuthentication.Required) {
+			sslParameters.setNeedClientAuth(true);
+		} else if (clientAuthentication == ClientAuthentication.Wanted) {
+			sslParameters.setWantClientAuth(true);
+		}
+		sslEngine.setSSLParameters(sslParameters);
+
+		return sslEngine;
+	}
+
+	private long getTrustStoreFileLastModified() {
+		if (clientTlsCheckConfiguration != null && clientTlsCheckConfiguration.getTrustoreOrPemFile() != null) {
+			return clientTlsCheckConfiguration.getTrustoreOrPemFile().lastModified();
+		} else {
+			return 0;
+		}
+	}
+}
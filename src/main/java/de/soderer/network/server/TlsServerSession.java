@@ -0,0 +1,293 @@
+package de.soderer.network.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import de.soderer.network.utilities.ByteBufferPool;
+
+/**
+ * Non blocking TLS termination of one server connection by an SSLEngine.<br />
+ * Network packet buffers are direct buffers taken from a ByteBufferPool and returned on close.
+ */
+class TlsServerSession {
+	private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+	private final SSLEngine sslEngine;
+	private final SocketChannel socketChannel;
+	private final ByteBufferPool packetBufferPool;
+
+	/** Received TLS data, kept in fill mode */
+	private ByteBuffer networkInBuffer;
+
+	/** TLS data to be sent, kept in drain mode */
+	private ByteBuffer networkOutBuffer;
+
+	/** Decrypted application data, kept in fill mode */
+	private ByteBuffer applicationInBuffer;
+
+	private boolean inboundClosed = false;
+
+	TlsServerSession(final SSLEngine sslEngine, final SocketChannel socketChannel, final ByteBufferPool packetBufferPool) throws SSLException {
+		this.sslEngine = sslEngine;
+		this.socketChannel = socketChannel;
+		this.packetBufferPool = packetBufferPool;
+
+		networkInBuffer = packetBufferPool.acquire(sslEngine.getSession().getPacketBufferSize());
+		networkOutBuffer = packetBufferPool.acquire(sslEngine.getSession().getPacketBufferSize());
+		networkOutBuffer.flip();
+		applicationInBuffer = packetBufferPool.acquire(sslEngine.getSession().getApplicationBufferSize());
+
+		sslEngine.beginHandshake();
+	}
+
+	/**
+	 * Read available TLS data from the channel and hand over the decrypted application data
+	 *
+	 * @return -1 on end of stream or TLS close, else the number of network bytes read
+	 */
+	int read(final Consumer<ByteBuffer> applicationDataConsumer) throws IOException {
+		if (inboundClosed) {
+			return -1;
+		}
+
+		final int bytesRead = socketChannel.read(networkInBuffer);
+		if (bytesRead < 0) {
+			inboundClosed = true;
+			try {
+				sslEngine.closeInbound();
+			} catch (@SuppressWarnings("unused") final SSLException e) {
+				// Peer closed without close_notify
+			}
+			return -1;
+		}
+
+		networkInBuffer.flip();
+		try {
+			while (networkInBuffer.hasRemaining()) {
+				final SSLEngineResult result = sslEngine.unwrap(networkInBuffer, applicationInBuffer);
+				switch (result.getStatus()) {
+					case BUFFER_UNDERFLOW:
+						// Incomplete TLS record, wait for more network data
+						if (networkInBuffer.capacity() < sslEngine.getSession().getPacketBufferSize()) {
+							final ByteBuffer enlargedBuffer = packetBufferPool.acquire(sslEngine.getSession().getPacketBufferSize());
+							enlargedBuffer.put(networkInBuffer);
+							enlargedBuffer.flip();
+							packetBufferPool.release(networkInBuffer);
+							networkInBuffer = enlargedBuffer;
+						}
+						runHandshake();
+						return bytesRead;
+					case BUFFER_OVERFLOW:
+						if (applicationInBuffer.position() > 0) {
+							deliverApplicationData(applicationDataConsumer);
+						} else {
+							applicationInBuffer = enlarge(applicationInBuffer, sslEngine.getSession().getApplicationBufferSize());
+						}
+						break;
+					case CLOSED:
+						inboundClosed = true;
+						deliverApplicationData(applicationDataConsumer);
+						runHandshake();
+						return -1;
+					case OK:
+					default:
+						deliverApplicationData(applicationDataConsumer);
+						break;
+				}
+
+				runHandshake();
+
+				if (result.bytesConsumed() == 0 && result.bytesProduced() == 0 && result.getStatus() == SSLEngineResult.Status.OK && sslEngine.getHandshakeStatus() != HandshakeStatus.NEED_UNWRAP) {
+					break;
+				}
+			}
+			return bytesRead;
+		} finally {
+			networkInBuffer.compact();
+		}
+	}
+
+	/**
+	 * Encrypt application data and write it to the channel as far as the channel accepts data
+	 *
+	 * @return true, if all application data was encrypted and all TLS data was sent
+	 */
+	boolean write(final ByteBuffer applicationData) throws IOException {
+		if (!flushNetworkData()) {
+			return false;
+		}
+
+		while (applicationData.hasRemaining()) {
+			networkOutBuffer.clear();
+			final SSLEngineResult result = sslEngine.wrap(applicationData, networkOutBuffer);
+			networkOutBuffer.flip();
+			switch (result.getStatus()) {
+				case BUFFER_OVERFLOW:
+					networkOutBuffer = enlarge(networkOutBuffer, sslEngine.getSession().getPacketBufferSize());
+					networkOutBuffer.flip();
+					break;
+				case CLOSED:
+					throw new IOException("TLS connection already closed");
+				case BUFFER_UNDERFLOW:
+				case OK:
+				default:
+					break;
+			}
+
+			runHandshake();
+
+			if (!flushNetworkData()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Continue an ongoing handshake and send pending TLS data
+	 *
+	 * @return true, if there is no more pending TLS data to be sent
+	 */
+	boolean flush() throws IOException {
+		if (!flushNetworkData()) {
+			return false;
+		} else {
+			runHandshake();
+			return flushNetworkData();
+		}
+	}
+
+	boolean hasPendingNetworkData() {
+		return networkOutBuffer.hasRemaining();
+	}
+
+	boolean isHandshaking() {
+		final HandshakeStatus handshakeStatus = sslEngine.getHandshakeStatus();
+		return handshakeStatus != HandshakeStatus.NOT_HANDSHAKING && handshakeStatus != HandshakeStatus.FINISHED;
+	}
+
+	String getProtocol() {
+		return sslEngine.getSession().getProtocol();
+	}
+
+	String getCipherSuite() {
+		return sslEngine.getSession().getCipherSuite();
+	}
+
+	/**
+	 * ALPN protocol negotiated in the handshake or null
+	 */
+	String getApplicationProtocol() {
+		final String applicationProtocol = sslEngine.getApplicationProtocol();
+		return applicationProtocol == null || applicationProtocol.isEmpty() ? null : applicationProtocol;
+	}
+
+	X509Certificate[] getPeerCertificates() {
+		try {
+			final List<X509Certificate> peerCertificates = new ArrayList<>();
+			for (final Certificate certificate : sslEngine.getSession().getPeerCertificates()) {
+				if (certificate instanceof X509Certificate) {
+					peerCertificates.add((X509Certificate) certificate);
+				}
+			}
+			return peerCertificates.toArray(new X509Certificate[0]);
+		} catch (@SuppressWarnings("unused") final SSLPeerUnverifiedException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Send close_notify, if possible, and return the packet buffers to the pool
+	 */
+	void close() {
+		try {
+			sslEngine.closeOutbound();
+			if (flushNetworkData()) {
+				networkOutBuffer.clear();
+				sslEngine.wrap(EMPTY_BUFFER, networkOutBuffer);
+				networkOutBuffer.flip();
+				flushNetworkData();
+			}
+		} catch (@SuppressWarnings("unused") final Exception e) {
+			// do nothing
+		} finally {
+			packetBufferPool.release(networkInBuffer);
+			packetBufferPool.release(networkOutBuffer);
+			packetBufferPool.release(applicationInBuffer);
+			networkInBuffer = ByteBuffer.allocate(0);
+			networkOutBuffer = ByteBuffer.allocate(0);
+			applicationInBuffer = ByteBuffer.allocate(0);
+		}
+	}
+
+	private void runHandshake() throws IOException {
+		while (true) {
+			switch (sslEngine.getHandshakeStatus()) {
+				case NEED_TASK:
+					Runnable task;
+					while ((task = sslEngine.getDelegatedTask()) != null) {
+						task.run();
+					}
+					break;
+				case NEED_WRAP:
+					if (!flushNetworkData()) {
+						return;
+					}
+					networkOutBuffer.clear();
+					final SSLEngineResult result = sslEngine.wrap(EMPTY_BUFFER, networkOutBuffer);
+					networkOutBuffer.flip();
+					if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+						networkOutBuffer = enlarge(networkOutBuffer, sslEngine.getSession().getPacketBufferSize());
+						networkOutBuffer.flip();
+					} else if (result.getStatus() == SSLEngineResult.Status.CLOSED && !networkOutBuffer.hasRemaining()) {
+						return;
+					}
+					break;
+				case NEED_UNWRAP:
+				case NEED_UNWRAP_AGAIN:
+				case FINISHED:
+				case NOT_HANDSHAKING:
+				default:
+					return;
+			}
+		}
+	}
+
+	private boolean flushNetworkData() throws IOException {
+		while (networkOutBuffer.hasRemaining()) {
+			if (socketChannel.write(networkOutBuffer) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void deliverApplicationData(final Consumer<ByteBuffer> applicationDataConsumer) {
+		if (applicationInBuffer.position() > 0) {
+			applicationInBuffer.flip();
+			applicationDataConsumer.accept(applicationInBuffer);
+			applicationInBuffer.clear();
+		}
+	}
+
+	/**
+	 * Replace an empty buffer by a larger one
+	 */
+	private ByteBuffer enlarge(final ByteBuffer buffer, final int minimumCapacity) {
+		final ByteBuffer enlargedBuffer = packetBufferPool.acquire(Math.max(minimumCapacity, buffer.capacity() * 2));
+		packetBufferPool.release(buffer);
+		return enlargedBuffer;
+	}
+}
@@ -5,6 +5,8 @@ import java.io.FileInputStream;
 import java.security.KeyStore;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
@@ -13,6 +15,8 @@ import javax.net.ssl.X509TrustManager;
 /**
  * This TrustManager checks for a servers TLS certificate to be valid against the system default truststore.<br />
  * Afterwards it checks the given additional truststore.<br />
+ * Issuers of chains, which were trusted by the additional truststore only, are remembered, so their chains are checked against the additional truststore first.
+ * Successful validations are cached in the shared ValidatedChainCache.<br />
  * Default JVM truststore lies at ${java.home}/lib/security/cacerts<br />
  *<br />
  * Usage example:
@@ -35,6 +39,8 @@ import javax.net.ssl.X509TrustManager;
 public class AdditionalTruststoreTrustManager implements X509TrustManager {
 	private final X509TrustManager systemDefaultTrustManager;
 	private final X509TrustManager additionalTrustManager;
+	private final long cacheScope = ValidatedChainCache.createScope();
+	private final Set<String> additionalIssuers = ConcurrentHashMap.newKeySet();
 
 	public AdditionalTruststoreTrustManager(final File additionalTrustStoreFile, final char[] trustStorePassword) throws Exception {
 		systemDefaultTrustManager = TrustManagerUtilities.getDefaultTrustManager();
@@ -61,19 +67,46 @@ public class AdditionalTruststoreTrustManager implements X509TrustManager {
 
 	@Override
 	public void checkClientTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
-		try {
-			systemDefaultTrustManager.checkClientTrusted(chain, authType);
-		} catch (@SuppressWarnings("unused") final CertificateException e) {
-			additionalTrustManager.checkClientTrusted(chain, authType);
-		}
+		check(chain, authType, false);
 	}
 
 	@Override
 	public void checkServerTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
-		try {
-			systemDefaultTrustManager.checkServerTrusted(chain, authType);
-		} catch (@SuppressWarnings("unused") final CertificateException e) {
-			additionalTrustManager.checkServerTrusted(chain, authType);
+		check(chain, authType, true);
+	}
+
+	private void check(final X509Certificate[] chain, final String authType, final boolean serverCheck) throws CertificateException {
+		final String cacheKey = ValidatedChainCache.createKey(cacheScope, chain, authType, serverCheck);
+		if (ValidatedChainCache.getSharedInstance().isValidated(cacheKey)) {
+			return;
+		}
+
+		final String issuer = chain == null || chain.length == 0 ? null : chain[chain.length - 1].getIssuerX500Principal().getName();
+		if (issuer != null && additionalIssuers.contains(issuer)) {
+			try {
+				check(additionalTrustManager, chain, authType, serverCheck);
+			} catch (@SuppressWarnings("unused") final CertificateException e) {
+				check(systemDefaultTrustManager, chain, authType, serverCheck);
+				additionalIssuers.remove(issuer);
+			}
+		} else {
+			try {
+				check(systemDefaultTrustManager, chain, authType, serverCheck);
+			} catch (@SuppressWarnings("unused") final CertificateException e) {
+				check(additionalTrustManager, chain, authType, serverCheck);
+				if (issuer != null) {
+					additionalIssuers.add(issuer);
+				}
+			}
+		}
+		ValidatedChainCache.getSharedInstance().addValidated(cacheKey, chain);
+	}
+
+	private static void check(final X509TrustManager trustManager, final X509Certificate[] chain, final String authType, final boolean serverCheck) throws CertificateException {
+		if (serverCheck) {
+			trustManager.checkServerTrusted(chain, authType);
+		} else {
+			trustManager.checkClientTrusted(chain, authType);
 		}
 	}
 
@@ -0,0 +1,188 @@
+package de.soderer.network.trustmanager;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.X509KeyManager;
+
+import de.soderer.network.ClientKeyConfiguration;
+
+/**
+ * Process wide registry of the KeyManagers of ClientKeyConfigurations.<br />
+ * Each distinct configuration is read and parsed only once and the same KeyManager instance is returned, so SSLContexts and pooled connections built with it are reused.
+ * The files are checked for changes of their modification time and size at most once per check interval, when the KeyManager is requested.
+ * Changed key material, like after a certificate rotation, results in a new KeyManager instance, so the following connections use new SSLContexts
+ * and do not resume TLS sessions of the previous client certificate.
+ * When changed files cannot be read, the previous key material stays active and the error is kept for getLastReloadError.<br />
+ * Caches of SSLContexts and connections are keyed by getConfigurationKey, so a rotated KeyManager replaces the entries of its configuration.
+ */
+public class KeyManagerRegistry {
+	/**
+	 * Identity of a ClientKeyConfiguration
+	 */
+	private static class RegistryKey {
+		private final String[] filePaths;
+		private final char[] keyStorePassword;
+		private final char[] keyPassword;
+
+		private RegistryKey(final ClientKeyConfiguration clientKeyConfiguration) throws Exception {
+			final File[] files = clientKeyConfiguration.getFiles();
+			filePaths = new String[files.length];
+			for (int i = 0; i < files.length; i++) {
+				filePaths[i] = files[i].getCanonicalPath();
+			}
+			keyStorePassword = clientKeyConfiguration.getKeyStorePassword() == null ? null : clientKeyConfiguration.getKeyStorePassword().clone();
+			keyPassword = clientKeyConfiguration.getKeyPassword() == null ? null : clientKeyConfiguration.getKeyPassword().clone();
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(Arrays.hashCode(filePaths), Arrays.hashCode(keyStorePassword), Arrays.hashCode(keyPassword));
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			if (!(other instanceof RegistryKey)) {
+				return false;
+			} else {
+				final RegistryKey otherKey = (RegistryKey) other;
+				return Arrays.equals(filePaths, otherKey.filePaths) && Arrays.equals(keyStorePassword, otherKey.keyStorePassword) && Arrays.equals(keyPassword, otherKey.keyPassword);
+			}
+		}
+	}
+
+	/**
+	 * Latest key material of a configuration
+	 */
+	private static class KeyMaterial {
+		private final ClientKeyConfiguration clientKeyConfiguration;
+		private final File[] files;
+		private volatile X509KeyManager keyManager;
+		private long filesState;
+		private volatile long nextCheckMillis;
+		private volatile Exception lastReloadError = null;
+
+		private KeyMaterial(final ClientKeyConfiguration clientKeyConfiguration) throws Exception {
+			this.clientKeyConfiguration = clientKeyConfiguration;
+			files = clientKeyConfiguration.getFiles();
+			filesState = getFilesState(files);
+			keyManager = clientKeyConfiguration.createKeyManager();
+			nextCheckMillis = System.currentTimeMillis() + checkIntervalMillis;
+		}
+
+		private X509KeyManager getKeyManager() {
+			if (System.currentTimeMillis() >= nextCheckMillis && reloadIfChanged()) {
+				reloadsCount.incrementAndGet();
+			}
+			return keyManager;
+		}
+
+		private synchronized boolean reloadIfChanged() {
+			nextCheckMillis = System.currentTimeMillis() + checkIntervalMillis;
+			final long newFilesState = getFilesState(files);
+			if (newFilesState == filesState) {
+				return false;
+			}
+
+			try {
+				keyManager = clientKeyConfiguration.createKeyManager();
+				filesState = newFilesState;
+				lastReloadError = null;
+				return true;
+			} catch (final Exception e) {
+				// Keep the previous key material, the files may be written at the moment
+				lastReloadError = e;
+				return false;
+			}
+		}
+
+		private static long getFilesState(final File[] files) {
+			long filesState = 17;
+			for (final File file : files) {
+				filesState = filesState * 31 + file.lastModified();
+				filesState = filesState * 31 + file.length();
+			}
+			return filesState;
+		}
+	}
+
+	private static final Map<RegistryKey, KeyMaterial> keyMaterials = new ConcurrentHashMap<>();
+	private static final AtomicLong reloadsCount = new AtomicLong(0);
+
+	private static volatile long checkIntervalMillis = 5000;
+
+	/**
+	 * Cached KeyManager of the current key material of the configuration
+	 */
+	public static X509KeyManager getKeyManager(final ClientKeyConfiguration clientKeyConfiguration) throws Exception {
+		final RegistryKey registryKey = new RegistryKey(clientKeyConfiguration);
+		KeyMaterial keyMaterial = keyMaterials.get(registryKey);
+		if (keyMaterial == null) {
+			synchronized (KeyManagerRegistry.class) {
+				keyMaterial = keyMaterials.get(registryKey);
+				if (keyMaterial == null) {
+					keyMaterial = new KeyMaterial(clientKeyConfiguration);
+					keyMaterials.put(registryKey, keyMaterial);
+				}
+			}
+		}
+		return keyMaterial.getKeyManager();
+	}
+
+	/**
+	 * Key of the configuration, which is equal for all configurations of the same files and passwords
+	 */
+	public static Object getConfigurationKey(final ClientKeyConfiguration clientKeyConfiguration) throws Exception {
+		return new RegistryKey(clientKeyConfiguration);
+	}
+
+	/**
+	 * Error of the last failed reload of the configurations key material or null. The previous key material stays in use in that case.
+	 */
+	public static Exception getLastReloadError(final ClientKeyConfiguration clientKeyConfiguration) throws Exception {
+		final KeyMaterial keyMaterial = keyMaterials.get(new RegistryKey(clientKeyConfiguration));
+		return keyMaterial == null ? null : keyMaterial.lastReloadError;
+	}
+
+	/**
+	 * Minimum interval between checks for changed key files (default 5 seconds)
+	 */
+	public static void setCheckIntervalMillis(final long checkIntervalMillis) {
+		KeyManagerRegistry.checkIntervalMillis = checkIntervalMillis;
+	}
+
+	/**
+	 * Reload the key material of changed files immediately
+	 *
+	 * @return number of reloaded configurations
+	 */
+	public static int checkForChanges() {
+		int reloadedCount = 0;
+		for (final KeyMaterial keyMaterial : keyMaterials.values()) {
+			if (keyMaterial.reloadIfChanged()) {
+				reloadedCount++;
+				reloadsCount.incrementAndGet();
+			}
+		}
+		return reloadedCount;
+	}
+
+	public static long getReloadsCount() {
+		return reloadsCount.get();
+	}
+
+	public static int getSize() {
+		return keyMaterials.size();
+	}
+
+	/**
+	 * Remove all cached KeyManagers
+	 */
+	public static void clear() {
+		keyMaterials.clear();
+	}
+}
@@ -0,0 +1,231 @@
+package de.soderer.network.trustmanager;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.cert.CertPathValidator;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.net.ssl.X509TrustManager;
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * Trusts all certificates of a PEM bundle, like a CA bundle with hundreds of certificates.<br />
+ * The PEM data is parsed in one pass and the trust anchors are indexed by subject DN and subject key identifier once,
+ * so each validation only uses the anchors matching the issuer of the presented chain.
+ * A presented certificate contained in the bundle itself is trusted directly within its validity.
+ * Revocation is not checked, like by the default TrustManager of the JVM.<br />
+ * Successful validations are cached in the shared ValidatedChainCache.<br />
+ *<br />
+ * Usage example:
+ *
+ * <pre>
+ * TrustManager[] trustManagers = new TrustManager[] { new PemBundleTrustManager(new File("ca-bundle.pem")) };
+ * </pre>
+ */
+public class PemBundleTrustManager implements X509TrustManager {
+	private static final String SUBJECT_KEY_IDENTIFIER_OID = "2.5.29.14";
+	private static final String AUTHORITY_KEY_IDENTIFIER_OID = "2.5.29.35";
+	private static final String SERVER_AUTH_OID = "1.3.6.1.5.5.7.3.1";
+	private static final String CLIENT_AUTH_OID = "1.3.6.1.5.5.7.3.2";
+	private static final String ANY_EXTENDED_KEY_USAGE_OID = "2.5.29.37.0";
+
+	private final X509Certificate[] certificates;
+	private final Set<X509Certificate> certificateSet = new HashSet<>();
+	private final Map<X500Principal, List<TrustAnchor>> trustAnchorsBySubject = new HashMap<>();
+	private final Map<String, List<TrustAnchor>> trustAnchorsByKeyIdentifier = new HashMap<>();
+	private final long cacheScope = ValidatedChainCache.createScope();
+
+	public PemBundleTrustManager(final File pemFile) throws Exception {
+		this(readCertificates(pemFile));
+	}
+
+	public PemBundleTrustManager(final InputStream pemInputStream) throws Exception {
+		this(readCertificates(pemInputStream));
+	}
+
+	private PemBundleTrustManager(final List<X509Certificate> certificates) throws Exception {
+		if (certificates.isEmpty()) {
+			throw new Exception("No certificates found in PEM data");
+		}
+		this.certificates = certificates.toArray(new X509Certificate[0]);
+		for (final X509Certificate certificate : certificates) {
+			certificateSet.add(certificate);
+			final TrustAnchor trustAnchor = new TrustAnchor(certificate, null);
+			trustAnchorsBySubject.computeIfAbsent(certificate.getSubjectX500Principal(), k -> new ArrayList<>()).add(trustAnchor);
+			final String subjectKeyIdentifier = getKeyIdentifier(certificate.getExtensionValue(SUBJECT_KEY_IDENTIFIER_OID), false);
+			if (subjectKeyIdentifier != null) {
+				trustAnchorsByKeyIdentifier.computeIfAbsent(subjectKeyIdentifier, k -> new ArrayList<>()).add(trustAnchor);
+			}
+		}
+	}
+
+	/**
+	 * Read all X.509 certificates of PEM (or DER) data in one pass
+	 */
+	public static List<X509Certificate> readCertificates(final File pemFile) throws Exception {
+		try (InputStream pemInputStream = new BufferedInputStream(new FileInputStream(pemFile))) {
+			return readCertificates(pemInputStream);
+		}
+	}
+
+	public static List<X509Certificate> readCertificates(final InputStream pemInputStream) throws Exception {
+		final List<X509Certificate> certificates = new ArrayList<>();
+		for (final Certificate certificate : CertificateFactory.getInstance("X.509").generateCertificates(pemInputStream)) {
+			if (certificate instanceof X509Certificate) {
+				certificates.add((X509Certificate) certificate);
+			}
+		}
+		return certificates;
+	}
+
+	public int getCertificatesCount() {
+		return certificates.length;
+	}
+
+	/**
+	 * Trusted certificates with the given subject
+	 */
+	public List<X509Certificate> getCertificatesBySubject(final X500Principal subject) {
+		final List<X509Certificate> result = new ArrayList<>();
+		for (final TrustAnchor trustAnchor : trustAnchorsBySubject.getOrDefault(subject, List.of())) {
+			result.add(trustAnchor.getTrustedCert());
+		}
+		return result;
+	}
+
+	@Override
+	public void checkClientTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+		check(chain, authType, false);
+	}
+
+	@Override
+	public void checkServerTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+		check(chain, authType, true);
+	}
+
+	@Override
+	public X509Certificate[] getAcceptedIssuers() {
+		return certificates.clone();
+	}
+
+	private void check(final X509Certificate[] chain, final String authType, final boolean serverCheck) throws CertificateException {
+		if (chain == null || chain.length == 0) {
+			throw new CertificateException("Empty certificate chain");
+		}
+		final String cacheKey = ValidatedChainCache.createKey(cacheScope, chain, authType, serverCheck);
+		if (ValidatedChainCache.getSharedInstance().isValidated(cacheKey)) {
+			return;
+		}
+
+		checkExtendedKeyUsage(chain[0], serverCheck);
+
+		// The presented chain may end with a trusted certificate, which is the trust anchor itself
+		int pathLength = chain.length;
+		for (int i = 0; i < chain.length; i++) {
+			if (certificateSet.contains(chain[i])) {
+				pathLength = i;
+				break;
+			}
+		}
+
+		if (pathLength == 0) {
+			chain[0].checkValidity();
+		} else {
+			final X509Certificate lastCertificate = chain[pathLength - 1];
+			final List<TrustAnchor> trustAnchors = findTrustAnchors(lastCertificate);
+			if (trustAnchors.isEmpty()) {
+				throw new CertificateException("No trusted certificate found for issuer '" + lastCertificate.getIssuerX500Principal().getName() + "'");
+			}
+			try {
+				final PKIXParameters parameters = new PKIXParameters(new HashSet<>(trustAnchors));
+				parameters.setRevocationEnabled(false);
+				CertPathValidator.getInstance("PKIX").validate(CertificateFactory.getInstance("X.509").generateCertPath(Arrays.asList(chain).subList(0, pathLength)), parameters);
+			} catch (final CertificateException e) {
+				throw e;
+			} catch (final Exception e) {
+				throw new CertificateException("Certificate chain is not trusted: " + e.getMessage(), e);
+			}
+		}
+
+		ValidatedChainCache.getSharedInstance().addValidated(cacheKey, chain);
+	}
+
+	private List<TrustAnchor> findTrustAnchors(final X509Certificate certificate) {
+		final String authorityKeyIdentifier = getKeyIdentifier(certificate.getExtensionValue(AUTHORITY_KEY_IDENTIFIER_OID), true);
+		if (authorityKeyIdentifier != null) {
+			final List<TrustAnchor> trustAnchors = trustAnchorsByKeyIdentifier.get(authorityKeyIdentifier);
+			if (trustAnchors != null) {
+				return trustAnchors;
+			}
+		}
+		return trustAnchorsBySubject.getOrDefault(certificate.getIssuerX500Principal(), List.of());
+	}
+
+	private static void checkExtendedKeyUsage(final X509Certificate certificate, final boolean serverCheck) throws CertificateException {
+		final List<String> extendedKeyUsage = certificate.getExtendedKeyUsage();
+		if (extendedKeyUsage != null && !extendedKeyUsage.contains(ANY_EXTENDED_KEY_USAGE_OID) && !extendedKeyUsage.contains(serverCheck ? SERVER_AUTH_OID : CLIENT_AUTH_OID)) {
+			throw new CertificateException("Extended key usage of certificate '" + certificate.getSubjectX500Principal().getName() + "' does not permit " + (serverCheck ? "server" : "client") + " authentication");
+		}
+	}
+
+	/**
+	 * Hex value of a subject key identifier (OCTET STRING) or the keyIdentifier of an authority key identifier (SEQUENCE with [0] IMPLICIT OCTET STRING)
+	 */
+	static String getKeyIdentifier(final byte[] extensionValue, final boolean authorityKeyIdentifier) {
+		if (extensionValue == null) {
+			return null;
+		}
+		try {
+			// The extension value is DER encoded and wrapped in an OCTET STRING
+			int position = skipHeader(extensionValue, 0, 0x04);
+			if (authorityKeyIdentifier) {
+				position = skipHeader(extensionValue, position, 0x30);
+				if (position >= extensionValue.length || (extensionValue[position] & 0xFF) != 0x80) {
+					return null;
+				}
+				final int valueStart = skipHeader(extensionValue, position, 0x80);
+				return HexFormat.of().formatHex(extensionValue, valueStart, valueStart + getLength(extensionValue, position + 1));
+			} else {
+				final int valueStart = skipHeader(extensionValue, position, 0x04);
+				return HexFormat.of().formatHex(extensionValue, valueStart, valueStart + getLength(extensionValue, position + 1));
+			}
+		} catch (@SuppressWarnings("unused") final Exception e) {
+			return null;
+		}
+	}
+
+	private static int skipHeader(final byte[] data, final int position, final int expectedTag) throws Exception {
+		if ((data[position] & 0xFF) != expectedTag) {
+			throw new Exception("Unexpected DER tag");
+		}
+		final int firstLengthByte = data[position + 1] & 0xFF;
+		return position + 2 + (firstLengthByte < 0x80 ? 0 : firstLengthByte & 0x7F);
+	}
+
+	private static int getLength(final byte[] data, final int lengthPosition) {
+		final int firstLengthByte = data[lengthPosition] & 0xFF;
+		if (firstLengthByte < 0x80) {
+			return firstLengthByte;
+		}
+		int length = 0;
+		for (int i = 1; i <= (firstLengthByte & 0x7F); i++) {
+			length = (length << 8) | (data[lengthPosition + i] & 0xFF);
+		}
+		return length;
+	}
+}
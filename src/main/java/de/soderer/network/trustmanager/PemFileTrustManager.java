@@ -1,19 +1,14 @@
 package de.soderer.network.trustmanager;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileReader;
-import java.security.KeyStore;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
 
 /**
+ * Trusts all certificates of a PEM file (see PemBundleTrustManager).<br />
+ *<br />
  * Usage example:
  * <pre>
  * TrustManager[] trustManagers = new TrustManager[] { new PemFileTrustManager(new File("server-cert.pem")) };
@@ -31,35 +26,10 @@ import javax.net.ssl.X509TrustManager;
  * </pre>
  */
 public class PemFileTrustManager implements X509TrustManager {
-	private final X509TrustManager trustManager;
+	private final PemBundleTrustManager trustManager;
 
 	public PemFileTrustManager(final File pemFile) throws Exception {
-		final CertificateFactory cf = CertificateFactory.getInstance("X.509");
-		X509Certificate cert;
-		try (FileReader fr = new FileReader(pemFile)) {
-			cert = (X509Certificate) cf.generateCertificate(new BufferedInputStream(new FileInputStream(pemFile)));
-		}
-
-		final KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
-		keyStore.load(null, null);
-		keyStore.setCertificateEntry("trusted", cert);
-
-		final TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-		tmf.init(keyStore);
-
-		X509TrustManager tm = null;
-		for (final TrustManager m : tmf.getTrustManagers()) {
-			if (m instanceof X509TrustManager) {
-				tm = (X509TrustManager) m;
-				break;
-			}
-		}
-
-		if (tm == null) {
-			throw new IllegalStateException("No X509TrustManager found");
-		}
-
-		trustManager = tm;
+		trustManager = new PemBundleTrustManager(pemFile);
 	}
 
 	@Override
@@ -0,0 +1,335 @@
+package de.soderer.network.trustmanager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.X509ExtendedTrustManager;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * Trusts certificate chains by SHA-256 pins of the public keys (SPKI) or of the certificates of the chain per host pattern.<br />
+ * All pins are decoded once, so each check is only a hash set lookup of the fingerprints of the chain.
+ * Host patterns are exact host names, "*.example.com" for all direct subdomains or "*" for all hosts.<br />
+ * Hosts without pins are checked by the given PKIX TrustManager only.
+ * For pinned hosts the PKIX check is either replaced by the pin check or done in addition to it.
+ * A pin of the server certificate matches only the first certificate of the chain, whose key the server proved to hold in the handshake.
+ * A pin of an issuing certificate matches only, if the signatures of the chain from the server certificate up to the pinned certificate are valid,
+ * and without PKIX check the server certificate must also be valid and issued for the host.
+ * Chains of unknown hosts, like of calls without socket or SSLEngine, are rejected, if there are any pins.<br />
+ *<br />
+ * Pin file format, one host pattern per line followed by its pins ("sha256/" + base64 of the SPKI hash or "cert-sha256/" + base64 of the certificate hash):
+ *
+ * <pre>
+ * # host pattern   pins
+ * api.example.com   sha256/r/mIkG3eEpVdm+u/ko/cwxzOMo1bk4TyHIlByibiA5E= sha256/YLh1dUR9y6Kja30RrAn7JKnbQG/uEtLMkBgFF2Fuihg=
+ * *.internal.example.com   cert-sha256/47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU=
+ * </pre>
+ */
+public class PinningTrustManager extends X509ExtendedTrustManager {
+	private static final String SPKI_PIN_PREFIX = "sha256/";
+	private static final String CERTIFICATE_PIN_PREFIX = "cert-sha256/";
+
+	/**
+	 * Decoded pins of a host pattern
+	 */
+	private static class Pins {
+		private final Set<String> publicKeyPins = new HashSet<>();
+		private final Set<String> certificatePins = new HashSet<>();
+	}
+
+	private final Map<String, Pins> pinsByHostPattern = new HashMap<>();
+	private final X509TrustManager pkixTrustManager;
+	private final boolean pkixCheckForPinnedHosts;
+
+	/**
+	 * @param pinFile file with host patterns and their pins
+	 * @param pkixTrustManager TrustManager for the PKIX check of hosts without pins, like the systems default TrustManager
+	 * @param pkixCheckForPinnedHosts also do the PKIX check for pinned hosts
+	 */
+	public PinningTrustManager(final File pinFile, final X509TrustManager pkixTrustManager, final boolean pkixCheckForPinnedHosts) throws Exception {
+		this(readPinFile(pinFile), pkixTrustManager, pkixCheckForPinnedHosts);
+	}
+
+	/**
+	 * @param pinsByHostPattern pins ("sha256/..." or "cert-sha256/...") by host pattern
+	 * @param pkixTrustManager TrustManager for the PKIX check of hosts without pins, like the systems default TrustManager
+	 * @param pkixCheckForPinnedHosts also do the PKIX check for pinned hosts
+	 */
+	public PinningTrustManager(final Map<String, Set<String>> pinsByHostPattern, final X509TrustManager pkixTrustManager, final boolean pkixCheckForPinnedHosts) throws Exception {
+		this.pkixTrustManager = pkixTrustManager;
+		this.pkixCheckForPinnedHosts = pkixCheckForPinnedHosts;
+		for (final Map.Entry<String, Set<String>> entry : pinsByHostPattern.entrySet()) {
+			final Pins pins = getOrCreatePins(entry.getKey());
+			for (final String pin : entry.getValue()) {
+				addPin(pins, pin);
+			}
+		}
+	}
+
+	/**
+	 * Read the pins by host pattern of a pin file
+	 */
+	public static Map<String, Set<String>> readPinFile(final File pinFile) throws Exception {
+		final Map<String, Set<String>> pinsByHostPattern = new HashMap<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(pinFile), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				final String[] values = line.split("\\s+");
+				if (values.length < 2) {
+					throw new Exception("Missing pins for host pattern '" + values[0] + "' in pin file '" + pinFile.getAbsolutePath() + "'");
+				}
+				final Set<String> pins = pinsByHostPattern.computeIfAbsent(values[0].toLowerCase(), k -> new HashSet<>());
+				for (int i = 1; i < values.length; i++) {
+					pins.add(values[i]);
+				}
+			}
+		}
+		return pinsByHostPattern;
+	}
+
+	/**
+	 * SPKI pin of a certificate ("sha256/" + base64 of the SHA-256 hash of the public key)
+	 */
+	public static String getPublicKeyPin(final X509Certificate certificate) throws Exception {
+		return SPKI_PIN_PREFIX + Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(certificate.getPublicKey().getEncoded()));
+	}
+
+	/**
+	 * Certificate pin of a certificate ("cert-sha256/" + base64 of the SHA-256 hash of the certificate)
+	 */
+	public static String getCertificatePin(final X509Certificate certificate) throws Exception {
+		return CERTIFICATE_PIN_PREFIX + Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded()));
+	}
+
+	private Pins getOrCreatePins(final String hostPattern) {
+		return pinsByHostPattern.computeIfAbsent(hostPattern.toLowerCase(), k -> new Pins());
+	}
+
+	private static void addPin(final Pins pins, final String pin) throws Exception {
+		final String pinValue;
+		final Set<String> pinSet;
+		if (pin.startsWith(CERTIFICATE_PIN_PREFIX)) {
+			pinValue = pin.substring(CERTIFICATE_PIN_PREFIX.length());
+			pinSet = pins.certificatePins;
+		} else if (pin.startsWith(SPKI_PIN_PREFIX)) {
+			pinValue = pin.substring(SPKI_PIN_PREFIX.length());
+			pinSet = pins.publicKeyPins;
+		} else {
+			throw new Exception("Invalid pin '" + pin + "', expected prefix '" + SPKI_PIN_PREFIX + "' or '" + CERTIFICATE_PIN_PREFIX + "'");
+		}
+
+		final byte[] hash;
+		try {
+			hash = Base64.getDecoder().decode(pinValue);
+		} catch (final IllegalArgumentException e) {
+			throw new Exception("Invalid base64 value of pin '" + pin + "'", e);
+		}
+		if (hash.length != 32) {
+			throw new Exception("Invalid SHA-256 hash length of pin '" + pin + "'");
+		}
+		// Normalized encoding, so equal hashes are equal strings
+		pinSet.add(Base64.getEncoder().encodeToString(hash));
+	}
+
+	/**
+	 * Pins of a host or null for hosts without pins
+	 */
+	private Pins getPins(final String host) {
+		final String hostName = host.toLowerCase();
+		Pins pins = pinsByHostPattern.get(hostName);
+		if (pins == null) {
+			final int firstDotIndex = hostName.indexOf('.');
+			if (firstDotIndex > 0) {
+				pins = pinsByHostPattern.get("*" + hostName.substring(firstDotIndex));
+			}
+			if (pins == null) {
+				pins = pinsByHostPattern.get("*");
+			}
+		}
+		return pins;
+	}
+
+	@Override
+	public void checkClientTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+		check(chain, null, () -> pkixTrustManager.checkClientTrusted(chain, authType));
+	}
+
+	@Override
+	public void checkServerTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+		check(chain, null, () -> pkixTrustManager.checkServerTrusted(chain, authType));
+	}
+
+	@Override
+	public void checkClientTrusted(final X509Certificate[] chain, final String authType, final Socket socket) throws CertificateException {
+		check(chain, getPeerHost(socket), () -> {
+			if (pkixTrustManager instanceof X509ExtendedTrustManager) {
+				((X509ExtendedTrustManager) pkixTrustManager).checkClientTrusted(chain, authType, socket);
+			} else {
+				pkixTrustManager.checkClientTrusted(chain, authType);
+			}
+		});
+	}
+
+	@Override
+	public void checkServerTrusted(final X509Certificate[] chain, final String authType, final Socket socket) throws CertificateException {
+		check(chain, getPeerHost(socket), () -> {
+			if (pkixTrustManager instanceof X509ExtendedTrustManager) {
+				((X509ExtendedTrustManager) pkixTrustManager).checkServerTrusted(chain, authType, socket);
+			} else {
+				pkixTrustManager.checkServerTrusted(chain, authType);
+			}
+		});
+	}
+
+	@Override
+	public void checkClientTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine) throws CertificateException {
+		check(chain, engine == null ? null : engine.getPeerHost(), () -> {
+			if (pkixTrustManager instanceof X509ExtendedTrustManager) {
+				((X509ExtendedTrustManager) pkixTrustManager).checkClientTrusted(chain, authType, engine);
+			} else {
+				pkixTrustManager.checkClientTrusted(chain, authType);
+			}
+		});
+	}
+
+	@Override
+	public void checkServerTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine) throws CertificateException {
+		check(chain, engine == null ? null : engine.getPeerHost(), () -> {
+			if (pkixTrustManager instanceof X509ExtendedTrustManager) {
+				((X509ExtendedTrustManager) pkixTrustManager).checkServerTrusted(chain, authType, engine);
+			} else {
+				pkixTrustManager.checkServerTrusted(chain, authType);
+			}
+		});
+	}
+
+	@Override
+	public X509Certificate[] getAcceptedIssuers() {
+		return pkixTrustManager.getAcceptedIssuers();
+	}
+
+	private interface PkixCheck {
+		void check() throws CertificateException;
+	}
+
+	private void check(final X509Certificate[] chain, final String host, final PkixCheck pkixCheck) throws CertificateException {
+		if (host == null) {
+			if (pinsByHostPattern.isEmpty()) {
+				pkixCheck.check();
+				return;
+			} else {
+				// The pins of the host are unknown, so no pin can be checked
+				throw new CertificateException("Cannot check pins of unknown host");
+			}
+		}
+
+		final Pins pins = getPins(host);
+		if (pins == null) {
+			pkixCheck.check();
+			return;
+		}
+
+		if (pkixCheckForPinnedHosts) {
+			pkixCheck.check();
+		}
+		if (chain == null || chain.length == 0) {
+			throw new CertificateException("Empty certificate chain");
+		}
+		try {
+			final MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+			for (int i = 0; i < chain.length; i++) {
+				final X509Certificate certificate = chain[i];
+				if ((!pins.publicKeyPins.isEmpty() && pins.publicKeyPins.contains(Base64.getEncoder().encodeToString(messageDigest.digest(certificate.getPublicKey().getEncoded()))))
+						|| (!pins.certificatePins.isEmpty() && pins.certificatePins.contains(Base64.getEncoder().encodeToString(messageDigest.digest(certificate.getEncoded()))))) {
+					if (i == 0) {
+						// The server proved to hold the key of its certificate in the handshake
+						return;
+					} else if (isIssuedBy(chain, i) && (pkixCheckForPinnedHosts || isValidForHost(chain[0], host))) {
+						return;
+					}
+				}
+			}
+		} catch (final NoSuchAlgorithmException | CertificateEncodingException e) {
+			throw new CertificateException("Cannot check pins: " + e.getMessage(), e);
+		}
+		throw new CertificateException("No pinned key found in certificate chain of host '" + host + "'");
+	}
+
+	/**
+	 * Check the signatures of the chain from the server certificate up to the issuing certificate at the given index
+	 */
+	private static boolean isIssuedBy(final X509Certificate[] chain, final int issuerIndex) {
+		for (int i = 0; i < issuerIndex; i++) {
+			if (!chain[i].getIssuerX500Principal().equals(chain[i + 1].getSubjectX500Principal()) || chain[i + 1].getBasicConstraints() < 0) {
+				return false;
+			}
+			try {
+				chain[i].verify(chain[i + 1].getPublicKey());
+			} catch (@SuppressWarnings("unused") final Exception e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check the validity period and the subject alternative names (DNS names with optional wildcard of the first label or IP addresses) of the server certificate
+	 */
+	private static boolean isValidForHost(final X509Certificate certificate, final String host) {
+		try {
+			certificate.checkValidity();
+			final Collection<List<?>> alternativeNames = certificate.getSubjectAlternativeNames();
+			if (alternativeNames != null) {
+				final String hostName = host.toLowerCase();
+				for (final List<?> alternativeName : alternativeNames) {
+					// Type 2 = DNS name, type 7 = IP address
+					if (!Integer.valueOf(2).equals(alternativeName.get(0)) && !Integer.valueOf(7).equals(alternativeName.get(0))) {
+						continue;
+					}
+					final String name = ((String) alternativeName.get(1)).toLowerCase();
+					if (name.equals(hostName)) {
+						return true;
+					} else if (name.startsWith("*.") && hostName.indexOf('.') > 0 && hostName.substring(hostName.indexOf('.')).equals(name.substring(1))) {
+						return true;
+					}
+				}
+			}
+			return false;
+		} catch (@SuppressWarnings("unused") final Exception e) {
+			return false;
+		}
+	}
+
+	private static String getPeerHost(final Socket socket) {
+		if (socket instanceof SSLSocket) {
+			final SSLSession handshakeSession = ((SSLSocket) socket).getHandshakeSession();
+			if (handshakeSession != null) {
+				return handshakeSession.getPeerHost();
+			}
+		}
+		return null;
+	}
+}
@@ -2,55 +2,118 @@ package de.soderer.network.trustmanager;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.security.KeyStore;
 import java.security.cert.X509Certificate;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.net.ssl.X509TrustManager;
 
+import de.soderer.network.utilities.AtomicFileWriter;
+
 /**
+ * Records all certificates of the checked server chains in a truststore file.<br />
+ * New certificates are collected in memory during the TLS handshake and written by a background thread in batches after the flush delay.
+ * The truststore file is read again before each write, so multiple instances for the same file do not lose certificates,
+ * and it is replaced atomically by a temporary file. A failed background write is retried with a doubled delay up to one minute.
+ * flush() or close() write all collected certificates synchronously.<br />
+ *<br />
  * Usage example:
  * <pre>
- * TrustManager[] trustManagers = new TrustManager[] { new SavingToTruststoreTrustManager(new File("server-cert.jks", "changeit".toCharArray())) };
+ * try (SavingToTruststoreTrustManager trustManager = new SavingToTruststoreTrustManager(new File("server-cert.jks"), "changeit".toCharArray())) {
+ *     TrustManager[] trustManagers = new TrustManager[] { trustManager };
  *
- * SSLContext sslContext = SSLContext.getInstance("TLS");
- * sslContext.init(null, trustManagers, new SecureRandom());
+ *     SSLContext sslContext = SSLContext.getInstance("TLS");
+ *     sslContext.init(null, trustManagers, new SecureRandom());
  *
- * URL url = new URL("https://example.com");
- * HttpsURLConnection connection = (HttpsURLConnection) url.openConnection();
+ *     URL url = new URL("https://example.com");
+ *     HttpsURLConnection connection = (HttpsURLConnection) url.openConnection();
  *
- * connection.setSSLSocketFactory(sslContext.getSocketFactory());
- * connection.connect();
+ *     connection.setSSLSocketFactory(sslContext.getSocketFactory());
+ *     connection.connect();
  *
- * System.out.println("Response Code: " + connection.getResponseCode());
+ *     System.out.println("Response Code: " + connection.getResponseCode());
+ * }
  * </pre>
  */
-public class SavingToTruststoreTrustManager implements X509TrustManager {
-	private X509Certificate serverCertificate;
+public class SavingToTruststoreTrustManager implements X509TrustManager, AutoCloseable {
+	/**
+	 * Background writer shared by all instances
+	 */
+	private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "SavingToTruststoreTrustManager");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Locks of the truststore files, so instances for the same file do not write concurrently
+	 */
+	private static final Map<String, Object> fileLocks = new ConcurrentHashMap<>();
+
+	private static final long MAX_FLUSH_RETRY_DELAY_MILLIS = 60_000;
+
+	private volatile X509Certificate serverCertificate;
 
 	private final File trustStoreFile;
 	private final char[] trustStorePassword;
+	private final Object fileLock;
+	private long flushDelayMillis = 1000;
 
-	private final KeyStore keyStore;
+	private final Set<String> knownAliases = ConcurrentHashMap.newKeySet();
+	private final Map<String, X509Certificate> pendingCertificates = new ConcurrentHashMap<>();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+	private volatile Exception lastFlushError = null;
 
 	public SavingToTruststoreTrustManager(final File trustStoreFile, final char[] trustStorePassword) throws Exception {
 		this.trustStoreFile = trustStoreFile;
 		this.trustStorePassword = trustStorePassword;
+		fileLock = fileLocks.computeIfAbsent(trustStoreFile.getCanonicalPath(), k -> new Object());
 
-		keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
-		if (trustStoreFile.exists()) {
-			try (FileInputStream fis = new FileInputStream(trustStoreFile)) {
-				keyStore.load(fis, trustStorePassword);
+		synchronized (fileLock) {
+			final Enumeration<String> aliases = readKeyStore().aliases();
+			while (aliases.hasMoreElements()) {
+				knownAliases.add(aliases.nextElement());
 			}
-		} else {
-			keyStore.load(null, null);
 		}
 	}
 
+	/**
+	 * Time to collect new certificates before they are written in one batch (default 1000 milliseconds)
+	 */
+	public SavingToTruststoreTrustManager setFlushDelayMillis(final long flushDelayMillis) {
+		this.flushDelayMillis = flushDelayMillis;
+
+		return this;
+	}
+
 	public X509Certificate getServerCertificate() {
 		return serverCertificate;
 	}
 
+	/**
+	 * Number of recorded certificates not written yet
+	 */
+	public int getPendingCertificatesCount() {
+		return pendingCertificates.size();
+	}
+
+	/**
+	 * Error of the last background write or null
+	 */
+	public Exception getLastFlushError() {
+		return lastFlushError;
+	}
+
 	@Override
 	public void checkClientTrusted(final X509Certificate[] chain, final String authType) {
 		// do nothing
@@ -58,34 +121,99 @@ public class SavingToTruststoreTrustManager implements X509TrustManager {
 
 	@Override
 	public void checkServerTrusted(final X509Certificate[] chain, final String authType) {
-		try {
-			if (chain != null) {
-				if (chain.length > 0) {
-					serverCertificate = chain[0];
-				}
+		if (chain != null) {
+			if (chain.length > 0) {
+				serverCertificate = chain[0];
+			}
 
-				boolean newCertificateAdded = false;
-				for (int i = 0; i < chain.length; i++) {
-					final String alias = chain[i].getSubjectX500Principal().getName();
-					if (keyStore.getCertificate(alias) == null) {
-						keyStore.setCertificateEntry(alias, chain[i]);
-						newCertificateAdded = true;
-					}
+			boolean newCertificateAdded = false;
+			for (final X509Certificate certificate : chain) {
+				final String alias = certificate.getSubjectX500Principal().getName();
+				if (knownAliases.add(alias)) {
+					pendingCertificates.put(alias, certificate);
+					newCertificateAdded = true;
 				}
+			}
 
-				if (newCertificateAdded) {
-					try (FileOutputStream fos = new FileOutputStream(trustStoreFile)) {
-						keyStore.store(fos, trustStorePassword);
-					}
-				}
+			if (newCertificateAdded && flushScheduled.compareAndSet(false, true)) {
+				scheduleFlush(flushDelayMillis);
 			}
-		} catch (final Exception e) {
-			throw new RuntimeException(e);
 		}
 	}
 
+	/**
+	 * Write the pending certificates in the background and retry with a doubled delay after a failed write
+	 */
+	private void scheduleFlush(final long delayMillis) {
+		writer.schedule(() -> {
+			try {
+				flush();
+				lastFlushError = null;
+			} catch (final Exception e) {
+				lastFlushError = e;
+				if (!pendingCertificates.isEmpty() && flushScheduled.compareAndSet(false, true)) {
+					scheduleFlush(Math.min(Math.max(delayMillis, 1) * 2, MAX_FLUSH_RETRY_DELAY_MILLIS));
+				}
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
 	@Override
 	public X509Certificate[] getAcceptedIssuers() {
 		return new X509Certificate[0];
 	}
+
+	/**
+	 * Write all recorded certificates to the truststore file
+	 */
+	public void flush() throws Exception {
+		synchronized (fileLock) {
+			flushScheduled.set(false);
+			if (pendingCertificates.isEmpty()) {
+				return;
+			}
+
+			final KeyStore keyStore = readKeyStore();
+			final Map<String, X509Certificate> writtenCertificates = new HashMap<>(pendingCertificates);
+			for (final Entry<String, X509Certificate> entry : writtenCertificates.entrySet()) {
+				if (keyStore.getCertificate(entry.getKey()) == null) {
+					keyStore.setCertificateEntry(entry.getKey(), entry.getValue());
+				}
+			}
+
+			AtomicFileWriter.write(trustStoreFile, outputStream -> keyStore.store(outputStream, trustStorePassword));
+
+			for (final Entry<String, X509Certificate> entry : writtenCertificates.entrySet()) {
+				pendingCertificates.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Write all recorded certificates to the truststore file
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} catch (final IOException e) {
+			throw e;
+		} catch (final Exception e) {
+			throw new IOException("Cannot write truststore file '" + trustStoreFile.getAbsolutePath() + "': " + e.getMessage(), e);
+		}
+	}
+
+	private KeyStore readKeyStore() throws Exception {
+		final KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+		if (trustStoreFile.exists()) {
+			try (FileInputStream inputStream = new FileInputStream(trustStoreFile)) {
+				keyStore.load(inputStream, trustStorePassword);
+			} catch (final IOException e) {
+				throw new Exception("Cannot read truststore file '" + trustStoreFile.getAbsolutePath() + "': " + e.getMessage(), e);
+			}
+		} else {
+			keyStore.load(null, null);
+		}
+		return keyStore;
+	}
 }
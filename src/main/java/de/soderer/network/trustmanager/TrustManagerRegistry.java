@@ -0,0 +1,299 @@
+package de.soderer.network.trustmanager;
+
+import java.io.File;
+import java.net.Socket;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import de.soderer.network.TlsCheckConfiguration;
+import de.soderer.network.TlsCheckConfiguration.TlsCheckConfigurationType;
+
+/**
+ * Process wide registry of the TrustManagers of TlsCheckConfigurations.<br />
+ * Each distinct configuration is built only once. Truststore and PEM files are checked for changes of their modification time and size
+ * by a background thread and the TrustManager is rebuilt and swapped in atomically, so the TrustManagers returned before use the new content.
+ * When a changed file cannot be read, the previous content stays active and the error is kept for getLastReloadError.<br />
+ * Recording configurations (RecordingToTrustStoreFile, RecordingSingleCertificate) keep the recorded certificate per instance and are therefore never cached.
+ */
+public class TrustManagerRegistry {
+	/**
+	 * Identity of a TlsCheckConfiguration
+	 */
+	private static class RegistryKey {
+		private final TlsCheckConfigurationType type;
+		private final String filePath;
+		private final char[] password;
+
+		private RegistryKey(final TlsCheckConfiguration tlsCheckConfiguration) throws Exception {
+			type = tlsCheckConfiguration.getType();
+			filePath = tlsCheckConfiguration.getTrustoreOrPemFile() == null ? null : tlsCheckConfiguration.getTrustoreOrPemFile().getCanonicalPath();
+			password = tlsCheckConfiguration.getTrustorePassword() == null ? null : tlsCheckConfiguration.getTrustorePassword().clone();
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(type, filePath) * 31 + Arrays.hashCode(password);
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			if (!(other instanceof RegistryKey)) {
+				return false;
+			} else {
+				final RegistryKey otherKey = (RegistryKey) other;
+				return type == otherKey.type && Objects.equals(filePath, otherKey.filePath) && Arrays.equals(password, otherKey.password);
+			}
+		}
+	}
+
+	/**
+	 * Latest build of a configuration
+	 */
+	private static class TrustManagerSource {
+		private final TlsCheckConfiguration tlsCheckConfiguration;
+		private final File file;
+		private final TrustManager reloadingTrustManager;
+		private volatile X509TrustManager trustManager;
+		private volatile Exception lastReloadError = null;
+		private long fileLastModified;
+		private long fileLength;
+
+		private TrustManagerSource(final TlsCheckConfiguration tlsCheckConfiguration) throws Exception {
+			this.tlsCheckConfiguration = tlsCheckConfiguration;
+			file = tlsCheckConfiguration.getTrustoreOrPemFile();
+			if (file != null) {
+				fileLastModified = file.lastModified();
+				fileLength = file.length();
+			}
+			trustManager = createX509TrustManager(tlsCheckConfiguration);
+			// Plain X509TrustManagers must not be wrapped in an X509ExtendedTrustManager, so JSSE still does the endpoint identification and algorithm constraint checks for them
+			if (trustManager instanceof X509ExtendedTrustManager) {
+				reloadingTrustManager = new ReloadingExtendedTrustManager(this);
+			} else {
+				reloadingTrustManager = new ReloadingTrustManager(this);
+			}
+		}
+
+		private synchronized boolean reloadIfChanged() {
+			if (file == null || (file.lastModified() == fileLastModified && file.length() == fileLength)) {
+				return false;
+			}
+
+			final long newFileLastModified = file.lastModified();
+			final long newFileLength = file.length();
+			try {
+				final X509TrustManager newTrustManager = createX509TrustManager(tlsCheckConfiguration);
+				if ((newTrustManager instanceof X509ExtendedTrustManager) != (trustManager instanceof X509ExtendedTrustManager)) {
+					throw new Exception("Changed kind of X509TrustManager for TlsCheckConfigurationType '" + tlsCheckConfiguration.getType() + "'");
+				}
+				trustManager = newTrustManager;
+				fileLastModified = newFileLastModified;
+				fileLength = newFileLength;
+				lastReloadError = null;
+				return true;
+			} catch (final Exception e) {
+				// Keep the previous content, the file may be written at the moment
+				lastReloadError = e;
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * TrustManager delegating to the latest build of a configuration with a plain X509TrustManager
+	 */
+	private static class ReloadingTrustManager implements X509TrustManager {
+		private final TrustManagerSource source;
+
+		private ReloadingTrustManager(final TrustManagerSource source) {
+			this.source = source;
+		}
+
+		@Override
+		public void checkClientTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+			source.trustManager.checkClientTrusted(chain, authType);
+		}
+
+		@Override
+		public void checkServerTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+			source.trustManager.checkServerTrusted(chain, authType);
+		}
+
+		@Override
+		public X509Certificate[] getAcceptedIssuers() {
+			return source.trustManager.getAcceptedIssuers();
+		}
+	}
+
+	/**
+	 * TrustManager delegating to the latest build of a configuration with an X509ExtendedTrustManager.
+	 * Host aware TrustManagers like the PinningTrustManager get the connection of the check.
+	 */
+	private static class ReloadingExtendedTrustManager extends X509ExtendedTrustManager {
+		private final TrustManagerSource source;
+
+		private ReloadingExtendedTrustManager(final TrustManagerSource source) {
+			this.source = source;
+		}
+
+		private X509ExtendedTrustManager getTrustManager() {
+			return (X509ExtendedTrustManager) source.trustManager;
+		}
+
+		@Override
+		public void checkClientTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+			getTrustManager().checkClientTrusted(chain, authType);
+		}
+
+		@Override
+		public void checkServerTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+			getTrustManager().checkServerTrusted(chain, authType);
+		}
+
+		@Override
+		public void checkClientTrusted(final X509Certificate[] chain, final String authType, final Socket socket) throws CertificateException {
+			getTrustManager().checkClientTrusted(chain, authType, socket);
+		}
+
+		@Override
+		public void checkServerTrusted(final X509Certificate[] chain, final String authType, final Socket socket) throws CertificateException {
+			getTrustManager().checkServerTrusted(chain, authType, socket);
+		}
+
+		@Override
+		public void checkClientTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine) throws CertificateException {
+			getTrustManager().checkClientTrusted(chain, authType, engine);
+		}
+
+		@Override
+		public void checkServerTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine) throws CertificateException {
+			getTrustManager().checkServerTrusted(chain, authType, engine);
+		}
+
+		@Override
+		public X509Certificate[] getAcceptedIssuers() {
+			return getTrustManager().getAcceptedIssuers();
+		}
+	}
+
+	private static final Map<RegistryKey, TrustManagerSource> trustManagers = new ConcurrentHashMap<>();
+	private static final AtomicLong reloadsCount = new AtomicLong(0);
+
+	private static long checkIntervalMillis = 5000;
+	private static ScheduledExecutorService fileWatcher = null;
+	private static ScheduledFuture<?> fileCheck = null;
+
+	/**
+	 * Cached TrustManager of the configuration
+	 */
+	public static TrustManager getTrustManager(final TlsCheckConfiguration tlsCheckConfiguration) throws Exception {
+		if (tlsCheckConfiguration.getType() == TlsCheckConfigurationType.RecordingToTrustStoreFile || tlsCheckConfiguration.getType() == TlsCheckConfigurationType.RecordingSingleCertificate) {
+			return tlsCheckConfiguration.createTrustManager();
+		}
+
+		final RegistryKey registryKey = new RegistryKey(tlsCheckConfiguration);
+		TrustManagerSource source = trustManagers.get(registryKey);
+		if (source == null) {
+			synchronized (TrustManagerRegistry.class) {
+				source = trustManagers.get(registryKey);
+				if (source == null) {
+					source = new TrustManagerSource(tlsCheckConfiguration);
+					trustManagers.put(registryKey, source);
+					if (source.file != null) {
+						startFileWatcher();
+					}
+				}
+			}
+		}
+		return source.reloadingTrustManager;
+	}
+
+	/**
+	 * Error of the last failed rebuild of the configurations TrustManager or null. The previous content stays in use in that case.
+	 */
+	public static Exception getLastReloadError(final TlsCheckConfiguration tlsCheckConfiguration) throws Exception {
+		final TrustManagerSource source = trustManagers.get(new RegistryKey(tlsCheckConfiguration));
+		return source == null ? null : source.lastReloadError;
+	}
+
+	/**
+	 * Interval of the background check for changed truststore and PEM files (default 5 seconds)
+	 */
+	public static synchronized void setCheckIntervalMillis(final long checkIntervalMillis) {
+		TrustManagerRegistry.checkIntervalMillis = checkIntervalMillis;
+		if (fileCheck != null) {
+			fileCheck.cancel(false);
+			fileCheck = fileWatcher.scheduleWithFixedDelay(TrustManagerRegistry::checkForChanges, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Rebuild the TrustManagers of changed files immediately
+	 *
+	 * @return number of rebuilt TrustManagers
+	 */
+	public static int checkForChanges() {
+		int reloadedCount = 0;
+		for (final TrustManagerSource source : trustManagers.values()) {
+			if (source.reloadIfChanged()) {
+				reloadedCount++;
+				reloadsCount.incrementAndGet();
+			}
+		}
+		return reloadedCount;
+	}
+
+	public static long getReloadsCount() {
+		return reloadsCount.get();
+	}
+
+	public static int getSize() {
+		return trustManagers.size();
+	}
+
+	/**
+	 * Remove all cached TrustManagers and stop the background check
+	 */
+	public static synchronized void clear() {
+		trustManagers.clear();
+		if (fileWatcher != null) {
+			fileWatcher.shutdownNow();
+			fileWatcher = null;
+			fileCheck = null;
+		}
+	}
+
+	private static synchronized void startFileWatcher() {
+		if (fileWatcher == null) {
+			fileWatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				final Thread thread = new Thread(runnable, "TrustManagerRegistry");
+				thread.setDaemon(true);
+				return thread;
+			});
+			fileCheck = fileWatcher.scheduleWithFixedDelay(TrustManagerRegistry::checkForChanges, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private static X509TrustManager createX509TrustManager(final TlsCheckConfiguration tlsCheckConfiguration) throws Exception {
+		final TrustManager trustManager = tlsCheckConfiguration.createTrustManager();
+		if (trustManager instanceof X509TrustManager) {
+			return (X509TrustManager) trustManager;
+		} else {
+			throw new Exception("No X509TrustManager for TlsCheckConfigurationType '" + tlsCheckConfiguration.getType() + "'");
+		}
+	}
+}
@@ -1,20 +1,42 @@
 package de.soderer.network.trustmanager;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
 
 import de.soderer.network.HttpUtilities;
+import de.soderer.network.TlsCertificateScanner;
+import de.soderer.network.TlsScanResult;
+import de.soderer.network.utilities.AtomicFileWriter;
 
 public class TrustManagerUtilities {
+	private static volatile SSLContext trustAllSslContext = null;
+
 	public static TrustManager[] getDefaultTrustManagers() throws Exception {
 		final TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
 
@@ -39,6 +61,19 @@ public class TrustManagerUtilities {
 		throw new IllegalStateException("No system default X509TrustManager found");
 	}
 
+	/**
+	 * Shared SSLContext trusting all server certificates, like for reading the certificates of servers
+	 */
+	public static SSLContext getTrustAllSslContext() throws Exception {
+		SSLContext sslContext = trustAllSslContext;
+		if (sslContext == null) {
+			sslContext = SSLContext.getInstance("TLS");
+			sslContext.init(null, new TrustManager[] { createTrustAllTrustManager() }, new SecureRandom());
+			trustAllSslContext = sslContext;
+		}
+		return sslContext;
+	}
+
 	public static X509TrustManager createTrustAllTrustManager() {
 		return new X509TrustManager() {
 			@Override
@@ -145,4 +180,119 @@ public class TrustManagerUtilities {
 			keyStore.store(javaKeyStoreOutputStream, password);
 		}
 	}
+
+	/**
+	 * Create a truststore file with the server certificates of many targets ("host:port" or "host" for port 443).<br />
+	 * The certificates are read in parallel, deduplicated by their SHA-256 fingerprint and written in a single pass.
+	 * Targets, which cannot be read, are skipped and can be found in the returned scan results.
+	 *
+	 * @param mergeIntoExistingFile keep the entries of an existing truststore file and only add new certificates
+	 * @return scan results of all targets
+	 */
+	public static List<TlsScanResult> createTrustStoreFile(final Iterable<String> targets, final File trustStoreFile, final char[] trustStorePassword, final boolean mergeIntoExistingFile, final int parallelism) throws Exception {
+		if (trustStoreFile.exists() && !mergeIntoExistingFile) {
+			throw new Exception("File '" + trustStoreFile.getAbsolutePath() + "' already exists");
+		}
+
+		final char[] password = trustStorePassword == null ? new char[0] : trustStorePassword;
+		final KeyStore keyStore;
+		final Set<String> knownFingerprints = new HashSet<>();
+		if (trustStoreFile.exists()) {
+			keyStore = readKeyStore(trustStoreFile, password);
+			for (final String alias : Collections.list(keyStore.aliases())) {
+				final Certificate certificate = keyStore.getCertificate(alias);
+				if (certificate != null) {
+					knownFingerprints.add(getSha256Fingerprint(certificate));
+				}
+			}
+		} else {
+			keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+			keyStore.load(null);
+		}
+
+		final List<TlsScanResult> scanResults = new ArrayList<>();
+		for (final Entry<String, X509Certificate> entry : readServerCertificates(targets, parallelism, knownFingerprints, scanResults).entrySet()) {
+			String alias = entry.getKey();
+			for (int i = 2; keyStore.containsAlias(alias); i++) {
+				alias = entry.getKey() + "_" + i;
+			}
+			keyStore.setCertificateEntry(alias, entry.getValue());
+		}
+
+		AtomicFileWriter.write(trustStoreFile, outputStream -> keyStore.store(outputStream, password));
+		return scanResults;
+	}
+
+	/**
+	 * Create a PEM bundle file with the server certificates of many targets ("host:port" or "host" for port 443).<br />
+	 * The certificates are read in parallel, deduplicated by their SHA-256 fingerprint and written in a single pass.
+	 * Targets, which cannot be read, are skipped and can be found in the returned scan results.
+	 *
+	 * @param mergeIntoExistingFile keep the certificates of an existing PEM file and only add new certificates
+	 * @return scan results of all targets
+	 */
+	public static List<TlsScanResult> createPemBundleFile(final Iterable<String> targets, final File pemFile, final boolean mergeIntoExistingFile, final int parallelism) throws Exception {
+		if (pemFile.exists() && !mergeIntoExistingFile) {
+			throw new Exception("File '" + pemFile.getAbsolutePath() + "' already exists");
+		}
+
+		final List<X509Certificate> certificates = new ArrayList<>();
+		final Set<String> knownFingerprints = new HashSet<>();
+		if (pemFile.exists()) {
+			for (final X509Certificate certificate : PemBundleTrustManager.readCertificates(pemFile)) {
+				if (knownFingerprints.add(getSha256Fingerprint(certificate))) {
+					certificates.add(certificate);
+				}
+			}
+		}
+
+		final List<TlsScanResult> scanResults = new ArrayList<>();
+		certificates.addAll(readServerCertificates(targets, parallelism, knownFingerprints, scanResults).values());
+
+		AtomicFileWriter.write(pemFile, outputStream -> {
+			// The writer is not closed, so the output stream stays open to be synced
+			final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.US_ASCII));
+			for (final X509Certificate certificate : certificates) {
+				writer.write("-----BEGIN CERTIFICATE-----\n");
+				writer.write(Base64.getMimeEncoder(64, "\n".getBytes()).encodeToString(certificate.getEncoded()));
+				writer.write("\n-----END CERTIFICATE-----\n");
+			}
+			writer.flush();
+		});
+		return scanResults;
+	}
+
+	/**
+	 * Read the server certificates of all targets in parallel
+	 *
+	 * @param knownFingerprints fingerprints of certificates to skip, the new fingerprints are added
+	 * @return new certificates by the host they were first read from
+	 */
+	private static Map<String, X509Certificate> readServerCertificates(final Iterable<String> targets, final int parallelism, final Set<String> knownFingerprints, final List<TlsScanResult> scanResults) throws Exception {
+		new TlsCertificateScanner().setParallelism(parallelism).scan(targets, scanResults::add);
+
+		// Keep the order of the targets, so the written file does not depend on the timing of the handshakes
+		final Map<String, Integer> targetIndexes = new LinkedHashMap<>();
+		for (final String target : targets) {
+			targetIndexes.putIfAbsent(target, targetIndexes.size());
+		}
+		scanResults.sort((result1, result2) -> Integer.compare(targetIndexes.getOrDefault(result1.getTarget(), -1), targetIndexes.getOrDefault(result2.getTarget(), -1)));
+
+		final Map<String, X509Certificate> certificates = new LinkedHashMap<>();
+		for (final TlsScanResult scanResult : scanResults) {
+			final X509Certificate certificate = scanResult.getServerCertificate();
+			if (certificate != null && knownFingerprints.add(getSha256Fingerprint(certificate))) {
+				String alias = scanResult.getHost().toLowerCase();
+				for (int i = 2; certificates.containsKey(alias); i++) {
+					alias = scanResult.getHost().toLowerCase() + "_" + i;
+				}
+				certificates.put(alias, certificate);
+			}
+		}
+		return certificates;
+	}
+
+	private static String getSha256Fingerprint(final Certificate certificate) throws Exception {
+		return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded()));
+	}
 }
@@ -30,6 +30,7 @@ import javax.net.ssl.X509TrustManager;
  */
 public class TruststoreTrustManager implements X509TrustManager {
 	private final X509TrustManager trustManager;
+	private final long cacheScope = ValidatedChainCache.createScope();
 
 	public TruststoreTrustManager(final File trustStoreFile, final char[] trustStorePassword) throws Exception {
 		final KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
@@ -56,12 +57,20 @@ public class TruststoreTrustManager implements X509TrustManager {
 
 	@Override
 	public void checkClientTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
-		trustManager.checkClientTrusted(chain, authType);
+		final String cacheKey = ValidatedChainCache.createKey(cacheScope, chain, authType, false);
+		if (!ValidatedChainCache.getSharedInstance().isValidated(cacheKey)) {
+			trustManager.checkClientTrusted(chain, authType);
+			ValidatedChainCache.getSharedInstance().addValidated(cacheKey, chain);
+		}
 	}
 
 	@Override
 	public void checkServerTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
-		trustManager.checkServerTrusted(chain, authType);
+		final String cacheKey = ValidatedChainCache.createKey(cacheScope, chain, authType, true);
+		if (!ValidatedChainCache.getSharedInstance().isValidated(cacheKey)) {
+			trustManager.checkServerTrusted(chain, authType);
+			ValidatedChainCache.getSharedInstance().addValidated(cacheKey, chain);
+		}
 	}
 
 	@Override
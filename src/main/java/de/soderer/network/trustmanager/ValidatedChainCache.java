@@ -0,0 +1,134 @@
+package de.soderer.network.trustmanager;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded and time limited cache of successfully validated certificate chains, keyed by the SHA-256 fingerprint of the chain,
+ * the auth type and the validating TrustManager.<br />
+ * A cached validation expires after the time to live or, if earlier, at the end of the validity of any certificate of the chain.
+ * The least recently used validations are removed, when the maximum number of entries is exceeded.<br />
+ * The shared instance is used by all validating TrustManagers of this package.
+ */
+public class ValidatedChainCache {
+	private static final ValidatedChainCache SHARED_INSTANCE = new ValidatedChainCache(1000, 10 * 60 * 1000);
+	private static final AtomicLong nextScope = new AtomicLong(0);
+
+	private int maximumEntries;
+	private long timeToLiveMillis;
+
+	/**
+	 * Validations by key with their expiry time in milliseconds since epoch
+	 */
+	private final LinkedHashMap<String, Long> validations = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 4096514233517313431L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, Long> eldest) {
+			return size() > maximumEntries;
+		}
+	};
+
+	private final AtomicLong hitsCount = new AtomicLong(0);
+	private final AtomicLong missesCount = new AtomicLong(0);
+
+	public static ValidatedChainCache getSharedInstance() {
+		return SHARED_INSTANCE;
+	}
+
+	/**
+	 * Unique scope of a TrustManager, so validations of different truststores are kept apart
+	 */
+	static long createScope() {
+		return nextScope.incrementAndGet();
+	}
+
+	public ValidatedChainCache(final int maximumEntries, final long timeToLiveMillis) {
+		this.maximumEntries = maximumEntries;
+		this.timeToLiveMillis = timeToLiveMillis;
+	}
+
+	/**
+	 * Maximum number of cached validations (default 1000) and their time to live (default 10 minutes)
+	 */
+	public synchronized ValidatedChainCache setLimits(final int maximumEntries, final long timeToLiveMillis) {
+		this.maximumEntries = maximumEntries;
+		this.timeToLiveMillis = timeToLiveMillis;
+		while (validations.size() > maximumEntries) {
+			validations.remove(validations.keySet().iterator().next());
+		}
+
+		return this;
+	}
+
+	public long getHitsCount() {
+		return hitsCount.get();
+	}
+
+	public long getMissesCount() {
+		return missesCount.get();
+	}
+
+	public synchronized int getSize() {
+		return validations.size();
+	}
+
+	public synchronized void clear() {
+		validations.clear();
+	}
+
+	/**
+	 * Key of a chain validation or null, if the chain cannot be encoded
+	 *
+	 * @param serverCheck server or client certificate check
+	 */
+	static String createKey(final long scope, final X509Certificate[] chain, final String authType, final boolean serverCheck) {
+		if (chain == null || chain.length == 0) {
+			return null;
+		}
+		try {
+			final MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+			for (final X509Certificate certificate : chain) {
+				messageDigest.update(certificate.getEncoded());
+			}
+			return scope + (serverCheck ? " server " : " client ") + authType + " " + HexFormat.of().formatHex(messageDigest.digest());
+		} catch (@SuppressWarnings("unused") final CertificateEncodingException | NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+
+	synchronized boolean isValidated(final String key) {
+		if (key == null) {
+			return false;
+		}
+		final Long expiryMillis = validations.get(key);
+		if (expiryMillis == null) {
+			missesCount.incrementAndGet();
+			return false;
+		} else if (expiryMillis <= System.currentTimeMillis()) {
+			validations.remove(key);
+			missesCount.incrementAndGet();
+			return false;
+		} else {
+			hitsCount.incrementAndGet();
+			return true;
+		}
+	}
+
+	synchronized void addValidated(final String key, final X509Certificate[] chain) {
+		if (key == null || maximumEntries <= 0) {
+			return;
+		}
+		long expiryMillis = System.currentTimeMillis() + timeToLiveMillis;
+		for (final X509Certificate certificate : chain) {
+			expiryMillis = Math.min(expiryMillis, certificate.getNotAfter().getTime());
+		}
+		validations.put(key, expiryMillis);
+	}
+}
@@ -0,0 +1,49 @@
+package de.soderer.network.utilities;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Replaces files atomically: The content is written to a temporary file in the same directory, synced to disk and moved over the file.<br />
+ * Readers never see a partially written file, even if the process is killed while writing.
+ */
+public class AtomicFileWriter {
+	/**
+	 * Writes the content of the file
+	 */
+	public interface ContentWriter {
+		void write(OutputStream outputStream) throws Exception;
+	}
+
+	/**
+	 * Write the file by a temporary file, which replaces it by an atomic move (or a simple move, if the file system does not support atomic moves)
+	 */
+	public static void write(final File file, final ContentWriter contentWriter) throws Exception {
+		final File tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+		try {
+			try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+				contentWriter.write(outputStream);
+				outputStream.flush();
+				outputStream.getFD().sync();
+			}
+			moveReplacing(tempFile, file);
+		} finally {
+			Files.deleteIfExists(tempFile.toPath());
+		}
+	}
+
+	/**
+	 * Move a file to its destination and replace an existing destination file atomically, if the file system supports it
+	 */
+	private static void moveReplacing(final File sourceFile, final File destinationFile) throws Exception {
+		try {
+			Files.move(sourceFile.toPath(), destinationFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (@SuppressWarnings("unused") final AtomicMoveNotSupportedException e) {
+			Files.move(sourceFile.toPath(), destinationFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
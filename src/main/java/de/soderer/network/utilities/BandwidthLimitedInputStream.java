@@ -0,0 +1,51 @@
+package de.soderer.network.utilities;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * InputStream waiting for the bandwidth limiters after each read
+ */
+public class BandwidthLimitedInputStream extends FilterInputStream {
+	private final List<BandwidthLimiter> bandwidthLimiters;
+
+	public BandwidthLimitedInputStream(final InputStream inputStream, final List<BandwidthLimiter> bandwidthLimiters) {
+		super(inputStream);
+		this.bandwidthLimiters = bandwidthLimiters;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int value = super.read();
+		if (value >= 0) {
+			acquire(1);
+		}
+		return value;
+	}
+
+	@Override
+	public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+		final int bytesRead = super.read(buffer, offset, length);
+		if (bytesRead > 0) {
+			acquire(bytesRead);
+		}
+		return bytesRead;
+	}
+
+	@Override
+	public long skip(final long bytes) throws IOException {
+		final long bytesSkipped = super.skip(bytes);
+		if (bytesSkipped > 0) {
+			acquire(bytesSkipped);
+		}
+		return bytesSkipped;
+	}
+
+	private void acquire(final long bytes) throws IOException {
+		for (final BandwidthLimiter bandwidthLimiter : bandwidthLimiters) {
+			bandwidthLimiter.acquire(bytes);
+		}
+	}
+}
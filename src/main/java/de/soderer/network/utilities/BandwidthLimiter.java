@@ -0,0 +1,106 @@
+package de.soderer.network.utilities;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket limiting the throughput of all transfers sharing it.<br />
+ * Data is granted in slices of at most the burst size and waiting transfers are served in arrival order per slice,
+ * so concurrent transfers get equal shares of the bandwidth.<br />
+ *<br />
+ * Usage example:
+ *
+ * <pre>
+ * HttpUtilities.setGlobalBandwidthLimiter(new BandwidthLimiter(10 * 1024 * 1024));
+ * new HttpRequest(HttpMethod.GET, url).setDownloadFile(file).setMaximumBytesPerSecond(1024 * 1024);
+ * </pre>
+ */
+public class BandwidthLimiter {
+	private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+	private final ReentrantLock lock = new ReentrantLock(true);
+	private volatile long bytesPerSecond;
+	private final long burstBytes;
+
+	private double availableBytes;
+	private long lastRefillNanos;
+
+	/**
+	 * Burst size of 100 milliseconds of throughput, but at least 16 KB
+	 */
+	public BandwidthLimiter(final long bytesPerSecond) {
+		this(bytesPerSecond, Math.max(16 * 1024, bytesPerSecond / 10));
+	}
+
+	/**
+	 * @param burstBytes maximum bytes granted at once after a pause
+	 */
+	public BandwidthLimiter(final long bytesPerSecond, final long burstBytes) {
+		if (bytesPerSecond <= 0) {
+			throw new IllegalArgumentException("Invalid bytes per second: " + bytesPerSecond);
+		} else if (burstBytes <= 0) {
+			throw new IllegalArgumentException("Invalid burst bytes: " + burstBytes);
+		}
+		this.bytesPerSecond = bytesPerSecond;
+		this.burstBytes = burstBytes;
+		availableBytes = burstBytes;
+		lastRefillNanos = System.nanoTime();
+	}
+
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Change the limit of running transfers
+	 */
+	public void setBytesPerSecond(final long bytesPerSecond) {
+		if (bytesPerSecond <= 0) {
+			throw new IllegalArgumentException("Invalid bytes per second: " + bytesPerSecond);
+		}
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	public long getBurstBytes() {
+		return burstBytes;
+	}
+
+	/**
+	 * Wait until the given number of bytes may be transferred
+	 */
+	public void acquire(final long bytes) throws InterruptedIOException {
+		long remainingBytes = bytes;
+		while (remainingBytes > 0) {
+			final long sliceBytes = Math.min(remainingBytes, burstBytes);
+			acquireSlice(sliceBytes);
+			remainingBytes -= sliceBytes;
+		}
+	}
+
+	private void acquireSlice(final long sliceBytes) throws InterruptedIOException {
+		try {
+			// The fair lock queues waiting transfers in arrival order, the first one sleeps until its slice is available
+			lock.lockInterruptibly();
+			try {
+				refill();
+				while (availableBytes < sliceBytes) {
+					TimeUnit.NANOSECONDS.sleep((long) Math.ceil((sliceBytes - availableBytes) * NANOS_PER_SECOND / bytesPerSecond));
+					refill();
+				}
+				availableBytes -= sliceBytes;
+			} finally {
+				lock.unlock();
+			}
+		} catch (@SuppressWarnings("unused") final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+		}
+	}
+
+	private void refill() {
+		final long nowNanos = System.nanoTime();
+		availableBytes = Math.min(burstBytes, availableBytes + (double) (nowNanos - lastRefillNanos) * bytesPerSecond / NANOS_PER_SECOND);
+		lastRefillNanos = nowNanos;
+	}
+}
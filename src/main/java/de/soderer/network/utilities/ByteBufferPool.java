@@ -0,0 +1,79 @@
+package de.soderer.network.utilities;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of equally sized ByteBuffers to avoid reallocation of (direct) buffers for each connection or request<br />
+ * Buffers with a different capacity than the pools buffer size are not taken back into the pool.
+ */
+public class ByteBufferPool {
+	private final int bufferSize;
+	private final int maximumPooledBuffers;
+	private final boolean direct;
+
+	private final ConcurrentLinkedQueue<ByteBuffer> pooledBuffers = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pooledBuffersCount = new AtomicInteger(0);
+
+	public ByteBufferPool(final int bufferSize, final int maximumPooledBuffers, final boolean direct) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+		}
+		this.bufferSize = bufferSize;
+		this.maximumPooledBuffers = maximumPooledBuffers;
+		this.direct = direct;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public boolean isDirect() {
+		return direct;
+	}
+
+	public int getPooledBuffersCount() {
+		return pooledBuffersCount.get();
+	}
+
+	/**
+	 * Take a cleared buffer from the pool or allocate a new one, if the pool is empty
+	 */
+	public ByteBuffer acquire() {
+		final ByteBuffer buffer = pooledBuffers.poll();
+		if (buffer != null) {
+			pooledBuffersCount.decrementAndGet();
+			buffer.clear();
+			return buffer;
+		} else if (direct) {
+			return ByteBuffer.allocateDirect(bufferSize);
+		} else {
+			return ByteBuffer.allocate(bufferSize);
+		}
+	}
+
+	/**
+	 * Take a buffer with at least the given capacity. Larger buffers than the pools buffer size are not pooled.
+	 */
+	public ByteBuffer acquire(final int minimumCapacity) {
+		if (minimumCapacity <= bufferSize) {
+			return acquire();
+		} else if (direct) {
+			return ByteBuffer.allocateDirect(minimumCapacity);
+		} else {
+			return ByteBuffer.allocate(minimumCapacity);
+		}
+	}
+
+	public void release(final ByteBuffer buffer) {
+		if (buffer != null && buffer.capacity() == bufferSize && buffer.isDirect() == direct) {
+			if (pooledBuffersCount.incrementAndGet() <= maximumPooledBuffers) {
+				buffer.clear();
+				pooledBuffers.offer(buffer);
+			} else {
+				pooledBuffersCount.decrementAndGet();
+			}
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package de.soderer.network.utilities;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * InputStream adding the number of read bytes to a counter
+ */
+public class CountingInputStream extends FilterInputStream {
+	private final LongAdder byteCounter;
+
+	public CountingInputStream(final InputStream inputStream, final LongAdder byteCounter) {
+		super(inputStream);
+		this.byteCounter = byteCounter;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int readByte = super.read();
+		if (readByte >= 0) {
+			byteCounter.increment();
+		}
+		return readByte;
+	}
+
+	@Override
+	public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+		final int bytesRead = super.read(buffer, offset, length);
+		if (bytesRead > 0) {
+			byteCounter.add(bytesRead);
+		}
+		return bytesRead;
+	}
+
+	@Override
+	public long skip(final long length) throws IOException {
+		final long bytesSkipped = super.skip(length);
+		if (bytesSkipped > 0) {
+			byteCounter.add(bytesSkipped);
+		}
+		return bytesSkipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
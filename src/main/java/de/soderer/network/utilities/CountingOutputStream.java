@@ -0,0 +1,30 @@
+package de.soderer.network.utilities;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * OutputStream adding the number of written bytes to a counter
+ */
+public class CountingOutputStream extends FilterOutputStream {
+	private final LongAdder byteCounter;
+
+	public CountingOutputStream(final OutputStream outputStream, final LongAdder byteCounter) {
+		super(outputStream);
+		this.byteCounter = byteCounter;
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		out.write(b);
+		byteCounter.increment();
+	}
+
+	@Override
+	public void write(final byte[] data, final int offset, final int length) throws IOException {
+		out.write(data, offset, length);
+		byteCounter.add(length);
+	}
+}
@@ -0,0 +1,311 @@
+package de.soderer.network.utilities;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.zip.Checksum;
+
+/**
+ * Copies data from a stream or channel into another one.<br />
+ * Data read from files into channels or files is transferred by FileChannel.transferTo and data read from channels into files by FileChannel.transferFrom,
+ * so the operating system may move it without copying it through the Java heap.
+ * All other data is copied by pooled buffers, which grow while the source keeps delivering completely filled buffers.<br />
+ * Digests, checksums and bandwidth limits are applied while the data passes the buffers, so FileChannel transfers are not used for them.<br />
+ *<br />
+ * Usage example:
+ *
+ * <pre>
+ * long bytesCopied = new DataTransfer(inputStream, outputStream).setTransferMonitor(new TransferMonitor(null, -1).setProgressListener(listener)).setCancelSignal(httpRequest::isCancelled).transfer();
+ * </pre>
+ */
+public class DataTransfer {
+	private static final ByteBufferPool[] BUFFER_POOLS = {
+		new ByteBufferPool(8 * 1024, 64, false),
+		new ByteBufferPool(64 * 1024, 32, false),
+		new ByteBufferPool(256 * 1024, 8, false),
+		new ByteBufferPool(1024 * 1024, 4, false)
+	};
+
+	/**
+	 * Number of consecutive completely filled reads before the next larger buffer is used
+	 */
+	private static final int FULL_READS_BEFORE_GROWTH = 4;
+
+	/**
+	 * Maximum bytes per FileChannel transfer call, so cancellation and progress are checked in between
+	 */
+	private static final long CHANNEL_TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+
+	private final InputStream inputStream;
+	private final OutputStream outputStream;
+	private final ReadableByteChannel sourceChannel;
+	private final WritableByteChannel targetChannel;
+
+	private TransferMonitor transferMonitor = null;
+	private BooleanSupplier cancelSignal = null;
+	private boolean flush = true;
+	private final List<MessageDigest> messageDigests = new ArrayList<>();
+	private final List<Checksum> checksums = new ArrayList<>();
+	private final List<BandwidthLimiter> bandwidthLimiters = new ArrayList<>();
+
+	private volatile long transferredBytes = 0;
+
+	public DataTransfer(final InputStream inputStream, final OutputStream outputStream) {
+		if (inputStream == null) {
+			throw new IllegalArgumentException("Missing input stream");
+		} else if (outputStream == null) {
+			throw new IllegalArgumentException("Missing output stream");
+		}
+		this.inputStream = inputStream;
+		this.outputStream = outputStream;
+		sourceChannel = inputStream instanceof FileInputStream ? ((FileInputStream) inputStream).getChannel() : null;
+		targetChannel = outputStream instanceof FileOutputStream ? ((FileOutputStream) outputStream).getChannel() : null;
+	}
+
+	public DataTransfer(final ReadableByteChannel sourceChannel, final WritableByteChannel targetChannel) {
+		if (sourceChannel == null) {
+			throw new IllegalArgumentException("Missing source channel");
+		} else if (targetChannel == null) {
+			throw new IllegalArgumentException("Missing target channel");
+		}
+		inputStream = null;
+		outputStream = null;
+		this.sourceChannel = sourceChannel;
+		this.targetChannel = targetChannel;
+	}
+
+	/**
+	 * Monitor for progress notifications and stall detection. Its expected bytes are also used to choose the buffer sizes.
+	 */
+	public DataTransfer setTransferMonitor(final TransferMonitor transferMonitor) {
+		this.transferMonitor = transferMonitor;
+
+		return this;
+	}
+
+	/**
+	 * The transfer is aborted by an IOException, when the cancel signal returns true
+	 */
+	public DataTransfer setCancelSignal(final BooleanSupplier cancelSignal) {
+		this.cancelSignal = cancelSignal;
+
+		return this;
+	}
+
+	/**
+	 * Flush the output stream after the transfer (default true)
+	 */
+	public DataTransfer setFlush(final boolean flush) {
+		this.flush = flush;
+
+		return this;
+	}
+
+	/**
+	 * Update the digest with all transferred data
+	 */
+	public DataTransfer addMessageDigest(final MessageDigest messageDigest) {
+		messageDigests.add(messageDigest);
+
+		return this;
+	}
+
+	/**
+	 * Update the checksum (like CRC32C) with all transferred data
+	 */
+	public DataTransfer addChecksum(final Checksum checksum) {
+		checksums.add(checksum);
+
+		return this;
+	}
+
+	/**
+	 * Wait for the bandwidth limiter before writing each read data
+	 */
+	public DataTransfer addBandwidthLimiter(final BandwidthLimiter bandwidthLimiter) {
+		bandwidthLimiters.add(bandwidthLimiter);
+
+		return this;
+	}
+
+	public long getTransferredBytes() {
+		return transferredBytes;
+	}
+
+	/**
+	 * Copy all data until the end of the source is reached
+	 *
+	 * @return number of bytes transferred
+	 */
+	public long transfer() throws IOException {
+		final boolean bufferCopyRequired = !messageDigests.isEmpty() || !checksums.isEmpty() || !bandwidthLimiters.isEmpty();
+		if (sourceChannel instanceof FileChannel && targetChannel != null && !bufferCopyRequired) {
+			transferFromFile((FileChannel) sourceChannel, targetChannel);
+		} else if (targetChannel instanceof FileChannel && inputStream == null && !bufferCopyRequired) {
+			transferToFile(sourceChannel, (FileChannel) targetChannel);
+		} else if (inputStream != null) {
+			copyStreams();
+		} else {
+			copyChannels();
+		}
+
+		if (flush && outputStream != null) {
+			outputStream.flush();
+		}
+		if (transferMonitor != null) {
+			transferMonitor.finish();
+		}
+		return transferredBytes;
+	}
+
+	public static long copy(final InputStream inputStream, final OutputStream outputStream) throws IOException {
+		return new DataTransfer(inputStream, outputStream).transfer();
+	}
+
+	private void transferFromFile(final FileChannel fileChannel, final WritableByteChannel target) throws IOException {
+		long position = fileChannel.position();
+		try {
+			final long size = fileChannel.size();
+			while (position < size) {
+				checkCancelled();
+				final long bytesTransferred = fileChannel.transferTo(position, Math.min(CHANNEL_TRANSFER_CHUNK_SIZE, size - position), target);
+				if (bytesTransferred <= 0) {
+					break;
+				}
+				position += bytesTransferred;
+				addTransferredBytes(bytesTransferred);
+			}
+		} finally {
+			// FileChannel.transferTo does not change the position of the source channel
+			fileChannel.position(position);
+		}
+	}
+
+	private void transferToFile(final ReadableByteChannel source, final FileChannel fileChannel) throws IOException {
+		long position = fileChannel.position();
+		try {
+			while (true) {
+				checkCancelled();
+				final long bytesTransferred = fileChannel.transferFrom(source, position, CHANNEL_TRANSFER_CHUNK_SIZE);
+				if (bytesTransferred <= 0) {
+					break;
+				}
+				position += bytesTransferred;
+				addTransferredBytes(bytesTransferred);
+			}
+		} finally {
+			// FileChannel.transferFrom does not change the position of the target channel
+			fileChannel.position(position);
+		}
+	}
+
+	private void copyStreams() throws IOException {
+		int poolIndex = 0;
+		ByteBuffer buffer = BUFFER_POOLS[poolIndex].acquire();
+		try {
+			int fullReadsCount = 0;
+			while (true) {
+				checkCancelled();
+				final int bytesRead = inputStream.read(buffer.array(), buffer.arrayOffset(), buffer.capacity());
+				if (bytesRead < 0) {
+					break;
+				}
+				acquireBandwidth(bytesRead);
+				outputStream.write(buffer.array(), buffer.arrayOffset(), bytesRead);
+				updateDigests(buffer.array(), buffer.arrayOffset(), bytesRead);
+				addTransferredBytes(bytesRead);
+
+				if (bytesRead == buffer.capacity() && isGrowthUseful(poolIndex) && ++fullReadsCount >= FULL_READS_BEFORE_GROWTH) {
+					BUFFER_POOLS[poolIndex].release(buffer);
+					poolIndex++;
+					buffer = BUFFER_POOLS[poolIndex].acquire();
+					fullReadsCount = 0;
+				} else if (bytesRead < buffer.capacity()) {
+					fullReadsCount = 0;
+				}
+			}
+		} finally {
+			BUFFER_POOLS[poolIndex].release(buffer);
+		}
+	}
+
+	private void copyChannels() throws IOException {
+		int poolIndex = 0;
+		ByteBuffer buffer = BUFFER_POOLS[poolIndex].acquire();
+		try {
+			int fullReadsCount = 0;
+			while (true) {
+				checkCancelled();
+				buffer.clear();
+				final int bytesRead = sourceChannel.read(buffer);
+				if (bytesRead < 0) {
+					break;
+				}
+				acquireBandwidth(bytesRead);
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					targetChannel.write(buffer);
+				}
+				updateDigests(buffer.array(), buffer.arrayOffset(), bytesRead);
+				addTransferredBytes(bytesRead);
+
+				if (bytesRead == buffer.capacity() && isGrowthUseful(poolIndex) && ++fullReadsCount >= FULL_READS_BEFORE_GROWTH) {
+					BUFFER_POOLS[poolIndex].release(buffer);
+					poolIndex++;
+					buffer = BUFFER_POOLS[poolIndex].acquire();
+					fullReadsCount = 0;
+				} else if (bytesRead < buffer.capacity()) {
+					fullReadsCount = 0;
+				}
+			}
+		} finally {
+			BUFFER_POOLS[poolIndex].release(buffer);
+		}
+	}
+
+	/**
+	 * A larger buffer is only useful, if there is a larger buffer size and the remaining expected data does not fit into the current buffer size
+	 */
+	private boolean isGrowthUseful(final int poolIndex) {
+		final long expectedBytes = transferMonitor == null ? -1 : transferMonitor.getExpectedBytes();
+		return poolIndex + 1 < BUFFER_POOLS.length && (expectedBytes < 0 || expectedBytes - transferredBytes > BUFFER_POOLS[poolIndex].getBufferSize());
+	}
+
+	private void updateDigests(final byte[] data, final int offset, final int length) {
+		for (final MessageDigest messageDigest : messageDigests) {
+			messageDigest.update(data, offset, length);
+		}
+		for (final Checksum checksum : checksums) {
+			checksum.update(data, offset, length);
+		}
+	}
+
+	private void acquireBandwidth(final int bytes) throws IOException {
+		for (final BandwidthLimiter bandwidthLimiter : bandwidthLimiters) {
+			bandwidthLimiter.acquire(bytes);
+		}
+	}
+
+	private void checkCancelled() throws IOException {
+		if (cancelSignal != null && cancelSignal.getAsBoolean()) {
+			throw new IOException("Data transfer was cancelled after " + transferredBytes + " bytes");
+		}
+	}
+
+	private void addTransferredBytes(final long bytes) throws IOException {
+		transferredBytes += bytes;
+		if (transferMonitor != null) {
+			transferMonitor.update(bytes);
+		}
+	}
+}
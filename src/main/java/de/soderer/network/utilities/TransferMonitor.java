@@ -0,0 +1,120 @@
+package de.soderer.network.utilities;
+
+import java.io.IOException;
+
+import de.soderer.network.utilities.TransferProgress.Direction;
+
+/**
+ * Counts the transferred bytes of one transfer, notifies a TransferProgressListener at most once per progress interval
+ * and aborts stalled transfers.<br />
+ * A transfer is stalled, if its throughput stays below the minimum bytes per second for the whole stall time.
+ * Reads blocking without any data are still limited by the read timeout of the connection.
+ */
+public class TransferMonitor {
+	private static final long NANOS_PER_MILLI = 1_000_000L;
+
+	private final Direction direction;
+	private final long expectedBytes;
+	private TransferProgressListener progressListener = null;
+	private long progressIntervalMillis = 500;
+	private long stallMinimumBytesPerSecond = 0;
+	private long stallTimeMillis = 0;
+
+	private final long startNanos = System.nanoTime();
+	private volatile long transferredBytes = 0;
+	private long lastReportNanos = startNanos;
+	private long lastReportedBytes = 0;
+	private long stallWindowStartNanos = startNanos;
+	private long stallWindowStartBytes = 0;
+
+	/**
+	 * @param direction direction of a http transfer or null
+	 * @param expectedBytes total bytes expected or -1, if unknown
+	 */
+	public TransferMonitor(final Direction direction, final long expectedBytes) {
+		this.direction = direction;
+		this.expectedBytes = expectedBytes;
+	}
+
+	public TransferMonitor setProgressListener(final TransferProgressListener progressListener) {
+		this.progressListener = progressListener;
+
+		return this;
+	}
+
+	/**
+	 * Minimum time between two progress notifications (default 500 milliseconds). The final progress is always notified.
+	 */
+	public TransferMonitor setProgressIntervalMillis(final long progressIntervalMillis) {
+		this.progressIntervalMillis = progressIntervalMillis;
+
+		return this;
+	}
+
+	/**
+	 * Abort the transfer by an IOException, when less than minimumBytesPerSecond are transferred for stallTimeMillis
+	 */
+	public TransferMonitor setStallDetection(final long minimumBytesPerSecond, final long stallTimeMillis) {
+		stallMinimumBytesPerSecond = minimumBytesPerSecond;
+		this.stallTimeMillis = stallTimeMillis;
+
+		return this;
+	}
+
+	public long getExpectedBytes() {
+		return expectedBytes;
+	}
+
+	public long getTransferredBytes() {
+		return transferredBytes;
+	}
+
+	/**
+	 * Count transferred bytes
+	 */
+	public void update(final long bytes) throws IOException {
+		transferredBytes += bytes;
+		if (progressListener == null && stallTimeMillis <= 0) {
+			return;
+		}
+
+		final long nowNanos = System.nanoTime();
+		if (stallTimeMillis > 0 && nowNanos - stallWindowStartNanos >= stallTimeMillis * NANOS_PER_MILLI) {
+			final long windowBytesPerSecond = getBytesPerSecond(transferredBytes - stallWindowStartBytes, nowNanos - stallWindowStartNanos);
+			if (windowBytesPerSecond < stallMinimumBytesPerSecond) {
+				throw new IOException("Transfer stalled with " + windowBytesPerSecond + " bytes/s for " + stallTimeMillis + " ms after " + transferredBytes + " bytes");
+			}
+			stallWindowStartNanos = nowNanos;
+			stallWindowStartBytes = transferredBytes;
+		}
+
+		if (progressListener != null && nowNanos - lastReportNanos >= progressIntervalMillis * NANOS_PER_MILLI) {
+			report(nowNanos, false);
+		}
+	}
+
+	/**
+	 * Notify the final progress
+	 */
+	public void finish() {
+		if (progressListener != null) {
+			report(System.nanoTime(), true);
+		}
+	}
+
+	private void report(final long nowNanos, final boolean finished) {
+		final long currentBytesPerSecond = getBytesPerSecond(transferredBytes - lastReportedBytes, nowNanos - lastReportNanos);
+		final long averageBytesPerSecond = getBytesPerSecond(transferredBytes, nowNanos - startNanos);
+		lastReportNanos = nowNanos;
+		lastReportedBytes = transferredBytes;
+		progressListener.transferProgress(new TransferProgress(direction, transferredBytes, expectedBytes, (nowNanos - startNanos) / NANOS_PER_MILLI, currentBytesPerSecond, averageBytesPerSecond, finished));
+	}
+
+	private static long getBytesPerSecond(final long bytes, final long nanos) {
+		if (nanos <= 0) {
+			return 0;
+		} else {
+			return (long) (bytes * 1_000_000_000d / nanos);
+		}
+	}
+}
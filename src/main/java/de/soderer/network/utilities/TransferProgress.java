@@ -0,0 +1,86 @@
+package de.soderer.network.utilities;
+
+/**
+ * State of a running or finished data transfer
+ */
+public class TransferProgress {
+	public enum Direction {
+		Upload,
+		Download
+	}
+
+	private final Direction direction;
+	private final long transferredBytes;
+	private final long expectedBytes;
+	private final long elapsedMillis;
+	private final long currentBytesPerSecond;
+	private final long averageBytesPerSecond;
+	private final boolean finished;
+
+	public TransferProgress(final Direction direction, final long transferredBytes, final long expectedBytes, final long elapsedMillis, final long currentBytesPerSecond, final long averageBytesPerSecond, final boolean finished) {
+		this.direction = direction;
+		this.transferredBytes = transferredBytes;
+		this.expectedBytes = expectedBytes;
+		this.elapsedMillis = elapsedMillis;
+		this.currentBytesPerSecond = currentBytesPerSecond;
+		this.averageBytesPerSecond = averageBytesPerSecond;
+		this.finished = finished;
+	}
+
+	/**
+	 * Direction of the transfer or null, if it is no http transfer
+	 */
+	public Direction getDirection() {
+		return direction;
+	}
+
+	public long getTransferredBytes() {
+		return transferredBytes;
+	}
+
+	/**
+	 * Total bytes expected, like the Content-Length of a response, or -1, if unknown
+	 */
+	public long getExpectedBytes() {
+		return expectedBytes;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * Throughput since the previous progress notification
+	 */
+	public long getCurrentBytesPerSecond() {
+		return currentBytesPerSecond;
+	}
+
+	/**
+	 * Throughput since the start of the transfer
+	 */
+	public long getAverageBytesPerSecond() {
+		return averageBytesPerSecond;
+	}
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Percentage of the expected bytes transferred or -1, if the expected bytes are unknown
+	 */
+	public int getPercentage() {
+		if (expectedBytes <= 0) {
+			return finished ? 100 : -1;
+		} else {
+			return (int) Math.min(100, transferredBytes * 100 / expectedBytes);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return (direction == null ? "" : direction.name() + " ") + transferredBytes + (expectedBytes >= 0 ? "/" + expectedBytes : "") + " bytes, "
+				+ currentBytesPerSecond + " bytes/s current, " + averageBytesPerSecond + " bytes/s average" + (finished ? ", finished" : "");
+	}
+}
@@ -0,0 +1,8 @@
+package de.soderer.network.utilities;
+
+/**
+ * Receives the progress of a data transfer
+ */
+public interface TransferProgressListener {
+	void transferProgress(TransferProgress transferProgress);
+}
@@ -0,0 +1,112 @@
+package de.soderer.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.soderer.network.AdaptiveConcurrencyLimiter;
+import de.soderer.network.HttpContentType;
+import de.soderer.network.HttpMethod;
+import de.soderer.network.HttpRequest;
+import de.soderer.network.HttpUtilities;
+import de.soderer.network.SocketHttpClientEngine;
+import de.soderer.network.metrics.MetricsRegistry;
+import de.soderer.network.server.HttpServer;
+import de.soderer.network.server.HttpServerResponse;
+
+@SuppressWarnings("static-method")
+public class AdaptiveConcurrencyLimiterTest {
+	@Test
+	public void testAdaptiveConcurrencyLimiter() throws Exception {
+		final MetricsRegistry metricsRegistry = new MetricsRegistry();
+		try (HttpServer server = new HttpServer(0)) {
+			server.addHandler("/overloaded", request -> new HttpServerResponse(503, "Overloaded", HttpContentType.Text));
+			server.addHandler("/slow", request -> {
+				Thread.sleep(300);
+				return new HttpServerResponse(200, "Slow", HttpContentType.Text);
+			});
+			server.start();
+			final String baseUrl = "http://localhost:" + server.getPort();
+			final String host = "localhost:" + server.getPort();
+
+			// AIMD reduces the limit on each drop
+			final AdaptiveConcurrencyLimiter aimdLimiter = new AdaptiveConcurrencyLimiter(AdaptiveConcurrencyLimiter.Algorithm.AIMD).setLimits(20, 2, 100).setBackoffRatio(0.5).setMetricsRegistry(metricsRegistry);
+			HttpUtilities.setConcurrencyLimiter(aimdLimiter);
+			try {
+				for (int i = 0; i < 3; i++) {
+					Assert.assertEquals(503, HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, baseUrl + "/overloaded")).getHttpCode());
+				}
+				Assert.assertEquals(2, aimdLimiter.getLimit(host));
+				Assert.assertEquals(2, metricsRegistry.getGaugeValue("http_client_concurrency_limit", "host", host));
+			} finally {
+				HttpUtilities.setConcurrencyLimiter(null);
+			}
+
+			// Requests exceeding the limit are rejected without queue and wait with queue
+			for (final int maximumQueueSize : new int[] { 0, 2 }) {
+				final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(AdaptiveConcurrencyLimiter.Algorithm.Gradient).setLimits(1, 1, 1).setQueue(maximumQueueSize, 5000);
+				HttpUtilities.setConcurrencyLimiter(limiter);
+				try {
+					final List<Thread> threads = new ArrayList<>();
+					final AtomicInteger successCount = new AtomicInteger(0);
+					final AtomicInteger rejectedCount = new AtomicInteger(0);
+					for (int i = 0; i < 3; i++) {
+						threads.add(new Thread(() -> {
+							try {
+								if (HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, baseUrl + "/slow")).getHttpCode() == 200) {
+									successCount.incrementAndGet();
+								}
+							} catch (@SuppressWarnings("unused") final Exception e) {
+								rejectedCount.incrementAndGet();
+							}
+						}));
+					}
+					for (final Thread thread : threads) {
+						thread.start();
+					}
+					for (final Thread thread : threads) {
+						thread.join();
+					}
+					if (maximumQueueSize == 0) {
+						Assert.assertEquals(1, successCount.get());
+						Assert.assertEquals(2, rejectedCount.get());
+					} else {
+						Assert.assertEquals(3, successCount.get());
+						Assert.assertEquals(0, rejectedCount.get());
+					}
+					Assert.assertEquals(0, limiter.getInFlight(host));
+				} finally {
+					HttpUtilities.setConcurrencyLimiter(null);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testRedirectWithinPermit() throws Exception {
+		try (HttpServer server = new HttpServer(0);
+				SocketHttpClientEngine engine = new SocketHttpClientEngine()) {
+			server.addHandler("/redirect", request -> new HttpServerResponse(302).addHeader("Location", "/target"));
+			server.addHandler("/target", request -> new HttpServerResponse(200, "Target", HttpContentType.Text));
+			server.start();
+			final String baseUrl = "http://localhost:" + server.getPort();
+			final String host = "localhost:" + server.getPort();
+
+			// A redirected request uses the permit of its original request instead of waiting for a second one
+			final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(AdaptiveConcurrencyLimiter.Algorithm.Gradient).setLimits(1, 1, 1).setQueue(0, 0);
+			HttpUtilities.setConcurrencyLimiter(limiter);
+			try {
+				Assert.assertEquals("Target", HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, baseUrl + "/redirect").setFollowRedirects(true)).getContent());
+				HttpUtilities.setHttpClientEngine(engine);
+				Assert.assertEquals("Target", HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, baseUrl + "/redirect").setFollowRedirects(true)).getContent());
+				Assert.assertEquals(0, limiter.getInFlight(host));
+			} finally {
+				HttpUtilities.setHttpClientEngine(null);
+				HttpUtilities.setConcurrencyLimiter(null);
+			}
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package de.soderer.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.soderer.network.CertificateExpiryMonitor;
+import de.soderer.network.CertificateExpiryMonitor.CertificateEvent;
+import de.soderer.network.CertificateExpiryMonitor.CertificateEventType;
+import de.soderer.network.HttpContentType;
+import de.soderer.network.server.HttpServer;
+import de.soderer.network.server.HttpServerResponse;
+import de.soderer.network.server.TlsServerConfiguration;
+
+@SuppressWarnings("static-method")
+public class CertificateExpiryMonitorTest {
+	private static File testDirectory;
+	private static File keyStoreFile;
+	private static final char[] KEYSTORE_PASSWORD = TestKeyStores.KEYSTORE_PASSWORD;
+
+	@BeforeClass
+	public static void createTestFiles() throws Exception {
+		testDirectory = TestKeyStores.getTestDirectory();
+		keyStoreFile = TestKeyStores.getServerKeyStoreFile();
+	}
+
+	@Test
+	public void testCertificateExpiryMonitor() throws Exception {
+		final File stateFile = new File(testDirectory, "certificate-monitor.state");
+		stateFile.delete();
+		final TlsServerConfiguration tlsServerConfiguration = new TlsServerConfiguration(keyStoreFile, KEYSTORE_PASSWORD);
+		try (HttpServer server = new HttpServer(0)) {
+			server.setTlsServerConfiguration(tlsServerConfiguration);
+			server.addHandler("/", request -> new HttpServerResponse(200, "Root", HttpContentType.Text));
+			server.start();
+			final String target = "localhost:" + server.getPort();
+			final String closedTarget = "localhost:" + TestKeyStores.getClosedPort();
+
+			final List<CertificateEvent> events = new ArrayList<>();
+			try (CertificateExpiryMonitor monitor = new CertificateExpiryMonitor(stateFile, events::add).setTimeouts(2000, 5000)) {
+				monitor.addEndpoint(target).addEndpoint(closedTarget);
+				Assert.assertEquals(2, monitor.getDueEndpointsCount());
+				Assert.assertEquals(2, monitor.scanDueEndpoints());
+
+				// The test certificate is valid for 2 days only, so it is within the expiry warning period
+				Assert.assertEquals(3, events.size());
+				Assert.assertEquals(1, events.stream().filter(event -> event.getType() == CertificateEventType.New && event.getTarget().equals(target)).count());
+				Assert.assertEquals(1, events.stream().filter(event -> event.getType() == CertificateEventType.Expiring && event.getTarget().equals(target)).count());
+				Assert.assertEquals(1, events.stream().filter(event -> event.getType() == CertificateEventType.Error && event.getTarget().equals(closedTarget)).count());
+				Assert.assertNotNull(monitor.getFingerprint(target));
+				Assert.assertTrue(monitor.getNextScanMillis(target) > System.currentTimeMillis() + 20 * 60 * 60 * 1000);
+
+				// Nothing is due anymore
+				Assert.assertEquals(0, monitor.scanDueEndpoints());
+			}
+			Assert.assertTrue(stateFile.exists());
+
+			// A restarted monitor continues with the saved state
+			events.clear();
+			final String knownFingerprint;
+			try (CertificateExpiryMonitor monitor = new CertificateExpiryMonitor(stateFile, events::add).setTimeouts(2000, 5000)) {
+				Assert.assertEquals(2, monitor.getEndpointsCount());
+				Assert.assertEquals(0, monitor.getDueEndpointsCount());
+				knownFingerprint = monitor.getFingerprint(target);
+				Assert.assertNotNull(knownFingerprint);
+			}
+
+			// Simulate a different certificate seen before, which is due for a rescan
+			final List<String> stateLines = new ArrayList<>();
+			for (final String line : Files.readAllLines(stateFile.toPath(), StandardCharsets.UTF_8)) {
+				if (line.startsWith(target + "\t")) {
+					final String[] values = line.split("\t", -1);
+					values[1] = "00";
+					values[5] = "0";
+					stateLines.add(String.join("\t", values));
+				} else {
+					stateLines.add(line);
+				}
+			}
+			Files.write(stateFile.toPath(), stateLines, StandardCharsets.UTF_8);
+			try (CertificateExpiryMonitor monitor = new CertificateExpiryMonitor(stateFile, events::add).setTimeouts(2000, 5000)) {
+				Assert.assertEquals(1, monitor.scanDueEndpoints());
+				Assert.assertEquals(CertificateEventType.Changed, events.get(0).getType());
+				Assert.assertEquals("00", events.get(0).getPreviousFingerprint());
+				Assert.assertEquals(knownFingerprint, monitor.getFingerprint(target));
+			}
+		} finally {
+			stateFile.delete();
+		}
+	}
+
+	@Test
+	public void testBackgroundScanError() throws Exception {
+		// The state file cannot be written into a missing directory
+		final File stateFile = new File(testDirectory, "missingDirectory/certificate-monitor.state");
+		final CertificateExpiryMonitor monitor = new CertificateExpiryMonitor(stateFile, event -> {
+			// no events expected
+		}).setTimeouts(500, 500).addEndpoint("localhost:" + TestKeyStores.getClosedPort());
+		monitor.start(50);
+		for (int i = 0; i < 100 && monitor.getLastScanError() == null; i++) {
+			Thread.sleep(50);
+		}
+		Assert.assertNotNull(monitor.getLastScanError());
+
+		try {
+			monitor.close();
+			Assert.fail("Missing expected exception");
+		} catch (@SuppressWarnings("unused") final IOException e) {
+			// expected
+		}
+	}
+}
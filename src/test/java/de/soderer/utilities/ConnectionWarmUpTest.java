@@ -0,0 +1,122 @@
+package de.soderer.utilities;
+
+import java.io.File;
+import java.security.KeyStore;
+import java.util.List;
+
+import javax.net.ssl.X509TrustManager;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.soderer.network.ClientKeyConfiguration;
+import de.soderer.network.ConnectionWarmUpResult;
+import de.soderer.network.HttpContentType;
+import de.soderer.network.HttpMethod;
+import de.soderer.network.HttpRequest;
+import de.soderer.network.HttpUtilities;
+import de.soderer.network.SocketHttpClientEngine;
+import de.soderer.network.TlsCheckConfiguration;
+import de.soderer.network.TlsCheckConfiguration.TlsCheckConfigurationType;
+import de.soderer.network.server.HttpServer;
+import de.soderer.network.server.HttpServerResponse;
+import de.soderer.network.server.TlsServerConfiguration;
+import de.soderer.network.server.TlsServerConfiguration.ClientAuthentication;
+import de.soderer.network.trustmanager.KeyManagerRegistry;
+import de.soderer.network.trustmanager.TrustManagerRegistry;
+import de.soderer.network.trustmanager.TrustManagerUtilities;
+
+@SuppressWarnings("static-method")
+public class ConnectionWarmUpTest {
+	private static File keyStoreFile;
+	private static final char[] KEYSTORE_PASSWORD = TestKeyStores.KEYSTORE_PASSWORD;
+
+	@BeforeClass
+	public static void createTestFiles() throws Exception {
+		keyStoreFile = TestKeyStores.getServerKeyStoreFile();
+	}
+
+	@Test
+	public void testConnectionWarmUp() throws Exception {
+		final TlsServerConfiguration tlsServerConfiguration = new TlsServerConfiguration(keyStoreFile, KEYSTORE_PASSWORD);
+		final X509TrustManager trustManager = TrustManagerUtilities.createTrustAllTrustManager();
+		try (HttpServer server = new HttpServer(0);
+				SocketHttpClientEngine engine = new SocketHttpClientEngine()) {
+			server.setTlsServerConfiguration(tlsServerConfiguration);
+			server.addHandler("/", request -> new HttpServerResponse(200, "Warm", HttpContentType.Text));
+			server.start();
+			final String origin = "https://localhost:" + server.getPort();
+			final String closedOrigin = "https://localhost:" + TestKeyStores.getClosedPort();
+
+			final List<ConnectionWarmUpResult> results = engine.warmUp(List.of(origin, closedOrigin), trustManager, true, 3, 2000);
+			Assert.assertEquals(2, results.size());
+			Assert.assertEquals(origin, results.get(0).getOrigin());
+			Assert.assertTrue(results.get(0).isSuccessful());
+			Assert.assertEquals(3, results.get(0).getOpenedConnectionsCount());
+			Assert.assertTrue(results.get(0).getFirstConnectionMillis() >= 0);
+			Assert.assertFalse(results.get(1).isSuccessful());
+			Assert.assertEquals(0, results.get(1).getOpenedConnectionsCount());
+			Assert.assertEquals(3, engine.getIdleConnectionsCount());
+
+			// Warming up again only tops up the missing connections
+			Assert.assertEquals(0, engine.warmUp(List.of(origin), trustManager, true, 3, 2000).get(0).getOpenedConnectionsCount());
+
+			// Requests use the parked connections
+			for (int i = 0; i < 3; i++) {
+				Assert.assertEquals("Warm", engine.executeHttpRequest(new HttpRequest(HttpMethod.GET, origin + "/"), trustManager, true).getContent());
+			}
+			Assert.assertEquals(3, engine.getOpenedConnectionsCount());
+			Assert.assertEquals(3, engine.getReusedConnectionsCount());
+
+			// Without SocketHttpClientEngine only DNS and the TLS session cache are warmed up
+			final List<ConnectionWarmUpResult> httpUrlConnectionResults = HttpUtilities.warmUpConnections(List.of(origin), trustManager, true, 3, 2000);
+			Assert.assertTrue(httpUrlConnectionResults.get(0).isSuccessful());
+			Assert.assertEquals(0, httpUrlConnectionResults.get(0).getOpenedConnectionsCount());
+			Assert.assertTrue(httpUrlConnectionResults.get(0).getFirstConnectionMillis() >= 0);
+			Assert.assertEquals("Warm", HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, origin + "/"), null, trustManager, true).getContent());
+		}
+	}
+
+	@Test
+	public void testConnectionWarmUpWithClientKey() throws Exception {
+		final File clientKeyStoreFile = TestKeyStores.createKeyStoreFile("warmup-client.p12", "client", "CN=warmup-client", "EKU=clientAuth");
+		final KeyStore clientKeyStore = TrustManagerUtilities.readKeyStore(clientKeyStoreFile, KEYSTORE_PASSWORD);
+		final File clientsTrustStoreFile = TestKeyStores.createTrustStoreFile("warmup-clients.p12", clientKeyStore.getCertificate("client"));
+		final ClientKeyConfiguration clientKeyConfiguration = new ClientKeyConfiguration(clientKeyStoreFile, KEYSTORE_PASSWORD);
+
+		final TlsServerConfiguration tlsServerConfiguration = new TlsServerConfiguration(keyStoreFile, KEYSTORE_PASSWORD)
+				.setClientAuthentication(ClientAuthentication.Required, new TlsCheckConfiguration(TlsCheckConfigurationType.TrustStoreFile, clientsTrustStoreFile, KEYSTORE_PASSWORD));
+		final X509TrustManager trustManager = TrustManagerUtilities.createTrustAllTrustManager();
+		try (HttpServer server = new HttpServer(0);
+				SocketHttpClientEngine engine = new SocketHttpClientEngine()) {
+			server.setTlsServerConfiguration(tlsServerConfiguration);
+			server.addHandler("/", request -> new HttpServerResponse(200, request.getPeerCertificates()[0].getSubjectX500Principal().getName(), HttpContentType.Text));
+			server.start();
+			final String origin = "https://localhost:" + server.getPort();
+
+			// Without SocketHttpClientEngine the TLS session cache of the SSLContext of the client key configuration is warmed up
+			final List<ConnectionWarmUpResult> httpUrlConnectionResults = HttpUtilities.warmUpConnections(List.of(origin), trustManager, clientKeyConfiguration, true, 2, 2000);
+			Assert.assertTrue(httpUrlConnectionResults.get(0).isSuccessful());
+			Assert.assertEquals("CN=warmup-client", HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, origin + "/").setClientKeyConfiguration(clientKeyConfiguration), null, trustManager, true).getContent());
+
+			// With SocketHttpClientEngine the connections are parked on the route of the client key configuration
+			HttpUtilities.setHttpClientEngine(engine);
+			try {
+				final List<ConnectionWarmUpResult> engineResults = HttpUtilities.warmUpConnections(List.of(origin), trustManager, clientKeyConfiguration, true, 2, 2000);
+				Assert.assertTrue(engineResults.get(0).isSuccessful());
+				Assert.assertEquals(2, engineResults.get(0).getOpenedConnectionsCount());
+				for (int i = 0; i < 2; i++) {
+					Assert.assertEquals("CN=warmup-client", HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, origin + "/").setClientKeyConfiguration(clientKeyConfiguration), null, trustManager, true).getContent());
+				}
+				Assert.assertEquals(2, engine.getOpenedConnectionsCount());
+				Assert.assertEquals(2, engine.getReusedConnectionsCount());
+			} finally {
+				HttpUtilities.setHttpClientEngine(null);
+			}
+		} finally {
+			KeyManagerRegistry.clear();
+			TrustManagerRegistry.clear();
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package de.soderer.utilities;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.soderer.network.DownloadCache;
+import de.soderer.network.HttpContentType;
+import de.soderer.network.HttpMethod;
+import de.soderer.network.HttpRequest;
+import de.soderer.network.HttpResponse;
+import de.soderer.network.HttpUtilities;
+import de.soderer.network.SocketHttpClientEngine;
+import de.soderer.network.server.HttpServer;
+import de.soderer.network.server.HttpServerResponse;
+import de.soderer.network.server.StaticFileHandler;
+
+@SuppressWarnings("static-method")
+public class DownloadCacheTest {
+	private static File testDirectory;
+
+	@BeforeClass
+	public static void createTestFiles() throws Exception {
+		testDirectory = TestKeyStores.getTestDirectory();
+	}
+
+	@Test
+	public void testDownloadDigests() throws Exception {
+		final byte[] data = new byte[200 * 1024];
+		new Random(2).nextBytes(data);
+		final String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+		final CRC32C crc32c = new CRC32C();
+		crc32c.update(data);
+		final String crc32cValue = HexFormat.of().toHexDigits((int) crc32c.getValue());
+
+		try (HttpServer server = new HttpServer(0);
+				SocketHttpClientEngine engine = new SocketHttpClientEngine()) {
+			server.addHandler("/data", request -> new HttpServerResponse(200).setContent(data, HttpContentType.Binary.getStringRepresentation()));
+			server.start();
+			final String url = "http://localhost:" + server.getPort() + "/data";
+
+			for (final SocketHttpClientEngine currentEngine : new SocketHttpClientEngine[] { null, engine }) {
+				HttpUtilities.setHttpClientEngine(currentEngine);
+				try {
+					final File downloadFile = new File(testDirectory, "digestDownload.bin");
+					final HttpResponse response = HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, url)
+							.setDownloadFile(downloadFile)
+							.addDownloadDigest("SHA-256", sha256.toUpperCase())
+							.addDownloadDigest("CRC32C"));
+					Assert.assertEquals(200, response.getHttpCode());
+					Assert.assertEquals(sha256, response.getDownloadDigests().get("SHA-256"));
+					Assert.assertEquals(crc32cValue, response.getDownloadDigests().get("CRC32C"));
+					Assert.assertEquals(data.length, downloadFile.length());
+
+					try {
+						HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, url)
+								.setDownloadFile(downloadFile)
+								.addDownloadDigest("SHA-256", sha256.replace(sha256.charAt(0), sha256.charAt(0) == '0' ? '1' : '0')));
+						Assert.fail("Missing expected exception");
+					} catch (final Exception e) {
+						Assert.assertTrue(e.getMessage().contains("mismatch"));
+					}
+					Assert.assertFalse(downloadFile.exists());
+				} finally {
+					HttpUtilities.setHttpClientEngine(null);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testDownloadCache() throws Exception {
+		final byte[] data = new byte[100 * 1024];
+		new Random(3).nextBytes(data);
+		final byte[] otherData = new byte[100 * 1024];
+		new Random(4).nextBytes(otherData);
+		final String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+
+		final File cacheStaticDirectory = new File(testDirectory, "cacheStatic");
+		cacheStaticDirectory.mkdirs();
+		Files.write(new File(cacheStaticDirectory, "a.bin").toPath(), data);
+		Files.write(new File(cacheStaticDirectory, "b.bin").toPath(), data);
+		Files.write(new File(cacheStaticDirectory, "c.bin").toPath(), otherData);
+
+		final DownloadCache downloadCache = new DownloadCache(new File(testDirectory, "downloadCache"), 250 * 1024);
+		try (HttpServer server = new HttpServer(0)) {
+			server.addHandler("/static/", new StaticFileHandler(cacheStaticDirectory, "/static/"));
+			server.addHandler("/slow", request -> {
+				Thread.sleep(500);
+				final byte[] slowData = new byte[100 * 1024];
+				new Random(5).nextBytes(slowData);
+				return new HttpServerResponse(200).setContent(slowData, HttpContentType.Binary.getStringRepresentation());
+			});
+			server.start();
+			final String baseUrl = "http://localhost:" + server.getPort();
+
+			HttpUtilities.setDownloadCache(downloadCache);
+			try {
+				final File targetFile = new File(testDirectory, "cachedA.bin");
+				Assert.assertEquals(200, HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, baseUrl + "/static/a.bin").setDownloadFile(targetFile)).getHttpCode());
+				Assert.assertArrayEquals(data, Files.readAllBytes(targetFile.toPath()));
+				Assert.assertEquals(1, downloadCache.getMissesCount());
+
+				// Revalidated by ETag
+				final File otherTargetFile = new File(testDirectory, "cachedA2.bin");
+				Assert.assertEquals(200, HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, baseUrl + "/static/a.bin").setDownloadFile(otherTargetFile)).getHttpCode());
+				Assert.assertArrayEquals(data, Files.readAllBytes(otherTargetFile.toPath()));
+				Assert.assertEquals(1, downloadCache.getHitsCount());
+
+				// Same content of another URL is stored only once
+				Assert.assertEquals(200, HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, baseUrl + "/static/b.bin").setDownloadFile(new File(testDirectory, "cachedB.bin"))).getHttpCode());
+				Assert.assertEquals(1, downloadCache.getContentFilesCount());
+
+				// Known content by expected digest is provided without network access
+				final File digestTargetFile = new File(testDirectory, "cachedDigest.bin");
+				final HttpResponse digestResponse = HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, baseUrl + "/static/missing.bin").addDownloadDigest("SHA-256", sha256).setDownloadFile(digestTargetFile));
+				Assert.assertEquals(200, digestResponse.getHttpCode());
+				Assert.assertEquals(sha256, digestResponse.getDownloadDigests().get("SHA-256"));
+				Assert.assertArrayEquals(data, Files.readAllBytes(digestTargetFile.toPath()));
+				Assert.assertEquals(2, downloadCache.getHitsCount());
+
+				Assert.assertEquals(200, HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, baseUrl + "/static/c.bin").setDownloadFile(new File(testDirectory, "cachedC.bin"))).getHttpCode());
+
+				// Concurrent downloads of the same URL are coalesced
+				final List<Thread> threads = new ArrayList<>();
+				final List<Exception> errors = new ArrayList<>();
+				for (int i = 0; i < 4; i++) {
+					final File slowTargetFile = new File(testDirectory, "cachedSlow" + i + ".bin");
+					threads.add(new Thread(() -> {
+						try {
+							HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, baseUrl + "/slow").setDownloadFile(slowTargetFile));
+						} catch (final Exception e) {
+							synchronized (errors) {
+								errors.add(e);
+							}
+						}
+					}));
+				}
+				for (final Thread thread : threads) {
+					thread.start();
+				}
+				for (final Thread thread : threads) {
+					thread.join();
+				}
+				Assert.assertTrue(errors.isEmpty());
+				Assert.assertTrue(downloadCache.getCoalescedDownloadsCount() >= 1);
+				for (int i = 0; i < 4; i++) {
+					Assert.assertEquals(100 * 1024, new File(testDirectory, "cachedSlow" + i + ".bin").length());
+				}
+
+				// The least recently used content is evicted to keep the maximum size
+				Assert.assertEquals(1, downloadCache.getEvictionsCount());
+				Assert.assertEquals(2, downloadCache.getContentFilesCount());
+				Assert.assertArrayEquals(data, Files.readAllBytes(targetFile.toPath()));
+			} finally {
+				HttpUtilities.setDownloadCache(null);
+			}
+		}
+	}
+
+	@Test
+	public void testDownloadCacheIsolation() throws Exception {
+		final byte[] data = new byte[10 * 1024];
+		new Random(6).nextBytes(data);
+		final String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+
+		final File isolationStaticDirectory = new File(testDirectory, "isolationStatic");
+		isolationStaticDirectory.mkdirs();
+		Files.write(new File(isolationStaticDirectory, "a.bin").toPath(), data);
+
+		final File cacheDirectory = new File(testDirectory, "isolationCache");
+		final DownloadCache downloadCache = new DownloadCache(cacheDirectory, 1024 * 1024);
+		try (HttpServer server = new HttpServer(0)) {
+			server.addHandler("/static/", new StaticFileHandler(isolationStaticDirectory, "/static/"));
+			server.start();
+			final String url = "http://localhost:" + server.getPort() + "/static/a.bin";
+
+			HttpUtilities.setDownloadCache(downloadCache);
+			try {
+				final File targetFile = new File(testDirectory, "isolationA.bin");
+				Assert.assertEquals(200, HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, url).addHeader("Authorization", "Bearer user1").setDownloadFile(targetFile)).getHttpCode());
+				Assert.assertEquals(1, downloadCache.getMissesCount());
+
+				// Download files are copies by default, so modifying them does not change the cached content
+				Files.write(targetFile.toPath(), new byte[] { 1, 2, 3 });
+				Assert.assertEquals(200, HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, url).addHeader("Authorization", "Bearer user1").setDownloadFile(targetFile)).getHttpCode());
+				Assert.assertArrayEquals(data, Files.readAllBytes(targetFile.toPath()));
+				Assert.assertEquals(1, downloadCache.getHitsCount());
+
+				// Another user does not revalidate the content known by the first user
+				Assert.assertEquals(200, HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, url).addHeader("Authorization", "Bearer user2").setDownloadFile(targetFile)).getHttpCode());
+				Assert.assertEquals(2, downloadCache.getMissesCount());
+				Assert.assertEquals(1, downloadCache.getHitsCount());
+				Assert.assertEquals(1, downloadCache.getContentFilesCount());
+
+				// Corrupted cached content is not provided for an expected digest, but downloaded again
+				final File contentFile = new File(cacheDirectory, "content/" + sha256);
+				Files.write(contentFile.toPath(), new byte[data.length]);
+				final HttpResponse digestResponse = HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, url).addDownloadDigest("SHA-256", sha256).setDownloadFile(targetFile));
+				Assert.assertEquals(200, digestResponse.getHttpCode());
+				Assert.assertArrayEquals(data, Files.readAllBytes(targetFile.toPath()));
+				Assert.assertArrayEquals(data, Files.readAllBytes(contentFile.toPath()));
+				Assert.assertEquals(3, downloadCache.getMissesCount());
+
+				// Linked content files are read-only
+				downloadCache.setUseHardLinks(true);
+				final File linkedTargetFile = new File(testDirectory, "isolationLinked.bin");
+				Assert.assertEquals(200, HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, url).addDownloadDigest("SHA-256", sha256).setDownloadFile(linkedTargetFile)).getHttpCode());
+				Assert.assertArrayEquals(data, Files.readAllBytes(linkedTargetFile.toPath()));
+				if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+					Assert.assertFalse(Files.getPosixFilePermissions(contentFile.toPath()).contains(PosixFilePermission.OWNER_WRITE));
+				}
+			} finally {
+				HttpUtilities.setDownloadCache(null);
+			}
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package de.soderer.utilities;
+
+import java.lang.management.ManagementFactory;
+
+import de.soderer.network.HttpContentType;
+import de.soderer.network.HttpMethod;
+import de.soderer.network.HttpRequest;
+import de.soderer.network.HttpResponse;
+import de.soderer.network.HttpUtilities;
+import de.soderer.network.SocketHttpClientEngine;
+import de.soderer.network.server.HttpServer;
+import de.soderer.network.server.HttpServerResponse;
+
+/**
+ * Compares the allocated heap bytes and the duration per request of HttpURLConnection and the SocketHttpClientEngine against the embedded HttpServer.<br />
+ * Usage: java de.soderer.utilities.HttpClientEngineBenchmark [requestsCount]
+ */
+public class HttpClientEngineBenchmark {
+	public static void main(final String[] arguments) throws Exception {
+		final int requestsCount = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 20000;
+		final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+		try (HttpServer server = new HttpServer(0);
+				SocketHttpClientEngine socketHttpClientEngine = new SocketHttpClientEngine()) {
+			server.addHandler("/", request -> new HttpServerResponse(200, "Hello", HttpContentType.Text).addHeader("Cache-Control", "no-cache"));
+			server.start();
+			final String url = "http://localhost:" + server.getPort() + "/small?parameter=value";
+
+			for (int round = 0; round < 2; round++) {
+				// The first round is a warmup for the JIT compiler
+				final boolean printResults = round > 0;
+				runBenchmark("HttpURLConnection", null, url, printResults ? requestsCount : requestsCount / 4, printResults, threadMXBean);
+				runBenchmark("SocketHttpClientEngine", socketHttpClientEngine, url, printResults ? requestsCount : requestsCount / 4, printResults, threadMXBean);
+			}
+		} finally {
+			HttpUtilities.setHttpClientEngine(null);
+		}
+	}
+
+	private static void runBenchmark(final String engineName, final SocketHttpClientEngine engine, final String url, final int requestsCount, final boolean printResults, final com.sun.management.ThreadMXBean threadMXBean) throws Exception {
+		HttpUtilities.setHttpClientEngine(engine);
+		final long threadId = Thread.currentThread().getId();
+		final long allocatedBytesStart = threadMXBean.getThreadAllocatedBytes(threadId);
+		final long startNanos = System.nanoTime();
+		for (int i = 0; i < requestsCount; i++) {
+			final HttpResponse response = HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, url).addHeader("Accept", "text/plain"));
+			if (response.getHttpCode() != 200) {
+				throw new Exception("Unexpected response: " + response.getHttpCode());
+			}
+		}
+		final long durationNanos = System.nanoTime() - startNanos;
+		final long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBytesStart;
+		if (printResults) {
+			System.out.println(String.format("%-24s %8d requests, %8d bytes allocated per request, %6d us per request", engineName, requestsCount, allocatedBytes / requestsCount, durationNanos / 1000 / requestsCount));
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package de.soderer.utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.soderer.network.HttpContentType;
+import de.soderer.network.HttpMethod;
+import de.soderer.network.HttpRequest;
+import de.soderer.network.HttpRequestScheduler;
+import de.soderer.network.HttpRequestScheduler.Priority;
+import de.soderer.network.HttpResponse;
+import de.soderer.network.server.HttpServer;
+import de.soderer.network.server.HttpServerResponse;
+
+@SuppressWarnings("static-method")
+public class HttpRequestSchedulerTest {
+	@Test
+	public void testHttpRequestScheduler() throws Exception {
+		final List<String> executionOrder = new ArrayList<>();
+		try (HttpServer server = new HttpServer(0);
+				HttpRequestScheduler scheduler = new HttpRequestScheduler(1)) {
+			server.addHandler("/work", request -> {
+				synchronized (executionOrder) {
+					executionOrder.add(request.getUrlParameter("name"));
+				}
+				Thread.sleep(100);
+				return new HttpServerResponse(200, "Done " + request.getUrlParameter("name"), HttpContentType.Text);
+			});
+			server.start();
+			final String url = "http://localhost:" + server.getPort() + "/work";
+
+			final List<CompletableFuture<HttpResponse>> futures = new ArrayList<>();
+			futures.add(scheduler.submit(new HttpRequest(HttpMethod.GET, url).addUrlParameter("name", "blocker"), Priority.Normal, "a", 0));
+			futures.add(scheduler.submit(new HttpRequest(HttpMethod.GET, url).addUrlParameter("name", "lowA1"), Priority.Low, "a", 0));
+			futures.add(scheduler.submit(new HttpRequest(HttpMethod.GET, url).addUrlParameter("name", "lowA2"), Priority.Low, "a", 0));
+			futures.add(scheduler.submit(new HttpRequest(HttpMethod.GET, url).addUrlParameter("name", "lowA3"), Priority.Low, "a", 0));
+			futures.add(scheduler.submit(new HttpRequest(HttpMethod.GET, url).addUrlParameter("name", "lowB1"), Priority.Low, "b", 0));
+			final CompletableFuture<HttpResponse> expiringFuture = scheduler.submit(new HttpRequest(HttpMethod.GET, url).addUrlParameter("name", "expiring"), Priority.Normal, "c", System.currentTimeMillis() + 30);
+			futures.add(scheduler.submit(new HttpRequest(HttpMethod.GET, url).addUrlParameter("name", "high"), Priority.High, "b", 0));
+
+			for (final CompletableFuture<HttpResponse> future : futures) {
+				Assert.assertEquals(200, future.get().getHttpCode());
+			}
+			try {
+				expiringFuture.get();
+				Assert.fail("Missing expected exception");
+			} catch (final ExecutionException e) {
+				Assert.assertTrue(e.getCause().getMessage().contains("expired"));
+			}
+			Assert.assertEquals(1, scheduler.getExpiredRequestsCount());
+
+			// Higher priority first, keys of one priority class alternate
+			Assert.assertEquals(Arrays.asList("blocker", "high", "lowA1", "lowB1", "lowA2", "lowA3"), executionOrder);
+
+			Assert.assertEquals("Done sync", scheduler.execute(new HttpRequest(HttpMethod.GET, url).addUrlParameter("name", "sync"), Priority.Normal, null, System.currentTimeMillis() + 5000).getContent());
+			Assert.assertEquals(0, scheduler.getQueuedCount());
+			Assert.assertEquals(0, scheduler.getRunningCount(Priority.Normal));
+		}
+	}
+
+	@Test
+	public void testHttpRequestSchedulerCancellation() throws Exception {
+		try (HttpServer server = new HttpServer(0)) {
+			server.addHandler("/work", request -> {
+				Thread.sleep(300);
+				return new HttpServerResponse(200, "Done", HttpContentType.Text);
+			});
+			server.start();
+			final String url = "http://localhost:" + server.getPort() + "/work";
+
+			final HttpRequestScheduler scheduler = new HttpRequestScheduler(1);
+			final CompletableFuture<HttpResponse> blockerFuture = scheduler.submit(new HttpRequest(HttpMethod.GET, url), Priority.Normal, null, 0);
+
+			// An interrupted waiting caller removes its request from the queue
+			final AtomicReference<Exception> waitingError = new AtomicReference<>();
+			final Thread waitingThread = new Thread(() -> {
+				try {
+					scheduler.execute(new HttpRequest(HttpMethod.GET, url), Priority.Normal, null, 0);
+				} catch (final Exception e) {
+					waitingError.set(e);
+				}
+			});
+			waitingThread.start();
+			while (scheduler.getQueuedCount() == 0) {
+				Thread.sleep(10);
+			}
+			waitingThread.interrupt();
+			waitingThread.join();
+			Assert.assertTrue(waitingError.get() instanceof InterruptedException);
+			Assert.assertEquals(0, scheduler.getQueuedCount());
+			Assert.assertEquals(200, blockerFuture.get().getHttpCode());
+
+			// Requests submitted after close are rejected without keeping their slot
+			scheduler.close();
+			try {
+				scheduler.submit(new HttpRequest(HttpMethod.GET, url), Priority.Normal, null, 0).get();
+				Assert.fail("Missing expected exception");
+			} catch (final ExecutionException e) {
+				Assert.assertTrue(e.getCause().getMessage().contains("closed"));
+			}
+			Assert.assertEquals(0, scheduler.getRunningCount(Priority.Normal));
+			Assert.assertEquals("Done", scheduler.execute(new HttpRequest(HttpMethod.GET, url), Priority.Normal, null, System.currentTimeMillis() + 5000).getContent());
+		}
+	}
+}
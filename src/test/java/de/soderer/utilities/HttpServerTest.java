@@ -0,0 +1,197 @@
+package de.soderer.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.zip.GZIPInputStream;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.soderer.network.HttpConstants;
+import de.soderer.network.HttpContentType;
+import de.soderer.network.HttpMethod;
+import de.soderer.network.HttpRequest;
+import de.soderer.network.HttpResponse;
+import de.soderer.network.HttpUtilities;
+import de.soderer.network.server.HttpServer;
+import de.soderer.network.server.HttpServerResponse;
+import de.soderer.network.server.StaticFileHandler;
+import de.soderer.network.server.TlsServerConfiguration;
+import de.soderer.network.trustmanager.TrustManagerUtilities;
+
+@SuppressWarnings("static-method")
+public class HttpServerTest {
+	private static File testDirectory;
+	private static File keyStoreFile;
+	private static final char[] KEYSTORE_PASSWORD = TestKeyStores.KEYSTORE_PASSWORD;
+
+	@BeforeClass
+	public static void createTestFiles() throws Exception {
+		testDirectory = TestKeyStores.getTestDirectory();
+		keyStoreFile = TestKeyStores.getServerKeyStoreFile();
+	}
+
+	@Test
+	public void testPlainRequests() throws Exception {
+		try (HttpServer server = new HttpServer(0)) {
+			server.addHandler("/", request -> new HttpServerResponse(200, "Root", HttpContentType.Text));
+			server.addHandler("/echo", request -> new HttpServerResponse(200, request.getRequestMethod().name() + " " + request.getUrlParameter("name") + " " + request.getBodyAsString(), HttpContentType.Text));
+			server.start();
+
+			final HttpResponse getResponse = HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, "http://localhost:" + server.getPort() + "/echo").addUrlParameter("name", "test"));
+			Assert.assertEquals(200, getResponse.getHttpCode());
+			Assert.assertEquals("GET test ", getResponse.getContent());
+
+			final HttpResponse postResponse = HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.POST, "http://localhost:" + server.getPort() + "/echo?name=x").setRequestBody("Body data"));
+			Assert.assertEquals(200, postResponse.getHttpCode());
+			Assert.assertEquals("POST x Body data", postResponse.getContent());
+
+			final HttpResponse rootResponse = HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, "http://localhost:" + server.getPort() + "/other"));
+			Assert.assertEquals("Root", rootResponse.getContent());
+			Assert.assertNull(server.getLastError());
+		}
+	}
+
+	@Test
+	public void testTlsRequests() throws Exception {
+		final TlsServerConfiguration tlsServerConfiguration = new TlsServerConfiguration(keyStoreFile, KEYSTORE_PASSWORD).setSessionCacheSize(100);
+		try (HttpServer server = new HttpServer(0)) {
+			server.setTlsServerConfiguration(tlsServerConfiguration);
+			server.addHandler("/", request -> new HttpServerResponse(200, request.getTlsProtocol() + " " + request.getApplicationProtocol(), HttpContentType.Text));
+			server.addHandler("/large", request -> new HttpServerResponse(200).setContent(new byte[1024 * 1024], HttpContentType.Binary.getStringRepresentation()));
+			server.start();
+
+			for (int i = 0; i < 3; i++) {
+				final HttpResponse response = HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, "https://localhost:" + server.getPort() + "/"), null, TrustManagerUtilities.createTrustAllTrustManager(), true);
+				Assert.assertEquals(200, response.getHttpCode());
+				Assert.assertTrue(response.getContent().startsWith("TLSv1."));
+			}
+
+			final File downloadFile = new File(testDirectory, "download.bin");
+			final HttpResponse downloadResponse = HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, "https://localhost:" + server.getPort() + "/large").setDownloadFile(downloadFile), null, TrustManagerUtilities.createTrustAllTrustManager(), true);
+			Assert.assertEquals(200, downloadResponse.getHttpCode());
+			Assert.assertEquals(1024 * 1024, downloadFile.length());
+		}
+	}
+
+	@Test
+	public void testTlsReload() throws Exception {
+		final File rotatingKeyStoreFile = new File(testDirectory, "rotating.p12");
+		Files.copy(TestKeyStores.createKeyStoreFile("rotating1.p12", "server", "CN=localhost", "SAN=dns:localhost").toPath(), rotatingKeyStoreFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		final File rotatedKeyStoreFile = TestKeyStores.createKeyStoreFile("rotating2.p12", "server", "CN=localhost", "SAN=dns:localhost");
+
+		final TlsServerConfiguration tlsServerConfiguration = new TlsServerConfiguration(rotatingKeyStoreFile, KEYSTORE_PASSWORD).setReloadCheckIntervalMillis(50);
+		try (HttpServer server = new HttpServer(0)) {
+			server.setTlsServerConfiguration(tlsServerConfiguration);
+			server.addHandler("/", request -> new HttpServerResponse(200, "Root", HttpContentType.Text));
+			server.start();
+			final SSLContext serverSslContext = tlsServerConfiguration.getSslContext();
+
+			final SSLContext clientSslContext = SSLContext.getInstance("TLS");
+			clientSslContext.init(null, new TrustManager[] { TrustManagerUtilities.createTrustAllTrustManager() }, new SecureRandom());
+			final X509Certificate initialCertificate = getServerCertificate(clientSslContext.getSocketFactory(), server.getPort());
+
+			Files.copy(rotatedKeyStoreFile.toPath(), rotatingKeyStoreFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			rotatingKeyStoreFile.setLastModified(System.currentTimeMillis() + 2000);
+
+			// The rotated key material is read in the background and used for new sessions
+			X509Certificate rotatedCertificate = initialCertificate;
+			for (int i = 0; i < 100 && rotatedCertificate.equals(initialCertificate); i++) {
+				Thread.sleep(50);
+				final SSLContext newClientSslContext = SSLContext.getInstance("TLS");
+				newClientSslContext.init(null, new TrustManager[] { TrustManagerUtilities.createTrustAllTrustManager() }, new SecureRandom());
+				rotatedCertificate = getServerCertificate(newClientSslContext.getSocketFactory(), server.getPort());
+			}
+			Assert.assertNotEquals(initialCertificate, rotatedCertificate);
+			Assert.assertNull(tlsServerConfiguration.getLastReloadError());
+
+			// The SSLContext and its session cache are kept, so the previous session is resumed with its certificate
+			Assert.assertSame(serverSslContext, tlsServerConfiguration.getSslContext());
+			Assert.assertEquals(initialCertificate, getServerCertificate(clientSslContext.getSocketFactory(), server.getPort()));
+		}
+	}
+
+	private static X509Certificate getServerCertificate(final SSLSocketFactory sslSocketFactory, final int port) throws Exception {
+		try (SSLSocket socket = (SSLSocket) sslSocketFactory.createSocket("localhost", port)) {
+			// Read a response, so the session ticket sent after the handshake is received
+			socket.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			socket.getOutputStream().flush();
+			socket.getInputStream().readAllBytes();
+			return (X509Certificate) socket.getSession().getPeerCertificates()[0];
+		}
+	}
+
+	@Test
+	public void testCompression() throws Exception {
+		final StringBuilder textContent = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			textContent.append("Line ").append(i).append("\n");
+		}
+		final File staticDirectory = new File(testDirectory, "static");
+		staticDirectory.mkdirs();
+		Files.write(new File(staticDirectory, "data.txt").toPath(), textContent.toString().getBytes(StandardCharsets.UTF_8));
+
+		final StaticFileHandler staticFileHandler = new StaticFileHandler(staticDirectory, "/static/");
+		try (HttpServer server = new HttpServer(0)) {
+			server.addHandler("/text", request -> new HttpServerResponse(200, textContent.toString(), HttpContentType.Text));
+			server.addHandler("/static/", staticFileHandler);
+			server.start();
+
+			for (final String path : new String[] { "/text", "/static/data.txt", "/static/data.txt" }) {
+				final ByteArrayOutputStream downloadStream = new ByteArrayOutputStream();
+				final HttpResponse response = HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, "http://localhost:" + server.getPort() + path).addHeader(HttpConstants.HTTPHEADERNAME_ACCEPT_ENCODING, "gzip").setDownloadStream(downloadStream));
+				Assert.assertEquals(200, response.getHttpCode());
+				Assert.assertEquals("gzip", response.getHeaders().get(HttpConstants.HTTPHEADERNAME_CONTENT_ENCODING));
+				Assert.assertTrue(downloadStream.size() < textContent.length());
+				try (InputStream uncompressedStream = new GZIPInputStream(new ByteArrayInputStream(downloadStream.toByteArray()))) {
+					Assert.assertEquals(textContent.toString(), new String(uncompressedStream.readAllBytes(), StandardCharsets.UTF_8));
+				}
+			}
+			Assert.assertEquals(1, staticFileHandler.getPrecompressedContentCache().getHits());
+
+			final HttpResponse uncompressedResponse = HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, "http://localhost:" + server.getPort() + "/static/data.txt"));
+			Assert.assertNull(uncompressedResponse.getHeaders().get(HttpConstants.HTTPHEADERNAME_CONTENT_ENCODING));
+			Assert.assertEquals(textContent.toString().trim(), uncompressedResponse.getContent());
+
+			// The gzip representation has its own ETag
+			final String staticUrl = "http://localhost:" + server.getPort() + "/static/data.txt";
+			final String entityTag = uncompressedResponse.getHeaders().get("ETag");
+			final String gzipEntityTag = HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, staticUrl).addHeader(HttpConstants.HTTPHEADERNAME_ACCEPT_ENCODING, "gzip").setDownloadStream(new ByteArrayOutputStream())).getHeaders().get("ETag");
+			Assert.assertEquals(entityTag.substring(0, entityTag.length() - 1) + "-gzip\"", gzipEntityTag);
+			Assert.assertEquals(304, HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, staticUrl).addHeader(HttpConstants.HTTPHEADERNAME_ACCEPT_ENCODING, "gzip").addHeader("If-None-Match", gzipEntityTag)).getHttpCode());
+			Assert.assertEquals(304, HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, staticUrl).addHeader("If-None-Match", entityTag)).getHttpCode());
+			Assert.assertEquals(200, HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, staticUrl).addHeader("If-None-Match", gzipEntityTag)).getHttpCode());
+
+			// Compressed while streaming by the server
+			server.addHandler("/tagged", request -> new HttpServerResponse(200, textContent.toString(), HttpContentType.Text).addHeader("ETag", "\"tagged\""));
+			Assert.assertEquals("\"tagged-gzip\"", HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, "http://localhost:" + server.getPort() + "/tagged").addHeader(HttpConstants.HTTPHEADERNAME_ACCEPT_ENCODING, "gzip").setDownloadStream(new ByteArrayOutputStream())).getHeaders().get("ETag"));
+			Assert.assertEquals("\"tagged\"", HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, "http://localhost:" + server.getPort() + "/tagged")).getHeaders().get("ETag"));
+		}
+	}
+
+	@Test
+	public void testInvalidRequest() throws Exception {
+		try (HttpServer server = new HttpServer(0)) {
+			server.start();
+			try (Socket socket = new Socket("localhost", server.getPort())) {
+				socket.getOutputStream().write("BREW /pot HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+				final String responseText = new String(socket.getInputStream().readAllBytes(), StandardCharsets.ISO_8859_1);
+				Assert.assertTrue(responseText.startsWith("HTTP/1.1 501 "));
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package de.soderer.utilities;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.soderer.network.HttpContentType;
+import de.soderer.network.HttpMethod;
+import de.soderer.network.HttpRequest;
+import de.soderer.network.HttpResponse;
+import de.soderer.network.HttpUtilities;
+import de.soderer.network.LoadBalancingHttpClient;
+import de.soderer.network.SocketHttpClientEngine;
+import de.soderer.network.server.HttpServer;
+import de.soderer.network.server.HttpServerResponse;
+import de.soderer.network.server.TlsServerConfiguration;
+import de.soderer.network.trustmanager.TrustManagerUtilities;
+
+@SuppressWarnings("static-method")
+public class LoadBalancingHttpClientTest {
+	@Test
+	public void testLoadBalancing() throws Exception {
+		try (HttpServer healthyServer = new HttpServer(0);
+				HttpServer failingServer = new HttpServer(0)) {
+			healthyServer.addHandler("/api", request -> {
+				// Fast failing origins attract the requests by their low latency until they are ejected
+				Thread.sleep(20);
+				return new HttpServerResponse(200, "Healthy " + request.getUrlParameter("id"), HttpContentType.Text);
+			});
+			healthyServer.start();
+			failingServer.addHandler("/api", request -> new HttpServerResponse(503, "Unavailable", HttpContentType.Text));
+			failingServer.start();
+			final String healthyBaseUrl = "http://localhost:" + healthyServer.getPort();
+			final String failingBaseUrl = "http://localhost:" + failingServer.getPort();
+
+			HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, healthyBaseUrl + "/api"));
+			HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, failingBaseUrl + "/api"));
+
+			final LoadBalancingHttpClient client = new LoadBalancingHttpClient(healthyBaseUrl, failingBaseUrl).setOutlierEjection(3, 1000, 1000, 50);
+			int healthyResponses = 0;
+			for (int i = 0; i < 20; i++) {
+				final HttpResponse httpResponse = client.executeHttpRequest(new HttpRequest(HttpMethod.GET, "/api").addUrlParameter("id", i));
+				if (httpResponse.getHttpCode() == 200) {
+					Assert.assertEquals("Healthy " + i, httpResponse.getContent());
+					healthyResponses++;
+				}
+			}
+			// The failing origin is ejected after 3 consecutive failures
+			Assert.assertEquals(3, client.getRequestsCount(failingBaseUrl));
+			Assert.assertEquals(17, healthyResponses);
+			Assert.assertEquals(Arrays.asList(failingBaseUrl), client.getEjectedOrigins());
+
+			// Ejected origins are used again after the ejection time
+			Thread.sleep(1100);
+			Assert.assertTrue(client.getEjectedOrigins().isEmpty());
+
+			// The origin of full urls is replaced
+			Assert.assertEquals("Healthy 7", new LoadBalancingHttpClient(healthyBaseUrl).executeHttpRequest(new HttpRequest(HttpMethod.GET, failingBaseUrl + "/api").addUrlParameter("id", 7)).getContent());
+		}
+	}
+
+	@Test
+	public void testLoadBalancingForAllAddresses() throws Exception {
+		final File keyStoreFile = TestKeyStores.getServerKeyStoreFile();
+		try (HttpServer server = new HttpServer(0);
+				SocketHttpClientEngine engine = new SocketHttpClientEngine()) {
+			server.setTlsServerConfiguration(new TlsServerConfiguration(keyStoreFile, TestKeyStores.KEYSTORE_PASSWORD));
+			server.addHandler("/api", request -> new HttpServerResponse(200, request.getHeader("Host"), HttpContentType.Text));
+			server.start();
+			final String baseUrl = "https://localhost:" + server.getPort();
+
+			final LoadBalancingHttpClient client = LoadBalancingHttpClient.createForAllAddresses(baseUrl).setTrustManager(TrustManagerUtilities.createTrustAllTrustManager(), false);
+			final List<String> expectedOrigins = new ArrayList<>();
+			for (final InetAddress address : InetAddress.getAllByName("localhost")) {
+				expectedOrigins.add("https://" + (address.getHostAddress().contains(":") ? "[" + address.getHostAddress() + "]" : address.getHostAddress()) + ":" + server.getPort());
+			}
+			Assert.assertEquals(expectedOrigins, client.getOrigins());
+
+			// Connecting to an address needs the SocketHttpClientEngine
+			try {
+				client.executeHttpRequest(new HttpRequest(HttpMethod.GET, "/api"));
+				Assert.fail("Missing expected exception");
+			} catch (final Exception e) {
+				Assert.assertTrue(e.getMessage().contains("SocketHttpClientEngine"));
+			}
+
+			HttpUtilities.setHttpClientEngine(engine);
+			try {
+				// The host of the base url is kept for the Host header and the hostname verification of the server certificate
+				Assert.assertEquals("localhost:" + server.getPort(), client.executeHttpRequest(new HttpRequest(HttpMethod.GET, "/api")).getContent());
+
+				// The host is resolved again after the resolve interval and the state of the remaining addresses is kept
+				client.setResolveIntervalMillis(0);
+				Assert.assertEquals("localhost:" + server.getPort(), client.executeHttpRequest(new HttpRequest(HttpMethod.GET, "/api")).getContent());
+				Assert.assertNull(client.getLastResolveError());
+				Assert.assertEquals(expectedOrigins, client.getOrigins());
+				long requestsCount = 0;
+				for (final String origin : expectedOrigins) {
+					requestsCount += client.getRequestsCount(origin);
+				}
+				Assert.assertEquals(3, requestsCount);
+			} finally {
+				HttpUtilities.setHttpClientEngine(null);
+			}
+		}
+	}
+}
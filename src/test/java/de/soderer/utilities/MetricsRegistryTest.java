@@ -0,0 +1,108 @@
+package de.soderer.utilities;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.soderer.network.HttpContentType;
+import de.soderer.network.HttpMethod;
+import de.soderer.network.HttpRequest;
+import de.soderer.network.HttpUtilities;
+import de.soderer.network.metrics.LatencyHistogram;
+import de.soderer.network.metrics.MetricsRegistry;
+import de.soderer.network.server.HttpServer;
+import de.soderer.network.server.HttpServerResponse;
+import de.soderer.network.server.MetricsHandler;
+
+@SuppressWarnings("static-method")
+public class MetricsRegistryTest {
+	@Test
+	public void testMetrics() throws Exception {
+		final MetricsRegistry metricsRegistry = new MetricsRegistry();
+		try (HttpServer server = new HttpServer(0)) {
+			server.setMetricsRegistry(metricsRegistry);
+			server.addHandler("/hello", request -> new HttpServerResponse(200, "Hello", HttpContentType.Text));
+			server.addHandler("/metrics", new MetricsHandler(metricsRegistry));
+			server.start();
+
+			HttpUtilities.setMetricsRegistry(metricsRegistry);
+			try {
+				for (int i = 0; i < 3; i++) {
+					Assert.assertEquals("Hello", HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, "http://localhost:" + server.getPort() + "/hello")).getContent());
+				}
+				Assert.assertEquals(404, HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, "http://localhost:" + server.getPort() + "/missing")).getHttpCode());
+			} finally {
+				HttpUtilities.setMetricsRegistry(null);
+			}
+
+			Assert.assertEquals(3, metricsRegistry.getCounterValue("http_client_requests_total", "host", "localhost", "method", "GET", "status", "200"));
+			Assert.assertEquals(1, metricsRegistry.getCounterValue("http_client_requests_total", "host", "localhost", "method", "GET", "status", "404"));
+			Assert.assertEquals(3 * "Hello".length() + "Not Found".length(), metricsRegistry.getCounterValue("http_client_bytes_received_total", "host", "localhost"));
+			Assert.assertEquals(0, metricsRegistry.getGaugeValue("http_client_requests_in_flight"));
+			Assert.assertEquals(4, metricsRegistry.getHistogram("http_client_request_duration_micros", "host", "localhost", "method", "GET").getCount());
+
+			final String prometheusText = HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, "http://localhost:" + server.getPort() + "/metrics")).getContent();
+			Assert.assertTrue(prometheusText.contains("http_server_requests_total{method=\"GET\",status=\"200\"} 3"));
+			Assert.assertTrue(prometheusText.contains("http_server_request_duration_micros{method=\"GET\",quantile=\"0.99\"}"));
+			Assert.assertTrue(prometheusText.contains("http_server_open_connections "));
+
+			final String json = HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, "http://localhost:" + server.getPort() + "/metrics?format=json")).getContent();
+			Assert.assertTrue(json.contains("\"name\": \"http_server_requests_total\", \"labels\": {\"method\": \"GET\", \"status\": \"404\"}, \"value\": 1"));
+		}
+
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000);
+		}
+		Assert.assertEquals(1000, histogram.getCount());
+		Assert.assertEquals(1000000, histogram.getMaximum());
+		Assert.assertEquals(500000, histogram.getValueAtPercentile(50), 500000 * 0.04);
+		Assert.assertEquals(990000, histogram.getValueAtPercentile(99), 990000 * 0.04);
+	}
+
+	@Test
+	public void testServerRequestsInFlight() throws Exception {
+		final MetricsRegistry metricsRegistry = new MetricsRegistry();
+		final CountDownLatch handlerStarted = new CountDownLatch(1);
+		final CountDownLatch handlerReleased = new CountDownLatch(1);
+		try (HttpServer server = new HttpServer(0)) {
+			server.setMetricsRegistry(metricsRegistry);
+			server.addHandler("/slow", request -> {
+				handlerStarted.countDown();
+				handlerReleased.await();
+				return new HttpServerResponse(200, "Slow", HttpContentType.Text);
+			});
+			server.start();
+
+			final CompletableFuture<String> responseFuture = CompletableFuture.supplyAsync(() -> {
+				try {
+					return HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, "http://localhost:" + server.getPort() + "/slow")).getContent();
+				} catch (final Exception e) {
+					throw new RuntimeException(e);
+				}
+			});
+			Assert.assertTrue(handlerStarted.await(5, TimeUnit.SECONDS));
+
+			// The request is in flight while its handler runs
+			Assert.assertEquals(1, metricsRegistry.getGaugeValue("http_server_requests_in_flight"));
+
+			// A reset clears the counters, but keeps the gauge of the running request
+			metricsRegistry.incrementCounter("test_counter");
+			metricsRegistry.reset();
+			Assert.assertEquals(0, metricsRegistry.getCounterValue("test_counter"));
+			Assert.assertEquals(1, metricsRegistry.getGaugeValue("http_server_requests_in_flight"));
+			handlerReleased.countDown();
+			Assert.assertEquals("Slow", responseFuture.get(5, TimeUnit.SECONDS));
+
+			// The worker thread leaves the request after the last response data was handed over
+			final long endMillis = System.currentTimeMillis() + 5000;
+			while (metricsRegistry.getGaugeValue("http_server_requests_in_flight") != 0 && System.currentTimeMillis() < endMillis) {
+				Thread.sleep(10);
+			}
+			Assert.assertEquals(0, metricsRegistry.getGaugeValue("http_server_requests_in_flight"));
+		}
+	}
+}
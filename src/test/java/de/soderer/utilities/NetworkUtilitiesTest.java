@@ -2,17 +2,31 @@ package de.soderer.utilities;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Assert;
 import org.junit.Test;
 
 import de.soderer.network.HttpContentType;
 import de.soderer.network.NetworkUtilities;
+import de.soderer.network.utilities.BandwidthLimiter;
+import de.soderer.network.utilities.DataTransfer;
+import de.soderer.network.utilities.TransferMonitor;
+import de.soderer.network.utilities.TransferProgress;
+import de.soderer.network.utilities.TransferProgress.Direction;
 
 @SuppressWarnings("static-method")
 public class NetworkUtilitiesTest {
@@ -128,6 +142,110 @@ public class NetworkUtilitiesTest {
 		}
 	}
 
+	@Test
+	public void testDataTransfer() throws Exception {
+		final byte[] data = new byte[3 * 1024 * 1024 + 17];
+		new Random(1).nextBytes(data);
+
+		final List<TransferProgress> progress = new ArrayList<>();
+		final ByteArrayOutputStream streamOutput = new ByteArrayOutputStream();
+		Assert.assertEquals(data.length, new DataTransfer(new ByteArrayInputStream(data), streamOutput)
+				.setTransferMonitor(new TransferMonitor(Direction.Download, data.length).setProgressIntervalMillis(0).setProgressListener(progress::add))
+				.transfer());
+		Assert.assertArrayEquals(data, streamOutput.toByteArray());
+		final TransferProgress finalProgress = progress.get(progress.size() - 1);
+		Assert.assertTrue(finalProgress.isFinished());
+		Assert.assertEquals(data.length, finalProgress.getTransferredBytes());
+		Assert.assertEquals(100, finalProgress.getPercentage());
+		Assert.assertEquals(Direction.Download, finalProgress.getDirection());
+		Assert.assertTrue(progress.size() >= 3);
+
+		final File sourceFile = File.createTempFile("DataTransferSource", ".bin");
+		final File targetFile = File.createTempFile("DataTransferTarget", ".bin");
+		try {
+			Files.write(sourceFile.toPath(), data);
+			try (FileInputStream inputStream = new FileInputStream(sourceFile);
+					FileOutputStream outputStream = new FileOutputStream(targetFile)) {
+				// Skipped data is not transferred by FileChannel.transferTo
+				Assert.assertEquals(17, inputStream.skip(17));
+				Assert.assertEquals(data.length - 17, NetworkUtilities.copy(inputStream, outputStream));
+			}
+			Assert.assertArrayEquals(Arrays.copyOfRange(data, 17, data.length), Files.readAllBytes(targetFile.toPath()));
+		} finally {
+			sourceFile.delete();
+			targetFile.delete();
+		}
+
+		final AtomicBoolean cancelled = new AtomicBoolean(false);
+		try {
+			new DataTransfer(new ByteArrayInputStream(data), new ByteArrayOutputStream())
+					.setTransferMonitor(new TransferMonitor(null, -1).setProgressIntervalMillis(0).setProgressListener(transferProgress -> cancelled.set(true)))
+					.setCancelSignal(cancelled::get)
+					.transfer();
+			Assert.fail("Missing expected exception");
+		} catch (final IOException e) {
+			Assert.assertTrue(e.getMessage().contains("cancelled"));
+		}
+	}
+
+	@Test
+	public void testStallDetection() throws Exception {
+		// Delivers one byte per 20 milliseconds
+		final InputStream slowInputStream = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				try {
+					Thread.sleep(20);
+				} catch (@SuppressWarnings("unused") final InterruptedException e) {
+					throw new IOException("Interrupted");
+				}
+				return 'x';
+			}
+
+			@Override
+			public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+				buffer[offset] = (byte) read();
+				return 1;
+			}
+		};
+		try {
+			new DataTransfer(slowInputStream, new ByteArrayOutputStream()).setTransferMonitor(new TransferMonitor(null, -1).setStallDetection(1000, 200)).transfer();
+			Assert.fail("Missing expected exception");
+		} catch (final IOException e) {
+			Assert.assertTrue(e.getMessage().contains("stalled"));
+		}
+	}
+
+	@Test
+	public void testBandwidthLimiter() throws Exception {
+		final byte[] data = new byte[300 * 1024];
+		final BandwidthLimiter bandwidthLimiter = new BandwidthLimiter(1024 * 1024, 16 * 1024);
+		final long startMillis = System.currentTimeMillis();
+		new DataTransfer(new ByteArrayInputStream(data), new ByteArrayOutputStream()).addBandwidthLimiter(bandwidthLimiter).transfer();
+		Assert.assertTrue(System.currentTimeMillis() - startMillis >= 250);
+
+		// Concurrent transfers share the bandwidth equally
+		final long[] finishMillis = new long[2];
+		final Thread[] threads = new Thread[2];
+		for (int i = 0; i < 2; i++) {
+			final int index = i;
+			threads[i] = new Thread(() -> {
+				try {
+					new DataTransfer(new ByteArrayInputStream(data, 0, 256 * 1024), new ByteArrayOutputStream()).addBandwidthLimiter(bandwidthLimiter).transfer();
+					finishMillis[index] = System.currentTimeMillis();
+				} catch (@SuppressWarnings("unused") final IOException e) {
+					finishMillis[index] = -1;
+				}
+			});
+			threads[i].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertTrue(finishMillis[0] > 0 && finishMillis[1] > 0);
+		Assert.assertTrue(Math.abs(finishMillis[0] - finishMillis[1]) < 150);
+	}
+
 	public static String toString(final InputStream inputStream, final Charset encoding) throws IOException {
 		return new String(toByteArray(inputStream), encoding);
 	}
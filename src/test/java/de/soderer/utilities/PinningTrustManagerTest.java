@@ -0,0 +1,136 @@
+package de.soderer.utilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Set;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManager;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.soderer.network.HttpContentType;
+import de.soderer.network.HttpMethod;
+import de.soderer.network.HttpRequest;
+import de.soderer.network.HttpUtilities;
+import de.soderer.network.TlsCheckConfiguration;
+import de.soderer.network.TlsCheckConfiguration.TlsCheckConfigurationType;
+import de.soderer.network.server.HttpServer;
+import de.soderer.network.server.HttpServerResponse;
+import de.soderer.network.server.TlsServerConfiguration;
+import de.soderer.network.trustmanager.PinningTrustManager;
+import de.soderer.network.trustmanager.TrustManagerRegistry;
+import de.soderer.network.trustmanager.TrustManagerUtilities;
+
+@SuppressWarnings("static-method")
+public class PinningTrustManagerTest {
+	private static File testDirectory;
+	private static File keyStoreFile;
+	private static final char[] KEYSTORE_PASSWORD = TestKeyStores.KEYSTORE_PASSWORD;
+
+	@BeforeClass
+	public static void createTestFiles() throws Exception {
+		testDirectory = TestKeyStores.getTestDirectory();
+		keyStoreFile = TestKeyStores.getServerKeyStoreFile();
+	}
+
+	@Test
+	public void testPinningTrustManager() throws Exception {
+		final X509Certificate serverCertificate = TestKeyStores.getServerCertificate();
+		final File pinFile = new File(testDirectory, "pins.txt");
+		final File wrongPinFile = new File(testDirectory, "wrong-pins.txt");
+		final File otherHostPinFile = new File(testDirectory, "other-host-pins.txt");
+		Files.writeString(pinFile.toPath(), "# Test pins\nlocalhost " + PinningTrustManager.getPublicKeyPin(serverCertificate) + "\n");
+		Files.writeString(wrongPinFile.toPath(), "localhost sha256/" + Base64.getEncoder().encodeToString(new byte[32]) + " " + PinningTrustManager.getCertificatePin(serverCertificate).replace("cert-sha256/", "sha256/") + "\n");
+		Files.writeString(otherHostPinFile.toPath(), "*.example.com " + PinningTrustManager.getPublicKeyPin(serverCertificate) + "\n");
+		final TlsServerConfiguration tlsServerConfiguration = new TlsServerConfiguration(keyStoreFile, KEYSTORE_PASSWORD);
+		try (HttpServer server = new HttpServer(0)) {
+			server.setTlsServerConfiguration(tlsServerConfiguration);
+			server.addHandler("/", request -> new HttpServerResponse(200, "Pinned", HttpContentType.Text));
+			server.start();
+			final String url = "https://localhost:" + server.getPort() + "/";
+
+			// The self signed certificate is not in the systems truststore, so only the pin check can accept it
+			final TrustManager pinnedTrustManager = new TlsCheckConfiguration(TlsCheckConfigurationType.PinnedKeys, pinFile).getTrustManager();
+			Assert.assertEquals("Pinned", HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, url), null, pinnedTrustManager, false).getContent());
+
+			for (final TlsCheckConfiguration tlsCheckConfiguration : new TlsCheckConfiguration[] {
+					new TlsCheckConfiguration(TlsCheckConfigurationType.PinnedKeysWithSystemTrustStore, pinFile),
+					new TlsCheckConfiguration(TlsCheckConfigurationType.PinnedKeys, wrongPinFile),
+					new TlsCheckConfiguration(TlsCheckConfigurationType.PinnedKeys, otherHostPinFile) }) {
+				try {
+					HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, url), null, tlsCheckConfiguration.getTrustManager(), false);
+					Assert.fail("Certificate must not be trusted with " + tlsCheckConfiguration.getType() + " and " + tlsCheckConfiguration.getTrustoreOrPemFile().getName());
+				} catch (@SuppressWarnings("unused") final Exception e) {
+					// expected
+				}
+			}
+		} finally {
+			TrustManagerRegistry.clear();
+			pinFile.delete();
+			wrongPinFile.delete();
+			otherHostPinFile.delete();
+		}
+
+		try {
+			new PinningTrustManager(Map.of("localhost", Set.of("md5/abc")), TrustManagerUtilities.getDefaultTrustManager(), false);
+			Assert.fail("Invalid pin must be rejected");
+		} catch (final Exception e) {
+			Assert.assertTrue(e.getMessage().contains("Invalid pin"));
+		}
+	}
+
+	@Test
+	public void testPinnedIssuer() throws Exception {
+		final File caKeyStoreFile = TestKeyStores.createKeyStoreFile("pin-ca.p12", "ca", "CN=Pin CA", "bc:c");
+		final File leafKeyStoreFile = TestKeyStores.createKeyStoreFile("pin-leaf.p12", "server", "CN=localhost", "SAN=dns:localhost");
+		final File certificateRequestFile = new File(testDirectory, "pin-leaf.csr");
+		final File leafCertificateFile = new File(testDirectory, "pin-leaf.cer");
+		TestKeyStores.runKeytool("-certreq", "-alias", "server", "-keystore", leafKeyStoreFile.getAbsolutePath(), "-storepass", new String(KEYSTORE_PASSWORD), "-file", certificateRequestFile.getAbsolutePath());
+		TestKeyStores.runKeytool("-gencert", "-alias", "ca", "-keystore", caKeyStoreFile.getAbsolutePath(), "-storepass", new String(KEYSTORE_PASSWORD),
+				"-infile", certificateRequestFile.getAbsolutePath(), "-outfile", leafCertificateFile.getAbsolutePath(), "-ext", "SAN=dns:localhost", "-validity", "2");
+		final X509Certificate caCertificate = (X509Certificate) TrustManagerUtilities.readKeyStore(caKeyStoreFile, KEYSTORE_PASSWORD).getCertificate("ca");
+		final X509Certificate leafCertificate;
+		try (InputStream inputStream = new FileInputStream(leafCertificateFile)) {
+			leafCertificate = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(inputStream);
+		}
+
+		final PinningTrustManager trustManager = new PinningTrustManager(Map.of("*", Set.of(PinningTrustManager.getPublicKeyPin(caCertificate))), TrustManagerUtilities.getDefaultTrustManager(), false);
+		final SSLEngine localhostEngine = SSLContext.getDefault().createSSLEngine("localhost", 443);
+		trustManager.checkServerTrusted(new X509Certificate[] { leafCertificate, caCertificate }, "RSA", localhostEngine);
+
+		// A self made server certificate with the public pinned CA certificate
+		assertRejected(trustManager, new X509Certificate[] { TestKeyStores.getServerCertificate(), caCertificate }, localhostEngine);
+		// A certificate of the pinned CA, which was issued for another host
+		assertRejected(trustManager, new X509Certificate[] { leafCertificate, caCertificate }, SSLContext.getDefault().createSSLEngine("otherhost", 443));
+
+		// Without socket or SSLEngine the host and its pins are unknown
+		final PinningTrustManager leafTrustManager = new PinningTrustManager(Map.of("localhost", Set.of(PinningTrustManager.getPublicKeyPin(leafCertificate))), TrustManagerUtilities.getDefaultTrustManager(), false);
+		leafTrustManager.checkServerTrusted(new X509Certificate[] { leafCertificate }, "RSA", localhostEngine);
+		try {
+			leafTrustManager.checkServerTrusted(new X509Certificate[] { leafCertificate }, "RSA");
+			Assert.fail("Chain of unknown host must be rejected");
+		} catch (@SuppressWarnings("unused") final CertificateException e) {
+			// expected
+		}
+	}
+
+	private static void assertRejected(final PinningTrustManager trustManager, final X509Certificate[] chain, final SSLEngine engine) {
+		try {
+			trustManager.checkServerTrusted(chain, "RSA", engine);
+			Assert.fail("Certificate chain must not be trusted");
+		} catch (@SuppressWarnings("unused") final CertificateException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package de.soderer.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.soderer.network.HttpContentType;
+import de.soderer.network.HttpMethod;
+import de.soderer.network.HttpRequest;
+import de.soderer.network.HttpResponse;
+import de.soderer.network.HttpUtilities;
+import de.soderer.network.RequestCoalescer;
+import de.soderer.network.server.HttpServer;
+import de.soderer.network.server.HttpServerResponse;
+
+@SuppressWarnings("static-method")
+public class RequestCoalescerTest {
+	@Test
+	public void testRequestCoalescing() throws Exception {
+		final AtomicInteger handledRequests = new AtomicInteger(0);
+		final RequestCoalescer requestCoalescer = new RequestCoalescer("Accept");
+		try (HttpServer server = new HttpServer(0)) {
+			server.addHandler("/slow", request -> {
+				handledRequests.incrementAndGet();
+				Thread.sleep(500);
+				return new HttpServerResponse(200, "Slow " + request.getUrlParameter("name"), HttpContentType.Text);
+			});
+			server.start();
+			final String baseUrl = "http://localhost:" + server.getPort();
+
+			HttpUtilities.setRequestCoalescer(requestCoalescer);
+			try {
+				final List<Thread> threads = new ArrayList<>();
+				final List<HttpResponse> responses = new ArrayList<>();
+				final List<Exception> errors = new ArrayList<>();
+				for (int i = 0; i < 6; i++) {
+					// Requests with another value of a key header are not coalesced with the others
+					final String acceptValue = i < 5 ? "text/plain" : "*/*";
+					threads.add(new Thread(() -> {
+						try {
+							final HttpResponse httpResponse = HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, baseUrl + "/slow").addUrlParameter("name", "test").addHeader("Accept", acceptValue));
+							synchronized (responses) {
+								responses.add(httpResponse);
+							}
+						} catch (final Exception e) {
+							synchronized (errors) {
+								errors.add(e);
+							}
+						}
+					}));
+				}
+				for (final Thread thread : threads) {
+					thread.start();
+				}
+				for (final Thread thread : threads) {
+					thread.join();
+				}
+				Assert.assertTrue(errors.isEmpty());
+				Assert.assertEquals(6, responses.size());
+				for (final HttpResponse httpResponse : responses) {
+					Assert.assertEquals(200, httpResponse.getHttpCode());
+					Assert.assertEquals("Slow test", httpResponse.getContent());
+				}
+				Assert.assertTrue(requestCoalescer.getCoalescedRequestsCount() >= 1);
+				Assert.assertTrue(requestCoalescer.getExecutedRequestsCount() >= 2);
+				Assert.assertEquals(6, requestCoalescer.getExecutedRequestsCount() + requestCoalescer.getCoalescedRequestsCount());
+				Assert.assertEquals(requestCoalescer.getExecutedRequestsCount(), handledRequests.get());
+				Assert.assertEquals(0, requestCoalescer.getRunningRequestsCount());
+
+				// Requests with a body are never coalesced
+				final long executedRequestsCount = requestCoalescer.getExecutedRequestsCount();
+				HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.POST, baseUrl + "/slow").setRequestBody("Body"));
+				Assert.assertEquals(executedRequestsCount, requestCoalescer.getExecutedRequestsCount());
+			} finally {
+				HttpUtilities.setRequestCoalescer(null);
+			}
+		}
+	}
+
+	@Test
+	public void testRequestCoalescingKeysCredentials() throws Exception {
+		final RequestCoalescer requestCoalescer = new RequestCoalescer();
+		try (HttpServer server = new HttpServer(0)) {
+			server.addHandler("/user", request -> {
+				Thread.sleep(500);
+				return new HttpServerResponse(200, "User " + request.getHeader("Authorization"), HttpContentType.Text);
+			});
+			server.start();
+			final String url = "http://localhost:" + server.getPort() + "/user";
+
+			HttpUtilities.setRequestCoalescer(requestCoalescer);
+			try {
+				final List<Thread> threads = new ArrayList<>();
+				final List<String> contents = new ArrayList<>();
+				for (int i = 0; i < 4; i++) {
+					// Requests of different users are never coalesced, even without key headers
+					final String authorizationValue = "Bearer user" + i;
+					threads.add(new Thread(() -> {
+						try {
+							final String content = HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, url).addHeader("Authorization", authorizationValue)).getContent();
+							synchronized (contents) {
+								contents.add(content);
+							}
+						} catch (@SuppressWarnings("unused") final Exception e) {
+							// missing content fails the test
+						}
+					}));
+				}
+				for (final Thread thread : threads) {
+					thread.start();
+				}
+				for (final Thread thread : threads) {
+					thread.join();
+				}
+				Assert.assertEquals(4, contents.size());
+				for (int i = 0; i < 4; i++) {
+					Assert.assertTrue(contents.contains("User Bearer user" + i));
+				}
+				Assert.assertEquals(0, requestCoalescer.getCoalescedRequestsCount());
+				Assert.assertEquals(4, requestCoalescer.getExecutedRequestsCount());
+			} finally {
+				HttpUtilities.setRequestCoalescer(null);
+			}
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package de.soderer.utilities;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.soderer.network.HttpContentType;
+import de.soderer.network.HttpMethod;
+import de.soderer.network.HttpRequest;
+import de.soderer.network.HttpResponse;
+import de.soderer.network.HttpUtilities;
+import de.soderer.network.RequestHedger;
+import de.soderer.network.server.HttpServer;
+import de.soderer.network.server.HttpServerResponse;
+
+@SuppressWarnings("static-method")
+public class RequestHedgerTest {
+	@Test
+	public void testRequestHedging() throws Exception {
+		try (HttpServer slowServer = new HttpServer(0);
+				HttpServer fastServer = new HttpServer(0);
+				RequestHedger requestHedger = new RequestHedger().setHedgeDelayMillis(100).setHedgeBudget(1.0, 1.0)) {
+			slowServer.addHandler("/work", request -> {
+				Thread.sleep(1500);
+				return new HttpServerResponse(200, "Slow", HttpContentType.Text);
+			});
+			slowServer.start();
+			fastServer.addHandler("/work", request -> new HttpServerResponse(200, "Fast", HttpContentType.Text));
+			fastServer.start();
+			requestHedger.addAlternateHost("localhost:" + fastServer.getPort());
+
+			HttpUtilities.setRequestHedger(requestHedger);
+			try {
+				final long startMillis = System.currentTimeMillis();
+				final HttpRequest httpRequest = new HttpRequest(HttpMethod.GET, "http://localhost:" + slowServer.getPort() + "/work");
+				final HttpResponse hedgedResponse = HttpUtilities.executeHttpRequest(httpRequest);
+				Assert.assertEquals("Fast", hedgedResponse.getContent());
+				Assert.assertTrue(System.currentTimeMillis() - startMillis < 1000);
+				Assert.assertEquals(1, requestHedger.getHedgedRequestsCount());
+				Assert.assertEquals(1, requestHedger.getHedgeWinsCount());
+
+				// Only the losing attempt is cancelled, the request of the caller stays usable
+				Assert.assertFalse(httpRequest.isCancelled());
+				Assert.assertEquals("Fast", HttpUtilities.executeHttpRequest(httpRequest).getContent());
+				Assert.assertEquals(2, requestHedger.getHedgeWinsCount());
+				Assert.assertFalse(httpRequest.isCancelled());
+
+				// Fast responses are not hedged
+				Assert.assertEquals("Fast", HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, "http://localhost:" + fastServer.getPort() + "/work")).getContent());
+				Assert.assertEquals(2, requestHedger.getHedgedRequestsCount());
+
+				// No hedged copy without budget
+				requestHedger.setHedgeBudget(0.0, 0.0);
+				Assert.assertEquals("Slow", HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, "http://localhost:" + slowServer.getPort() + "/work")).getContent());
+				Assert.assertEquals(2, requestHedger.getHedgedRequestsCount());
+				Assert.assertEquals(1, requestHedger.getHedgesDeniedByBudgetCount());
+			} finally {
+				HttpUtilities.setRequestHedger(null);
+			}
+		}
+	}
+
+	@Test
+	public void testRequestHedgingThreadLimit() throws Exception {
+		try (HttpServer slowServer = new HttpServer(0);
+				HttpServer fastServer = new HttpServer(0);
+				RequestHedger requestHedger = new RequestHedger().setHedgeDelayMillis(100).setHedgeBudget(1.0, 1.0).setMaximumThreads(1)) {
+			slowServer.addHandler("/work", request -> {
+				Thread.sleep(500);
+				return new HttpServerResponse(200, "Slow", HttpContentType.Text);
+			});
+			slowServer.start();
+			fastServer.addHandler("/work", request -> new HttpServerResponse(200, "Fast", HttpContentType.Text));
+			fastServer.start();
+			requestHedger.addAlternateHost("localhost:" + fastServer.getPort());
+
+			HttpUtilities.setRequestHedger(requestHedger);
+			try {
+				// The only thread executes the primary request, so there is no thread for a hedged copy
+				Assert.assertEquals("Slow", HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, "http://localhost:" + slowServer.getPort() + "/work")).getContent());
+				Assert.assertEquals(0, requestHedger.getHedgedRequestsCount());
+			} finally {
+				HttpUtilities.setRequestHedger(null);
+			}
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package de.soderer.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.soderer.network.HttpContentType;
+import de.soderer.network.HttpMethod;
+import de.soderer.network.HttpRequest;
+import de.soderer.network.HttpResponse;
+import de.soderer.network.HttpUtilities;
+import de.soderer.network.SocketHttpClientEngine;
+import de.soderer.network.server.HttpServer;
+import de.soderer.network.server.HttpServerResponse;
+import de.soderer.network.server.TlsServerConfiguration;
+import de.soderer.network.trustmanager.TrustManagerUtilities;
+import de.soderer.network.utilities.TransferProgress;
+import de.soderer.network.utilities.TransferProgress.Direction;
+
+@SuppressWarnings("static-method")
+public class SocketHttpClientEngineTest {
+	private static File testDirectory;
+	private static File keyStoreFile;
+	private static final char[] KEYSTORE_PASSWORD = TestKeyStores.KEYSTORE_PASSWORD;
+
+	@BeforeClass
+	public static void createTestFiles() throws Exception {
+		testDirectory = TestKeyStores.getTestDirectory();
+		keyStoreFile = TestKeyStores.getServerKeyStoreFile();
+	}
+
+	@Test
+	public void testSocketHttpClientEngine() throws Exception {
+		final TlsServerConfiguration tlsServerConfiguration = new TlsServerConfiguration(keyStoreFile, KEYSTORE_PASSWORD);
+		try (HttpServer plainServer = new HttpServer(0);
+				HttpServer tlsServer = new HttpServer(0);
+				SocketHttpClientEngine engine = new SocketHttpClientEngine()) {
+			for (final HttpServer server : new HttpServer[] { plainServer, tlsServer }) {
+				server.addHandler("/echo", request -> new HttpServerResponse(200, request.getRequestMethod().name() + " " + request.getUrlParameter("name") + " " + request.getBodyAsString(), HttpContentType.Text).addHeader("Set-Cookie", "session=abc"));
+				server.addHandler("/large", request -> new HttpServerResponse(200).setContent(new byte[1024 * 1024], HttpContentType.Binary.getStringRepresentation()));
+				server.addHandler("/stream", request -> new HttpServerResponse(200).setContentStream(new ByteArrayInputStream("Line 1\r\nLine 2\r\n".getBytes(StandardCharsets.UTF_8)), HttpContentType.Text.getStringRepresentation()));
+				server.addHandler("/redirect", request -> new HttpServerResponse(302).addHeader("Location", "/echo?name=redirected"));
+			}
+			tlsServer.setTlsServerConfiguration(tlsServerConfiguration);
+			plainServer.start();
+			tlsServer.start();
+
+			final String plainBaseUrl = "http://localhost:" + plainServer.getPort();
+			final HttpResponse getResponse = engine.executeHttpRequest(new HttpRequest(HttpMethod.GET, plainBaseUrl + "/echo").addUrlParameter("name", "test"), null, false);
+			Assert.assertEquals(200, getResponse.getHttpCode());
+			Assert.assertEquals("GET test ", getResponse.getContent());
+			Assert.assertEquals("abc", getResponse.getCookies().get("session"));
+
+			final HttpResponse postResponse = engine.executeHttpRequest(new HttpRequest(HttpMethod.POST, plainBaseUrl + "/echo?name=x").setRequestBody("Body data"), null, false);
+			Assert.assertEquals("POST x Body data", postResponse.getContent());
+
+			final List<TransferProgress> uploadProgress = new ArrayList<>();
+			final HttpResponse streamUploadResponse = engine.executeHttpRequest(new HttpRequest(HttpMethod.PUT, plainBaseUrl + "/echo?name=y").setRequestBodyContentStream(new ByteArrayInputStream("Streamed data".getBytes(StandardCharsets.UTF_8))).setTransferProgressListener(uploadProgress::add), null, false);
+			Assert.assertEquals("PUT y Streamed data", streamUploadResponse.getContent());
+			Assert.assertEquals(Direction.Upload, uploadProgress.get(uploadProgress.size() - 1).getDirection());
+			Assert.assertEquals("Streamed data".length(), uploadProgress.get(uploadProgress.size() - 1).getTransferredBytes());
+
+			Assert.assertEquals("Line 1\nLine 2", engine.executeHttpRequest(new HttpRequest(HttpMethod.GET, plainBaseUrl + "/stream"), null, false).getContent());
+			Assert.assertEquals("GET redirected ", engine.executeHttpRequest(new HttpRequest(HttpMethod.GET, plainBaseUrl + "/redirect").setFollowRedirects(true), null, false).getContent());
+			Assert.assertEquals(404, engine.executeHttpRequest(new HttpRequest(HttpMethod.GET, plainBaseUrl + "/missing"), null, false).getHttpCode());
+			Assert.assertEquals(200, engine.executeHttpRequest(new HttpRequest(HttpMethod.HEAD, plainBaseUrl + "/large"), null, false).getHttpCode());
+
+			final String tlsBaseUrl = "https://localhost:" + tlsServer.getPort();
+			Assert.assertEquals("GET tls ", engine.executeHttpRequest(new HttpRequest(HttpMethod.GET, tlsBaseUrl + "/echo?name=tls"), TrustManagerUtilities.createTrustAllTrustManager(), true).getContent());
+			final File downloadFile = new File(testDirectory, "engineDownload.bin");
+			Assert.assertEquals(200, engine.executeHttpRequest(new HttpRequest(HttpMethod.GET, tlsBaseUrl + "/large").setDownloadFile(downloadFile), TrustManagerUtilities.createTrustAllTrustManager(), true).getHttpCode());
+			Assert.assertEquals(1024 * 1024, downloadFile.length());
+
+			// All plain requests share one keep-alive connection, the TLS requests use another one per trust manager
+			Assert.assertEquals(3, engine.getOpenedConnectionsCount());
+			Assert.assertTrue(engine.getReusedConnectionsCount() >= 6);
+
+			HttpUtilities.setHttpClientEngine(engine);
+			try {
+				Assert.assertEquals("GET engine ", HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, plainBaseUrl + "/echo?name=engine")).getContent());
+			} finally {
+				HttpUtilities.setHttpClientEngine(null);
+			}
+		}
+	}
+
+	@Test
+	public void testBoundedConnectionPool() throws Exception {
+		final TlsServerConfiguration tlsServerConfiguration = new TlsServerConfiguration(keyStoreFile, KEYSTORE_PASSWORD);
+		try (HttpServer server = new HttpServer(0);
+				SocketHttpClientEngine engine = new SocketHttpClientEngine()) {
+			server.setTlsServerConfiguration(tlsServerConfiguration);
+			server.addHandler("/", request -> new HttpServerResponse(200, "Ok", HttpContentType.Text));
+			server.start();
+
+			// Each new TrustManager needs its own SSLContext, but only the recently used ones are kept
+			for (int i = 0; i < 70; i++) {
+				Assert.assertEquals("Ok", engine.executeHttpRequest(new HttpRequest(HttpMethod.GET, "https://localhost:" + server.getPort() + "/"), TrustManagerUtilities.createTrustAllTrustManager(), true).getContent());
+			}
+			Assert.assertEquals(64, engine.getSslContextsCount());
+			Assert.assertEquals(70, engine.getIdleRoutesCount());
+
+			// Routes without idle connections are removed
+			engine.setKeepAliveTimeoutMillis(1);
+			Thread.sleep(10);
+			engine.closeExpiredConnections();
+			Assert.assertEquals(0, engine.getIdleConnectionsCount());
+			Assert.assertEquals(0, engine.getIdleRoutesCount());
+		}
+	}
+
+	@Test
+	public void testPipelinedRequests() throws Exception {
+		try (HttpServer server = new HttpServer(0);
+				SocketHttpClientEngine engine = new SocketHttpClientEngine().setMaximumPipelineDepth(8)) {
+			server.addHandler("/echo", request -> new HttpServerResponse(200, request.getUrlParameter("name"), HttpContentType.Text));
+			server.start();
+
+			final List<HttpRequest> requests = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				requests.add(new HttpRequest(HttpMethod.GET, "http://localhost:" + server.getPort() + "/echo?name=" + i));
+			}
+			final List<HttpResponse> responses = engine.executePipelinedHttpRequests(requests, null, false);
+			Assert.assertEquals(20, responses.size());
+			for (int i = 0; i < 20; i++) {
+				Assert.assertEquals(Integer.toString(i), responses.get(i).getContent());
+			}
+			Assert.assertEquals(1, engine.getOpenedConnectionsCount());
+			Assert.assertEquals(0, engine.getReplayedRequestsCount());
+
+			try {
+				engine.executePipelinedHttpRequests(Arrays.asList(new HttpRequest(HttpMethod.POST, "http://localhost:" + server.getPort() + "/echo")), null, false);
+				Assert.fail("Missing expected exception");
+			} catch (final IllegalArgumentException e) {
+				// Expected exception
+			}
+		}
+
+		// The server answers only two requests per connection and closes it then
+		try (ServerSocket serverSocket = new ServerSocket(0);
+				SocketHttpClientEngine engine = new SocketHttpClientEngine()) {
+			final Thread serverThread = new Thread(() -> {
+				try {
+					while (true) {
+						try (Socket socket = serverSocket.accept()) {
+							final InputStream inputStream = socket.getInputStream();
+							for (int answeredRequests = 0; answeredRequests < 2; answeredRequests++) {
+								final String requestLine = readRequestHead(inputStream);
+								final String name = requestLine.substring(requestLine.indexOf("name=") + 5, requestLine.indexOf(' ', requestLine.indexOf("name=")));
+								socket.getOutputStream().write(("HTTP/1.1 200 OK\r\nContent-Length: " + name.length() + "\r\n\r\n" + name).getBytes(StandardCharsets.ISO_8859_1));
+							}
+							socket.shutdownOutput();
+							while (inputStream.read() >= 0) {
+								// Wait for the client to close the connection
+							}
+						}
+					}
+				} catch (@SuppressWarnings("unused") final Exception e) {
+					// Server socket closed
+				}
+			});
+			serverThread.setDaemon(true);
+			serverThread.start();
+
+			final List<HttpRequest> requests = new ArrayList<>();
+			for (int i = 0; i < 5; i++) {
+				requests.add(new HttpRequest(HttpMethod.GET, "http://localhost:" + serverSocket.getLocalPort() + "/echo?name=" + i));
+			}
+			final List<HttpResponse> responses = engine.executePipelinedHttpRequests(requests, null, false);
+			for (int i = 0; i < 5; i++) {
+				Assert.assertEquals(Integer.toString(i), responses.get(i).getContent());
+			}
+			Assert.assertEquals(3, engine.getOpenedConnectionsCount());
+			Assert.assertEquals(3 + 1, engine.getReplayedRequestsCount());
+		}
+	}
+
+	@Test
+	public void testNoReplayOfNonIdempotentRequests() throws Exception {
+		// The server answers only the first request per connection and closes the connection after reading the next request
+		final List<String> receivedRequestLines = Collections.synchronizedList(new ArrayList<>());
+		try (ServerSocket serverSocket = new ServerSocket(0);
+				SocketHttpClientEngine engine = new SocketHttpClientEngine()) {
+			final Thread serverThread = new Thread(() -> {
+				try {
+					while (true) {
+						try (Socket socket = serverSocket.accept()) {
+							final InputStream inputStream = socket.getInputStream();
+							for (int requestIndex = 0; requestIndex < 2; requestIndex++) {
+								final String requestHead = readRequestHead(inputStream);
+								final String requestLine = requestHead.substring(0, requestHead.indexOf("\r\n"));
+								receivedRequestLines.add(requestLine);
+								final int contentLengthIndex = requestHead.indexOf("Content-Length: ");
+								if (contentLengthIndex >= 0) {
+									inputStream.readNBytes(Integer.parseInt(requestHead.substring(contentLengthIndex + 16, requestHead.indexOf("\r\n", contentLengthIndex))));
+								}
+								if (requestIndex == 0) {
+									final String name = requestLine.substring(requestLine.indexOf("name=") + 5, requestLine.indexOf(' ', requestLine.indexOf("name=")));
+									socket.getOutputStream().write(("HTTP/1.1 200 OK\r\nContent-Length: " + name.length() + "\r\n\r\n" + name).getBytes(StandardCharsets.ISO_8859_1));
+								}
+							}
+						}
+					}
+				} catch (@SuppressWarnings("unused") final Exception e) {
+					// Server socket closed
+				}
+			});
+			serverThread.setDaemon(true);
+			serverThread.start();
+			final String baseUrl = "http://localhost:" + serverSocket.getLocalPort() + "/echo?name=";
+
+			Assert.assertEquals("a", engine.executeHttpRequest(new HttpRequest(HttpMethod.GET, baseUrl + "a"), null, false).getContent());
+			try {
+				engine.executeHttpRequest(new HttpRequest(HttpMethod.POST, baseUrl + "post").setRequestBody("Body data"), null, false);
+				Assert.fail("POST request must not be sent again");
+			} catch (@SuppressWarnings("unused") final Exception e) {
+				// expected
+			}
+
+			// Idempotent requests are sent again on another connection
+			Assert.assertEquals("b", engine.executeHttpRequest(new HttpRequest(HttpMethod.GET, baseUrl + "b"), null, false).getContent());
+			Assert.assertEquals("c", engine.executeHttpRequest(new HttpRequest(HttpMethod.GET, baseUrl + "c"), null, false).getContent());
+
+			Assert.assertEquals(1, receivedRequestLines.stream().filter(requestLine -> requestLine.startsWith("POST ")).count());
+			Assert.assertEquals(2, receivedRequestLines.stream().filter(requestLine -> requestLine.contains("name=c ")).count());
+		}
+	}
+
+	private static String readRequestHead(final InputStream inputStream) throws Exception {
+		final ByteArrayOutputStream requestHead = new ByteArrayOutputStream();
+		int nextByte;
+		while ((nextByte = inputStream.read()) >= 0) {
+			requestHead.write(nextByte);
+			if (requestHead.size() >= 4 && requestHead.toString(StandardCharsets.ISO_8859_1).endsWith("\r\n\r\n")) {
+				return requestHead.toString(StandardCharsets.ISO_8859_1);
+			}
+		}
+		throw new Exception("Connection closed within request head");
+	}
+}
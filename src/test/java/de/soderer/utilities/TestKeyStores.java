@@ -0,0 +1,122 @@
+package de.soderer.utilities;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import org.junit.Assert;
+
+import de.soderer.network.trustmanager.TrustManagerUtilities;
+
+/**
+ * Shared key material and files of the TLS tests.<br />
+ * The self signed server keystore for "localhost" is created only once per test run by keytool and all files are removed at the end of the test run.
+ */
+public class TestKeyStores {
+	public static final char[] KEYSTORE_PASSWORD = "changeit".toCharArray();
+
+	private static File testDirectory = null;
+	private static File serverKeyStoreFile = null;
+
+	/**
+	 * Temporary directory of this test run
+	 */
+	public static synchronized File getTestDirectory() {
+		if (testDirectory == null) {
+			testDirectory = new File(System.getProperty("java.io.tmpdir"), "NetworkTest_" + System.currentTimeMillis());
+			testDirectory.mkdirs();
+			final File directoryToDelete = testDirectory;
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> deleteRecursively(directoryToDelete)));
+		}
+		return testDirectory;
+	}
+
+	/**
+	 * PKCS12 keystore with the self signed certificate and key of "localhost" and "127.0.0.1" (alias "server", valid for 2 days)
+	 */
+	public static synchronized File getServerKeyStoreFile() throws Exception {
+		if (serverKeyStoreFile == null) {
+			final File newServerKeyStoreFile = new File(getTestDirectory(), "server.p12");
+			runKeytool("-genkeypair", "-alias", "server", "-keyalg", "RSA", "-keysize", "2048", "-validity", "2",
+					"-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1",
+					"-storetype", "PKCS12", "-keystore", newServerKeyStoreFile.getAbsolutePath(),
+					"-storepass", new String(KEYSTORE_PASSWORD), "-keypass", new String(KEYSTORE_PASSWORD));
+			serverKeyStoreFile = newServerKeyStoreFile;
+		}
+		return serverKeyStoreFile;
+	}
+
+	public static X509Certificate getServerCertificate() throws Exception {
+		return (X509Certificate) TrustManagerUtilities.readKeyStore(getServerKeyStoreFile(), KEYSTORE_PASSWORD).getCertificate("server");
+	}
+
+	/**
+	 * Create a PKCS12 keystore with a new self signed key pair (alias "client" for client authentication or alias "server")
+	 */
+	public static File createKeyStoreFile(final String fileName, final String alias, final String distinguishedName, final String extension) throws Exception {
+		final File keyStoreFile = new File(getTestDirectory(), fileName);
+		runKeytool("-genkeypair", "-alias", alias, "-keyalg", "RSA", "-keysize", "2048", "-validity", "2",
+				"-dname", distinguishedName, "-ext", extension,
+				"-storetype", "PKCS12", "-keystore", keyStoreFile.getAbsolutePath(),
+				"-storepass", new String(KEYSTORE_PASSWORD), "-keypass", new String(KEYSTORE_PASSWORD));
+		return keyStoreFile;
+	}
+
+	/**
+	 * Create a PKCS12 truststore file with the given certificates
+	 */
+	public static File createTrustStoreFile(final String fileName, final Certificate... certificates) throws Exception {
+		final File trustStoreFile = new File(getTestDirectory(), fileName);
+		final KeyStore trustStore = KeyStore.getInstance("PKCS12");
+		trustStore.load(null, null);
+		for (int i = 0; i < certificates.length; i++) {
+			trustStore.setCertificateEntry("certificate" + i, certificates[i]);
+		}
+		try (FileOutputStream outputStream = new FileOutputStream(trustStoreFile)) {
+			trustStore.store(outputStream, KEYSTORE_PASSWORD);
+		}
+		return trustStoreFile;
+	}
+
+	public static byte[] runKeytool(final String... arguments) throws Exception {
+		final List<String> command = new ArrayList<>();
+		command.add(new File(System.getProperty("java.home"), "bin/keytool").getAbsolutePath());
+		command.addAll(Arrays.asList(arguments));
+		final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		final byte[] output = process.getInputStream().readAllBytes();
+		Assert.assertEquals(new String(output, StandardCharsets.UTF_8), 0, process.waitFor());
+		return output;
+	}
+
+	public static void appendPem(final StringBuilder pemData, final X509Certificate certificate) throws Exception {
+		pemData.append("-----BEGIN CERTIFICATE-----\n");
+		pemData.append(Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII)).encodeToString(certificate.getEncoded()));
+		pemData.append("\n-----END CERTIFICATE-----\n");
+	}
+
+	/**
+	 * Local port without listening server socket
+	 */
+	public static int getClosedPort() throws Exception {
+		try (ServerSocket serverSocket = new ServerSocket(0)) {
+			return serverSocket.getLocalPort();
+		}
+	}
+
+	public static void deleteRecursively(final File file) {
+		if (file.isDirectory()) {
+			for (final File subFile : file.listFiles()) {
+				deleteRecursively(subFile);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,66 @@
+package de.soderer.utilities;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.soderer.network.HttpContentType;
+import de.soderer.network.TlsCertificateScanner;
+import de.soderer.network.TlsScanResult;
+import de.soderer.network.server.HttpServer;
+import de.soderer.network.server.HttpServerResponse;
+import de.soderer.network.server.TlsServerConfiguration;
+
+@SuppressWarnings("static-method")
+public class TlsCertificateScannerTest {
+	private static File keyStoreFile;
+	private static final char[] KEYSTORE_PASSWORD = TestKeyStores.KEYSTORE_PASSWORD;
+
+	@BeforeClass
+	public static void createTestFiles() throws Exception {
+		keyStoreFile = TestKeyStores.getServerKeyStoreFile();
+	}
+
+	@Test
+	public void testTlsCertificateScanner() throws Exception {
+		final TlsServerConfiguration tlsServerConfiguration = new TlsServerConfiguration(keyStoreFile, KEYSTORE_PASSWORD);
+		try (HttpServer server = new HttpServer(0)) {
+			final AtomicInteger requestsCount = new AtomicInteger(0);
+			server.setTlsServerConfiguration(tlsServerConfiguration);
+			server.addHandler("/", request -> {
+				requestsCount.incrementAndGet();
+				return new HttpServerResponse(200, "Root", HttpContentType.Text);
+			});
+			server.start();
+			final int closedPort = TestKeyStores.getClosedPort();
+
+			final List<TlsScanResult> scanResults = new ArrayList<>();
+			final int successfulCount = new TlsCertificateScanner().setParallelism(4).setTimeouts(2000, 5000).scan(List.of("localhost:" + server.getPort(), "localhost:" + closedPort), scanResults::add);
+
+			Assert.assertEquals(1, successfulCount);
+			Assert.assertEquals(2, scanResults.size());
+			for (final TlsScanResult scanResult : scanResults) {
+				if (scanResult.getPort() == server.getPort()) {
+					Assert.assertTrue(scanResult.isSuccessful());
+					Assert.assertTrue(scanResult.getProtocol().startsWith("TLSv1."));
+					Assert.assertEquals(1, scanResult.getCertificateChain().size());
+					Assert.assertTrue(scanResult.getSubjectAlternativeNames().contains("localhost"));
+					Assert.assertTrue(scanResult.getExpiryMillis() > System.currentTimeMillis());
+					Assert.assertTrue(scanResult.toReportLine().startsWith("localhost\t" + server.getPort() + "\tTLSv1."));
+				} else {
+					Assert.assertFalse(scanResult.isSuccessful());
+					Assert.assertNotNull(scanResult.getError());
+					Assert.assertTrue(scanResult.getCertificateChain().isEmpty());
+				}
+			}
+
+			// Handshakes only, no http request was sent
+			Assert.assertEquals(0, requestsCount.get());
+		}
+	}
+}
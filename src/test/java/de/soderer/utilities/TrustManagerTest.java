@@ -0,0 +1,325 @@
+package de.soderer.utilities;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.soderer.network.HttpContentType;
+import de.soderer.network.HttpMethod;
+import de.soderer.network.HttpRequest;
+import de.soderer.network.HttpUtilities;
+import de.soderer.network.SocketHttpClientEngine;
+import de.soderer.network.TlsCheckConfiguration;
+import de.soderer.network.TlsCheckConfiguration.TlsCheckConfigurationType;
+import de.soderer.network.TlsScanResult;
+import de.soderer.network.server.HttpServer;
+import de.soderer.network.server.HttpServerResponse;
+import de.soderer.network.server.TlsServerConfiguration;
+import de.soderer.network.trustmanager.AdditionalTruststoreTrustManager;
+import de.soderer.network.trustmanager.PemBundleTrustManager;
+import de.soderer.network.trustmanager.PemFileTrustManager;
+import de.soderer.network.trustmanager.SavingToTruststoreTrustManager;
+import de.soderer.network.trustmanager.TrustManagerRegistry;
+import de.soderer.network.trustmanager.TrustManagerUtilities;
+import de.soderer.network.trustmanager.TruststoreTrustManager;
+import de.soderer.network.trustmanager.ValidatedChainCache;
+
+@SuppressWarnings("static-method")
+public class TrustManagerTest {
+	private static File testDirectory;
+	private static File keyStoreFile;
+	private static final char[] KEYSTORE_PASSWORD = TestKeyStores.KEYSTORE_PASSWORD;
+
+	@BeforeClass
+	public static void createTestFiles() throws Exception {
+		testDirectory = TestKeyStores.getTestDirectory();
+		keyStoreFile = TestKeyStores.getServerKeyStoreFile();
+	}
+
+	@Test
+	public void testTrustManagerRegistry() throws Exception {
+		final File trustStoreFile = TestKeyStores.createTrustStoreFile("registryTruststore.p12");
+
+		try {
+			final TlsCheckConfiguration tlsCheckConfiguration = new TlsCheckConfiguration(TlsCheckConfigurationType.TrustStoreFile, trustStoreFile, KEYSTORE_PASSWORD);
+			final X509TrustManager trustManager = (X509TrustManager) tlsCheckConfiguration.getTrustManager();
+			Assert.assertSame(trustManager, new TlsCheckConfiguration(TlsCheckConfigurationType.TrustStoreFile, trustStoreFile, KEYSTORE_PASSWORD).getTrustManager());
+			Assert.assertEquals(0, trustManager.getAcceptedIssuers().length);
+			Assert.assertEquals(0, TrustManagerRegistry.checkForChanges());
+
+			// Changed truststore files are reloaded into the cached TrustManager
+			final X509Certificate serverCertificate = TestKeyStores.getServerCertificate();
+			TestKeyStores.createTrustStoreFile(trustStoreFile.getName(), serverCertificate);
+			trustStoreFile.setLastModified(trustStoreFile.lastModified() + 2000);
+			Assert.assertEquals(1, TrustManagerRegistry.checkForChanges());
+			Assert.assertEquals(1, trustManager.getAcceptedIssuers().length);
+			Assert.assertEquals(serverCertificate, trustManager.getAcceptedIssuers()[0]);
+			Assert.assertNull(TrustManagerRegistry.getLastReloadError(tlsCheckConfiguration));
+
+			// Unreadable files keep the previous content
+			Files.write(trustStoreFile.toPath(), new byte[] { 1, 2, 3 });
+			trustStoreFile.setLastModified(trustStoreFile.lastModified() + 4000);
+			Assert.assertEquals(0, TrustManagerRegistry.checkForChanges());
+			Assert.assertNotNull(TrustManagerRegistry.getLastReloadError(tlsCheckConfiguration));
+			Assert.assertEquals(serverCertificate, trustManager.getAcceptedIssuers()[0]);
+		} finally {
+			TrustManagerRegistry.clear();
+		}
+	}
+
+	@Test
+	public void testTrustManagerRegistryHostnameVerification() throws Exception {
+		// Trusted certificate, which is not issued for "localhost"
+		final File wrongHostKeyStoreFile = TestKeyStores.createKeyStoreFile("wrongHost.p12", "server", "CN=wrong.example", "SAN=dns:wrong.example");
+		final File trustStoreFile = TestKeyStores.createTrustStoreFile("wrongHostTruststore.p12", TrustManagerUtilities.readKeyStore(wrongHostKeyStoreFile, KEYSTORE_PASSWORD).getCertificate("server"));
+		final File localhostTrustStoreFile = TestKeyStores.createTrustStoreFile("localhostTruststore.p12", TestKeyStores.getServerCertificate());
+		try (HttpServer wrongHostServer = new HttpServer(0);
+				HttpServer localhostServer = new HttpServer(0);
+				SocketHttpClientEngine engine = new SocketHttpClientEngine()) {
+			wrongHostServer.setTlsServerConfiguration(new TlsServerConfiguration(wrongHostKeyStoreFile, KEYSTORE_PASSWORD));
+			localhostServer.setTlsServerConfiguration(new TlsServerConfiguration(keyStoreFile, KEYSTORE_PASSWORD));
+			for (final HttpServer server : new HttpServer[] { wrongHostServer, localhostServer }) {
+				server.addHandler("/", request -> new HttpServerResponse(200, "Trusted", HttpContentType.Text));
+				server.start();
+			}
+
+			final TrustManager localhostTrustManager = new TlsCheckConfiguration(TlsCheckConfigurationType.TrustStoreFile, localhostTrustStoreFile, KEYSTORE_PASSWORD).getTrustManager();
+			final String localhostUrl = "https://localhost:" + localhostServer.getPort() + "/";
+			Assert.assertEquals("Trusted", HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, localhostUrl), null, localhostTrustManager, false).getContent());
+			Assert.assertEquals("Trusted", engine.executeHttpRequest(new HttpRequest(HttpMethod.GET, localhostUrl), localhostTrustManager, false).getContent());
+
+			// The cached TrustManager must not skip the endpoint identification of the uncached one
+			final TlsCheckConfiguration tlsCheckConfiguration = new TlsCheckConfiguration(TlsCheckConfigurationType.TrustStoreFile, trustStoreFile, KEYSTORE_PASSWORD);
+			final String wrongHostUrl = "https://localhost:" + wrongHostServer.getPort() + "/";
+			for (final TrustManager trustManager : new TrustManager[] { tlsCheckConfiguration.createTrustManager(), tlsCheckConfiguration.getTrustManager() }) {
+				try {
+					HttpUtilities.executeHttpRequest(new HttpRequest(HttpMethod.GET, wrongHostUrl), null, trustManager, false);
+					Assert.fail("Certificate of wrong host must be rejected by HttpURLConnection");
+				} catch (@SuppressWarnings("unused") final Exception e) {
+					// expected
+				}
+				try {
+					engine.executeHttpRequest(new HttpRequest(HttpMethod.GET, wrongHostUrl), trustManager, false);
+					Assert.fail("Certificate of wrong host must be rejected by SocketHttpClientEngine");
+				} catch (@SuppressWarnings("unused") final Exception e) {
+					// expected
+				}
+			}
+		} finally {
+			TrustManagerRegistry.clear();
+		}
+	}
+
+	@Test
+	public void testValidatedChainCache() throws Exception {
+		final X509Certificate[] chain = new X509Certificate[] { TestKeyStores.getServerCertificate() };
+		final File trustStoreFile = TestKeyStores.createTrustStoreFile("cacheTruststore.p12", chain[0]);
+
+		final ValidatedChainCache cache = ValidatedChainCache.getSharedInstance();
+		cache.clear();
+		for (final X509TrustManager trustManager : new X509TrustManager[] { new TruststoreTrustManager(trustStoreFile, KEYSTORE_PASSWORD), new AdditionalTruststoreTrustManager(trustStoreFile, KEYSTORE_PASSWORD) }) {
+			final long hitsCount = cache.getHitsCount();
+			trustManager.checkServerTrusted(chain, "RSA");
+			Assert.assertEquals(hitsCount, cache.getHitsCount());
+			trustManager.checkServerTrusted(chain, "RSA");
+			Assert.assertEquals(hitsCount + 1, cache.getHitsCount());
+		}
+		// Each TrustManager validates by its own truststore
+		Assert.assertEquals(2, cache.getSize());
+
+		// Failed validations are not cached
+		final File emptyTrustStoreFile = TestKeyStores.createTrustStoreFile("emptyCacheTruststore.p12", TrustManagerUtilities.getDefaultTrustManager().getAcceptedIssuers()[0]);
+		final TruststoreTrustManager otherTrustManager = new TruststoreTrustManager(emptyTrustStoreFile, KEYSTORE_PASSWORD);
+		for (int i = 0; i < 2; i++) {
+			try {
+				otherTrustManager.checkServerTrusted(chain, "RSA");
+				Assert.fail("Missing expected exception");
+			} catch (@SuppressWarnings("unused") final CertificateException e) {
+				// expected
+			}
+		}
+		Assert.assertEquals(2, cache.getSize());
+		cache.clear();
+	}
+
+	@Test
+	public void testPemBundleTrustManager() throws Exception {
+		// Leaf certificate signed by a private CA
+		final File caKeyStoreFile = TestKeyStores.createKeyStoreFile("bundleCa.p12", "ca", "CN=Bundle Test CA", "bc:c");
+		final String password = new String(KEYSTORE_PASSWORD);
+		TestKeyStores.runKeytool("-genkeypair", "-alias", "leaf", "-keyalg", "RSA", "-keysize", "2048", "-validity", "2", "-dname", "CN=leaf.example.com",
+				"-storetype", "PKCS12", "-keystore", caKeyStoreFile.getAbsolutePath(), "-storepass", password, "-keypass", password);
+		final File requestFile = new File(testDirectory, "bundleLeaf.csr");
+		final File leafCertificateFile = new File(testDirectory, "bundleLeaf.pem");
+		TestKeyStores.runKeytool("-certreq", "-alias", "leaf", "-file", requestFile.getAbsolutePath(), "-keystore", caKeyStoreFile.getAbsolutePath(), "-storepass", password);
+		TestKeyStores.runKeytool("-gencert", "-alias", "ca", "-infile", requestFile.getAbsolutePath(), "-outfile", leafCertificateFile.getAbsolutePath(), "-rfc", "-validity", "1",
+				"-ext", "SAN=dns:leaf.example.com", "-ext", "EKU=serverAuth", "-keystore", caKeyStoreFile.getAbsolutePath(), "-storepass", password);
+		final KeyStore caKeyStore = TrustManagerUtilities.readKeyStore(caKeyStoreFile, KEYSTORE_PASSWORD);
+		final X509Certificate caCertificate = (X509Certificate) caKeyStore.getCertificate("ca");
+		final X509Certificate leafCertificate = PemBundleTrustManager.readCertificates(leafCertificateFile).get(0);
+
+		// Bundle of many system CAs and the private CA
+		final StringBuilder pemBundle = new StringBuilder();
+		final X509Certificate[] systemCertificates = TrustManagerUtilities.getDefaultTrustManager().getAcceptedIssuers();
+		final int systemCertificatesCount = Math.min(100, systemCertificates.length);
+		for (int i = 0; i < systemCertificatesCount; i++) {
+			TestKeyStores.appendPem(pemBundle, systemCertificates[i]);
+		}
+		TestKeyStores.appendPem(pemBundle, caCertificate);
+		final File pemBundleFile = new File(testDirectory, "bundle.pem");
+		Files.write(pemBundleFile.toPath(), pemBundle.toString().getBytes(StandardCharsets.US_ASCII));
+
+		ValidatedChainCache.getSharedInstance().clear();
+		final PemBundleTrustManager trustManager = new PemBundleTrustManager(pemBundleFile);
+		Assert.assertEquals(systemCertificatesCount + 1, trustManager.getCertificatesCount());
+		Assert.assertEquals(caCertificate, trustManager.getCertificatesBySubject(caCertificate.getSubjectX500Principal()).get(0));
+		trustManager.checkServerTrusted(new X509Certificate[] { leafCertificate }, "RSA");
+		trustManager.checkServerTrusted(new X509Certificate[] { leafCertificate, caCertificate }, "RSA");
+
+		// Certificates of unknown issuers and with other extended key usage are rejected
+		try {
+			trustManager.checkServerTrusted(new X509Certificate[] { TestKeyStores.getServerCertificate() }, "RSA");
+			Assert.fail("Missing expected exception");
+		} catch (@SuppressWarnings("unused") final CertificateException e) {
+			// expected
+		}
+		try {
+			trustManager.checkClientTrusted(new X509Certificate[] { leafCertificate }, "RSA");
+			Assert.fail("Missing expected exception");
+		} catch (@SuppressWarnings("unused") final CertificateException e) {
+			// expected
+		}
+
+		// The PEM file trust manager trusts all certificates of the file
+		new PemFileTrustManager(pemBundleFile).checkServerTrusted(new X509Certificate[] { leafCertificate }, "RSA");
+		ValidatedChainCache.getSharedInstance().clear();
+	}
+
+	@Test
+	public void testSavingToTruststoreTrustManager() throws Exception {
+		final X509Certificate serverCertificate = TestKeyStores.getServerCertificate();
+		final X509Certificate[] systemCertificates = TrustManagerUtilities.getDefaultTrustManager().getAcceptedIssuers();
+		final File trustStoreFile = new File(testDirectory, "recordedTruststore.p12");
+
+		// Certificates are collected in memory during the handshakes and written on flush
+		try (SavingToTruststoreTrustManager trustManager = new SavingToTruststoreTrustManager(trustStoreFile, KEYSTORE_PASSWORD).setFlushDelayMillis(60000)) {
+			final List<Thread> threads = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				final X509Certificate[] chain = new X509Certificate[] { serverCertificate, systemCertificates[i] };
+				threads.add(new Thread(() -> trustManager.checkServerTrusted(chain, "RSA")));
+			}
+			for (final Thread thread : threads) {
+				thread.start();
+			}
+			for (final Thread thread : threads) {
+				thread.join();
+			}
+			Assert.assertEquals(5, trustManager.getPendingCertificatesCount());
+			Assert.assertFalse(trustStoreFile.exists());
+		}
+		Assert.assertEquals(5, TrustManagerUtilities.readKeyStore(trustStoreFile, KEYSTORE_PASSWORD).size());
+
+		// A second instance for the same file adds its certificates in a background batch
+		final SavingToTruststoreTrustManager otherTrustManager = new SavingToTruststoreTrustManager(trustStoreFile, KEYSTORE_PASSWORD).setFlushDelayMillis(50);
+		otherTrustManager.checkServerTrusted(new X509Certificate[] { serverCertificate, systemCertificates[10] }, "RSA");
+		Assert.assertEquals(serverCertificate, otherTrustManager.getServerCertificate());
+		final long endMillis = System.currentTimeMillis() + 5000;
+		while (otherTrustManager.getPendingCertificatesCount() > 0 && System.currentTimeMillis() < endMillis) {
+			Thread.sleep(20);
+		}
+		Assert.assertNull(otherTrustManager.getLastFlushError());
+		Assert.assertEquals(6, TrustManagerUtilities.readKeyStore(trustStoreFile, KEYSTORE_PASSWORD).size());
+	}
+
+	@Test
+	public void testSavingToTruststoreTrustManagerRetry() throws Exception {
+		final File trustStoreDirectory = new File(testDirectory, "missingTruststoreDirectory");
+		final File trustStoreFile = new File(trustStoreDirectory, "retriedTruststore.p12");
+		trustStoreFile.delete();
+		trustStoreDirectory.delete();
+
+		// A failed background write is retried without any new certificate
+		final SavingToTruststoreTrustManager trustManager = new SavingToTruststoreTrustManager(trustStoreFile, KEYSTORE_PASSWORD).setFlushDelayMillis(50);
+		trustManager.checkServerTrusted(new X509Certificate[] { TestKeyStores.getServerCertificate() }, "RSA");
+		long endMillis = System.currentTimeMillis() + 5000;
+		while (trustManager.getLastFlushError() == null && System.currentTimeMillis() < endMillis) {
+			Thread.sleep(20);
+		}
+		Assert.assertNotNull(trustManager.getLastFlushError());
+		Assert.assertEquals(1, trustManager.getPendingCertificatesCount());
+
+		Assert.assertTrue(trustStoreDirectory.mkdirs());
+		endMillis = System.currentTimeMillis() + 5000;
+		while ((trustManager.getPendingCertificatesCount() > 0 || trustManager.getLastFlushError() != null) && System.currentTimeMillis() < endMillis) {
+			Thread.sleep(20);
+		}
+		Assert.assertEquals(0, trustManager.getPendingCertificatesCount());
+		Assert.assertNull(trustManager.getLastFlushError());
+		Assert.assertEquals(1, TrustManagerUtilities.readKeyStore(trustStoreFile, KEYSTORE_PASSWORD).size());
+	}
+
+	@Test
+	public void testBulkTrustStoreProvisioning() throws Exception {
+		final File trustStoreFile = new File(testDirectory, "bulk-truststore.p12");
+		final File pemFile = new File(testDirectory, "bulk-bundle.pem");
+		trustStoreFile.delete();
+		pemFile.delete();
+		final TlsServerConfiguration tlsServerConfiguration = new TlsServerConfiguration(keyStoreFile, KEYSTORE_PASSWORD);
+		try (HttpServer server = new HttpServer(0)) {
+			server.setTlsServerConfiguration(tlsServerConfiguration);
+			server.addHandler("/", request -> new HttpServerResponse(200, "Root", HttpContentType.Text));
+			server.start();
+			final int closedPort = TestKeyStores.getClosedPort();
+
+			// Both names present the same certificate, which is stored only once
+			final List<String> targets = List.of("localhost:" + server.getPort(), "127.0.0.1:" + server.getPort(), "localhost:" + closedPort);
+			final List<TlsScanResult> scanResults = TrustManagerUtilities.createTrustStoreFile(targets, trustStoreFile, KEYSTORE_PASSWORD, false, 4);
+			Assert.assertEquals(3, scanResults.size());
+			Assert.assertEquals(1, scanResults.stream().filter(scanResult -> !scanResult.isSuccessful()).count());
+			final KeyStore trustStore = TrustManagerUtilities.readKeyStore(trustStoreFile, KEYSTORE_PASSWORD);
+			Assert.assertEquals(1, trustStore.size());
+			Assert.assertTrue(trustStore.containsAlias("localhost"));
+
+			try {
+				TrustManagerUtilities.createTrustStoreFile(targets, trustStoreFile, KEYSTORE_PASSWORD, false, 4);
+				Assert.fail("Existing file must not be overwritten");
+			} catch (final Exception e) {
+				Assert.assertTrue(e.getMessage().contains("already exists"));
+			}
+
+			// Merging keeps existing entries and adds known certificates only once
+			final KeyStore otherKeyStore = TrustManagerUtilities.readKeyStore(keyStoreFile, KEYSTORE_PASSWORD);
+			trustStore.setCertificateEntry("other", otherKeyStore.getCertificate("server"));
+			trustStore.deleteEntry("localhost");
+			try (FileOutputStream outputStream = new FileOutputStream(trustStoreFile)) {
+				trustStore.store(outputStream, KEYSTORE_PASSWORD);
+			}
+			TrustManagerUtilities.createTrustStoreFile(targets, trustStoreFile, KEYSTORE_PASSWORD, true, 4);
+			final KeyStore mergedTrustStore = TrustManagerUtilities.readKeyStore(trustStoreFile, KEYSTORE_PASSWORD);
+			Assert.assertEquals(1, mergedTrustStore.size());
+			Assert.assertTrue(mergedTrustStore.containsAlias("other"));
+
+			TrustManagerUtilities.createPemBundleFile(targets, pemFile, false, 4);
+			TrustManagerUtilities.createPemBundleFile(targets, pemFile, true, 4);
+			final List<X509Certificate> pemCertificates = PemBundleTrustManager.readCertificates(pemFile);
+			Assert.assertEquals(1, pemCertificates.size());
+			Assert.assertEquals(otherKeyStore.getCertificate("server"), pemCertificates.get(0));
+		} finally {
+			trustStoreFile.delete();
+			pemFile.delete();
+		}
+	}
+}